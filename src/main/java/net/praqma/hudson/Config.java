@@ -11,6 +11,7 @@ import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.UCM;
 import net.praqma.clearcase.ucm.entities.UCMEntity;
 import net.praqma.hudson.exception.ScmException;
+import net.praqma.hudson.ucm.TopologyCache;
 import net.praqma.util.debug.PraqmaLogger;
 import net.praqma.util.debug.PraqmaLogger.Logger;
 
@@ -78,25 +79,25 @@ public class Config
 		{
 			try
 			{
-				project = UCMEntity.GetProject( "hudson@" + bl.GetPvob(), false );
+				project = TopologyCache.topology.getProject( "hudson@" + bl.GetPvob() );
 			}
 			catch( UCMException eh )
 			{
 				try
 				{
-					project = UCMEntity.GetProject( "Hudson@" + bl.GetPvob(), false );
+					project = TopologyCache.topology.getProject( "Hudson@" + bl.GetPvob() );
 				}
 				catch( UCMException eH )
 				{
 					try
 					{
-						project = UCMEntity.GetProject( "jenkins@" + bl.GetPvob(), false );
+						project = TopologyCache.topology.getProject( "jenkins@" + bl.GetPvob() );
 					}
 					catch( UCMException ej )
 					{
 						try
 						{
-							project = UCMEntity.GetProject( "Jenkins@" + bl.GetPvob(), false );
+							project = TopologyCache.topology.getProject( "Jenkins@" + bl.GetPvob() );
 						}
 						catch( UCMException eJ )
 						{
@@ -107,7 +108,7 @@ public class Config
 							/* Use the integration stream */
 							try
 							{
-								project = bl.getStream().getProject();
+								project = TopologyCache.topology.getProject( TopologyCache.topology.getStream( bl ) );
 							}
 							catch ( UCMException ucme )
 							{
@@ -122,7 +123,7 @@ public class Config
 		{
 			try
 			{
-				project = UCMEntity.GetProject( buildProject + "@" + bl.GetPvob(), false );
+				project = TopologyCache.topology.getProject( buildProject + "@" + bl.GetPvob() );
 			}
 			catch ( Exception e )
 			{
@@ -133,7 +134,7 @@ public class Config
 				
 				try
 				{
-					project = bl.getStream().getProject();
+					project = TopologyCache.topology.getProject( TopologyCache.topology.getStream( bl ) );
 				}
 				catch ( UCMException ucme )
 				{
@@ -144,7 +145,7 @@ public class Config
 		
 		try
 		{
-			stream = project.getIntegrationStream();
+			stream = TopologyCache.topology.getIntegrationStream( project );
 		}
 		catch ( Exception e )
 		{
@@ -0,0 +1,102 @@
+package net.praqma.hudson;
+
+import hudson.model.AbstractBuild;
+import hudson.remoting.Callable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the PUCM metrics of the running builds on the master. The metrics
+ * are moved to the {@link MetricsAction} of the build when the build is done
+ * with them. Slaves report through the {@link Report} callable.
+ */
+public class Metrics
+{
+	private static final Map<String, Map<String, Long>> metrics = new HashMap<String, Map<String, Long>>();
+	
+	private Metrics()
+	{
+	}
+	
+	/**
+	 * The owner of the metrics of a build
+	 */
+	public static String owner( String jobName, Integer jobNumber )
+	{
+		return jobName + "::" + jobNumber;
+	}
+	
+	public static String owner( AbstractBuild<?, ?> build )
+	{
+		return owner( build.getParent().getDisplayName().replace( ' ', '_' ), build.getNumber() );
+	}
+	
+	/**
+	 * Adds a value to a metric of a build
+	 */
+	public static synchronized void add( String owner, String key, long value )
+	{
+		Map<String, Long> m = metrics.get( owner );
+		if( m == null )
+		{
+			m = new LinkedHashMap<String, Long>();
+			metrics.put( owner, m );
+		}
+		
+		Long current = m.get( key );
+		m.put( key, ( current != null ? current : 0 ) + value );
+	}
+	
+	/**
+	 * Removes and returns the metrics of a build
+	 */
+	public static synchronized Map<String, Long> drain( String owner )
+	{
+		Map<String, Long> m = metrics.remove( owner );
+		if( m == null )
+		{
+			return new LinkedHashMap<String, Long>();
+		}
+		
+		return m;
+	}
+	
+	/**
+	 * Moves the collected metrics of the build to the build
+	 */
+	public static void store( AbstractBuild<?, ?> build )
+	{
+		Map<String, Long> m = drain( owner( build ) );
+		if( m.size() > 0 )
+		{
+			MetricsAction.get( build ).add( m );
+		}
+	}
+	
+	/**
+	 * Reports a metric from a slave
+	 */
+	public static class Report implements Callable<Boolean, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String owner;
+		private String key;
+		private long value;
+		
+		public Report( String owner, String key, long value )
+		{
+			this.owner = owner;
+			this.key   = key;
+			this.value = value;
+		}
+		
+		public Boolean call()
+		{
+			add( owner, key, value );
+			return true;
+		}
+	}
+}
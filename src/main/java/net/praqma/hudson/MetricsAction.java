@@ -0,0 +1,59 @@
+package net.praqma.hudson;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The PUCM metrics of a build, shown in the build summary
+ */
+public class MetricsAction implements Action
+{
+	private Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+	
+	/**
+	 * Gets the metrics of the build, adding them if not present
+	 */
+	public static synchronized MetricsAction get( AbstractBuild<?, ?> build )
+	{
+		MetricsAction action = build.getAction( MetricsAction.class );
+		if( action == null )
+		{
+			action = new MetricsAction();
+			build.addAction( action );
+		}
+		
+		return action;
+	}
+	
+	public synchronized void add( Map<String, Long> metrics )
+	{
+		for( Map.Entry<String, Long> e : metrics.entrySet() )
+		{
+			Long current = this.metrics.get( e.getKey() );
+			this.metrics.put( e.getKey(), ( current != null ? current : 0 ) + e.getValue() );
+		}
+	}
+	
+	public synchronized Map<String, Long> getMetrics()
+	{
+		return new LinkedHashMap<String, Long>( metrics );
+	}
+
+	public String getDisplayName()
+	{
+		return "Praqmatic UCM metrics";
+	}
+
+	public String getIconFileName()
+	{
+		return null;
+	}
+
+	public String getUrlName()
+	{
+		return null;
+	}
+}
@@ -0,0 +1,176 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.praqma.hudson.scm.NodeCapabilities;
+import net.praqma.hudson.scm.PucmScm;
+import net.praqma.hudson.scm.PucmScm.PucmScmDescriptor;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.ClearTool;
+
+/**
+ * Probes the online nodes periodically, so the {@link NodeCapabilities} follow
+ * changes of the ClearCase setup of a node. The nodes are also probed in the
+ * background when they come online, see {@link PucmComputerListener}, and when
+ * the build queue finds a node, which was not probed for the PVOB of a job.<br>
+ * A probe, which does not answer within the timeout, is cancelled, and the node
+ * keeps its last known capabilities.
+ */
+@Extension
+public class NodeProbeWork extends AsyncPeriodicWork
+{
+	/* A probe describes a few VOBs, a node slower than this is not fit for builds */
+	private static final long timeout = 5 * 60 * 1000;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool( new ThreadFactory()
+	{
+		public Thread newThread( Runnable r )
+		{
+			Thread t = new Thread( r, "PUCM node probe" );
+			t.setDaemon( true );
+			return t;
+		}
+	} );
+
+	/* The names of the nodes being probed */
+	private static final Set<String> probing = new HashSet<String>();
+
+	public NodeProbeWork()
+	{
+		super( "PUCM node probe" );
+	}
+
+	@Override
+	public long getRecurrencePeriod()
+	{
+		return 30 * MIN;
+	}
+
+	@Override
+	protected void execute( TaskListener listener ) throws IOException, InterruptedException
+	{
+		for( Computer computer : Hudson.getInstance().getComputers() )
+		{
+			if( computer.isOnline() )
+			{
+				probe( computer, listener.getLogger() );
+			}
+		}
+	}
+
+	/**
+	 * Probes a node in the background, the caller does not wait for the node to answer
+	 */
+	public static void probeLater( final Computer computer, final PrintStream out )
+	{
+		executor.execute( new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					probe( computer, out );
+				}
+				catch( InterruptedException e )
+				{
+					/* Hudson is shutting down */
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Probes a node for the PVOBs of the PUCM jobs, and records its capabilities.
+	 * Nothing is done, if the node is being probed already.
+	 */
+	public static void probe( Computer computer, PrintStream out ) throws InterruptedException
+	{
+		Node node = computer.getNode();
+		VirtualChannel channel = computer.getChannel();
+		if( node == null || channel == null )
+		{
+			return;
+		}
+
+		String name = node.getNodeName();
+		synchronized( probing )
+		{
+			if( !probing.add( name ) )
+			{
+				return;
+			}
+		}
+
+		try
+		{
+			probe( computer, name, channel, out );
+		}
+		finally
+		{
+			synchronized( probing )
+			{
+				probing.remove( name );
+			}
+		}
+	}
+
+	private static void probe( Computer computer, String name, VirtualChannel channel, PrintStream out ) throws InterruptedException
+	{
+		Set<String> pvobs = new LinkedHashSet<String>();
+		for( AbstractProject<?, ?> project : Hudson.getInstance().getAllItems( AbstractProject.class ) )
+		{
+			if( project.getScm() instanceof PucmScm && ( (PucmScm) project.getScm() ).getStream() != null )
+			{
+				pvobs.add( CircuitBreaker.getPvob( ( (PucmScm) project.getScm() ).getStream() ) );
+			}
+		}
+
+		PucmScmDescriptor descriptor = Hudson.getInstance().getDescriptorByType( PucmScmDescriptor.class );
+		String error = null;
+		hudson.remoting.Future<NodeCapabilities.Capabilities> future = null;
+		try
+		{
+			future = channel.callAsync( new NodeCapabilities.Probe( new ClearTool( descriptor.getCleartool() ), pvobs ) );
+			NodeCapabilities.Capabilities c = future.get( timeout, TimeUnit.MILLISECONDS );
+			NodeCapabilities.capabilities.put( name, c );
+			out.println( "[PUCM] Node " + computer.getDisplayName() + ": " + c );
+			return;
+		}
+		catch( TimeoutException e )
+		{
+			future.cancel( true );
+			error = "no answer within " + ( timeout / 1000 ) + "s";
+		}
+		catch( ExecutionException e )
+		{
+			error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+		}
+		catch( IOException e )
+		{
+			error = e.getMessage();
+		}
+
+		/* The node keeps its last known capabilities, unknown PVOBs are not reachable */
+		NodeCapabilities.capabilities.failed( name, error );
+		out.println( "[PUCM] Could not probe node " + computer.getDisplayName() + ": " + error );
+	}
+}
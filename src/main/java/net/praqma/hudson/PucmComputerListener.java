@@ -0,0 +1,35 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.io.IOException;
+
+import net.praqma.hudson.scm.NodeCapabilities;
+
+/**
+ * Probes a node in the background, when it comes online, see {@link NodeCapabilities}.
+ * The node takes no PUCM builds, until the probe has answered.
+ */
+@Extension
+public class PucmComputerListener extends ComputerListener
+{
+	@Override
+	public void onOnline( Computer c, TaskListener listener ) throws IOException, InterruptedException
+	{
+		NodeProbeWork.probeLater( c, listener.getLogger() );
+	}
+
+	@Override
+	public void onOffline( Computer c )
+	{
+		Node node = c.getNode();
+		if( node != null )
+		{
+			NodeCapabilities.capabilities.remove( node.getNodeName() );
+		}
+	}
+}
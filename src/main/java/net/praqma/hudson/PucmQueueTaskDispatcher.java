@@ -0,0 +1,156 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import hudson.util.LogTaskListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.praqma.hudson.scm.NodeCapabilities;
+import net.praqma.hudson.scm.PucmScm;
+import net.praqma.hudson.scm.ViewAffinity;
+import net.praqma.hudson.scm.PucmScm.PucmScmDescriptor;
+import net.praqma.hudson.ucm.CircuitBreaker;
+
+/**
+ * Keeps PUCM builds off cold nodes for a while, when a node with a warm view of the
+ * job is online to take them, see {@link ViewAffinity}. The build also waits for a
+ * busy warm node, within the budget. A build on a cold node must create and load
+ * its view from scratch.<br>
+ * Nodes, which cannot reach the PVOB of the job, do not take its builds at all,
+ * see {@link NodeCapabilities}. Nor do nodes, which have not been probed for the
+ * PVOB, they are probed in the background.
+ */
+@Extension
+public class PucmQueueTaskDispatcher extends QueueTaskDispatcher
+{
+	/* The output of the probes started from the queue, which has no console */
+	private static final LogTaskListener probeListener = new LogTaskListener( Logger.getLogger( PucmQueueTaskDispatcher.class.getName() ), Level.INFO );
+
+	@Override
+	public CauseOfBlockage canTake( Node node, Queue.Task task )
+	{
+		if( !( task instanceof AbstractProject ) || !( ( (AbstractProject<?, ?>) task ).getScm() instanceof PucmScm ) )
+		{
+			return null;
+		}
+
+		AbstractProject<?, ?> project = (AbstractProject<?, ?>) task;
+		PucmScm scm = (PucmScm) project.getScm();
+
+		if( scm.getStream() != null )
+		{
+			final String pvob = CircuitBreaker.getPvob( scm.getStream() );
+			if( NodeCapabilities.capabilities.isUnknown( node.getNodeName(), pvob, System.currentTimeMillis() ) )
+			{
+				Computer computer = node.toComputer();
+				if( computer != null && computer.isOnline() )
+				{
+					NodeProbeWork.probeLater( computer, probeListener.getLogger() );
+				}
+
+				return new CauseOfBlockage()
+				{
+					public String getShortDescription()
+					{
+						return "Probing whether the node can reach the PVOB " + pvob;
+					}
+				};
+			}
+
+			if( !NodeCapabilities.capabilities.canReach( node.getNodeName(), pvob ) )
+			{
+				return new CauseOfBlockage()
+				{
+					public String getShortDescription()
+					{
+						return "The node cannot reach the PVOB " + pvob;
+					}
+				};
+			}
+		}
+
+		long budget = ( (PucmScmDescriptor) scm.getDescriptor() ).getAffinityWaitAsInt() * 1000L;
+
+		/* Dynamic views are equally warm on all nodes */
+		if( budget <= 0 || scm.getCheckoutMode().equalsIgnoreCase( "Dynamic" ) )
+		{
+			return null;
+		}
+
+		Queue.Item item = Hudson.getInstance().getQueue().getItem( task );
+		if( item == null )
+		{
+			return null;
+		}
+
+		String key = scm.getCheckoutMode().equalsIgnoreCase( "Snapshot" ) ? ViewAffinity.jobKey( project.getDisplayName().replace( ' ', '_' ) ) : ViewAffinity.streamKey( scm.getStream() );
+		List<String> warm = ViewAffinity.affinity.getNodes( key );
+		final List<String> eligible = new ArrayList<String>();
+		for( String name : warm )
+		{
+			if( isEligible( getNode( name ), project.getAssignedLabel() ) )
+			{
+				eligible.add( name.length() == 0 ? "master" : name );
+			}
+		}
+
+		if( ViewAffinity.shouldWait( warm, node.getNodeName(), eligible, System.currentTimeMillis() - item.getInQueueSince(), budget ) )
+		{
+			return new CauseOfBlockage()
+			{
+				public String getShortDescription()
+				{
+					return "Waiting for a node with a warm PUCM view: " + eligible;
+				}
+			};
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets a node by name, the empty name is the master
+	 */
+	public static Node getNode( String name )
+	{
+		return name.length() == 0 ? Hudson.getInstance() : Hudson.getInstance().getNode( name );
+	}
+
+	/**
+	 * Determines whether a node can take a build with the label now
+	 */
+	public static boolean isFree( Node node, Label label )
+	{
+		return isEligible( node, label ) && node.toComputer().countIdle() > 0;
+	}
+
+	/**
+	 * Determines whether a node can take a build with the label, when it has an idle executor
+	 */
+	public static boolean isEligible( Node node, Label label )
+	{
+		if( node == null )
+		{
+			return false;
+		}
+
+		Computer computer = node.toComputer();
+		if( computer == null || !computer.isOnline() || !computer.isAcceptingTasks() )
+		{
+			return false;
+		}
+
+		return label == null || label.contains( node );
+	}
+}
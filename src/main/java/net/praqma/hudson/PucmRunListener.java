@@ -0,0 +1,41 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import net.praqma.hudson.scm.ViewPool;
+import net.praqma.hudson.ucm.LeaseLimiter;
+import net.praqma.util.debug.PraqmaLogger;
+import net.praqma.util.debug.PraqmaLogger.Logger;
+
+/**
+ * Cleans up after a completed build, no matter how it ended
+ */
+@Extension
+public class PucmRunListener extends RunListener<AbstractBuild>
+{
+	protected static Logger logger = PraqmaLogger.getLogger();
+	
+	public PucmRunListener()
+	{
+		super( AbstractBuild.class );
+	}
+	
+	@Override
+	public void onCompleted( AbstractBuild build, TaskListener listener )
+	{
+		String owner = Metrics.owner( build );
+		
+		/* Return the leases of aborted builds or disconnected slaves */
+		int released = LeaseLimiter.releaseAllLimiters( owner );
+		if( released > 0 )
+		{
+			logger.warning( "[" + owner + "] Returned " + released + " leases" );
+		}
+		
+		ViewPool.pool.releaseAll( owner );
+		
+		Metrics.store( build );
+	}
+}
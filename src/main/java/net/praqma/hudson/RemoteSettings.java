@@ -0,0 +1,104 @@
+package net.praqma.hudson;
+
+import hudson.model.AbstractBuild;
+import hudson.remoting.VirtualChannel;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.entities.Cool;
+import net.praqma.hudson.ucm.RetryPolicy;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.util.debug.PraqmaLogger;
+import net.praqma.util.debug.PraqmaLogger.Logger;
+
+/**
+ * The settings, from which a remote task sets up its {@link UCMGuard} and its logger on
+ * the slave. They are handed from the master instead of the guard and the logger.
+ */
+public final class RemoteSettings implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String owner;
+	private final int retries;
+	private final long retryDelay;
+	private final long maxRetryDelay;
+	private final long timeout;
+	private final long viewTimeout;
+	private final String[] subscriptions;
+
+	/**
+	 * @param owner The owner of the UCM operations, see {@link Metrics#owner(String, Integer)}
+	 * @param retries The retries of the transient errors, see {@link RetryPolicy}
+	 * @param retryDelay The delay cap of the first retry in milliseconds
+	 * @param maxRetryDelay The maximum delay cap in milliseconds
+	 * @param timeout The timeout of the UCM operations in milliseconds, zero means none
+	 * @param viewTimeout The timeout of the view operations in milliseconds
+	 * @param subscriptions The classes, whose debug output is logged
+	 */
+	public RemoteSettings( String owner, int retries, long retryDelay, long maxRetryDelay, long timeout, long viewTimeout, String[] subscriptions )
+	{
+		this.owner         = owner;
+		this.retries       = retries;
+		this.retryDelay    = retryDelay;
+		this.maxRetryDelay = maxRetryDelay;
+		this.timeout       = timeout;
+		this.viewTimeout   = viewTimeout;
+		this.subscriptions = subscriptions;
+	}
+
+	public String getOwner()
+	{
+		return owner;
+	}
+
+	/**
+	 * Creates the guard of the task, attached to the channel back to the master
+	 * @param channel The channel
+	 * @param out The console output of the build
+	 */
+	public UCMGuard createGuard( VirtualChannel channel, PrintStream out )
+	{
+		UCMGuard guard = new UCMGuard( owner ).setRetryPolicy( new RetryPolicy( retries, retryDelay, maxRetryDelay ) ).setTimeouts( timeout, viewTimeout );
+		return guard.attach( channel, out );
+	}
+
+	/**
+	 * Sets up the logger of the node for the task, COOL logs through it too
+	 */
+	public Logger createLogger()
+	{
+		Logger logger = PraqmaLogger.getLogger();
+		/* Make sure that the local log file is not written */
+		logger.setLocalLog( null );
+		logger.unsubscribeAll();
+		for( String subscription : subscriptions )
+		{
+			logger.subscribe( subscription );
+		}
+		Cool.setLogger( logger );
+
+		return logger;
+	}
+
+	/**
+	 * Gets the classes, whose debug output is logged, from the <i>include_classes</i> variable of a build
+	 * @param build The build, may be null
+	 */
+	public static String[] getSubscriptions( AbstractBuild<?, ?> build )
+	{
+		List<String> subscriptions = new ArrayList<String>();
+		if( build != null && build.getBuildVariables().get( "include_classes" ) != null )
+		{
+			for( String s : build.getBuildVariables().get( "include_classes" ).toString().split( "," ) )
+			{
+				subscriptions.add( s.trim() );
+			}
+		}
+
+		return subscriptions.toArray( new String[subscriptions.size()] );
+	}
+}
@@ -0,0 +1,58 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+
+import net.praqma.hudson.scm.StreamPool;
+import net.praqma.hudson.scm.PucmScm.PucmScmDescriptor;
+import net.praqma.hudson.ucm.ClearTool;
+import net.praqma.hudson.ucm.LeaseLimiter;
+import net.praqma.hudson.ucm.UCMGuard;
+
+/**
+ * Tops the {@link StreamPool} up in the background, so no build waits for a
+ * development stream to be created. The guard is attached to the local channel
+ * of the master, so the writes take leases of {@link LeaseLimiter#vobWrites}.
+ */
+@Extension
+public class StreamPoolWork extends AsyncPeriodicWork
+{
+	private static final String owner = "stream pool";
+
+	public StreamPoolWork()
+	{
+		super( "PUCM stream pool" );
+	}
+
+	@Override
+	public long getRecurrencePeriod()
+	{
+		return 5 * MIN;
+	}
+
+	@Override
+	protected void execute( TaskListener listener ) throws IOException, InterruptedException
+	{
+		PucmScmDescriptor descriptor = Hudson.getInstance().getDescriptorByType( PucmScmDescriptor.class );
+		if( descriptor == null || descriptor.getStreamPoolSizeAsInt() <= 0 )
+		{
+			return;
+		}
+
+		UCMGuard guard = descriptor.createGuard( owner ).attach( Hudson.MasterComputer.localChannel, listener.getLogger() );
+		try
+		{
+			StreamPool.pools.topUp( new ClearTool( descriptor.getCleartool() ), guard, descriptor.getStreamPoolSizeAsInt(), listener.getLogger() );
+		}
+		finally
+		{
+			/* The top up is no build, the leases of abandoned operations and its metrics are not kept */
+			LeaseLimiter.releaseAllLimiters( owner );
+			Metrics.drain( owner );
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package net.praqma.hudson;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import net.praqma.hudson.scm.PucmScm;
+import net.praqma.hudson.scm.ViewNaming;
+import net.praqma.hudson.scm.ViewRegistry;
+import net.praqma.hudson.scm.PucmScm.PucmScmDescriptor;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.ClearTool;
+
+/**
+ * Removes the stale PUCM views and development streams of the idle nodes,
+ * see {@link ViewRegistry}. Busy nodes are collected on a later run. The development
+ * streams are searched for in the PVOBs of the PUCM jobs.
+ */
+@Extension
+public class ViewCollectorWork extends AsyncPeriodicWork
+{
+	public ViewCollectorWork()
+	{
+		super( "PUCM view collector" );
+	}
+
+	@Override
+	public long getRecurrencePeriod()
+	{
+		return 6 * HOUR;
+	}
+
+	@Override
+	protected void execute( TaskListener listener ) throws IOException, InterruptedException
+	{
+		PucmScmDescriptor descriptor = Hudson.getInstance().getDescriptorByType( PucmScmDescriptor.class );
+		if( descriptor == null || ( descriptor.getViewRetentionAsInt() <= 0 && descriptor.getViewDiskBudgetAsInt() <= 0 ) )
+		{
+			return;
+		}
+
+		Set<String> jobs = new HashSet<String>();
+		Set<String> pvobs = new LinkedHashSet<String>();
+		for( AbstractProject<?, ?> project : Hudson.getInstance().getAllItems( AbstractProject.class ) )
+		{
+			if( project.getScm() instanceof PucmScm )
+			{
+				jobs.add( project.getDisplayName() );
+				if( ( (PucmScm) project.getScm() ).getStream() != null )
+				{
+					pvobs.add( CircuitBreaker.getPvob( ( (PucmScm) project.getScm() ).getStream() ) );
+				}
+			}
+		}
+
+		ViewNaming naming = new ViewNaming( descriptor.getViewNaming() );
+
+		long maxAge = descriptor.getViewRetentionAsInt() > 0 ? descriptor.getViewRetentionAsInt() * 24L * HOUR : Long.MAX_VALUE;
+		long budget = descriptor.getViewDiskBudgetAsInt() * 1024L * 1024L;
+
+		for( Computer computer : Hudson.getInstance().getComputers() )
+		{
+			Node node = computer.getNode();
+			VirtualChannel channel = computer.getChannel();
+			if( node == null || channel == null || !computer.isOnline() || computer.countBusy() > 0 )
+			{
+				continue;
+			}
+
+			String cacheRoot = node.getRootPath().child( "pucm-cache" ).getRemote();
+			try
+			{
+				String report = channel.call( new ViewRegistry.Collect( new ClearTool( descriptor.getCleartool() ), cacheRoot, jobs, pvobs, naming, node.getNodeName(), maxAge, budget ) );
+				listener.getLogger().println( "[PUCM] Node " + computer.getDisplayName() + ":\n" + report );
+			}
+			catch( IOException e )
+			{
+				listener.getLogger().println( "[PUCM] Could not collect the views of node " + computer.getDisplayName() + ": " + e.getMessage() );
+			}
+		}
+	}
+}
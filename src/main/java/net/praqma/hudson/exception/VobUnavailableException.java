@@ -0,0 +1,17 @@
+package net.praqma.hudson.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when UCM operations against a VOB are rejected, because its
+ * circuit breaker is open.
+ */
+public class VobUnavailableException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	public VobUnavailableException( String msg )
+	{
+		super( msg );
+	}
+}
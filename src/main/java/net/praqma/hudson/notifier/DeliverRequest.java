@@ -0,0 +1,176 @@
+package net.praqma.hudson.notifier;
+
+import java.io.Serializable;
+
+import net.praqma.hudson.RemoteSettings;
+import net.praqma.hudson.scm.ViewNaming;
+import net.praqma.hudson.ucm.ClearTool;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * What a {@link RemoteDeliver} delivers, handed from the master to the slave.
+ * Only names and settings, no entities.
+ */
+public final class DeliverRequest implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String jobName;
+	private final String buildNumber;
+	private final String component;
+	private final String loadModule;
+	private final String baseline;
+	private final String stream;
+	private final int slot;
+	private final String viewNaming;
+	private final String cleartool;
+
+	private final String alternateTarget;
+	private final String baselineName;
+	private final String versionFrom;
+	private final String sequenceSelector;
+	private final String major;
+	private final String minor;
+	private final String patch;
+
+	private final RemoteSettings settings;
+
+	/**
+	 * @param jobName The name of the job
+	 * @param buildNumber The number of the build
+	 * @param component The component of the baseline
+	 * @param loadModule The load module of the deliver view
+	 * @param baseline The baseline to deliver
+	 * @param stream The development stream the build was checked out from, null if there is none
+	 * @param slot The view slot of the build
+	 * @param viewNaming The pattern of the view names, see {@link ViewNaming}
+	 * @param cleartool The cleartool executable of the slave
+	 * @param deliver The deliver settings of the job
+	 * @param settings The settings of the guard and the logger
+	 */
+	public DeliverRequest( String jobName, String buildNumber, String component, String loadModule, String baseline, String stream, int slot, String viewNaming, String cleartool, UCMDeliver deliver, RemoteSettings settings )
+	{
+		this.jobName          = jobName;
+		this.buildNumber      = buildNumber;
+		this.component        = component;
+		this.loadModule       = loadModule;
+		this.baseline         = baseline;
+		this.stream           = stream;
+		this.slot             = slot;
+		this.viewNaming       = viewNaming;
+		this.cleartool        = cleartool;
+
+		this.alternateTarget  = deliver.alternateTarget;
+		this.baselineName     = deliver.baselineName;
+		this.versionFrom      = deliver.versionFrom;
+		this.sequenceSelector = deliver.buildnumberSequenceSelector;
+		this.major            = deliver.buildnumberMajor;
+		this.minor            = deliver.buildnumberMinor;
+		this.patch            = deliver.buildnumberPatch;
+
+		this.settings         = settings;
+	}
+
+	public String getJobName()
+	{
+		return jobName;
+	}
+
+	public String getBuildNumber()
+	{
+		return buildNumber;
+	}
+
+	public String getComponent()
+	{
+		return component;
+	}
+
+	public String getLoadModule()
+	{
+		return loadModule;
+	}
+
+	public String getBaseline()
+	{
+		return baseline;
+	}
+
+	/**
+	 * The fully qualified name of the development stream, which is delivered from, null if there is none
+	 */
+	public String getStream()
+	{
+		return stream;
+	}
+
+	public int getSlot()
+	{
+		return slot;
+	}
+
+	/**
+	 * The naming of the views and streams of the slave
+	 */
+	public ViewNaming getViewNaming()
+	{
+		return new ViewNaming( viewNaming );
+	}
+
+	public CommandRunner getCleartool()
+	{
+		return new ClearTool( cleartool );
+	}
+
+	/**
+	 * The target stream, empty for the default target
+	 */
+	public String getAlternateTarget()
+	{
+		return alternateTarget;
+	}
+
+	/**
+	 * The name of the baseline created on the target, empty for none
+	 */
+	public String getBaselineName()
+	{
+		return baselineName;
+	}
+
+	/**
+	 * Where the version number is from, "project" or "settings"
+	 */
+	public String getVersionFrom()
+	{
+		return versionFrom;
+	}
+
+	/**
+	 * Where the sequence number is from, "component" or "current"
+	 */
+	public String getSequenceSelector()
+	{
+		return sequenceSelector;
+	}
+
+	public String getMajor()
+	{
+		return major;
+	}
+
+	public String getMinor()
+	{
+		return minor;
+	}
+
+	public String getPatch()
+	{
+		return patch;
+	}
+
+	public RemoteSettings getSettings()
+	{
+		return settings;
+	}
+}
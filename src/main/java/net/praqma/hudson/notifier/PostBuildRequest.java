@@ -0,0 +1,116 @@
+package net.praqma.hudson.notifier;
+
+import hudson.model.Result;
+
+import java.io.Serializable;
+
+import net.praqma.hudson.RemoteSettings;
+import net.praqma.hudson.ucm.ClearTool;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * What a {@link RemotePostBuild} does to the baseline, handed from the master to the slave.
+ * Only names and settings, no entities.
+ */
+public final class PostBuildRequest implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final Result result;
+	private final boolean stable;
+
+	private final boolean makeTag;
+	private final int promote;
+	private final boolean recommend;
+
+	private final String baseline;
+	private final String stream;
+	private final String displayName;
+	private final String buildNumber;
+	private final String cleartool;
+	private final RemoteSettings settings;
+
+	/**
+	 * @param result The result of the build
+	 * @param stable False if the deliver failed
+	 * @param makeTag Whether to tag the baseline
+	 * @param promote The promotion action of the job
+	 * @param recommend Whether to recommend the baseline
+	 * @param baseline The baseline built
+	 * @param stream The stream of the baseline
+	 * @param displayName The display name of the job
+	 * @param buildNumber The number of the build
+	 * @param cleartool The cleartool executable of the slave
+	 * @param settings The settings of the guard and the logger
+	 */
+	public PostBuildRequest( Result result, boolean stable, boolean makeTag, int promote, boolean recommend,
+							 String baseline, String stream, String displayName, String buildNumber, String cleartool, RemoteSettings settings )
+	{
+		this.result      = result;
+		this.stable      = stable;
+		this.makeTag     = makeTag;
+		this.promote     = promote;
+		this.recommend   = recommend;
+		this.baseline    = baseline;
+		this.stream      = stream;
+		this.displayName = displayName;
+		this.buildNumber = buildNumber;
+		this.cleartool   = cleartool;
+		this.settings    = settings;
+	}
+
+	public Result getResult()
+	{
+		return result;
+	}
+
+	public boolean isStable()
+	{
+		return stable;
+	}
+
+	public boolean isMakeTag()
+	{
+		return makeTag;
+	}
+
+	public int getPromote()
+	{
+		return promote;
+	}
+
+	public boolean isRecommend()
+	{
+		return recommend;
+	}
+
+	public String getBaseline()
+	{
+		return baseline;
+	}
+
+	public String getStream()
+	{
+		return stream;
+	}
+
+	public String getDisplayName()
+	{
+		return displayName;
+	}
+
+	public String getBuildNumber()
+	{
+		return buildNumber;
+	}
+
+	public CommandRunner getCleartool()
+	{
+		return new ClearTool( cleartool );
+	}
+
+	public RemoteSettings getSettings()
+	{
+		return settings;
+	}
+}
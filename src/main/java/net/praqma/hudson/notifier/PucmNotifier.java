@@ -1,16 +1,12 @@
 package net.praqma.hudson.notifier;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.List;
@@ -25,13 +21,16 @@ import net.praqma.clearcase.ucm.entities.Cool;
 import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.Tag;
 import net.praqma.clearcase.ucm.entities.UCM;
-import net.praqma.clearcase.ucm.entities.UCMEntity;
 import net.praqma.clearcase.ucm.view.SnapshotView;
 import net.praqma.clearcase.ucm.view.UCMView;
+import net.praqma.hudson.Metrics;
+import net.praqma.hudson.RemoteSettings;
 import net.praqma.hudson.exception.NotifierException;
 import net.praqma.hudson.exception.ScmException;
 import net.praqma.hudson.scm.PucmScm;
+import net.praqma.hudson.scm.PucmScm.PucmScmDescriptor;
 import net.praqma.hudson.scm.PucmState.State;
+import net.praqma.hudson.ucm.UCMEntityCache;
 import net.praqma.util.debug.PraqmaLogger;
 import net.praqma.util.debug.PraqmaLogger.Logger;
 import hudson.Extension;
@@ -77,20 +76,11 @@ public class PucmNotifier extends Notifier
 	private int promoteAction = __UNKNOWN_PROMOTE;
 	private boolean recommended;
 	//private Baseline baseline;
-	private PrintStream hudsonOut;
 	private boolean makeTag;
 	private boolean setDescription;
-	private Status status;
-
-	private String id = "";
-
-	private Logger logger = null;
 	
 	private UCMDeliver ucmDeliverObj = null;
 	
-	private String jobName    = "";
-	private Integer jobNumber = 0;
-	
 	public static final int __UNKNOWN_PROMOTE  = 99;
 	public static final int __NO_PROMOTE       = 100;
 	public static final int __PROMOTE_STABLE   = 101;
@@ -217,18 +207,21 @@ public class PucmNotifier extends Notifier
 	}
 	
 
+	/**
+	 * Concurrent builds of the job share the notifier, so the state of a build is kept in locals
+	 */
 	@Override
 	public boolean perform( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener ) throws InterruptedException, IOException
 	{
 		//System.out.println( "[PUCM] Notifier" );
 		/* Preparing the logger */
-		logger = PraqmaLogger.getLogger();
+		Logger logger = PraqmaLogger.getLogger();
 		boolean result = true;
-		hudsonOut = listener.getLogger();
+		PrintStream hudsonOut = listener.getLogger();
 		
 		/* Prepare job variables */
-		jobName   = build.getParent().getDisplayName().replace( ' ', '_' );
-		jobNumber = build.getNumber();
+		String jobName    = build.getParent().getDisplayName().replace( ' ', '_' );
+		Integer jobNumber = build.getNumber();
 		
 		logger.unsubscribeAll();
 		if( build.getBuildVariables().get( "include_classes" ) != null )
@@ -298,9 +291,7 @@ public class PucmNotifier extends Notifier
 		
 		Cool.setLogger( logger );
 
-		status = new Status();
-
-		this.id = "[" + jobName + "::" +jobNumber + "]";
+		String id = "[" + jobName + "::" +jobNumber + "]";
 
 		SCM scmTemp = null;
 		if( result )
@@ -338,7 +329,7 @@ public class PucmNotifier extends Notifier
 				{
 					try
 					{
-						baseline = UCMEntity.GetBaseline( bl );
+						baseline = UCMEntityCache.entities.getBaseline( bl );
 					}
 					catch( UCMException e )
 					{
@@ -370,7 +361,7 @@ public class PucmNotifier extends Notifier
 		{
 			try
 			{
-				processBuild( build, launcher, listener, pstate );
+				Status status = processBuild( build, launcher, listener, pstate, logger );
 				if ( setDescription )
 				{
 					build.setDescription( status.getBuildDescr() );
@@ -432,11 +423,18 @@ public class PucmNotifier extends Notifier
 	 * @param launcher The launcher of the build
 	 * @param listener The listener of the build
 	 * @param pstate The {@link PucmState} of the build.
+	 * @param logger The logger of the build
+	 * @return The status of the post build steps
 	 * @throws NotifierException
 	 */
-	private void processBuild( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, State pstate ) throws NotifierException
+	private Status processBuild( AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, State pstate, Logger logger ) throws NotifierException, InterruptedException
 	{
 		Result buildResult = build.getResult();
+		PrintStream hudsonOut = listener.getLogger();
+		String jobName    = build.getParent().getDisplayName().replace( ' ', '_' );
+		Integer jobNumber = build.getNumber();
+		String id = "[" + jobName + "::" + jobNumber + "]";
+		Status status = new Status();
 
 		VirtualChannel ch = launcher.getChannel();
 
@@ -455,59 +453,21 @@ public class PucmNotifier extends Notifier
 		
 		hudsonOut.println( "[PUCM] Build result: " + buildResult );		
 
+		PucmScmDescriptor descriptor = (PucmScmDescriptor) build.getProject().getScm().getDescriptor();
+		RemoteSettings settings = descriptor.createRemoteSettings( Metrics.owner( jobName, jobNumber ), build );
+
 		logger.debug( id + "Trying to run remote tasks" );
 		if( ucmDeliverObj != null && ucmDeliverObj.ucmDeliver )
 		{
 			logger.debug( id + "UCM deliver" );
 			
 			
+			Future<Integer> i = null;
 			try
 			{
-				final Pipe pipe = Pipe.createRemoteToLocal();
-			
-				Future<Integer> i = null;
-				//hudson.remoting.pi
-				
-				/*
-				@SuppressWarnings( "unchecked" )
-				List<FreeStyleBuild> builds = (List<FreeStyleBuild>) build.getProject().getBuilds();
-				
-				boolean me = false;
-				for( FreeStyleBuild b : builds )
-				{
-					if( !me )
-					{
-						if( b.getNumber() == pstate.getJobNumber() )
-						{
-							me = true;
-						}
-						continue;
-					}
-					
-					if()
-					{
-						
-					}
-				}
-				*/
-				
-				i = workspace.actAsync( new RemoteDeliver( buildResult, status, listener, pstate.getComponent().GetFQName(), pstate.getLoadModule(), pstate.getBaseline().GetFQName(), build.getParent().getDisplayName(), Integer.toString( build.getNumber() ), ucmDeliverObj, logger, pipe ) );
-				InputStream is = pipe.getIn();
-				InputStreamReader isr = new InputStreamReader( is );
-				BufferedReader br = new BufferedReader( isr );
-				StringBuffer sb = new StringBuffer();
-				while( !i.isDone() )
-				{
-					//sb.append( br.readLine() );
-				}
-				
-				int j = i.get();
-				//hudsonOut.println( "RESULTATET VAR " + j );
-				
-				//logger.debug( "Der blev skrevet: " + sb.toString() );
-				
-				
-				//int i = workspace.act( new RemoteDeliver( buildResult, status, listener, pstate.getComponent().GetFQName(), pstate.getLoadModule(), pstate.getBaseline().GetFQName(), build.getParent().getDisplayName(), Integer.toString( build.getNumber() ), ucmDeliverObj, logger, pipe ) );
+				DeliverRequest request = new DeliverRequest( build.getParent().getDisplayName(), Integer.toString( build.getNumber() ), pstate.getComponent().GetFQName(), pstate.getLoadModule(), pstate.getBaseline().GetFQName(), pstate.getDevStream(), pstate.getViewSlot(), descriptor.getViewNaming(), descriptor.getCleartool(), ucmDeliverObj, settings );
+				i = workspace.actAsync( new RemoteDeliver( request, listener ) );
+				i.get();
 			}
 			catch( IOException e )
 			{
@@ -518,10 +478,16 @@ public class PucmNotifier extends Notifier
 			}
 			catch( InterruptedException e )
 			{
+				/* The build was aborted, abort the remote deliver too */
+				if( i != null )
+				{
+					i.cancel( true );
+				}
 				status.setStable( false );
 				logger.warning( "COULD NOT DELIVER111: " + e.getMessage() );
 				logger.warning( e );
 				hudsonOut.println( "[PUCM] Error: The deliver failed: " + e.getMessage() );
+				throw new InterruptedException( "The deliver was aborted" );
 			}
 			catch( ExecutionException e )
 			{
@@ -535,48 +501,29 @@ public class PucmNotifier extends Notifier
 		}
 		
 			
+		Future<Status> f = null;
 		try
 		{
 			logger.debug( id + "Remote post build step" );
 			
-			final Pipe pipe = Pipe.createRemoteToLocal();
-						
-			Future<Status> f = null;
-			
-			/*
-			PipedInputStream pin = new PipedInputStream();
-			PipedOutputStream pout = new PipedOutputStream( pin );
-			*/
-
-			f = workspace.actAsync( new RemotePostBuild( buildResult, status, listener, makeTag, promoteAction, recommended, pstate.getBaseline().GetFQName(), pstate.getStream().GetFQName(), build.getParent().getDisplayName(), Integer.toString( build.getNumber() ), logger/*, pout*/, pipe ) );
-			
-			/*
-			BufferedReader br = new BufferedReader( new InputStreamReader( pin ) );
-			
-			String line = "";
-			String res = "";
-			while( ( line = br.readLine() ) != null )
-			{
-				res += line;
-			}
-			br.close();
-			*/
-			
-			/*
-			InputStream is = pipe.getIn();
-			
-			String res = net.praqma.util.io.IO.streamToString( is );
-			
-			is.close();
-			*/
-			
-			//hudsonOut.println( "I READ: " + res );
-			
+			PostBuildRequest request = new PostBuildRequest( buildResult, status.isStable(), makeTag, promoteAction, recommended, pstate.getBaseline().GetFQName(), pstate.getStream().GetFQName(), build.getParent().getDisplayName(), Integer.toString( build.getNumber() ), descriptor.getCleartool(), settings );
+			f = workspace.actAsync( new RemotePostBuild( request, listener ) );
 			
 			status = f.get();
 			
 			logger.empty( status.getLog() );
 		}
+		catch ( InterruptedException e )
+		{
+			/* The build was aborted, abort the remote post build too */
+			if( f != null )
+			{
+				f.cancel( true );
+			}
+			status.setStable( false );
+			hudsonOut.println( "[PUCM] Error: Post build was aborted" );
+			throw e;
+		}
 		catch ( Exception e )
 		{
 			status.setStable( false );
@@ -588,7 +535,7 @@ public class PucmNotifier extends Notifier
 		/* If the promotion level of the baseline was changed on the remote */
 		if( status.getPromotedLevel() != null )
 		{
-			pstate.getBaseline().setPromotionLevel( status.getPromotedLevel() );
+			UCMEntityCache.entities.setPromotionLevel( pstate.getBaseline(), status.getPromotedLevel() );
 			logger.debug( id + "Baselines promotion level sat to " + status.getPromotedLevel().toString() );
 		}
 
@@ -598,6 +545,10 @@ public class PucmNotifier extends Notifier
 		{
 			build.setResult( Result.UNSTABLE );
 		}
+		
+		Metrics.store( build );
+		
+		return status;
 	}
 
 	public boolean getPromote()
@@ -2,38 +2,38 @@ package net.praqma.hudson.notifier;
 
 import hudson.FilePath.FileCallable;
 import hudson.model.BuildListener;
-import hudson.model.Result;
-import hudson.remoting.Callable;
-import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.Serializable;
 
 import net.praqma.clearcase.ucm.UCMException;
 import net.praqma.clearcase.ucm.entities.Baseline;
 import net.praqma.clearcase.ucm.entities.Component;
-import net.praqma.clearcase.ucm.entities.Cool;
 import net.praqma.clearcase.ucm.entities.Project;
 import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.Tag;
 import net.praqma.clearcase.ucm.entities.UCM;
-import net.praqma.clearcase.ucm.entities.UCMEntity;
 import net.praqma.clearcase.ucm.utils.BuildNumber;
 import net.praqma.clearcase.ucm.view.SnapshotView;
 import net.praqma.clearcase.ucm.view.UCMView;
 import net.praqma.clearcase.ucm.view.SnapshotView.COMP;
 import net.praqma.hudson.Config;
 import net.praqma.hudson.exception.ScmException;
-import net.praqma.util.debug.PraqmaLogger;
+import net.praqma.hudson.scm.ViewRegistry;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.MetadataCache;
+import net.praqma.hudson.ucm.TopologyCache;
+import net.praqma.hudson.ucm.UCMCommands;
+import net.praqma.hudson.ucm.UCMEntityCache;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.hudson.ucm.UCMOperation;
 import net.praqma.util.debug.PraqmaLogger.Logger;
-import net.praqma.util.structure.Tuple;
 
 /**
+ * Delivers a baseline on the slave. The task only carries the names and settings of
+ * a {@link DeliverRequest}, the entities are looked up on the slave.
  * 
  * @author wolfgang
  * 
@@ -41,118 +41,33 @@ import net.praqma.util.structure.Tuple;
 class RemoteDeliver implements FileCallable<Integer>
 {
 	private static final long serialVersionUID = 1L;
-	private String jobName;
-	private String buildNumber;
 
-	private String baseline;
-	private String stream;
-
-	private Status status;
+	private DeliverRequest request;
 	private BuildListener listener;
 
-	private String id = "";
-	
-	/*
-	private boolean apply4level;
-	private String alternateTarget;
-	private String baselineName;
-	*/
-	private String component;
-	private String loadModule;
-	
-	UCMDeliver ucmDeliver = null;
-	
-	private Logger logger = null;
-	private PrintStream hudsonOut = null;
-	private Pipe pipe = null;
-	//private OutputStream out = null;
+	/* Working state of the slave, not sent */
+	private transient Logger logger = null;
+	private transient UCMGuard guard;
+	private transient Status status;
+	private transient String id = "";
+	private transient PrintStream hudsonOut = null;
 	
-	/* Advanced */
-	
-	public RemoteDeliver( Result result, Status status, BuildListener listener,
-								/* Common values */
-								String component, String loadModule, String baseline,
-								String jobName, String buildNumber, UCMDeliver ucmDeliver,
-								Logger logger, Pipe pipe )
+	public RemoteDeliver( DeliverRequest request, BuildListener listener )
 	{
-		this.jobName = jobName;
-		this.buildNumber = buildNumber;
-
-		this.id = "[" + jobName + "::" + buildNumber + "]";
-
-		this.baseline = baseline;
-		this.stream = "";
-
-		this.status      = status;
-		this.listener    = listener;
-		
-		this.component       = component;
-		this.loadModule      = loadModule;
-
-		
-		this.ucmDeliver = ucmDeliver;
-				
-		this.logger = logger;
-		this.pipe   = pipe;
+		this.request  = request;
+		this.listener = listener;
 	}
 	
 
 	public Integer invoke( File workspace, VirtualChannel channel ) throws IOException
 	{
-		PraqmaLogger.getLogger( logger );
-		/* Make sure that the local log file is not written */
-		logger.setLocalLog( null );
-		Cool.setLogger( logger );
+		logger = request.getSettings().createLogger();
 		hudsonOut = listener.getLogger();
+		guard = request.getSettings().createGuard( channel, hudsonOut );
 		UCM.SetContext( UCM.ContextType.CLEARTOOL );
 		
-		
-		/*
-		hudsonOut.println( "PRE" );
-		
-		boolean failed = false;
-		
-		OutputStream out = null;
-		try
-		{
-			out = pipe.getOut();
-		}
-		catch( Exception e )
-		{
-			hudsonOut.println( "I failed to get pipe " + e );
-			failed = true;
-		}
-		
-		if( out == null )
-		{
-			hudsonOut.println( "What the...." );
-		}
-		*/
-		
-		/*
-		OutputStreamWriter osw = null;
-		try
-		{
-			osw = new OutputStreamWriter( out );
-		}
-		catch( Exception e )
-		{
-			hudsonOut.println( "I failed to make stream: " + e );
-			hudsonOut.println( e );
-			failed = true;
-		}
-		
-		if( failed )
-		{
-			throw new IOException( "Darn!" );
-		}
-		
-		hudsonOut.println( "I am here" );
-		//osw.write( "Hej" );
-		//osw.write( "Hej2" );
-		//out.write( 10 );
-		hudsonOut.println( "I am there" );
-		*/
+		status = new Status();
+		id = "[" + request.getJobName() + "::" + request.getBuildNumber() + "]";
 		
 		/**
 		 * $ cleartool mkbl -component component:_System@\Cool_PVOB -full "wolles_fede_baseline_2__1_2_3_7"
@@ -166,7 +81,7 @@ class RemoteDeliver implements FileCallable<Integer>
 		Baseline baseline = null;
 		try
 		{
-			baseline = UCMEntity.GetBaseline( this.baseline );
+			baseline = UCMEntityCache.entities.getBaseline( request.getBaseline() );
 		}
 		catch ( UCMException e )
 		{
@@ -175,15 +90,19 @@ class RemoteDeliver implements FileCallable<Integer>
 			throw new IOException( "[PUCM] Could not create Baseline object: " + e.getMessage() );
 		}
 		
-		/* Create the development stream object */
-		/* Append vob to dev stream */
-		this.stream = "pucm_" + System.getenv( "COMPUTERNAME" ) + "_" + jobName + "@" + baseline.GetPvob();
+		/* The development stream depends on the checkout mode and on the view slot, concurrent builds of the job have streams of their own */
+		String streamName = request.getStream();
+		if( streamName == null )
+		{
+			status.addToLog( logger.warning( id + "The build has no development stream" ) );
+			throw new IOException( "[PUCM] The build has no development stream to deliver from" );
+		}
 		
 		Stream stream = null;
 		try
 		{
-			status.addToLog( logger.info( id + "Trying to create source Stream " + this.stream ) );
-			stream = UCMEntity.GetStream( this.stream );
+			status.addToLog( logger.info( id + "Trying to create source Stream " + streamName ) );
+			stream = UCMEntityCache.entities.getStream( streamName );
 		}
 		catch ( UCMException e )
 		{
@@ -196,7 +115,7 @@ class RemoteDeliver implements FileCallable<Integer>
 		Component component = null;
 		try
 		{
-			component = UCMEntity.GetComponent( this.component );
+			component = UCMEntityCache.entities.getComponent( request.getComponent() );
 		}
 		catch ( UCMException e )
 		{
@@ -207,12 +126,12 @@ class RemoteDeliver implements FileCallable<Integer>
 		
 		/* Get the target Stream */
 		Stream target = null;
-		if( ucmDeliver.alternateTarget.length() > 0 )
+		if( request.getAlternateTarget().length() > 0 )
 		{
 			try
 			{
-				status.addToLog( logger.info( id + "Trying to create target Stream " + ucmDeliver.alternateTarget ) );
-				target = UCMEntity.GetStream( ucmDeliver.alternateTarget );
+				status.addToLog( logger.info( id + "Trying to create target Stream " + request.getAlternateTarget() ) );
+				target = UCMEntityCache.entities.getStream( request.getAlternateTarget() );
 			}
 			catch ( UCMException e )
 			{
@@ -225,7 +144,7 @@ class RemoteDeliver implements FileCallable<Integer>
 		{
 			try
 			{
-				target = stream.getDefaultTarget();
+				target = TopologyCache.topology.getDefaultTarget( stream );
 			}
 			catch ( UCMException e )
 			{
@@ -241,13 +160,13 @@ class RemoteDeliver implements FileCallable<Integer>
 		/* Four level version number */
 		String number = "";
 		/* Get version number from project+component */
-		if( ucmDeliver.versionFrom.equals( "project" ) )
+		if( request.getVersionFrom().equals( "project" ) )
 		{
 			status.addToLog( logger.debug( id + "Using project setting" ) );
 			
 			try
 			{
-				Project project = target.getProject();
+				Project project = TopologyCache.topology.getProject( target );
 				number = BuildNumber.getBuildNumber( project );
 			}
 			catch ( UCMException e )
@@ -259,23 +178,23 @@ class RemoteDeliver implements FileCallable<Integer>
 			}
 		}
 		/* Get version number from project+component */
-		else if( ucmDeliver.versionFrom.equals( "settings" ) )
+		else if( request.getVersionFrom().equals( "settings" ) )
 		{	
 			status.addToLog( logger.debug( id + "Using settings" ) );
 			
 			/* Verify settings */
-			if( ucmDeliver.buildnumberMajor.length() > 0 && ucmDeliver.buildnumberMinor.length() > 0 && ucmDeliver.buildnumberPatch.length() > 0 )
+			if( request.getMajor().length() > 0 && request.getMinor().length() > 0 && request.getPatch().length() > 0 )
 			{
-				number = "__" + ucmDeliver.buildnumberMajor + "_" + ucmDeliver.buildnumberMinor + "_" + ucmDeliver.buildnumberPatch + "_";
+				number = "__" + request.getMajor() + "_" + request.getMinor() + "_" + request.getPatch() + "_";
 				
 				/* Get the sequence number from the component */
-				if( ucmDeliver.buildnumberSequenceSelector.equals( "component" ) )
+				if( request.getSequenceSelector().equals( "component" ) )
 				{
 					status.addToLog( logger.debug( id + "Get sequence from project " + component ) );
 					
 					try
 					{
-						Project project = target.getProject();
+						Project project = TopologyCache.topology.getProject( target );
 						int seq = BuildNumber.getNextBuildSequence( project );
 						number += seq;
 					}
@@ -291,15 +210,15 @@ class RemoteDeliver implements FileCallable<Integer>
 				else
 				{
 					status.addToLog( logger.debug( id + "Getting sequence from build number" ) );
-					number += this.buildNumber;
+					number += request.getBuildNumber();
 				}
 			}
 			else
 			{
 				status.addToLog( logger.warning( id + "Creating error message" ) );
-				String error = ( ucmDeliver.buildnumberMajor.length()    == 0 ? "Major missing. " : "" ) +
-							   ( ucmDeliver.buildnumberMinor.length()    == 0 ? "Minor missing. " : "" ) +
-							   ( ucmDeliver.buildnumberPatch.length()    == 0 ? "Patch missing. " : "" );
+				String error = ( request.getMajor().length()    == 0 ? "Major missing. " : "" ) +
+							   ( request.getMinor().length()    == 0 ? "Minor missing. " : "" ) +
+							   ( request.getPatch().length()    == 0 ? "Patch missing. " : "" );
 				
 				status.addToLog( logger.warning( id + "Missing information in build numbers: " + error ) );
 				throw new IOException( "Missing build number information: " + error );
@@ -335,7 +254,7 @@ class RemoteDeliver implements FileCallable<Integer>
 			{
 				status.addToLog( logger.debug( id + "The stream is read only" ) );
 				//baseline.deliver( null, target, view.GetViewRoot(), null, true, true, true );
-				if( !baseline.deliver( baseline.getStream(), null, view.GetViewRoot(), view.GetViewtag(), true, true, true ) )
+				if( !deliver( baseline, view ) )
 				{
 					status.addToLog( logger.debug( id + "The deliver was empty, no changes" ) );
 					makebl = false;
@@ -347,7 +266,7 @@ class RemoteDeliver implements FileCallable<Integer>
 			else
 			{
 				status.addToLog( logger.debug( id + "The stream is writable" ) );
-				stream.deliver( null, target, view.GetViewRoot(), null, true, true, true );
+				deliver( stream, target, view );
 			}
 		}
 		catch ( UCMException e )
@@ -361,7 +280,7 @@ class RemoteDeliver implements FileCallable<Integer>
 				if( stream.isDelivering() )
 				{
 					hudsonOut.print( "Trying to cancel..." );
-					stream.cancelDeliver( view.GetViewRoot() );
+					cancelDeliver( stream, view );
 				}
 				else
 				{
@@ -386,22 +305,21 @@ class RemoteDeliver implements FileCallable<Integer>
 		}
 		
 		/* Make baseline */
-		if( ucmDeliver.baselineName.length() > 0 && makebl )
+		if( request.getBaselineName().length() > 0 && makebl )
 		{
 			
 			/* Create the baseline */
 			Baseline newbl = null;
-			System.out.println( "The baseline is " + ucmDeliver.baselineName + number );
 			try
 			{
-				status.addToLog( logger.info( id + "Creating new baseline " + ucmDeliver.baselineName + number ) );
-				newbl = Baseline.create( ucmDeliver.baselineName + number, component, view.GetViewRoot(), false, false );
-				hudsonOut.println( "[PUCM] Created baseline " + ucmDeliver.baselineName + number );
+				status.addToLog( logger.info( id + "Creating new baseline " + request.getBaselineName() + number ) );
+				newbl = createBaseline( request.getBaselineName() + number, component, view );
+				hudsonOut.println( "[PUCM] Created baseline " + request.getBaselineName() + number );
 			}
 			catch ( UCMException e )
 			{
     			status.addToLog( logger.warning( id + "Could not get view for workspace. " + e.getMessage() ) );
-    			hudsonOut.println( "[PUCM] Failed creating baseline " + ucmDeliver.baselineName + number );
+    			hudsonOut.println( "[PUCM] Failed creating baseline " + request.getBaselineName() + number );
     			if( e.stdout != null ){	hudsonOut.println( e.stdout ); }
     			throw new IOException( "Could not create baseline: " + e.getMessage() );
 			}
@@ -409,23 +327,98 @@ class RemoteDeliver implements FileCallable<Integer>
 
 		/* End of deliver */
 		
-		//osw.close();
-		
 		status.addToLog( logger.warning( id + "Remote deliver finished normally" ) );
 
 		return 1;
 	}
 	
 	
-	private SnapshotView makeDeliverView( Stream stream, File workspace ) throws ScmException
+	private boolean deliver( final Baseline baseline, final SnapshotView view ) throws UCMException, IOException
+	{
+		final Stream source = guard.read( baseline.GetPvob(), new UCMOperation<Stream>()
+		{
+			public Stream perform() throws UCMException
+			{
+				return baseline.getStream();
+			}
+		} );
+		
+		return guard.write( baseline.GetPvob(), new UCMOperation<Boolean>()
+		{
+			public Boolean perform() throws UCMException
+			{
+				return new UCMCommands( request.getCleartool() ).deliver( baseline.GetFQName(), source.GetFQName(), view.GetViewRoot(), view.GetViewtag() );
+			}
+		}, true, new DeliverCleanup( request.getCleartool(), source, view ) );
+	}
+	
+	private void deliver( final Stream stream, final Stream target, final SnapshotView view ) throws UCMException, IOException
+	{
+		guard.write( target.GetPvob(), new UCMOperation<Boolean>()
+		{
+			public Boolean perform() throws UCMException
+			{
+				new UCMCommands( request.getCleartool() ).deliver( stream.GetFQName(), target.GetFQName(), view.GetViewRoot() );
+				return true;
+			}
+		}, true, new DeliverCleanup( request.getCleartool(), stream, view ) );
+	}
+	
+	/**
+	 * Cancels a deliver abandoned because it timed out or the build was aborted
+	 */
+	private static class DeliverCleanup implements UCMOperation<Boolean>
 	{
-		/* Replace evil characters with less evil characters */
-		String newJobName = jobName.replaceAll( "\\s", "_" );
+		private CommandRunner cleartool;
+		private Stream stream;
+		private SnapshotView view;
+		
+		public DeliverCleanup( CommandRunner cleartool, Stream stream, SnapshotView view )
+		{
+			this.cleartool = cleartool;
+			this.stream    = stream;
+			this.view      = view;
+		}
 		
-		String viewtag = newJobName + "_" + System.getenv( "COMPUTERNAME" ) + "_" + stream.GetShortname();
+		public Boolean perform() throws UCMException
+		{
+			if( stream.isDelivering() )
+			{
+				new UCMCommands( cleartool ).cancelDeliver( stream.GetFQName(), view.GetViewRoot() );
+			}
+			return true;
+		}
+	}
+	
+	private void cancelDeliver( final Stream stream, final SnapshotView view ) throws UCMException, IOException
+	{
+		guard.write( stream.GetPvob(), new UCMOperation<Boolean>()
+		{
+			public Boolean perform() throws UCMException
+			{
+				new UCMCommands( request.getCleartool() ).cancelDeliver( stream.GetFQName(), view.GetViewRoot() );
+				return true;
+			}
+		} );
+	}
+	
+	private Baseline createBaseline( final String name, final Component component, final SnapshotView view ) throws UCMException, IOException
+	{
+		return guard.write( component.GetPvob(), new UCMOperation<Baseline>()
+		{
+			public Baseline perform() throws UCMException
+			{
+				return Baseline.create( name, component, view.GetViewRoot(), false, false );
+			}
+		} );
+	}
+	
+	private SnapshotView makeDeliverView( final Stream stream, File workspace ) throws ScmException, IOException
+	{
+		final String viewtag = request.getViewNaming().getDeliverViewtag( request.getJobName(), stream.GetShortname(), request.getSlot() );
 		hudsonOut.println( "[PUCM] Trying to make deliver view " + viewtag );
 		
-		File viewroot = new File( workspace.getPath() + File.separator + "deliverview_" + stream.GetShortname() );
+		final File viewroot = new File( workspace, "deliverview_" + stream.GetShortname() );
 		
 		status.addToLog( logger.debug( id + "Deliver: " + viewroot.getAbsolutePath() + ". Tag=" + viewtag ) );
 		status.addToLog( logger.debug( id + "Stream is " + stream.GetFQName() ) );
@@ -460,12 +453,35 @@ class RemoteDeliver implements FileCallable<Integer>
 
 		}
 
-		if( UCMView.ViewExists( viewtag ) )
+		boolean exists;
+		try
+		{
+			exists = guard.view( new UCMOperation<Boolean>()
+			{
+				public Boolean perform()
+				{
+					return UCMView.ViewExists( viewtag );
+				}
+			} );
+		}
+		catch( UCMException e )
+		{
+			throw new ScmException( "Could not look up the view " + viewtag + ". " + e.getMessage() );
+		}
+		
+		if( exists )
 		{
 			hudsonOut.println( "[PUCM] Reusing viewtag: " + viewtag + "\n" );
 			try
 			{
-				SnapshotView.ViewrootIsValid( viewroot );
+				guard.view( new UCMOperation<Boolean>()
+				{
+					public Boolean perform() throws UCMException
+					{
+						SnapshotView.ViewrootIsValid( viewroot );
+						return true;
+					}
+				} );
 				hudsonOut.println( "[PUCM] Viewroot is valid in ClearCase" );
 			}
 			catch( UCMException ucmE )
@@ -473,7 +489,14 @@ class RemoteDeliver implements FileCallable<Integer>
 				try
 				{
 					hudsonOut.println( "[PUCM] Viewroot not valid - now regenerating.... " );
-					SnapshotView.RegenerateViewDotDat( viewroot, viewtag );
+					guard.view( new UCMOperation<Boolean>()
+					{
+						public Boolean perform() throws UCMException
+						{
+							SnapshotView.RegenerateViewDotDat( viewroot, viewtag );
+							return true;
+						}
+					} );
 				}
 				catch( UCMException ucmEe )
 				{
@@ -486,7 +509,13 @@ class RemoteDeliver implements FileCallable<Integer>
 			hudsonOut.print( "[PUCM] Getting snapshotview..." );
 			try
 			{
-				sv = UCMView.GetSnapshotView( viewroot );
+				sv = guard.view( new UCMOperation<SnapshotView>()
+				{
+					public SnapshotView perform() throws UCMException
+					{
+						return UCMView.GetSnapshotView( viewroot );
+					}
+				} );
 				hudsonOut.println( " DONE" );
 			}
 			catch( UCMException e )
@@ -500,7 +529,13 @@ class RemoteDeliver implements FileCallable<Integer>
 		{
 			try
 			{
-				sv = SnapshotView.Create( stream, viewroot, viewtag );
+				sv = guard.view( new UCMOperation<SnapshotView>()
+				{
+					public SnapshotView perform() throws UCMException
+					{
+						return SnapshotView.Create( stream, viewroot, viewtag );
+					}
+				} );
 
 				hudsonOut.println( "[PUCM] View doesn't exist. Created new view in local workspace: " + viewroot.getAbsolutePath() );
 				status.addToLog( logger.log( "The view did not exist and created a new" ) );
@@ -516,9 +551,17 @@ class RemoteDeliver implements FileCallable<Integer>
 
 		try
 		{
-			hudsonOut.print( "[PUCM] Updating deliver view using " + loadModule.toLowerCase() + " modules..." );
+			hudsonOut.print( "[PUCM] Updating deliver view using " + request.getLoadModule().toLowerCase() + " modules..." );
 
-			sv.Update( true, true, true, false, COMP.valueOf( loadModule.toUpperCase() ), null );
+			final File root = sv.GetViewRoot();
+			guard.view( new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					new UCMCommands( request.getCleartool() ).update( root, COMP.valueOf( request.getLoadModule().toUpperCase() ) );
+					return true;
+				}
+			} );
 			hudsonOut.println( " DONE" );
 		}
 		catch( UCMException e )
@@ -527,6 +570,9 @@ class RemoteDeliver implements FileCallable<Integer>
 			throw new ScmException( "Could not update snapshot view. " + e.getMessage() );
 		}
 		
+		/* The deliver view uses the stream of the checkout, which is removed with that view */
+		ViewRegistry.record( MetadataCache.getNode(), viewtag, request.getJobName(), viewroot, null );
+		
 		return sv;
 	}
 
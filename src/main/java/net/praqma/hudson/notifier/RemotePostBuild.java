@@ -3,31 +3,32 @@ package net.praqma.hudson.notifier;
 import hudson.FilePath.FileCallable;
 import hudson.model.BuildListener;
 import hudson.model.Result;
-import hudson.remoting.Callable;
-import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PipedOutputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
-import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import net.praqma.clearcase.ucm.UCMException;
 import net.praqma.clearcase.ucm.entities.Baseline;
-import net.praqma.clearcase.ucm.entities.Cool;
 import net.praqma.clearcase.ucm.entities.Project;
 import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.Tag;
 import net.praqma.clearcase.ucm.entities.UCM;
-import net.praqma.clearcase.ucm.entities.UCMEntity;
-import net.praqma.util.debug.PraqmaLogger;
+import net.praqma.hudson.ucm.UCMCommands;
+import net.praqma.hudson.ucm.UCMEntityCache;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.hudson.ucm.UCMOperation;
 import net.praqma.util.debug.PraqmaLogger.Logger;
 
 /**
+ * Runs the post build steps on the slave. The task only carries the names and
+ * settings of a {@link PostBuildRequest}, and the {@link Status} is created on
+ * the slave and returned.
  * 
  * @author wolfgang
  * 
@@ -35,120 +36,48 @@ import net.praqma.util.debug.PraqmaLogger.Logger;
 class RemotePostBuild implements FileCallable<Status>
 {
 	private static final long serialVersionUID = 1L;
-	private String displayName;
-	private String buildNumber;
 
-	private Result result;
-
-	private String baseline;
-	private String stream;
-
-	private boolean makeTag = false;
-	private int promote = 0;
-	private boolean promoteUnstable = false;
-	private boolean recommend = false;
-	private Status status;
+	private PostBuildRequest request;
 	private BuildListener listener;
 
-	private String id = "";
-		
-	private Logger logger = null;
-	private PrintStream hudsonOut = null;
-	
-	
-	private Pipe pipe = null;
-	private BufferedWriter bw = null;
-	private PipedOutputStream pout = null;
+	/* Working state of the slave, not sent */
+	private transient Logger logger = null;
+	private transient UCMGuard guard;
+	private transient Result result;
+	private transient boolean recommend = false;
+	private transient Status status;
+	private transient String id = "";
+	private transient PrintStream hudsonOut = null;
 	
-	
-	public RemotePostBuild( Result result, Status status, BuildListener listener,
-			/* Values for  */
-			boolean makeTag, int promote, boolean recommended,
-			/* Common values */
-			String baseline, String stream, 
-			String displayName, String buildNumber, 
-			Logger logger/*, PipedOutputStream pout*/, Pipe pipe )
+	public RemotePostBuild( PostBuildRequest request, BuildListener listener )
 	{
-		this.displayName = displayName;
-		this.buildNumber = buildNumber;
-
-		this.id = "[" + displayName + "::" + buildNumber + "]";
-
-		this.baseline = baseline;
-		this.stream = stream;
-
-		this.result = result;
-
-		this.makeTag = makeTag;
-		this.promote = promote;
-		this.recommend = recommended;
-
-		this.status = status;
+		this.request  = request;
 		this.listener = listener;
-
-		this.logger = logger;
-		this.pipe = pipe;
-		/*
-		this.pout = pout;
-		*/
 	}
 	
 	
 	public Status invoke( File workspace, VirtualChannel channel ) throws IOException
 	{
-		PraqmaLogger.getLogger( logger );
-		/* Make sure that the local log file is not written */
-		logger.setLocalLog( null );
-		Cool.setLogger( logger );
+		logger = request.getSettings().createLogger();
 		hudsonOut = listener.getLogger();
+		guard = request.getSettings().createGuard( channel, hudsonOut );
 		UCM.SetContext( UCM.ContextType.CLEARTOOL );
 		
+		result    = request.getResult();
+		recommend = request.isRecommend();
+		id        = "[" + request.getDisplayName() + "::" + request.getBuildNumber() + "]";
 		
-		
-		
-		//hudsonOut.println( "TESTING PIPE" );
-		
-		/*
-		bw = new BufferedWriter( new OutputStreamWriter( pout ) );
-		bw.write( "I were here" );
-		bw.close();
-		*/
-		
-		/*
-		boolean failed = false;
-		
-		OutputStream out = null;
-		try
-		{
-			out = pipe.getOut();
-		}
-		catch( Exception e )
-		{
-			hudsonOut.println( "I failed to get pipe " + e );
-			failed = true;
-		}
-		
-		if( out == null )
-		{
-			hudsonOut.println( "What the...." );
-		}
-		else
-		{
-			out.write( 112 );
-		}
-		*/
-		
-		
+		status = new Status();
+		status.setStable( request.isStable() );
+		int promote = request.getPromote();
 
-		String newPLevel = "";
-		
 		status.addToLog( logger.info( "Starting PostBuild task" ) );
 		
 		/* Create the baseline object */
 		Baseline baseline = null;
 		try
 		{
-			baseline = UCMEntity.GetBaseline( this.baseline );
+			baseline = UCMEntityCache.entities.getBaseline( request.getBaseline() );
 		}
 		catch ( UCMException e )
 		{
@@ -160,7 +89,7 @@ class RemotePostBuild implements FileCallable<Status>
 		Stream stream = null;
 		try
 		{
-			stream = UCMEntity.GetStream( this.stream );
+			stream = UCMEntityCache.entities.getStream( request.getStream() );
 		}
 		catch ( UCMException e )
 		{
@@ -170,39 +99,31 @@ class RemotePostBuild implements FileCallable<Status>
 		
 		status.addToLog( logger.warning( id + "Stream and component created" ) );
 		
-		/* Create the Tag object */
-		Tag tag = null;
-		if( makeTag )
+		/* The build status of the Tag is decided by the build and the deliver, not the promotion,
+		 * so the Tag is retrieved, set and persisted while the baseline is promoted and recommended */
+		TagTask tagTask = null;
+		Future<Tag> tagged = null;
+		if( request.isMakeTag() )
 		{
-			try
-			{
-				// Getting tag to set buildstatus
-				tag = baseline.GetTag( this.displayName, this.buildNumber );
-				status.setTagAvailable( true );
-			}
-			catch ( UCMException e )
-			{
-				hudsonOut.println( "[PUCM] Could not get Tag: " + e.getMessage() );
-				status.addToLog( logger.warning( id + "Could not get Tag: " + e.getMessage() ) );
-			}
+			tagTask = new TagTask( baseline, getTagBuildStatus() );
+			tagged = guard.submit( tagTask );
 		}
+		
+		/* The promotion level returned by promote() or demote() */
+		Project.Plevel newPLevel = null;
 
 		/* The build was a success and the deliver did not fail */
 		if( result.equals( Result.SUCCESS ) && status.isStable() )
 		{
-			if( status.isTagAvailable() )
-			{
-				tag.SetEntry( "buildstatus", "SUCCESS" );
-			}
-
 			if( promote > PucmNotifier.__NO_PROMOTE )
 			{
 				try
 				{
-					Project.Plevel pl = baseline.promote();
+					Project.Plevel pl = promote( baseline );
+					newPLevel = pl;
 					status.setPromotedLevel( pl );
 					status.setPLevel( true );
-					hudsonOut.println( "[PUCM] Baseline promoted to " + baseline.getPromotionLevel( true ).toString() + "." );
+					hudsonOut.println( "[PUCM] Baseline promoted to " + pl.toString() + "." );
 				}
 				catch( UCMException e )
 				{
@@ -229,7 +150,7 @@ class RemotePostBuild implements FileCallable<Status>
 				{
 					if ( status.isPLevel() )
 					{
-						stream.RecommendBaseline( baseline );
+						recommend( stream, baseline );
 						hudsonOut.println( "[PUCM] Baseline " + baseline.GetShortname() + " is now recommended." );
 					}
 				}
@@ -255,21 +176,17 @@ class RemotePostBuild implements FileCallable<Status>
 			if( result.equals( Result.FAILURE ) )
 			{
 				hudsonOut.println( "[PUCM] Build failed." );
-
-				if( status.isTagAvailable() )
-				{
-					tag.SetEntry( "buildstatus", "FAILURE" );
-				}
 				
 				if( promote > PucmNotifier.__NO_PROMOTE )
 				{
 					try
 					{
 						status.addToLog( logger.warning( id + "Demoting baseline" ) );
-						Project.Plevel pl = baseline.demote();
+						Project.Plevel pl = demote( baseline );
+						newPLevel = pl;
 						status.setPromotedLevel( pl );
 						status.setPLevel( true );
-						hudsonOut.println( "[PUCM] Baseline is " + baseline.getPromotionLevel( true ).toString() + "." );
+						hudsonOut.println( "[PUCM] Baseline is " + pl.toString() + "." );
 					}
 					catch( Exception e )
 					{
@@ -285,11 +202,6 @@ class RemotePostBuild implements FileCallable<Status>
 			 * TODO Maybe not else if */
 			else if( !result.equals( Result.FAILURE ) )
 			{
-				if( status.isTagAvailable() )
-				{
-					tag.SetEntry( "buildstatus", "UNSTABLE" );
-				}
-				
 				if( promote > PucmNotifier.__NO_PROMOTE )
 				{
 					try
@@ -298,16 +210,17 @@ class RemotePostBuild implements FileCallable<Status>
 						
 						if( promote == PucmNotifier.__PROMOTE_UNSTABLE )
 						{
-							pl = baseline.promote();
+							pl = promote( baseline );
 							hudsonOut.println( "[PUCM] Baseline is promoted, even though the build is unstable." );
 						}
 						else
 						{
-							pl = baseline.demote();
+							pl = demote( baseline );
 						}
+						newPLevel = pl;
 						status.setPromotedLevel( pl );
 						status.setPLevel( true );
-						hudsonOut.println( "[PUCM] Baseline is " + baseline.getPromotionLevel( true ).toString() + "." );
+						hudsonOut.println( "[PUCM] Baseline is " + pl.toString() + "." );
 					}
 					catch ( Exception e )
 					{
@@ -320,56 +233,191 @@ class RemotePostBuild implements FileCallable<Status>
 			/* Result not handled by PUCM */
 			else
 			{
-				tag.SetEntry( "buildstatus", result.toString() );
 				status.addToLog( logger.log( id + "Buildstatus (Result) was " + result + ". Not handled by plugin." ) );
 				hudsonOut.println( "[PUCM] Baseline not changed. Buildstatus: " + result );
 			}
 		}
 		
-		/* Persist the Tag */
-		if( makeTag )
+		if( tagged != null )
+		{
+			tag( tagTask, tagged );
+		}
+
+		/* Only ask ClearCase for the promotion level if it was not changed by the build */
+		String plevel = "";
+		if( newPLevel != null )
+		{
+			plevel = newPLevel.toString();
+		}
+		else
 		{
-			if( tag != null )
+			try
 			{
-				try
-				{
-					tag = tag.Persist();
-					hudsonOut.println( "[PUCM] Baseline now marked with tag: \n" + tag.Stringify() );
-				}
-				catch ( Exception e )
-				{
-					hudsonOut.println( "[PUCM] Could not change tag in ClearCase. Contact ClearCase administrator to do this manually." );
-				}
+				plevel = UCMEntityCache.entities.getPromotionLevel( baseline ).toString();
 			}
-			else
+			catch( UCMException e )
 			{
-				logger.warning( id + "Tag object was null" );
-				hudsonOut.println( "[PUCM] Tag object was null, tag not set." );
+				logger.log( id + " Could not get promotionlevel." );
+				hudsonOut.println( "[PUCM] Could not get promotion level." );
 			}
 		}
+		
+		status.setBuildDescr( setDisplaystatus( plevel, baseline.GetShortname() ) );
+		
+		status.addToLog( logger.warning( id + "Remote post build finished normally" ) );
 
-		try
+		return status;
+	}
+	
+	private Project.Plevel promote( final Baseline baseline ) throws UCMException, IOException
+	{
+		Project.Plevel level = guard.write( baseline.GetPvob(), new UCMOperation<Project.Plevel>()
 		{
-			newPLevel = baseline.getPromotionLevel( true ).toString();
+			public Project.Plevel perform() throws UCMException
+			{
+				return new UCMCommands( request.getCleartool() ).promote( baseline.GetFQName() );
+			}
+		} );
+		
+		UCMEntityCache.entities.setPromotionLevel( baseline, level );
+		return level;
+	}
+	
+	private Project.Plevel demote( final Baseline baseline ) throws UCMException, IOException
+	{
+		Project.Plevel level = guard.write( baseline.GetPvob(), new UCMOperation<Project.Plevel>()
+		{
+			public Project.Plevel perform() throws UCMException
+			{
+				return new UCMCommands( request.getCleartool() ).demote( baseline.GetFQName() );
+			}
+		} );
+		
+		UCMEntityCache.entities.setPromotionLevel( baseline, level );
+		return level;
+	}
+	
+	private void recommend( final Stream stream, final Baseline baseline ) throws UCMException, IOException
+	{
+		guard.write( stream.GetPvob(), new UCMOperation<Boolean>()
+		{
+			public Boolean perform() throws UCMException
+			{
+				stream.RecommendBaseline( baseline );
+				return true;
+			}
+		} );
+		
+		/* The recommended baselines of the stream changed */
+		UCMEntityCache.entities.invalidate( stream );
+	}
+	
+	/**
+	 * Determines the build status written to the Tag. This only depends on the
+	 * build result and on the deliver, not on the promotion.
+	 */
+	private String getTagBuildStatus()
+	{
+		if( result.equals( Result.SUCCESS ) && status.isStable() )
+		{
+			return "SUCCESS";
 		}
-		catch( UCMException e )
+		else if( result.equals( Result.FAILURE ) )
 		{
-			logger.log( id + " Could not get promotionlevel." );
-			hudsonOut.println( "[PUCM] Could not get promotion level." );
+			return "FAILURE";
 		}
+		else
+		{
+			return "UNSTABLE";
+		}
+	}
+	
+	/**
+	 * Retrieves, sets and persists the Tag of the Baseline through the guard. The task
+	 * does not touch the Status, it is reported by {@link RemotePostBuild#tag(TagTask, Future)}.
+	 */
+	private class TagTask implements Callable<Tag>
+	{
+		private Baseline baseline;
+		private String buildstatus;
 		
-		status.setBuildDescr( setDisplaystatus( newPLevel, baseline.GetShortname() ) );
+		/* The Tag retrieved, null if it could not be */
+		private Tag tag = null;
 		
-		status.addToLog( logger.warning( id + "Remote post build finished normally" ) );
+		TagTask( Baseline baseline, String buildstatus )
+		{
+			this.baseline    = baseline;
+			this.buildstatus = buildstatus;
+		}
+		
+		public Tag call() throws UCMException, IOException
+		{
+			tag = guard.read( baseline.GetPvob(), new UCMOperation<Tag>()
+			{
+				public Tag perform() throws UCMException
+				{
+					return baseline.GetTag( request.getDisplayName(), request.getBuildNumber() );
+				}
+			} );
+			
+			if( tag == null )
+			{
+				return null;
+			}
+			
+			tag.SetEntry( "buildstatus", buildstatus );
+			
+			return guard.write( baseline.GetPvob(), new UCMOperation<Tag>()
+			{
+				public Tag perform() throws UCMException
+				{
+					return tag.Persist();
+				}
+			} );
+		}
+	}
+	
+	/**
+	 * Waits for the Tag task and reports its outcome
+	 */
+	private void tag( TagTask task, Future<Tag> tagged ) throws IOException
+	{
+		Tag tag = null;
+		try
+		{
+			tag = tagged.get();
+		}
+		catch( InterruptedException e )
+		{
+			tagged.cancel( true );
+			throw new InterruptedIOException( "[PUCM] Interrupted while waiting for the Tag" );
+		}
+		catch( ExecutionException e )
+		{
+			if( task.tag == null )
+			{
+				hudsonOut.println( "[PUCM] Could not get Tag: " + e.getCause().getMessage() );
+				status.addToLog( logger.warning( id + "Could not get Tag: " + e.getCause().getMessage() ) );
+			}
+			else
+			{
+				status.setTagAvailable( true );
+				hudsonOut.println( "[PUCM] Could not change tag in ClearCase. Contact ClearCase administrator to do this manually." );
+			}
+			
+			return;
+		}
 		
-		/*
-		if( out != null )
+		if( tag != null )
 		{
-			out.close();
+			status.setTagAvailable( true );
+			hudsonOut.println( "[PUCM] Baseline now marked with tag: \n" + tag.Stringify() );
+		}
+		else
+		{
+			logger.warning( id + "Tag object was null" );
+			hudsonOut.println( "[PUCM] Tag object was null, tag not set." );
 		}
-		*/
-
-		return status;
 	}
 
 	private String setDisplaystatus( String plevel, String fqn )
@@ -396,4 +444,4 @@ class RemotePostBuild implements FileCallable<Status>
 		return s;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,312 @@
+package net.praqma.hudson.scm;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.Hudson;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of materialized baselines on the master, or in a directory shared by the
+ * masters. An entry is a zip of the loaded tree of a baseline, packed from the workspace
+ * of the first build of the baseline, and the change log of that build. Later builds of the
+ * baseline unpack the zip on the agent, and do not use the view server at all.<br>
+ * The builds of a baseline must hold its {@link #getLock(String) lock} while checking out,
+ * so only the first build loads it. The least recently used entries are evicted,
+ * when there are more than the size of the cache.
+ */
+public class ArchiveCache
+{
+	public static final ArchiveCache archives = new ArchiveCache();
+
+	private String directory = null;
+	private int size = 10;
+
+	private Map<String, ReentrantLock> locks = new HashMap<String, ReentrantLock>();
+
+	/**
+	 * @param directory The directory of the cache, the default is used if null or empty
+	 * @param size The maximum number of baselines in the cache
+	 */
+	public synchronized void setSettings( String directory, int size )
+	{
+		this.directory = directory;
+		this.size      = size;
+	}
+
+	/**
+	 * The directory of the cache, defaults to <code>pucm-archives</code> in the Hudson home
+	 */
+	public synchronized File getRoot()
+	{
+		if( directory == null || directory.length() == 0 )
+		{
+			return new File( Hudson.getInstance().getRootDir(), "pucm-archives" );
+		}
+
+		return new File( directory );
+	}
+
+	public synchronized int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the lock of a baseline, see {@link BaselineCache#getKey(String, String)}
+	 */
+	public synchronized ReentrantLock getLock( String key )
+	{
+		ReentrantLock lock = locks.get( key );
+		if( lock == null )
+		{
+			lock = new ReentrantLock();
+			locks.put( key, lock );
+		}
+
+		return lock;
+	}
+
+	public File getArchive( String key )
+	{
+		return new File( getRoot(), key + ".zip" );
+	}
+
+	public File getChangelogFile( String key )
+	{
+		return new File( getRoot(), key + ".xml" );
+	}
+
+	/**
+	 * Determines whether a baseline is in the cache, and marks it as used
+	 */
+	public boolean contains( String key )
+	{
+		File archive = getArchive( key );
+		if( !archive.exists() || !getChangelogFile( key ).exists() )
+		{
+			return false;
+		}
+
+		archive.setLastModified( System.currentTimeMillis() );
+		return true;
+	}
+
+	/**
+	 * Packs a workspace folder, the zip is streamed from the agent
+	 * @param key The key of the baseline
+	 * @param folder The folder, holding the loaded tree of the baseline
+	 * @param changelog The change log of the baseline
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void store( String key, FilePath folder, String changelog ) throws IOException, InterruptedException
+	{
+		File archive = getArchive( key );
+		File temp    = new File( archive.getPath() + ".tmp" );
+		archive.getParentFile().mkdirs();
+
+		/* The change log goes first, the archive appears complete or not at all */
+		OutputStream out = new FileOutputStream( getChangelogFile( key ) );
+		try
+		{
+			out.write( changelog.getBytes() );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		out = new FileOutputStream( temp );
+		try
+		{
+			folder.zip( out, new ViewFilter() );
+		}
+		finally
+		{
+			out.close();
+		}
+
+		archive.delete();
+		if( !temp.renameTo( archive ) )
+		{
+			temp.delete();
+			throw new IOException( "Could not rename " + temp + " to " + archive );
+		}
+	}
+
+	/**
+	 * Unpacks a baseline into a workspace folder, which is replaced
+	 * @param key The key of the baseline
+	 * @param folder The folder
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void unpack( String key, FilePath folder ) throws IOException, InterruptedException
+	{
+		/* The zip holds the folder it was packed from, which may have another name */
+		FilePath staging = folder.getParent().child( folder.getName() + "_unpack" );
+		staging.deleteRecursive();
+
+		InputStream in = new FileInputStream( getArchive( key ) );
+		try
+		{
+			staging.unzipFrom( in );
+		}
+		finally
+		{
+			in.close();
+		}
+
+		folder.deleteRecursive();
+		staging.act( new MoveFolder( folder.getName() ) );
+	}
+
+	/**
+	 * Gets the change log of a baseline
+	 */
+	public String getChangelog( String key ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream( getChangelogFile( key ) );
+		try
+		{
+			byte[] buffer = new byte[4096];
+			int read;
+			while( ( read = in.read( buffer ) ) >= 0 )
+			{
+				out.write( buffer, 0, read );
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Removes the least recently used baselines, when there are more than the size of the cache
+	 * @return The number of baselines removed
+	 */
+	public int evict()
+	{
+		File[] files = getRoot().listFiles();
+		if( files == null )
+		{
+			return 0;
+		}
+
+		List<File> zips = new ArrayList<File>();
+		for( File f : files )
+		{
+			if( f.getName().endsWith( ".zip" ) )
+			{
+				zips.add( f );
+			}
+		}
+
+		Collections.sort( zips, new Comparator<File>()
+		{
+			public int compare( File f1, File f2 )
+			{
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : ( m1 > m2 ? 1 : 0 );
+			}
+		} );
+
+		int removed = 0;
+		for( int i = 0 ; i < zips.size() - getSize() ; i++ )
+		{
+			String name = zips.get( i ).getName();
+			String key  = name.substring( 0, name.length() - 4 );
+
+			/* A baseline being checked out is left alone */
+			ReentrantLock lock = getLock( key );
+			if( !lock.tryLock() )
+			{
+				continue;
+			}
+
+			try
+			{
+				if( getArchive( key ).delete() )
+				{
+					getChangelogFile( key ).delete();
+					removed++;
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Leaves the files of a snapshot view, which are not part of the baseline, out of the archive
+	 */
+	public static class ViewFilter implements FileFilter, Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public boolean accept( File f )
+		{
+			String name = f.getName();
+			return !name.equals( "view.dat" ) && !name.equals( ".view.stg" ) && !name.endsWith( ".updt" );
+		}
+	}
+
+	/**
+	 * Moves the single folder in the staging folder to its place, and removes the staging folder
+	 */
+	private static class MoveFolder implements FileCallable<Boolean>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String name;
+
+		public MoveFolder( String name )
+		{
+			this.name = name;
+		}
+
+		public Boolean invoke( File staging, VirtualChannel channel ) throws IOException
+		{
+			File[] unpacked = staging.listFiles();
+			if( unpacked == null || unpacked.length != 1 || !unpacked[0].isDirectory() )
+			{
+				throw new IOException( "The archive unpacked in " + staging + " is not a single folder" );
+			}
+
+			File target = new File( staging.getParentFile(), name );
+			if( !unpacked[0].renameTo( target ) )
+			{
+				throw new IOException( "Could not move " + unpacked[0] + " to " + target );
+			}
+
+			staging.delete();
+			return true;
+		}
+	}
+}
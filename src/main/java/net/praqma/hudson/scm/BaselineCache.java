@@ -0,0 +1,335 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node local cache of materialized baselines. A baseline is loaded once through a
+ * snapshot view shared by the builds of a stream, and a copy of the loaded tree is kept
+ * per baseline and load modules. Builds get their workspace as a clone of the copy,
+ * which is a reflink clone where the file system supports it, and a copy otherwise.
+ * Hardlinks are not used, a build writing a file in place would change the cache.<br>
+ * An entry is complete when its marker file exists, the marker is touched on use,
+ * and the least recently used entries are evicted when there are more than the
+ * size of the cache.<br>
+ * The cache is shared by the builds on the node, which must hold the
+ * {@link #lock(File) lock} of an entry or view while using it.
+ */
+public class BaselineCache
+{
+	/* The files of a view root, which are not part of the baseline */
+	private static final List<String> excluded = Arrays.asList( new String[] { "view.dat", ".view.stg" } );
+
+	private static final String marker = ".complete";
+
+	private static final Map<String, Object> locks = new HashMap<String, Object>();
+
+	private File root;
+	private int size;
+
+	/**
+	 * @param root The root directory of the cache on the node
+	 * @param size The maximum number of baselines in the cache
+	 */
+	public BaselineCache( File root, int size )
+	{
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the lock of a cache entry or view, which is shared by the builds on the node
+	 */
+	public static Object lock( File file )
+	{
+		synchronized( locks )
+		{
+			String key = file.getAbsolutePath();
+			Object lock = locks.get( key );
+			if( lock == null )
+			{
+				lock = new Object();
+				locks.put( key, lock );
+			}
+
+			return lock;
+		}
+	}
+
+	/**
+	 * Gets the key of a materialized baseline, it is usable as a file name
+	 * @param baseline The fully qualified name of the baseline
+	 * @param loadModule The load modules
+	 */
+	public static String getKey( String baseline, String loadModule )
+	{
+		/* The hash tells apart names, which differ in the replaced characters only */
+		String name = baseline.replaceAll( "^baseline:", "" ).replaceAll( "[^A-Za-z0-9_.-]", "_" );
+		return name + "_" + Integer.toHexString( baseline.hashCode() ) + "_" + loadModule.toLowerCase();
+	}
+
+	/**
+	 * Gets the key of a baseline materialized with load rules
+	 */
+	public static String getKey( String baseline, String loadModule, LoadRules rules )
+	{
+		return getKey( baseline, rules.isEmpty() ? loadModule : loadModule + "_" + rules.getKey() );
+	}
+
+	public File getEntry( String key )
+	{
+		return new File( new File( root, "baselines" ), key );
+	}
+
+	/**
+	 * Gets the view root of the shared view, which the cache is populated through
+	 */
+	public File getViewroot( String viewtag )
+	{
+		return new File( new File( root, "views" ), viewtag );
+	}
+
+	/**
+	 * Determines whether an entry is complete, and marks it as used
+	 */
+	public boolean contains( File entry )
+	{
+		File complete = getMarker( entry );
+		if( !complete.exists() || !entry.isDirectory() )
+		{
+			return false;
+		}
+
+		complete.setLastModified( System.currentTimeMillis() );
+		return true;
+	}
+
+	/**
+	 * Stores the loaded tree of a view as an entry
+	 * @param viewroot The view root of the view, which is at the baseline
+	 * @param entry The entry
+	 * @throws IOException
+	 */
+	public void store( File viewroot, File entry ) throws IOException
+	{
+		File temp = new File( entry.getPath() + ".tmp" );
+		delete( getMarker( entry ) );
+		delete( entry );
+		delete( temp );
+
+		/* The entry appears complete or not at all */
+		copy( viewroot, temp, true );
+		if( !temp.renameTo( entry ) )
+		{
+			throw new IOException( "Could not rename " + temp + " to " + entry );
+		}
+
+		if( !getMarker( entry ).createNewFile() )
+		{
+			throw new IOException( "Could not mark " + entry + " as complete" );
+		}
+	}
+
+	/**
+	 * Clones an entry into a directory, which is replaced
+	 * @param entry The entry
+	 * @param target The directory
+	 * @return The kind of clone made, reflink or copy
+	 * @throws IOException
+	 */
+	public String cloneTo( File entry, File target ) throws IOException
+	{
+		delete( target );
+		target.getParentFile().mkdirs();
+
+		/* There are no reflinks through Java, cp has them outside Windows */
+		if( File.separatorChar == '/' )
+		{
+			if( run( "cp", "-a", "--reflink=always", entry.getAbsolutePath(), target.getAbsolutePath() ) )
+			{
+				return "reflink";
+			}
+			delete( target );
+		}
+
+		copy( entry, target, false );
+		return "copy";
+	}
+
+	/**
+	 * Removes the least recently used entries, when there are more than the size of the cache
+	 * @return The number of entries removed
+	 */
+	public int evict()
+	{
+		File[] markers = new File( root, "baselines" ).listFiles();
+		if( markers == null )
+		{
+			return 0;
+		}
+
+		List<File> entries = new ArrayList<File>();
+		for( File f : markers )
+		{
+			if( f.getName().endsWith( marker ) )
+			{
+				entries.add( f );
+			}
+		}
+
+		Collections.sort( entries, new Comparator<File>()
+		{
+			public int compare( File f1, File f2 )
+			{
+				long m1 = f1.lastModified();
+				long m2 = f2.lastModified();
+				return m1 < m2 ? -1 : ( m1 > m2 ? 1 : 0 );
+			}
+		} );
+
+		int removed = 0;
+		for( int i = 0 ; i < entries.size() - size ; i++ )
+		{
+			String name = entries.get( i ).getPath();
+			File entry = new File( name.substring( 0, name.length() - marker.length() ) );
+			synchronized( lock( entry ) )
+			{
+				/* The marker goes first, a half deleted entry is not complete */
+				if( delete( getMarker( entry ) ) && delete( entry ) )
+				{
+					removed++;
+				}
+			}
+		}
+
+		return removed;
+	}
+
+	private File getMarker( File entry )
+	{
+		return new File( entry.getPath() + marker );
+	}
+
+	private boolean run( String ... cmd )
+	{
+		try
+		{
+			Process p = new ProcessBuilder( cmd ).redirectErrorStream( true ).start();
+			p.getOutputStream().close();
+			InputStream in = p.getInputStream();
+			byte[] buffer = new byte[1024];
+			while( in.read( buffer ) >= 0 )
+			{
+			}
+			in.close();
+
+			return p.waitFor() == 0;
+		}
+		catch( IOException e )
+		{
+			return false;
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Copies a directory tree, the files keep their time stamps.
+	 * The copies are writable, so they can be deleted on Windows.
+	 * Links are skipped, they are not followed out of the view
+	 * @param top True if the view files in the top directory are left out
+	 */
+	static void copy( File from, File to, boolean top ) throws IOException
+	{
+		if( !to.mkdirs() && !to.isDirectory() )
+		{
+			throw new IOException( "Could not create " + to );
+		}
+
+		File[] files = from.listFiles();
+		if( files == null )
+		{
+			throw new IOException( "Could not list " + from );
+		}
+
+		for( File f : files )
+		{
+			if( top && ( excluded.contains( f.getName() ) || f.getName().endsWith( ".updt" ) ) )
+			{
+				continue;
+			}
+
+			if( ViewRegistry.isLink( f ) )
+			{
+				continue;
+			}
+
+			File target = new File( to, f.getName() );
+			if( f.isDirectory() )
+			{
+				copy( f, target, false );
+				continue;
+			}
+
+			InputStream in = new FileInputStream( f );
+			try
+			{
+				OutputStream out = new FileOutputStream( target );
+				try
+				{
+					byte[] buffer = new byte[65536];
+					int read;
+					while( ( read = in.read( buffer ) ) >= 0 )
+					{
+						out.write( buffer, 0, read );
+					}
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+
+			target.setLastModified( f.lastModified() );
+		}
+	}
+
+	/**
+	 * Deletes a file or directory tree. A link is deleted, not the tree it points to
+	 * @return True if it does not exist afterwards
+	 */
+	static boolean delete( File file )
+	{
+		if( file.isDirectory() && !ViewRegistry.isLink( file ) )
+		{
+			File[] files = file.listFiles();
+			if( files != null )
+			{
+				for( File f : files )
+				{
+					delete( f );
+				}
+			}
+		}
+
+		return file.delete() || !file.exists();
+	}
+}
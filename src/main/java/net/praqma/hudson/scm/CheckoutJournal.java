@@ -0,0 +1,128 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * The progress of a checkout, which is changing a snapshot view: the view tag, the
+ * target baseline and the phase, rebasing or updating. The journal is written before
+ * each phase and removed when the view has been brought to the baseline, so a journal
+ * on disk means the checkout was interrupted, by a slave disconnecting or a build
+ * being aborted.<br>
+ * The next checkout of the same baseline resumes where it stopped, instead of cancelling
+ * the rebase and starting over. Like the {@link ViewFingerprint} the journal is stored
+ * next to the view root, so updates do not touch it.
+ */
+public class CheckoutJournal
+{
+	public static final String rebasing = "rebase";
+	public static final String updating = "update";
+
+	private String viewtag;
+	private String baseline;
+
+	public CheckoutJournal( String viewtag, String baseline )
+	{
+		this.viewtag  = viewtag;
+		this.baseline = baseline;
+	}
+
+	/**
+	 * Records the phase, which is started
+	 * @param viewroot The view root
+	 * @param phase {@link #rebasing} or {@link #updating}
+	 * @param rebaseroot The root of the view the rebase is done in, null if it is the view itself
+	 */
+	public void write( File viewroot, String phase, File rebaseroot ) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty( "viewtag", viewtag );
+		properties.setProperty( "baseline", baseline );
+		properties.setProperty( "phase", phase );
+		properties.setProperty( "rebaseroot", ( rebaseroot != null ? rebaseroot : viewroot ).getAbsolutePath() );
+
+		FileOutputStream fos = new FileOutputStream( getFile( viewroot ) );
+		try
+		{
+			properties.store( fos, "PUCM checkout in progress" );
+		}
+		finally
+		{
+			fos.close();
+		}
+	}
+
+	/**
+	 * Gets the phase of an interrupted checkout of the view to this baseline
+	 * @return The phase, or null if no checkout to this baseline was interrupted
+	 */
+	public String getInterrupted( File viewroot )
+	{
+		Properties stored = read( viewroot );
+		if( stored == null || !viewtag.equals( stored.getProperty( "viewtag" ) ) || !baseline.equals( stored.getProperty( "baseline" ) ) )
+		{
+			return null;
+		}
+
+		return stored.getProperty( "phase" );
+	}
+
+	/**
+	 * Gets the root of the view the interrupted rebase was done in
+	 * @return The view root, or null if there is no journal
+	 */
+	public static File getRebaseRoot( File viewroot )
+	{
+		Properties stored = read( viewroot );
+		String root = stored != null ? stored.getProperty( "rebaseroot" ) : null;
+		return root != null ? new File( root ) : null;
+	}
+
+	/**
+	 * Removes the journal, when the checkout is done
+	 * @return False if the journal existed and could not be removed
+	 */
+	public static boolean clear( File viewroot )
+	{
+		File file = getFile( viewroot );
+		return !file.exists() || file.delete();
+	}
+
+	private static Properties read( File viewroot )
+	{
+		File file = getFile( viewroot );
+		if( !file.exists() )
+		{
+			return null;
+		}
+
+		Properties stored = new Properties();
+		try
+		{
+			FileInputStream fis = new FileInputStream( file );
+			try
+			{
+				stored.load( fis );
+			}
+			finally
+			{
+				fis.close();
+			}
+		}
+		catch( IOException e )
+		{
+			/* A half written journal is ignored, the checkout starts over */
+			return null;
+		}
+
+		return stored;
+	}
+
+	public static File getFile( File viewroot )
+	{
+		return new File( viewroot.getParentFile(), viewroot.getName() + ".journal" );
+	}
+}
@@ -0,0 +1,146 @@
+package net.praqma.hudson.scm;
+
+import java.io.Serializable;
+
+import net.praqma.hudson.ucm.ClearTool;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * The settings of a checkout, handed from the master to the {@link CheckoutTask}
+ */
+public class CheckoutOptions implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * How the workspace is checked out
+	 */
+	public enum Mode
+	{
+		/** A snapshot view of the build */
+		SNAPSHOT,
+		/** A clone from the {@link BaselineCache} of the node */
+		CACHED,
+		/** Unpacked from the {@link ArchiveCache} of the master, or cloned as {@link #CACHED} by the first build of the baseline */
+		ARCHIVED,
+		/** A {@link DynamicView} of the build, nothing is loaded */
+		DYNAMIC
+	}
+	
+	private CommandRunner cleartool = new ClearTool( "cleartool" );
+	private int differentialLimit   = 0;
+	private Mode mode               = Mode.SNAPSHOT;
+	private String cacheRoot        = null;
+	private int cacheSize           = 10;
+	private String dynamicViewtag   = null;
+	private String dynamicViewPath  = null;
+	private LoadRules loadRules     = new LoadRules( null, null );
+	private ViewNaming viewNaming   = new ViewNaming( null );
+	
+	public CommandRunner getCleartool()
+	{
+		return cleartool;
+	}
+	
+	public CheckoutOptions setCleartool( CommandRunner cleartool )
+	{
+		this.cleartool = cleartool;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of changed elements updated one by one,
+	 * see {@link DifferentialUpdate}. Zero disables differential updates.
+	 */
+	public int getDifferentialLimit()
+	{
+		return differentialLimit;
+	}
+	
+	public CheckoutOptions setDifferentialLimit( int differentialLimit )
+	{
+		this.differentialLimit = differentialLimit;
+		return this;
+	}
+	
+	public Mode getMode()
+	{
+		return mode;
+	}
+	
+	public CheckoutOptions setMode( Mode mode )
+	{
+		this.mode = mode;
+		return this;
+	}
+	
+	/**
+	 * The root directory of the {@link BaselineCache} on the node
+	 */
+	public String getCacheRoot()
+	{
+		return cacheRoot;
+	}
+	
+	public CheckoutOptions setCacheRoot( String cacheRoot )
+	{
+		this.cacheRoot = cacheRoot;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of baselines in the {@link BaselineCache}
+	 */
+	public int getCacheSize()
+	{
+		return cacheSize;
+	}
+	
+	public CheckoutOptions setCacheSize( int cacheSize )
+	{
+		this.cacheSize = cacheSize;
+		return this;
+	}
+	
+	public String getDynamicViewtag()
+	{
+		return dynamicViewtag;
+	}
+	
+	/**
+	 * The path of the dynamic view on the node, see {@link DynamicView#getPath(String, String)}
+	 */
+	public String getDynamicViewPath()
+	{
+		return dynamicViewPath;
+	}
+	
+	public CheckoutOptions setDynamicView( String viewtag, String path )
+	{
+		this.dynamicViewtag  = viewtag;
+		this.dynamicViewPath = path;
+		return this;
+	}
+	
+	public LoadRules getLoadRules()
+	{
+		return loadRules;
+	}
+	
+	public CheckoutOptions setLoadRules( LoadRules loadRules )
+	{
+		this.loadRules = loadRules;
+		return this;
+	}
+	
+	public ViewNaming getViewNaming()
+	{
+		return viewNaming;
+	}
+	
+	public CheckoutOptions setViewNaming( ViewNaming viewNaming )
+	{
+		this.viewNaming = viewNaming;
+		return this;
+	}
+}
@@ -0,0 +1,93 @@
+package net.praqma.hudson.scm;
+
+import java.io.Serializable;
+
+import net.praqma.hudson.RemoteSettings;
+
+/**
+ * What a {@link CheckoutTask} checks out, handed from the master to the slave.
+ * Only names and settings, no entities.
+ */
+public final class CheckoutRequest implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String jobName;
+	private final Integer jobNumber;
+	private final String integrationStream;
+	private final String loadModule;
+	private final String baseline;
+	private final String buildProject;
+	private final int slot;
+	private final CheckoutOptions options;
+	private final RemoteSettings settings;
+
+	/**
+	 * @param jobName The name of the job
+	 * @param jobNumber The number of the build
+	 * @param integrationStream The integration stream of the job
+	 * @param loadModule The load module of the view
+	 * @param baseline The baseline to check out
+	 * @param buildProject The project of the development stream, empty for the project of the baseline
+	 * @param slot The view slot of the build
+	 * @param options The options of the checkout on the node
+	 * @param settings The settings of the guard and the logger
+	 */
+	public CheckoutRequest( String jobName, Integer jobNumber, String integrationStream, String loadModule, String baseline, String buildProject, int slot, CheckoutOptions options, RemoteSettings settings )
+	{
+		this.jobName           = jobName;
+		this.jobNumber         = jobNumber;
+		this.integrationStream = integrationStream;
+		this.loadModule        = loadModule;
+		this.baseline          = baseline;
+		this.buildProject      = buildProject;
+		this.slot              = slot;
+		this.options           = options;
+		this.settings          = settings;
+	}
+
+	public String getJobName()
+	{
+		return jobName;
+	}
+
+	public Integer getJobNumber()
+	{
+		return jobNumber;
+	}
+
+	public String getIntegrationStream()
+	{
+		return integrationStream;
+	}
+
+	public String getLoadModule()
+	{
+		return loadModule;
+	}
+
+	public String getBaseline()
+	{
+		return baseline;
+	}
+
+	public String getBuildProject()
+	{
+		return buildProject;
+	}
+
+	public int getSlot()
+	{
+		return slot;
+	}
+
+	public CheckoutOptions getOptions()
+	{
+		return options;
+	}
+
+	public RemoteSettings getSettings()
+	{
+		return settings;
+	}
+}
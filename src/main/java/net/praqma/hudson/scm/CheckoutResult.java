@@ -0,0 +1,49 @@
+package net.praqma.hudson.scm;
+
+import java.io.Serializable;
+
+/**
+ * What a {@link CheckoutTask} sends back to the master, the change log, the log of the slave
+ * and the development stream the build was checked out from.
+ */
+public final class CheckoutResult implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String changelog;
+	private final String log;
+	private final String stream;
+
+	/**
+	 * @param changelog The change log xml
+	 * @param log The log of the slave
+	 * @param stream The fully qualified name of the development stream, null if there is none
+	 */
+	public CheckoutResult( String changelog, String log, String stream )
+	{
+		this.changelog = changelog;
+		this.log       = log;
+		this.stream    = stream;
+	}
+
+	/**
+	 * The change log xml, empty if there were no changes or they could not be found
+	 */
+	public String getChangelog()
+	{
+		return changelog;
+	}
+
+	public String getLog()
+	{
+		return log;
+	}
+
+	/**
+	 * The development stream, which depends on the checkout mode, null if the checkout did not get that far
+	 */
+	public String getStream()
+	{
+		return stream;
+	}
+}
@@ -2,18 +2,23 @@ package net.praqma.hudson.scm;
 
 
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import net.praqma.clearcase.ucm.UCMException;
 import net.praqma.clearcase.ucm.entities.Baseline;
 import net.praqma.clearcase.ucm.utils.BaselineDiff;
 import net.praqma.clearcase.ucm.entities.Activity;
-import net.praqma.clearcase.ucm.entities.Cool;
 import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.UCM;
 import net.praqma.clearcase.ucm.entities.UCMEntity;
@@ -24,9 +29,14 @@ import net.praqma.clearcase.ucm.view.UCMView;
 import net.praqma.clearcase.ucm.view.SnapshotView.COMP;
 import net.praqma.hudson.Config;
 import net.praqma.hudson.exception.ScmException;
-import net.praqma.util.debug.PraqmaLogger;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.LeaseLimiter.Lease;
+import net.praqma.hudson.ucm.MetadataCache;
+import net.praqma.hudson.ucm.UCMCommands;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.hudson.ucm.UCMEntityCache;
+import net.praqma.hudson.ucm.UCMOperation;
 import net.praqma.util.debug.PraqmaLogger.Logger;
-import net.praqma.util.structure.Tuple;
 
 import hudson.FilePath;
 import hudson.FilePath.FileCallable;
@@ -35,49 +45,55 @@ import hudson.remoting.VirtualChannel;
 
 
 
-public class CheckoutTask implements FileCallable<Tuple<String, String>> {
+/**
+ * Checks out a baseline on the slave. The task only carries the names and settings
+ * of a {@link CheckoutRequest}, the guard and the logger are created on the slave.
+ */
+public class CheckoutTask implements FileCallable<CheckoutResult> {
 	
-	private PrintStream hudsonOut;
-	private Stream integrationstream;
-	private String jobname;
-	private SnapshotView sv;
-	private String loadModule;
-	private Baseline bl;
-	private String buildProject;
-	private Logger logger;
-	private String intStream;
-	private String baselinefqname;
+	private static final long serialVersionUID = 1L;
+	
+	private CheckoutRequest request;
 	private BuildListener listener;
-	private Integer jobNumber;
-	private String id = "";
 	
-	private String log = "";
+	/* Working state of the slave, not sent */
+	private transient Logger logger;
+	private transient UCMGuard guard;
+	private transient CheckoutOptions options;
+	private transient String id = "";
+	private transient PrintStream hudsonOut;
+	private transient Stream integrationstream;
+	private transient SnapshotView sv;
+	private transient Baseline bl;
+	private transient String log = "";
+	private transient String devstreamName = null;
+	private transient boolean clearRules = false;
+	
+	private static final Pattern uuidPattern = Pattern.compile( "view_uuid:(\\S+)" );
 	
 	
-	public CheckoutTask( BuildListener listener, String jobname, Integer jobNumber, String intStream, String loadModule, String baselinefqname, String buildProject, Logger logger )
+	public CheckoutTask( CheckoutRequest request, BuildListener listener )
 	{
-		this.jobname        = jobname;
-		this.jobNumber      = jobNumber;
-		this.intStream      = intStream;
-		this.loadModule     = loadModule;
-		this.baselinefqname = baselinefqname;
-		this.buildProject   = buildProject;
-		this.listener       = listener;
-		this.logger         = logger;
-		
-		this.id = "[" + jobname + "::" + jobNumber + "]";
+		this.request  = request;
+		this.listener = listener;
 	}
 	
 	
-	public Tuple<String, String> invoke( File workspace, VirtualChannel channel ) throws IOException
+	public CheckoutResult invoke( File workspace, VirtualChannel channel ) throws IOException
 	{
-		PraqmaLogger.getLogger( logger );
-		/* Make sure that the local log file is not written */
-		logger.setLocalLog( null );
-		Cool.setLogger( logger );
+		logger    = request.getSettings().createLogger();
 		hudsonOut = listener.getLogger();
+		guard     = request.getSettings().createGuard( channel, hudsonOut );
+		options   = request.getOptions();
+		id        = "[" + request.getJobName() + "::" + request.getJobNumber() + "]";
+		
+		/* The metadata of the node survives restarts of the slave */
+		if ( options.getCacheRoot() != null )
+		{
+			MetadataCache.open( new File( options.getCacheRoot() ) );
+		}
 		
-		log += logger.info( "Starting CheckoutTask" );
+		log = logger.info( "Starting CheckoutTask" );
 		
 		boolean doPostBuild = true;
 		String diff = "";
@@ -86,8 +102,30 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
 		{
 			UCM.SetContext( UCM.ContextType.CLEARTOOL );
 			makeWorkspace( workspace );
-			BaselineDiff bldiff = bl.getDiffs( sv );
-			diff = createChangelog( bldiff, hudsonOut );
+			if ( options.getMode() == CheckoutOptions.Mode.DYNAMIC )
+			{
+				/* There is no snapshot view for COOL to compare in */
+				final DynamicView dynamic = new DynamicView( options.getCleartool() );
+				List<String> activities = guard.view( new UCMOperation<List<String>>()
+				{
+					public List<String> perform() throws UCMException
+					{
+						return dynamic.getActivities( bl.GetFQName(), new File( options.getDynamicViewPath() ) );
+					}
+				} );
+				diff = createChangelog( activities );
+			}
+			else
+			{
+				BaselineDiff bldiff = guard.view( new UCMOperation<BaselineDiff>()
+				{
+					public BaselineDiff perform() throws UCMException
+					{
+						return bl.getDiffs( sv );
+					}
+				} );
+				diff = createChangelog( bldiff, hudsonOut );
+			}
 			doPostBuild = true;
 		}
 		catch ( ScmException e )
@@ -104,19 +142,31 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
 		
 		log += logger.info( "CheckoutTask finished normally" );
 
-		return new Tuple<String, String>( diff, log );
+		return new CheckoutResult( diff, log, devstreamName );
 	}
 	
 	
     
-    private void makeWorkspace( File workspace ) throws ScmException
+    private void makeWorkspace( File workspace ) throws ScmException, IOException
     {
     	// We know we have a stream (st), because it is set in
     	// baselinesToBuild()
 		try
 		{
-			integrationstream = UCMEntity.GetStream( intStream, false );
-			bl = Baseline.GetBaseline( baselinefqname );
+			integrationstream = guard.read( CircuitBreaker.getPvob( request.getIntegrationStream() ), new UCMOperation<Stream>()
+			{
+				public Stream perform() throws UCMException
+				{
+					return UCMEntity.GetStream( request.getIntegrationStream(), false );
+				}
+			} );
+			bl = guard.read( CircuitBreaker.getPvob( request.getBaseline() ), new UCMOperation<Baseline>()
+			{
+				public Baseline perform() throws UCMException
+				{
+					return UCMEntityCache.entities.getBaseline( request.getBaseline() );
+				}
+			} );
 		}
 		catch ( UCMException e )
 		{
@@ -131,10 +181,32 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
 			log += logger.debug( id + "workspace must be null???" );
 		}		
 
-    	String viewtag = "pucm_" + System.getenv( "COMPUTERNAME" ) + "_" + jobname;
+    	String viewtag = options.getViewNaming().getViewtag( request.getJobName(), request.getSlot() );
 
-    	File viewroot = new File( workspace.getPath() + "\\view" );
+    	File viewroot = new File( workspace, ViewPool.getName( "view", request.getSlot() ) );
 
+    	if ( options.getMode() == CheckoutOptions.Mode.DYNAMIC )
+    	{
+    		makeDynamicView();
+    	}
+    	else if ( options.getMode() != CheckoutOptions.Mode.SNAPSHOT )
+    	{
+    		materialize( viewroot );
+    	}
+    	else
+    	{
+    		makeView( viewroot, viewtag, request.getJobName() );
+    	}
+    	
+    	hudsonOut.println( "[PUCM] Log written to " + logger.getPath() );
+    }
+    
+    /**
+     * Brings a snapshot view to the baseline, the view is created if it does not exist
+     * @param job The job of the view, null for the view of the node cache, see {@link ViewRegistry}
+     */
+    private void makeView( final File viewroot, final String viewtag, String job ) throws ScmException, IOException
+    {
     	hudsonOut.println( "[PUCM] viewtag " + viewtag );
 
     	try
@@ -144,7 +216,7 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
     			hudsonOut.println( "[PUCM] Reusing viewroot: " + viewroot.toString() );
     		}
     		else
-    			if ( viewroot.mkdir() )
+    			if ( viewroot.mkdirs() )
     			{
     				hudsonOut.println( "[PUCM] Created folder for viewroot:  " + viewroot.toString() );
     			}
@@ -159,122 +231,728 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
 
     	}
     	
+    	/* A view known from an earlier build on this node need not be looked up in ClearCase */
+    	MetadataCache metadata = MetadataCache.getNode();
+    	String known = "view:" + viewtag;
+    	String uuid = getViewUuid( viewroot );
+    	boolean reused = false;
+    	
     	Stream devstream = null;
+    	
+    	if ( metadata != null && uuid != null && ( uuid + " " + viewroot.getAbsolutePath() ).equals( metadata.get( known ) ) )
+    	{
+    		hudsonOut.print( "[PUCM] Reusing the known view " + viewtag + "..." );
+    		try
+    		{
+    			devstream = getStream( "stream:" + viewtag + Config.getPvob( integrationstream ) );
+    			sv = getSnapshotView( viewroot );
+    			hudsonOut.println( " DONE" );
+    			guard.report( "Known views reused", 1 );
+    			reused = true;
+    		}
+    		catch ( UCMException e )
+    		{
+    			hudsonOut.println( " FAILED, looking it up" );
+    			metadata.remove( known );
+    		}
+    	}
+    	
+    	if ( !reused )
+    	{
+    		devstream = getDeveloperStream( "stream:" + viewtag, Config.getPvob( integrationstream ), hudsonOut );
+	
+    		if ( viewExists( viewtag ) )
+    		{
+    			hudsonOut.println( "[PUCM] Reusing viewtag: " + viewtag + "\n" );
+    			try
+    			{
+    				guard.view( new UCMOperation<Boolean>()
+    				{
+    					public Boolean perform() throws UCMException
+    					{
+    						SnapshotView.ViewrootIsValid( viewroot );
+    						return true;
+    					}
+    				} );
+    				hudsonOut.println( "[PUCM] Viewroot is valid in ClearCase" );
+    			}
+    			catch ( UCMException ucmE )
+    			{
+    				try
+    				{
+    					hudsonOut.println( "[PUCM] Viewroot not valid - now regenerating.... " );
+    					invalidate( viewroot );
+    					guard.view( new UCMOperation<Boolean>()
+    					{
+    						public Boolean perform() throws UCMException
+    						{
+    							SnapshotView.RegenerateViewDotDat( viewroot, viewtag );
+    							return true;
+    						}
+    					} );
+    				}
+    				catch ( UCMException ucmEe )
+    				{
+    					log += logger.warning( id + "Could regenerate workspace." );
+    					throw new ScmException( "Could not make workspace - could not regenerate view: " + ucmEe.getMessage() + " Type: " + "" );
+    				}
+    			}
+    		
+    			hudsonOut.print( "[PUCM] Getting snapshotview..." );
+    			try
+    			{
+    				sv = getSnapshotView( viewroot );
+    				hudsonOut.println( " DONE" );
+    			}
+    			catch ( UCMException e )
+    			{
+    				log += logger.warning( id + "Could not get view for workspace. " + e.getMessage() );
+    				throw new ScmException( "Could not get view for workspace. " + e.getMessage() );
+    			}
+    		}
+    		else
+    		{
+    			try
+    			{
+    				//View APPARENTLY doesn't exist. Test to see if it exists in other regions using SnapshotView.getRegionWithView(String view);
+    				invalidate( viewroot );
+    				final Stream viewstream = devstream;
+    				sv = guard.view( new UCMOperation<SnapshotView>()
+    				{
+    					public SnapshotView perform() throws UCMException
+    					{
+    						return SnapshotView.Create( viewstream, viewroot, viewtag );
+    					}
+    				} );
 
-    	devstream = getDeveloperStream( "stream:" + viewtag, Config.getPvob( integrationstream ), hudsonOut );
+    				hudsonOut.print( "[PUCM] View doesn't exist. Created new view in local workspace" );
+    				log += logger.log( "The view did not exist and created a new" );
+    			}
+    			catch ( UCMException e )
+    			{
+    				//View couldn't be created or found. Hudson slave might be set in different region.
+    				log += logger.warning( id + "The view could not be created" );
+    				log += logger.warning( e );
+    				throw new ScmException("View not found in this region, but view with viewtag '"+viewtag+"' might exists in the other regions. Try changing the region Hudson or the slave runs in.");
+    			}
+    		}
+    		
+    		uuid = getViewUuid( viewroot );
+    		if ( metadata != null && uuid != null )
+    		{
+    			metadata.put( known, uuid + " " + viewroot.getAbsolutePath() );
+    		}
+    	}
+    	
+    	ViewRegistry.record( metadata, viewtag, job, viewroot, devstream.GetFQName() );
+    	devstreamName = devstream.GetFQName();
 
-    	if ( UCMView.ViewExists( viewtag ) )
+    	/* Rebuilds and reruns of the same baseline need not touch the view */
+    	ViewFingerprint fingerprint = new ViewFingerprint( viewtag, bl.GetFQName(), request.getLoadModule() );
+    	if ( !options.getLoadRules().isEmpty() )
+    	{
+    		fingerprint.set( "loadRules", options.getLoadRules().toString() );
+    	}
+    	if ( fingerprint.matches( viewroot ) )
     	{
-    		hudsonOut.println( "[PUCM] Reusing viewtag: " + viewtag + "\n" );
+    		hudsonOut.println( "[PUCM] The view is already at " + bl.GetShortname() + " using " + request.getLoadModule().toLowerCase() + " modules, skipping update and rebase" );
+    		guard.report( "View updates skipped", 1 );
+    	}
+    	else
+    	{
+    		/* A few updates at a time per node and view server are faster than many thrashing the disks */
+    		Lease[] leases = guard.beginUpdate( ViewNaming.getHost(), getViewServer( viewtag ) );
     		try
     		{
-    			SnapshotView.ViewrootIsValid( viewroot );
-    			hudsonOut.println( "[PUCM] Viewroot is valid in ClearCase" );
+    			/* The rebase updates the view, it only needs an update of its own to change the load rules */
+    			Properties stored = ViewFingerprint.read( viewroot );
+    			invalidate( viewroot );
+    			String previous = stored != null ? stored.getProperty( "baseline" ) : null;
+    			
+    			/* Rules the job no longer has stay in the config spec, until they are cleared */
+    			clearRules = options.getLoadRules().isEmpty() && stored != null && stored.getProperty( "loadRules" ) != null;
+    			
+    			/* A checkout of the same baseline, which was interrupted, is resumed */
+    			CheckoutJournal journal = new CheckoutJournal( viewtag, bl.GetFQName() );
+    			String interrupted = journal.getInterrupted( viewroot );
+    			
+    			if ( CheckoutJournal.updating.equals( interrupted ) && isRebaseDone( devstream ) )
+    			{
+    				hudsonOut.println( "[PUCM] Resuming the interrupted update of the view to " + bl.GetShortname() );
+    				guard.report( "Checkouts resumed", 1 );
+    				update();
+    			}
+    			else if ( options.getDifferentialLimit() > 0 && previous != null && fingerprint.hasLoadRules( stored ) && differentialUpdate( devstream, viewroot, viewtag, job, previous, journal ) )
+    			{
+    				log += logger.debug( id + "The view was updated from " + previous );
+    			}
+    			else
+    			{
+    				rebase( devstream, sv, journal, viewroot, CheckoutJournal.rebasing.equals( interrupted ) );
+    				if ( fingerprint.hasLoadRules( stored ) )
+    				{
+    					log += logger.debug( id + "The rebase updated the view" );
+    					guard.report( "View updates skipped", 1 );
+    				}
+    				else
+    				{
+    					journal.write( viewroot, CheckoutJournal.updating, null );
+    					update();
+    				}
+    			}
+    			/* A journal left behind would resume a checkout, which is done, so the view is not fingerprinted then */
+    			if ( CheckoutJournal.clear( viewroot ) )
+    			{
+    				fingerprint.write( viewroot );
+    			}
+    			else
+    			{
+    				hudsonOut.println( "[PUCM] Could not remove the checkout journal of the view, the next checkout will not skip the update" );
+    				log += logger.warning( id + "Could not remove the checkout journal of " + viewroot );
+    			}
+    		}
+    		finally
+    		{
+    			guard.endUpdate( leases );
+    		}
+    	}
+    }
+    
+    /**
+     * Gets the server holding the storage of a view, which is kept in the {@link MetadataCache} of the node
+     * @return The view server, or this host if it could not be found
+     */
+    private String getViewServer( final String viewtag ) throws IOException
+    {
+    	MetadataCache metadata = MetadataCache.getNode();
+    	String key = "viewserver:" + viewtag;
+    	String server = metadata != null ? metadata.get( key ) : null;
+    	if ( server != null )
+    	{
+    		return server;
+    	}
+    	
+    	try
+    	{
+    		server = parseViewServer( guard.view( new UCMOperation<String>()
+    		{
+    			public String perform() throws UCMException
+    			{
+    				return options.getCleartool().run( null, Arrays.asList( "lsview", "-long", viewtag ) );
+    			}
+    		} ) );
+    	}
+    	catch ( UCMException e )
+    	{
+    		log += logger.debug( id + "Could not get the server of the view " + viewtag + ": " + e.getMessage() );
+    	}
+    	
+    	if ( server == null )
+    	{
+    		return ViewNaming.getHost();
+    	}
+    	
+    	if ( metadata != null )
+    	{
+    		metadata.put( key, server );
+    	}
+    	
+    	return server;
+    }
+    
+    /**
+     * Parses the server host out of the output of <code>cleartool lsview -long</code>
+     * @return The server, or null if it was not found
+     */
+    static String parseViewServer( String output )
+    {
+    	for ( String line : output.split( "\\r?\\n" ) )
+    	{
+    		line = line.trim();
+    		if ( line.startsWith( "Server host:" ) )
+    		{
+    			return ViewNaming.shorten( line.substring( "Server host:".length() ).trim() );
+    		}
+    	}
+    	
+    	return null;
+    }
+    
+    /**
+     * Rebases the dynamic view of the build to the baseline, the view is created if it does not exist
+     */
+    private void makeDynamicView() throws ScmException, IOException
+    {
+    	final String viewtag = options.getDynamicViewtag();
+    	final DynamicView dynamic = new DynamicView( options.getCleartool() );
+    	
+    	hudsonOut.println( "[PUCM] Dynamic viewtag " + viewtag );
+    	final Stream devstream = getDeveloperStream( "stream:" + viewtag, Config.getPvob( integrationstream ), hudsonOut );
+    	devstreamName = devstream.GetFQName();
+    	ViewRegistry.record( MetadataCache.getNode(), viewtag, request.getJobName(), null, devstreamName );
+    	
+    	try
+    	{
+    		guard.view( new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				if ( !dynamic.exists( viewtag ) )
+    				{
+    					dynamic.create( viewtag, devstream.GetFQName() );
+    				}
+    				dynamic.start( viewtag );
+    				return true;
+    			}
+    		} );
+    		
+    		boolean current = guard.read( devstream.GetPvob(), new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				return dynamic.isAt( devstream.GetFQName(), bl.GetFQName() );
+    			}
+    		} );
+    		
+    		if ( current )
+    		{
+    			hudsonOut.println( "[PUCM] The dynamic view is already at " + bl.GetShortname() + ", skipping rebase" );
+    			guard.report( "View updates skipped", 1 );
+    		}
+    		else
+    		{
+    			UCMOperation<Boolean> cancel = new UCMOperation<Boolean>()
+    			{
+    				public Boolean perform() throws UCMException
+    				{
+    					if ( devstream.IsRebaseInProgress() )
+    					{
+    						dynamic.cancelRebase( viewtag );
+    					}
+    					return true;
+    				}
+    			};
+    			
+    			if ( isRebaseInProgress( devstream ) )
+    			{
+    				hudsonOut.print( "[PUCM] Cancelling previous rebase..." );
+    				guard.write( devstream.GetPvob(), cancel );
+    				hudsonOut.println( " DONE" );
+    			}
+    			
+    			hudsonOut.print( "[PUCM] Rebasing development stream (" + devstream.GetShortname() + ") against parent stream (" + integrationstream.GetShortname() + ")" );
+    			guard.write( devstream.GetPvob(), new UCMOperation<Boolean>()
+    			{
+    				public Boolean perform() throws UCMException
+    				{
+    					dynamic.rebase( viewtag, bl.GetFQName() );
+    					return true;
+    				}
+    			}, true, cancel );
+    			hudsonOut.println( " DONE" );
     		}
-    		catch ( UCMException ucmE )
+    	}
+    	catch ( UCMException e )
+    	{
+    		throw new ScmException( "Could not prepare the dynamic view " + viewtag + ". " + e.getMessage() );
+    	}
+    	
+    	hudsonOut.println( "[PUCM] The source is in the dynamic view " + options.getDynamicViewPath() );
+    }
+    
+    /**
+     * Clones the workspace from the {@link BaselineCache} of the node. A baseline,
+     * which is not in the cache, is loaded through the view shared by the builds of the stream.
+     */
+    private void materialize( File target ) throws ScmException, IOException
+    {
+    	if ( new File( target, "view.dat" ).exists() )
+    	{
+    		throw new ScmException( target + " is a snapshot view. Remove the view or use the snapshot checkout mode." );
+    	}
+    	
+    	BaselineCache cache = new BaselineCache( new File( options.getCacheRoot() ), options.getCacheSize() );
+    	String viewtag = options.getViewNaming().getCacheViewtag( integrationstream.GetShortname() );
+    	File viewroot = cache.getViewroot( viewtag );
+    	File entry = cache.getEntry( BaselineCache.getKey( bl.GetFQName(), request.getLoadModule(), options.getLoadRules() ) );
+    	
+    	synchronized ( BaselineCache.lock( entry ) )
+    	{
+    		if ( cache.contains( entry ) )
     		{
+    			hudsonOut.println( "[PUCM] " + bl.GetShortname() + " using " + request.getLoadModule().toLowerCase() + " modules is in the node cache" );
+    			guard.report( "Node cache hits", 1 );
     			try
     			{
-    				hudsonOut.println( "[PUCM] Viewroot not valid - now regenerating.... " );
-    				SnapshotView.RegenerateViewDotDat( viewroot, viewtag );
+    				sv = getSnapshotView( viewroot );
+    				devstreamName = "stream:" + viewtag + Config.getPvob( integrationstream );
+    				ViewRegistry.record( MetadataCache.getNode(), viewtag, null, viewroot, devstreamName );
     			}
-    			catch ( UCMException ucmEe )
+    			catch ( UCMException e )
     			{
-    				log += logger.warning( id + "Could regenerate workspace." );
-    				throw new ScmException( "Could not make workspace - could not regenerate view: " + ucmEe.getMessage() + " Type: " + "" );
+    				throw new ScmException( "Could not get the view of the node cache. " + e.getMessage() );
+    			}
+    		}
+    		else
+    		{
+    			hudsonOut.println( "[PUCM] Loading " + bl.GetShortname() + " into the node cache" );
+    			guard.report( "Node cache misses", 1 );
+    			synchronized ( BaselineCache.lock( viewroot ) )
+    			{
+    				makeView( viewroot, viewtag, null );
+    				hudsonOut.print( "[PUCM] Storing " + bl.GetShortname() + " in the node cache..." );
+    				cache.store( viewroot, entry );
+    				hudsonOut.println( " DONE" );
     			}
     		}
     		
-    		hudsonOut.print( "[PUCM] Getting snapshotview..." );
+    		long start = System.currentTimeMillis();
+    		String clone = cache.cloneTo( entry, target );
+    		hudsonOut.println( "[PUCM] Cloned the workspace from the node cache using " + clone + " in " + ( ( System.currentTimeMillis() - start ) / 1000 ) + "s" );
+    	}
+    	
+    	int evicted = cache.evict();
+    	if ( evicted > 0 )
+    	{
+    		log += logger.debug( id + "Evicted " + evicted + " baselines from the node cache" );
+    	}
+    }
+    
+    private void invalidate( File viewroot ) throws ScmException
+    {
+    	if ( !ViewFingerprint.invalidate( viewroot ) )
+    	{
+    		throw new ScmException( "Could not remove the view fingerprint " + ViewFingerprint.getFile( viewroot ) );
+    	}
+    }
+    
+    private void update() throws ScmException, IOException
+    {
+    	final LoadRules rules = options.getLoadRules();
+    	if ( !rules.isEmpty() )
+    	{
     		try
     		{
-    			sv = UCMView.GetSnapshotView( viewroot );
+    			hudsonOut.print( "[PUCM] Setting the load rules of the view, " + rules + "..." );
+    			guard.view( new UCMOperation<Boolean>()
+    			{
+    				public Boolean perform() throws UCMException
+    				{
+    					rules.setConfigSpec( options.getCleartool(), sv.GetViewRoot() );
+    					return true;
+    				}
+    			} );
     			hudsonOut.println( " DONE" );
     		}
     		catch ( UCMException e )
     		{
-    			log += logger.warning( id + "Could not get view for workspace. " + e.getMessage() );
-    			throw new ScmException( "Could not get view for workspace. " + e.getMessage() );
+    			throw new ScmException( "Could not set the load rules of the snapshot view. " + e.getMessage() );
+    		}
+    		
+    		/* Setting the config spec updated the view with the included paths */
+    		if ( rules.hasIncludes() )
+    		{
+    			return;
     		}
     	}
-    	else
+    	else if ( clearRules )
     	{
     		try
     		{
-    			//View APPARENTLY doesn't exist. Test to see if it exists in other regions using SnapshotView.getRegionWithView(String view);
-    			sv = SnapshotView.Create( devstream, viewroot, viewtag );
-
-    			hudsonOut.print( "[PUCM] View doesn't exist. Created new view in local workspace" );
-    			log += logger.log( "The view did not exist and created a new" );
+    			hudsonOut.print( "[PUCM] Removing the load rules of the view..." );
+    			guard.view( new UCMOperation<Boolean>()
+    			{
+    				public Boolean perform() throws UCMException
+    				{
+    					LoadRules.clearConfigSpec( options.getCleartool(), sv.GetViewRoot() );
+    					return true;
+    				}
+    			} );
+    			hudsonOut.println( " DONE" );
     		}
     		catch ( UCMException e )
     		{
-    			//View couldn't be created or found. Hudson slave might be set in different region.
-    			log += logger.warning( id + "The view could not be created" );
-    			log += logger.warning( e );
-    			throw new ScmException("View not found in this region, but view with viewtag '"+viewtag+"' might exists in the other regions. Try changing the region Hudson or the slave runs in.");
+    			throw new ScmException( "Could not remove the load rules of the snapshot view. " + e.getMessage() );
     		}
     	}
-
+    	
     	// All below parameters according to LAK and CHW -components
     	// corresponds to pucms loadmodules, loadrules must always be
     	// null from pucm
     	try
     	{
-    		hudsonOut.print( "[PUCM] Updating view using " + loadModule.toLowerCase() + " modules..." );
+    		hudsonOut.print( "[PUCM] Updating view using " + request.getLoadModule().toLowerCase() + " modules..." );
 
-    		sv.Update( true, true, true, false, COMP.valueOf( loadModule.toUpperCase() ), null );
+    		guard.view( new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				new UCMCommands( options.getCleartool() ).update( sv.GetViewRoot(), COMP.valueOf( request.getLoadModule().toUpperCase() ) );
+    				return true;
+    			}
+    		} );
     		hudsonOut.println( " DONE" );
     	}
     	catch ( UCMException e )
     	{
     		throw new ScmException( "Could not update snapshot view. " + e.getMessage() );
     	}
-
-    	// Now we have to rebase - if a rebase is in progress, the
-    	// old one must be stopped and the new started instead
-    	if ( devstream.IsRebaseInProgress() )
+    }
+    
+    /**
+     * Rebases through a companion view, and updates the changed elements only
+     * @param job The job of the view, the companion view is registered with it
+     * @return False if the companion view is not available, and nothing was done
+     */
+    private boolean differentialUpdate( final Stream devstream, final File viewroot, final String viewtag, String job, final String previous, CheckoutJournal journal ) throws ScmException, IOException
+    {
+    	final DifferentialUpdate differential = new DifferentialUpdate( options.getCleartool(), options.getDifferentialLimit() );
+    	
+    	SnapshotView rebaseView = null;
+    	try
     	{
-    		hudsonOut.print( "[PUCM] Cancelling previous rebase..." );
-    		devstream.CancelRebase();
+    		rebaseView = guard.view( new UCMOperation<SnapshotView>()
+    		{
+    			public SnapshotView perform() throws UCMException
+    			{
+    				return differential.getRebaseView( devstream, viewroot, viewtag );
+    			}
+    		} );
+    	}
+    	catch ( UCMException e )
+    	{
+    		log += logger.warning( id + "Could not get the rebase view: " + e.getMessage() );
+    		hudsonOut.println( "[PUCM] Could not get the rebase view, updating the whole view" );
+    		return false;
+    	}
+    	
+    	/* The companion view is removed with the view, before its stream */
+    	ViewRegistry.record( MetadataCache.getNode(), DifferentialUpdate.getRebaseViewtag( viewtag ), job, DifferentialUpdate.getRebaseViewroot( viewroot ), null );
+    	
+    	rebase( devstream, rebaseView, journal, viewroot, false );
+    	journal.write( viewroot, CheckoutJournal.updating, null );
+    	
+    	try
+    	{
+    		/* The config spec of the view still selects the old foundation */
+    		guard.view( new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				differential.setStream( viewroot );
+    				return true;
+    			}
+    		} );
+    		
+    		final List<String> paths = guard.view( new UCMOperation<List<String>>()
+    		{
+    			public List<String> perform() throws UCMException
+    			{
+    				return differential.getChangedPaths( previous, bl.GetFQName(), viewroot );
+    			}
+    		} );
+    		
+    		if ( paths == null )
+    		{
+    			hudsonOut.println( "[PUCM] More than " + options.getDifferentialLimit() + " elements changed since " + previous );
+    			update();
+    			return true;
+    		}
+    		
+    		if ( DifferentialUpdate.changesNames( viewroot, paths ) )
+    		{
+    			hudsonOut.println( "[PUCM] Elements were added, removed or renamed since " + previous );
+    			update();
+    			return true;
+    		}
+    		
+    		hudsonOut.print( "[PUCM] Updating " + paths.size() + " changed elements..." );
+    		int files = guard.view( new UCMOperation<Integer>()
+    		{
+    			public Integer perform() throws UCMException
+    			{
+    				return differential.update( viewroot, paths );
+    			}
+    		} );
     		hudsonOut.println( " DONE" );
+    		guard.report( "Elements updated", files );
     	}
-    	// The last boolean, complete, must always be true from PUCM
-    	// as we are always working on a read-only stream according
-    	// to LAK
-    	hudsonOut.print( "[PUCM] Rebasing development stream (" + devstream.GetShortname() + ") against parent stream (" + integrationstream.GetShortname() + ")" );
-    	devstream.Rebase( sv, bl, true );
-    	hudsonOut.println( " DONE" );
-    	hudsonOut.println( "[PUCM] Log written to " + logger.getPath() );
+    	catch ( UCMException e )
+    	{
+    		log += logger.warning( id + "The differential update failed: " + e.getMessage() );
+    		hudsonOut.println( "[PUCM] The differential update failed, updating the whole view" );
+    		update();
+    	}
+    	
+    	return true;
+    }
+    
+    /**
+     * Rebases the development stream, and records it in the journal of the view
+     * @param resume True if a rebase to the baseline was interrupted, it is resumed if it is still in progress
+     */
+    private void rebase( final Stream devstream, final SnapshotView view, CheckoutJournal journal, File viewroot, boolean resume ) throws ScmException, IOException
+    {
+    	try
+    	{
+    		// Now we have to rebase - if a rebase is in progress, it is
+    		// resumed if it was to the same baseline, otherwise the old
+    		// one must be stopped and the new started instead
+    		if ( isRebaseInProgress( devstream ) )
+    		{
+    			if ( resume && resumeRebase( devstream, CheckoutJournal.getRebaseRoot( viewroot ) ) )
+    			{
+    				return;
+    			}
+    			
+    			hudsonOut.print( "[PUCM] Cancelling previous rebase..." );
+    			guard.write( devstream.GetPvob(), new UCMOperation<Boolean>()
+    			{
+    				public Boolean perform() throws UCMException
+    				{
+    					new UCMCommands( options.getCleartool() ).cancelRebase( devstream.GetFQName() );
+    					return true;
+    				}
+    			} );
+    			hudsonOut.println( " DONE" );
+    		}
+    		
+    		journal.write( viewroot, CheckoutJournal.rebasing, view.GetViewRoot() );
+    		
+    		// The last boolean, complete, must always be true from PUCM
+    		// as we are always working on a read-only stream according
+    		// to LAK
+    		hudsonOut.print( "[PUCM] Rebasing development stream (" + devstream.GetShortname() + ") against parent stream (" + integrationstream.GetShortname() + ")" );
+    		/* A half done rebase is left for the next checkout to resume, see CheckoutJournal */
+    		guard.write( devstream.GetPvob(), new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				new UCMCommands( options.getCleartool() ).rebase( view.GetViewtag(), bl.GetFQName() );
+    				return true;
+    			}
+    		}, true, null );
+    		hudsonOut.println( " DONE" );
+    	}
+    	catch( UCMException e )
+    	{
+    		throw new ScmException( "Could not rebase development stream. " + e.getMessage() );
+    	}
+    }
+    
+    /**
+     * Resumes and completes an interrupted rebase in the view it was started in
+     * @return False if the rebase could not be resumed, and must be cancelled
+     */
+    private boolean resumeRebase( final Stream devstream, final File rebaseroot ) throws IOException
+    {
+    	if ( rebaseroot == null || !rebaseroot.exists() )
+    	{
+    		return false;
+    	}
+    	
+    	hudsonOut.print( "[PUCM] Resuming the interrupted rebase of " + devstream.GetShortname() + " to " + bl.GetShortname() + "..." );
+    	try
+    	{
+    		guard.write( devstream.GetPvob(), new UCMOperation<String>()
+    		{
+    			public String perform() throws UCMException
+    			{
+    				return options.getCleartool().run( rebaseroot, Arrays.asList( "rebase", "-resume", "-complete", "-force" ) );
+    			}
+    		}, true, null );
+    		hudsonOut.println( " DONE" );
+    		guard.report( "Checkouts resumed", 1 );
+    		return true;
+    	}
+    	catch ( UCMException e )
+    	{
+    		hudsonOut.println( " FAILED" );
+    		log += logger.warning( id + "Could not resume the rebase: " + e.getMessage() );
+    		return false;
+    	}
+    }
+    
+    /**
+     * Determines whether no rebase is in progress, so an interrupted update can be resumed
+     * @return False if a rebase is in progress, or it could not be determined
+     */
+    private boolean isRebaseDone( Stream devstream ) throws IOException
+    {
+    	try
+    	{
+    		return !isRebaseInProgress( devstream );
+    	}
+    	catch ( UCMException e )
+    	{
+    		log += logger.warning( id + "Could not determine whether a rebase is in progress: " + e.getMessage() );
+    		return false;
+    	}
+    }
+    
+    private boolean isRebaseInProgress( final Stream devstream ) throws UCMException, IOException
+    {
+    	return guard.read( devstream.GetPvob(), new UCMOperation<Boolean>()
+    	{
+    		public Boolean perform()
+    		{
+    			return devstream.IsRebaseInProgress();
+    		}
+    	} );
     }
 
-    private Stream getDeveloperStream( String streamname, String pvob, PrintStream hudsonOut ) throws ScmException
+    private Stream getDeveloperStream( final String streamname, final String pvob, PrintStream hudsonOut ) throws ScmException, IOException
     {
     	Stream devstream = null;
 
     	try
     	{
-    		if ( Stream.StreamExists( streamname + pvob ) )
+    		boolean exists = guard.read( CircuitBreaker.getPvob( pvob ), new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform() throws UCMException
+    			{
+    				return Stream.StreamExists( streamname + pvob );
+    			}
+    		} );
+    		
+    		if ( exists )
     		{
-    			devstream = Stream.GetStream( streamname + pvob, false );
+    			devstream = getStream( streamname + pvob );
     		}
     		else
     		{
-    			if ( buildProject.equals( "" ) )
+    			final String buildProject = request.getBuildProject().equals( "" ) ? null : request.getBuildProject();
+    			final PrintStream out = hudsonOut;
+    			final Stream parent = guard.read( bl.GetPvob(), new UCMOperation<Stream>()
+    			{
+    				public Stream perform() throws UCMException
+    				{
+    					try
+    					{
+    						return Config.getIntegrationStream( bl, out, buildProject );
+    					}
+    					catch ( ScmException e )
+    					{
+    						throw new UCMException( e.getMessage() );
+    					}
+    				}
+    			} );
+    			devstream = takePooledStream( parent.GetFQName(), streamname, pvob, hudsonOut );
+    			if ( devstream == null )
     			{
-    				buildProject = null;
+    				devstream = guard.write( bl.GetPvob(), new UCMOperation<Stream>()
+    				{
+    					public Stream perform() throws UCMException
+    					{
+    						return Stream.Create( parent, streamname + pvob, true, bl );
+    					}
+    				} );
     			}
-    			devstream = Stream.Create( Config.getIntegrationStream( bl, hudsonOut, buildProject ), streamname + pvob, true, bl );
     		}
     	}
-    	/*
-    	 * This tries to handle the issue where the project hudson is not
-    	 * available
-    	 */
-    	catch ( ScmException se )
+    	catch ( IOException e )
     	{
-    		throw se;
-
+    		throw e;
     	}
     	catch ( Exception e )
     	{
@@ -284,6 +962,151 @@ public class CheckoutTask implements FileCallable<Tuple<String, String>> {
     	return devstream;
     }
     
+    private Stream getStream( final String fqname ) throws UCMException, IOException
+    {
+    	return guard.read( CircuitBreaker.getPvob( fqname ), new UCMOperation<Stream>()
+    	{
+    		public Stream perform() throws UCMException
+    		{
+    			return Stream.GetStream( fqname, false );
+    		}
+    	} );
+    }
+    
+    private SnapshotView getSnapshotView( final File viewroot ) throws UCMException, IOException
+    {
+    	return guard.view( new UCMOperation<SnapshotView>()
+    	{
+    		public SnapshotView perform() throws UCMException
+    		{
+    			return UCMView.GetSnapshotView( viewroot );
+    		}
+    	} );
+    }
+    
+    private boolean viewExists( final String viewtag ) throws ScmException, IOException
+    {
+    	try
+    	{
+    		return guard.view( new UCMOperation<Boolean>()
+    		{
+    			public Boolean perform()
+    			{
+    				return UCMView.ViewExists( viewtag );
+    			}
+    		} );
+    	}
+    	catch ( UCMException e )
+    	{
+    		throw new ScmException( "Could not look up the view " + viewtag + ". " + e.getMessage() );
+    	}
+    }
+    
+    /**
+     * Gets the UUID of a snapshot view from its view.dat
+     * @return The UUID, or null if the view root holds no view
+     */
+    static String getViewUuid( File viewroot )
+    {
+    	File viewdat = new File( viewroot, "view.dat" );
+    	if ( !viewdat.exists() )
+    	{
+    		return null;
+    	}
+    	
+    	try
+    	{
+    		BufferedReader reader = new BufferedReader( new FileReader( viewdat ) );
+    		try
+    		{
+    			String line;
+    			while ( ( line = reader.readLine() ) != null )
+    			{
+    				Matcher m = uuidPattern.matcher( line );
+    				if ( m.find() )
+    				{
+    					return m.group( 1 );
+    				}
+    			}
+    		}
+    		finally
+    		{
+    			reader.close();
+    		}
+    	}
+    	catch ( IOException e )
+    	{
+    		/* The view is looked up in ClearCase */
+    	}
+    	
+    	return null;
+    }
+    
+    /**
+     * Renames a stream from the {@link StreamPool} of the master to the development stream
+     * @return The development stream, or null if the pool is empty
+     */
+    private Stream takePooledStream( String parent, final String streamname, final String pvob, PrintStream hudsonOut ) throws IOException
+    {
+    	final String pooled = guard.takeStream( parent );
+    	if ( pooled == null )
+    	{
+    		guard.report( "Pool streams missed", 1 );
+    		return null;
+    	}
+    	
+    	try
+    	{
+    		hudsonOut.print( "[PUCM] Taking the development stream from the pool..." );
+    		Stream stream = guard.write( bl.GetPvob(), new UCMOperation<Stream>()
+    		{
+    			public Stream perform() throws UCMException
+    			{
+    				StreamPool.rename( options.getCleartool(), pooled, streamname.substring( streamname.indexOf( ':' ) + 1 ) );
+    				return Stream.GetStream( streamname + pvob, false );
+    			}
+    		} );
+    		hudsonOut.println( " DONE" );
+    		guard.report( "Pool streams taken", 1 );
+    		
+    		return stream;
+    	}
+    	catch ( UCMException e )
+    	{
+    		/* Another build may have renamed it */
+    		hudsonOut.println( " FAILED, creating it" );
+    		log += logger.warning( id + "Could not rename " + pooled + ": " + e.getMessage() );
+    		return null;
+    	}
+    }
+    
+	/**
+	 * Creates the change log from the names of the activities only
+	 */
+	private String createChangelog( List<String> activities )
+	{
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" );
+		buffer.append( "<changelog>" );
+		buffer.append( "<changeset>" );
+		buffer.append( "<entry>" );
+		buffer.append( ( "<blName>" + bl.GetShortname() + "</blName>" ) );
+		for ( String activity : activities )
+		{
+			buffer.append( "<activity>" );
+			buffer.append( ( "<actName>" + activity + "</actName>" ) );
+			buffer.append( ( "<author>Unknown</author>" ) );
+			buffer.append( "</activity>" );
+		}
+		buffer.append( "</entry>" );
+		buffer.append( "</changeset>" );
+
+		buffer.append( "</changelog>" );
+
+		return buffer.toString();
+	}
+	
 	private String createChangelog( BaselineDiff changes, PrintStream hudsonOut )
 	{
 		StringBuffer buffer = new StringBuffer();
@@ -0,0 +1,194 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.clearcase.ucm.entities.Stream;
+import net.praqma.clearcase.ucm.view.SnapshotView;
+import net.praqma.clearcase.ucm.view.UCMView;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * Updates only the elements of a snapshot view, which differ between the baseline
+ * the view is at and the new baseline.<br>
+ * The development stream is rebased through a companion snapshot view without
+ * load rules, so the rebase does not update the build view. The changed elements
+ * are found with <code>cleartool diffbl -versions</code>. The config spec of the build
+ * view is regenerated from the rebased stream with <code>cleartool setcs -stream</code>,
+ * and the changed files are updated with <code>cleartool update</code> on their paths.<br>
+ * Elements, which are added, removed or renamed, only show up as new versions of their
+ * directories. An update of a directory pname updates everything below it, so the view is
+ * updated as a whole instead, if any directory changed, see {@link #changesNames(File, List)}.
+ */
+public class DifferentialUpdate
+{
+	/* The number of paths per update command */
+	private static final int batch = 50;
+	
+	private CommandRunner cleartool;
+	private int limit;
+	
+	/**
+	 * @param cleartool The cleartool runner
+	 * @param limit The maximum number of changed paths, above which a full update is cheaper
+	 */
+	public DifferentialUpdate( CommandRunner cleartool, int limit )
+	{
+		this.cleartool = cleartool;
+		this.limit     = limit;
+	}
+	
+	/**
+	 * Gets the companion view used for rebasing the stream, it is created if it does not exist
+	 * @param devstream The development stream
+	 * @param viewroot The view root of the build view
+	 * @param viewtag The view tag of the build view
+	 * @return The companion view
+	 * @throws UCMException
+	 */
+	public SnapshotView getRebaseView( Stream devstream, File viewroot, String viewtag ) throws UCMException
+	{
+		File root  = getRebaseViewroot( viewroot );
+		String tag = getRebaseViewtag( viewtag );
+		
+		if( !UCMView.ViewExists( tag ) )
+		{
+			/* A view without load rules, its updates are free */
+			run( viewroot.getParentFile(), "mkview", "-snapshot", "-tag", tag, "-stream", devstream.GetFQName(), root.getAbsolutePath() );
+		}
+		
+		return UCMView.GetSnapshotView( root );
+	}
+	
+	public static String getRebaseViewtag( String viewtag )
+	{
+		return viewtag + "_rebase";
+	}
+	
+	public static File getRebaseViewroot( File viewroot )
+	{
+		return new File( viewroot.getParentFile(), viewroot.getName() + "_rebase" );
+	}
+	
+	/**
+	 * Regenerates the config spec of the build view from its stream, which was rebased
+	 * through the companion view, so the view selects the versions of the new foundation
+	 * @param viewroot The view root of the build view
+	 * @throws UCMException
+	 */
+	public void setStream( File viewroot ) throws UCMException
+	{
+		run( viewroot, "setcs", "-stream" );
+	}
+	
+	/**
+	 * Finds the paths of the elements, which differ between two baselines
+	 * @param previous The baseline the view is at
+	 * @param target The new baseline
+	 * @param viewroot The view root
+	 * @return The paths relative to the view root, or null if there are more than the limit
+	 * @throws UCMException
+	 */
+	public List<String> getChangedPaths( String previous, String target, File viewroot ) throws UCMException
+	{
+		List<String> paths = parse( run( viewroot, "diffbl", "-versions", previous, target ), viewroot );
+		
+		return paths.size() > limit ? null : paths;
+	}
+	
+	/**
+	 * Updates the files of the paths in the view
+	 * @return The number of files updated
+	 */
+	public int update( File viewroot, List<String> paths ) throws UCMException
+	{
+		for( int i = 0 ; i < paths.size() ; i += batch )
+		{
+			List<String> args = new ArrayList<String>();
+			args.addAll( Arrays.asList( "update", "-force", "-overwrite", "-log", File.separatorChar == '\\' ? "NUL" : "/dev/null" ) );
+			args.addAll( paths.subList( i, Math.min( i + batch, paths.size() ) ) );
+			cleartool.run( viewroot, args );
+		}
+		
+		return paths.size();
+	}
+	
+	/**
+	 * Tells whether the names in the view changed, which the update of the paths does not handle.
+	 * A new version of a directory adds, removes or renames the elements in it, and an element,
+	 * which is not in the view, is a new element or a removed directory.
+	 */
+	public static boolean changesNames( File viewroot, List<String> paths )
+	{
+		for( String path : paths )
+		{
+			File f = new File( viewroot, path );
+			if( !f.exists() || f.isDirectory() )
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private String run( File dir, String ... args ) throws UCMException
+	{
+		return cleartool.run( dir, Arrays.asList( args ) );
+	}
+	
+	/**
+	 * Parses the output of <code>diffbl -versions</code>. The versions are listed
+	 * as <code>&gt;&gt; path@@version</code> and <code>&lt;&lt; path@@version</code>.
+	 * @param output The output
+	 * @param viewroot The view root
+	 * @return The unique element paths relative to the view root
+	 */
+	public static List<String> parse( String output, File viewroot )
+	{
+		Set<String> paths = new LinkedHashSet<String>();
+		String root = viewroot.getAbsolutePath();
+		
+		for( String line : output.split( "\\r?\\n" ) )
+		{
+			line = line.trim();
+			if( !line.startsWith( ">>" ) && !line.startsWith( "<<" ) )
+			{
+				continue;
+			}
+			
+			String path = line.substring( 2 ).trim();
+			int i = path.indexOf( "@@" );
+			if( i >= 0 )
+			{
+				path = path.substring( 0, i );
+			}
+			
+			/* Make the path relative to the view root, which holds the VOBs */
+			if( path.toLowerCase().startsWith( root.toLowerCase() ) )
+			{
+				path = path.substring( root.length() );
+			}
+			else if( path.length() > 1 && path.charAt( 1 ) == ':' )
+			{
+				path = path.substring( 2 );
+			}
+			while( path.startsWith( "\\" ) || path.startsWith( "/" ) )
+			{
+				path = path.substring( 1 );
+			}
+			
+			if( path.length() > 0 )
+			{
+				paths.add( path );
+			}
+		}
+		
+		return new ArrayList<String>( paths );
+	}
+}
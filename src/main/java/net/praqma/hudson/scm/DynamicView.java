@@ -0,0 +1,142 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * A dynamic view on a development stream. The files of a dynamic view are read
+ * through the MVFS when they are opened, so checking out is a rebase of the stream,
+ * and nothing is loaded or copied. COOL has snapshot views only, so the view is
+ * managed through cleartool.
+ */
+public class DynamicView
+{
+	private CommandRunner cleartool;
+
+	/**
+	 * @param cleartool The cleartool runner
+	 */
+	public DynamicView( CommandRunner cleartool )
+	{
+		this.cleartool = cleartool;
+	}
+
+	/**
+	 * Gets the path of a dynamic view
+	 * @param root The root of the dynamic views, such as <code>M:\</code> or <code>/view</code>
+	 * @param viewtag The view tag
+	 */
+	public static String getPath( String root, String viewtag )
+	{
+		if( root.endsWith( "\\" ) || root.endsWith( "/" ) )
+		{
+			return root + viewtag;
+		}
+
+		return root + ( root.indexOf( '/' ) >= 0 ? "/" : "\\" ) + viewtag;
+	}
+
+	public boolean exists( String viewtag )
+	{
+		try
+		{
+			run( null, "lsview", "-short", viewtag );
+			return true;
+		}
+		catch( UCMException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Creates a dynamic view on a stream, with its storage in the default storage location
+	 */
+	public void create( String viewtag, String stream ) throws UCMException
+	{
+		run( null, "mkview", "-tag", viewtag, "-stream", stream, "-stgloc", "-auto" );
+	}
+
+	/**
+	 * Starts the view, so its path is available
+	 */
+	public void start( String viewtag ) throws UCMException
+	{
+		run( null, "startview", viewtag );
+	}
+
+	/**
+	 * Determines whether a baseline is a foundation baseline of a stream
+	 */
+	public boolean isAt( String stream, String baseline ) throws UCMException
+	{
+		String found = run( null, "lsstream", "-fmt", "%[found_bls]Xp", stream );
+
+		/* The names are listed with the baseline: prefix */
+		String name = baseline.startsWith( "baseline:" ) ? baseline : "baseline:" + baseline;
+		return Arrays.asList( found.trim().split( "\\s+" ) ).contains( name );
+	}
+
+	/**
+	 * Rebases the stream of the view, and completes the rebase
+	 */
+	public void rebase( String viewtag, String baseline ) throws UCMException
+	{
+		run( null, "rebase", "-view", viewtag, "-baseline", baseline, "-complete" );
+	}
+
+	public void cancelRebase( String viewtag ) throws UCMException
+	{
+		run( null, "rebase", "-cancel", "-force", "-view", viewtag );
+	}
+
+	/**
+	 * Gets the short names of the activities of a baseline, compared to its predecessor
+	 * @param baseline The baseline
+	 * @param dir A directory in the view
+	 */
+	public List<String> getActivities( String baseline, File dir ) throws UCMException
+	{
+		return parseActivities( run( dir, "diffbl", "-predecessor", "-activities", baseline ) );
+	}
+
+	/**
+	 * Parses the output of <code>cleartool diffbl -activities</code>
+	 */
+	static List<String> parseActivities( String output )
+	{
+		List<String> activities = new ArrayList<String>();
+		for( String line : output.split( "\\r?\\n" ) )
+		{
+			/* Activities only in the predecessor, marked <<, are not part of the baseline */
+			if( !line.startsWith( ">>" ) )
+			{
+				continue;
+			}
+
+			String name = line.substring( 2 ).trim().split( "\\s+" )[0];
+			if( name.startsWith( "activity:" ) )
+			{
+				name = name.substring( 9 );
+			}
+			if( name.indexOf( '@' ) > 0 )
+			{
+				name = name.substring( 0, name.indexOf( '@' ) );
+			}
+
+			activities.add( name );
+		}
+
+		return activities;
+	}
+
+	private String run( File dir, String ... args ) throws UCMException
+	{
+		return cleartool.run( dir, Arrays.asList( args ) );
+	}
+}
@@ -0,0 +1,259 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+
+/**
+ * The paths of a component, which a job loads into its snapshot view, and the paths it
+ * leaves out. The paths are VOB paths, such as <code>\vob\comp\src</code>, one per line.<br>
+ * The rules are written to the custom sections of the UCM config spec of the view, which
+ * ClearCase keeps when it regenerates the config spec from the stream. The included paths
+ * become load rules, which replace the load rules of the load modules, and the excluded
+ * paths become element rules selecting no version.
+ */
+public class LoadRules implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final String elemBegin = "#UCMCustomElemBegin - DO NOT REMOVE";
+	private static final String elemEnd   = "#UCMCustomElemEnd - DO NOT REMOVE";
+	private static final String loadBegin = "#UCMCustomLoadBegin - DO NOT REMOVE";
+	private static final String loadEnd   = "#UCMCustomLoadEnd - DO NOT REMOVE";
+
+	private List<String> includes;
+	private List<String> excludes;
+
+	/**
+	 * @param includes The paths to load, one per line, may be null
+	 * @param excludes The paths to leave out, one per line, may be null
+	 */
+	public LoadRules( String includes, String excludes )
+	{
+		this.includes = parse( includes );
+		this.excludes = parse( excludes );
+	}
+
+	private static List<String> parse( String paths )
+	{
+		List<String> list = new ArrayList<String>();
+		if( paths == null )
+		{
+			return list;
+		}
+
+		for( String line : paths.split( "\\r?\\n" ) )
+		{
+			line = line.trim();
+			if( line.length() > 0 && !line.startsWith( "#" ) )
+			{
+				list.add( line );
+			}
+		}
+
+		return list;
+	}
+
+	public boolean isEmpty()
+	{
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * True if the included paths replace the load rules of the load modules
+	 */
+	public boolean hasIncludes()
+	{
+		return !includes.isEmpty();
+	}
+
+	public List<String> getIncludes()
+	{
+		return includes;
+	}
+
+	public List<String> getExcludes()
+	{
+		return excludes;
+	}
+
+	/**
+	 * Gets a short string telling the rules apart, empty if there are none
+	 */
+	public String getKey()
+	{
+		if( isEmpty() )
+		{
+			return "";
+		}
+
+		return Integer.toHexString( toString().hashCode() );
+	}
+
+	/**
+	 * Writes the rules into the custom sections of a config spec
+	 * @param configSpec The config spec of the view
+	 * @return The new config spec
+	 * @throws UCMException If the config spec is not a UCM config spec
+	 */
+	public String apply( String configSpec ) throws UCMException
+	{
+		StringBuffer elements = new StringBuffer();
+		for( String path : excludes )
+		{
+			elements.append( "element \"" + path + "\" -none\n" );
+			elements.append( "element \"" + path + separator( path ) + "...\" -none\n" );
+		}
+
+		String cs = replace( configSpec, elemBegin, elemEnd, elements.toString() );
+
+		/* Without includes the load rules of the load modules are kept */
+		if( hasIncludes() )
+		{
+			cs = load( cs, includes );
+		}
+
+		return cs;
+	}
+
+	/**
+	 * Writes load rules for paths into the custom load section of a config spec
+	 * @param configSpec The config spec of the view
+	 * @param paths The paths to load
+	 * @return The new config spec
+	 * @throws UCMException If the config spec is not a UCM config spec
+	 */
+	public static String load( String configSpec, List<String> paths ) throws UCMException
+	{
+		StringBuffer loads = new StringBuffer();
+		for( String path : paths )
+		{
+			loads.append( "load \"" + path + "\"\n" );
+		}
+
+		return replace( configSpec, loadBegin, loadEnd, loads.toString() );
+	}
+
+	/**
+	 * Removes the rules of a job, which no longer has any, from the custom sections of a config spec.
+	 * The load rules of the load modules go as well, the update of the view adds them again
+	 * @param configSpec The config spec of the view
+	 * @return The new config spec
+	 * @throws UCMException If the config spec is not a UCM config spec
+	 */
+	public static String clear( String configSpec ) throws UCMException
+	{
+		return replace( replace( configSpec, elemBegin, elemEnd, "" ), loadBegin, loadEnd, "" );
+	}
+
+	/**
+	 * Sets the config spec of a snapshot view with the rules, which updates the view
+	 * @param cleartool The cleartool runner
+	 * @param viewroot The view root
+	 * @throws UCMException
+	 */
+	public void setConfigSpec( CommandRunner cleartool, File viewroot ) throws UCMException
+	{
+		writeConfigSpec( cleartool, viewroot, apply( catcs( cleartool, viewroot ) ) );
+	}
+
+	/**
+	 * Sets the config spec of a snapshot view without the custom rules, see {@link #clear(String)}
+	 * @param cleartool The cleartool runner
+	 * @param viewroot The view root
+	 * @throws UCMException
+	 */
+	public static void clearConfigSpec( CommandRunner cleartool, File viewroot ) throws UCMException
+	{
+		writeConfigSpec( cleartool, viewroot, clear( catcs( cleartool, viewroot ) ) );
+	}
+
+	/**
+	 * Sets the load rules of the root directories of the components of a snapshot view, which
+	 * updates the view. Nothing is done, if the view has the load rules already
+	 * @param cleartool The cleartool runner
+	 * @param viewroot The view root
+	 * @param roots The root directories of the components
+	 * @return True if the config spec was set
+	 * @throws UCMException
+	 */
+	public static boolean setComponentRoots( CommandRunner cleartool, File viewroot, List<String> roots ) throws UCMException
+	{
+		String cs = catcs( cleartool, viewroot );
+		String loaded = load( cs, roots );
+		if( loaded.equals( cs ) )
+		{
+			return false;
+		}
+
+		writeConfigSpec( cleartool, viewroot, loaded );
+		return true;
+	}
+
+	private static String catcs( CommandRunner cleartool, File viewroot ) throws UCMException
+	{
+		List<String> catcs = new ArrayList<String>();
+		catcs.add( "catcs" );
+		return cleartool.run( viewroot, catcs );
+	}
+
+	private static void writeConfigSpec( CommandRunner cleartool, File viewroot, String cs ) throws UCMException
+	{
+		File file = null;
+		try
+		{
+			file = File.createTempFile( "pucm", ".cs" );
+			FileWriter fw = new FileWriter( file );
+			fw.write( cs );
+			fw.close();
+
+			List<String> setcs = new ArrayList<String>();
+			setcs.add( "setcs" );
+			setcs.add( "-force" );
+			setcs.add( "-overwrite" );
+			setcs.add( file.getAbsolutePath() );
+			cleartool.run( viewroot, setcs );
+		}
+		catch( IOException e )
+		{
+			throw new UCMException( "Could not write the config spec: " + e.getMessage() );
+		}
+		finally
+		{
+			if( file != null )
+			{
+				file.delete();
+			}
+		}
+	}
+
+	private static String separator( String path )
+	{
+		return path.indexOf( '/' ) >= 0 ? "/" : "\\";
+	}
+
+	private static String replace( String cs, String begin, String end, String rules ) throws UCMException
+	{
+		int b = cs.indexOf( begin );
+		int e = cs.indexOf( end );
+		if( b < 0 || e < b || cs.indexOf( '\n', b ) > e )
+		{
+			throw new UCMException( "The config spec has no " + begin.substring( 1, begin.indexOf( ' ' ) ) + " section" );
+		}
+
+		/* The rules go after the line of the begin marker */
+		int line = cs.indexOf( '\n', b );
+		return cs.substring( 0, line + 1 ) + rules + cs.substring( e );
+	}
+
+	public String toString()
+	{
+		return "include " + includes + ", exclude " + excludes;
+	}
+}
@@ -0,0 +1,289 @@
+package net.praqma.hudson.scm;
+
+import hudson.remoting.Callable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.TransientErrors;
+
+/**
+ * Records what the nodes can do in ClearCase, their region, their cleartool version
+ * and the PVOBs they can reach, so the build queue keeps PUCM builds off nodes, which
+ * cannot reach the PVOB of the job, see {@link net.praqma.hudson.PucmQueueTaskDispatcher}.
+ * Such a build would only fail in the checkout, after it took an executor.<br>
+ * The nodes are probed in the background when they come online and periodically, see
+ * {@link net.praqma.hudson.NodeProbeWork}. A node, which has not been probed for the
+ * PVOB of a job, does not take its builds, until a probe finds it can reach the PVOB.<br>
+ * The capabilities are kept in memory, like the other state of the master. They are
+ * not saved as node properties, which are configuration: a probe would rewrite the
+ * configuration of Hudson every round. After a restart of the master, the nodes are
+ * probed again as they connect, and capabilities from before the restart could be stale.
+ */
+public class NodeCapabilities
+{
+	public static final NodeCapabilities capabilities = new NodeCapabilities();
+
+	/* A node, which was probed without finding out about a PVOB, is probed again after this long */
+	public static final long retry = 60 * 1000;
+
+	/**
+	 * The result of a probe of a node
+	 */
+	public static class Capabilities implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String version = null;
+		private String region = null;
+		private Set<String> reachable = new LinkedHashSet<String>();
+		private Set<String> unreachable = new LinkedHashSet<String>();
+		private long probed = System.currentTimeMillis();
+		private String error = null;
+
+		/**
+		 * The version of cleartool, null if cleartool could not be run
+		 */
+		public String getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * The ClearCase registry region of the node, null if unknown
+		 */
+		public String getRegion()
+		{
+			return region;
+		}
+
+		public Set<String> getReachable()
+		{
+			return reachable;
+		}
+
+		public Set<String> getUnreachable()
+		{
+			return unreachable;
+		}
+
+		public long getProbed()
+		{
+			return probed;
+		}
+
+		/**
+		 * Why the last probe failed, null if it did not
+		 */
+		public String getError()
+		{
+			return error;
+		}
+
+		public String toString()
+		{
+			if( error != null )
+			{
+				return "probe failed, " + error;
+			}
+
+			return "cleartool " + version + ", region " + region + ", reachable " + reachable + ", unreachable " + unreachable;
+		}
+	}
+
+	/* node -> capabilities, the empty name is the master */
+	private Map<String, Capabilities> nodes = new HashMap<String, Capabilities>();
+
+	public synchronized void put( String node, Capabilities capabilities )
+	{
+		nodes.put( node, capabilities );
+	}
+
+	/**
+	 * Records a probe of a node, which failed or timed out. The capabilities found
+	 * before are kept, they are only probed again after the {@link #retry} time.
+	 */
+	public synchronized void failed( String node, String error )
+	{
+		Capabilities c = nodes.get( node );
+		if( c == null )
+		{
+			c = new Capabilities();
+			nodes.put( node, c );
+		}
+
+		c.probed = System.currentTimeMillis();
+		c.error  = error;
+	}
+
+	/**
+	 * Gets the capabilities of a node
+	 * @return The capabilities, or null if the node has not been probed
+	 */
+	public synchronized Capabilities get( String node )
+	{
+		return nodes.get( node );
+	}
+
+	/**
+	 * Forgets a node, which went offline
+	 */
+	public synchronized void remove( String node )
+	{
+		nodes.remove( node );
+	}
+
+	/**
+	 * Determines whether a node may take a build of a PVOB. The node is refused,
+	 * unless a probe found it could reach the PVOB.
+	 * @param node The name of the node, empty for the master
+	 * @param pvob The PVOB, such as <code>\Cool_PVOB</code>
+	 */
+	public synchronized boolean canReach( String node, String pvob )
+	{
+		Capabilities c = nodes.get( node );
+		return c != null && c.reachable.contains( pvob );
+	}
+
+	/**
+	 * Determines whether a node should be probed for a PVOB, because it is not known
+	 * whether the node can reach it
+	 * @param now The time now
+	 */
+	public synchronized boolean isUnknown( String node, String pvob, long now )
+	{
+		Capabilities c = nodes.get( node );
+		return c == null || ( !c.reachable.contains( pvob ) && !c.unreachable.contains( pvob ) && now - c.probed > retry );
+	}
+
+	/**
+	 * Parses the version out of the output of <code>cleartool -version</code>
+	 * @return The version, or the first line if there is no ClearCase version line
+	 */
+	public static String parseVersion( String output )
+	{
+		String[] lines = output.trim().split( "\\r?\\n" );
+		for( String line : lines )
+		{
+			int i = line.indexOf( "ClearCase version " );
+			if( i >= 0 )
+			{
+				return line.substring( i + "ClearCase version ".length() ).trim();
+			}
+		}
+
+		return lines[0].trim();
+	}
+
+	/**
+	 * Parses the region out of the output of <code>cleartool hostinfo -long</code>
+	 * @return The region, or null if it was not found
+	 */
+	public static String parseRegion( String output )
+	{
+		for( String line : output.split( "\\r?\\n" ) )
+		{
+			line = line.trim();
+			if( line.startsWith( "Registry region:" ) )
+			{
+				return line.substring( "Registry region:".length() ).trim();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Probes a node, run on the node
+	 */
+	public static class Probe implements Callable<Capabilities, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private CommandRunner cleartool;
+		private List<String> pvobs;
+
+		/**
+		 * @param cleartool The cleartool of the node
+		 * @param pvobs The PVOBs of the PUCM jobs
+		 */
+		public Probe( CommandRunner cleartool, Collection<String> pvobs )
+		{
+			this.cleartool = cleartool;
+			this.pvobs     = new ArrayList<String>( pvobs );
+		}
+
+		public Capabilities call()
+		{
+			Capabilities c = new Capabilities();
+
+			try
+			{
+				c.version = parseVersion( cleartool.run( null, Arrays.asList( "-version" ) ) );
+			}
+			catch( UCMException e )
+			{
+				/* Without cleartool the node cannot reach any PVOB */
+				c.unreachable.addAll( pvobs );
+				return c;
+			}
+
+			try
+			{
+				c.region = parseRegion( cleartool.run( null, Arrays.asList( "hostinfo", "-long" ) ) );
+			}
+			catch( UCMException e )
+			{
+				/* The region is informational */
+			}
+
+			for( String pvob : pvobs )
+			{
+				if( describe( pvob ) )
+				{
+					c.reachable.add( pvob );
+				}
+				else
+				{
+					c.unreachable.add( pvob );
+				}
+			}
+
+			return c;
+		}
+
+		/**
+		 * Describes a PVOB, which contacts its server. A transient error is tried once more,
+		 * as the node is refused the builds of the PVOB until the next probe.
+		 */
+		private boolean describe( String pvob )
+		{
+			for( int i = 0 ; i < 2 ; i++ )
+			{
+				try
+				{
+					cleartool.run( null, Arrays.asList( "describe", "-short", "vob:" + pvob ) );
+					return true;
+				}
+				catch( UCMException e )
+				{
+					if( !TransientErrors.isTransient( e ) )
+					{
+						return false;
+					}
+				}
+			}
+
+			return false;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package net.praqma.hudson.scm;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the checkouts, which bring the view of a job on an idle node to a new baseline
+ * as soon as polling finds it, so the view is warm when the build is scheduled there.
+ * The build on the node waits for a running pre-warm of its job, and then finds the view
+ * at the baseline. If the pre-warm does not finish in time, the build checks out another
+ * view of the job, as the pre-warm keeps its view until it finishes.<br>
+ * At most one pre-warm runs per job and node.
+ */
+public class Prewarm
+{
+	public static final Prewarm prewarms = new Prewarm();
+
+	private ExecutorService executor = Executors.newCachedThreadPool( new ThreadFactory()
+	{
+		public Thread newThread( Runnable r )
+		{
+			Thread t = new Thread( r, "PUCM pre-warm" );
+			t.setDaemon( true );
+			return t;
+		}
+	} );
+
+	/* node::job -> the running pre-warm */
+	private Map<String, Future<?>> running = new HashMap<String, Future<?>>();
+
+	private static String key( String node, String job )
+	{
+		return ( node == null ? "" : node ) + "::" + job;
+	}
+
+	/**
+	 * Starts a pre-warm of the view of a job on a node
+	 * @param node The name of the node, empty for the master
+	 * @param job The job name
+	 * @param checkout The checkout
+	 * @return False if a pre-warm of the job is already running on the node
+	 */
+	public synchronized boolean start( String node, String job, Callable<?> checkout )
+	{
+		Future<?> f = running.get( key( node, job ) );
+		if( f != null && !f.isDone() )
+		{
+			return false;
+		}
+
+		running.put( key( node, job ), executor.submit( checkout ) );
+		return true;
+	}
+
+	/**
+	 * True if a pre-warm of the view of a job is running on a node
+	 */
+	public synchronized boolean isRunning( String node, String job )
+	{
+		Future<?> f = running.get( key( node, job ) );
+		return f != null && !f.isDone();
+	}
+
+	/**
+	 * Waits for a running pre-warm of the view of a job on a node to finish
+	 * @param node The name of the node, empty for the master
+	 * @param job The job name
+	 * @param timeout The time in milliseconds to wait, zero or less waits until the pre-warm finishes
+	 * @param out The console of the build
+	 * @throws InterruptedException
+	 */
+	public void await( String node, String job, long timeout, PrintStream out ) throws InterruptedException
+	{
+		Future<?> f;
+		synchronized( this )
+		{
+			f = running.get( key( node, job ) );
+		}
+
+		if( f == null )
+		{
+			return;
+		}
+
+		if( !f.isDone() )
+		{
+			out.println( "[PUCM] Waiting for the pre-warm of the view to finish" );
+		}
+
+		try
+		{
+			if( timeout > 0 )
+			{
+				f.get( timeout, TimeUnit.MILLISECONDS );
+			}
+			else
+			{
+				f.get();
+			}
+		}
+		catch( ExecutionException e )
+		{
+			/* The build checks out the view itself */
+			out.println( "[PUCM] The pre-warm of the view failed: " + e.getCause().getMessage() );
+		}
+		catch( TimeoutException e )
+		{
+			/* The pre-warm is still running, so it is not started again */
+			out.println( "[PUCM] The pre-warm of the view did not finish within " + ( timeout / 1000 ) + "s, checking out without it" );
+			return;
+		}
+
+		synchronized( this )
+		{
+			if( running.get( key( node, job ) ) == f )
+			{
+				running.remove( key( node, job ) );
+			}
+		}
+	}
+}
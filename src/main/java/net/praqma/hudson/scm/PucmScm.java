@@ -8,6 +8,11 @@ import hudson.model.BuildListener;
 import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.StreamBuildListener;
+import hudson.model.TopLevelItem;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.PollingResult;
 import hudson.scm.SCMDescriptor;
@@ -18,32 +23,47 @@ import hudson.util.FormValidation;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.praqma.clearcase.ucm.UCMException;
 import net.praqma.clearcase.ucm.entities.Cool;
 import net.praqma.clearcase.ucm.entities.Project;
 import net.praqma.clearcase.ucm.entities.Baseline;
+import net.praqma.clearcase.ucm.entities.Component;
 import net.praqma.clearcase.ucm.utils.BaselineList;
 import net.praqma.clearcase.ucm.entities.Stream;
 import net.praqma.clearcase.ucm.entities.UCMEntity;
 import net.praqma.hudson.Config;
+import net.praqma.hudson.Metrics;
+import net.praqma.hudson.PucmQueueTaskDispatcher;
+import net.praqma.hudson.RemoteSettings;
 import net.praqma.hudson.exception.ScmException;
+import net.praqma.hudson.exception.VobUnavailableException;
+import net.praqma.hudson.notifier.PucmNotifier;
 import net.praqma.hudson.scm.PucmState.State;
 import net.praqma.hudson.scm.StoredBaselines.StoredBaseline;
+import net.praqma.hudson.ucm.LeaseLimiter;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.ClearTool;
+import net.praqma.hudson.ucm.RetryPolicy;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.hudson.ucm.UCMEntityCache;
+import net.praqma.hudson.ucm.UCMOperation;
 import net.praqma.util.debug.PraqmaLogger;
 import net.praqma.util.debug.PraqmaLogger.Logger;
-import net.praqma.util.structure.Tuple;
 import net.sf.json.JSONObject;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
-import org.kohsuke.stapler.export.Exported;
 
 /**
  * Pucm is responsible for everything regarding Hudsons connection to
@@ -62,19 +82,14 @@ public class PucmScm extends SCM
 	private String component;
 	private String stream;
 	private boolean newest;
-	private Baseline bl;
 	// private BaselineList baselines;
 	private boolean compRevCalled;
 	private StringBuffer pollMsgs = new StringBuffer();
-	private Stream integrationstream;
-	private boolean doPostBuild = true;
 	private String buildProject;
 	private boolean multiSite = false;
-
-	private String jobName = "";
-	private Integer jobNumber;
-
-	private String id = "";
+	private String checkoutMode;
+	private String loadRuleIncludes;
+	private String loadRuleExcludes;
 
 	private Logger logger = null;
 	
@@ -148,8 +163,8 @@ public class PucmScm extends SCM
 	 * @param newerThanRecommended
 	 *            tells whether we should look at all baselines or only ones
 	 *            newer than the recommended baseline
+	 * @deprecated as of 0.3.22
 	 */
-	@DataBoundConstructor
 	public PucmScm( String component, String levelToPoll, String loadModule, String stream, boolean newest, boolean multiSite, boolean testing, String buildProject )
 	{
 		this.logger = PraqmaLogger.getLogger();
@@ -164,28 +179,70 @@ public class PucmScm extends SCM
 		this.multiSite = multiSite;
 	}
 
+	/**
+	 * The constructor is used by Hudson to create the instance of the plugin
+	 * needed for a connection to ClearCase. It is annotated with
+	 * <code>@DataBoundConstructor</code> to tell Hudson where to put the
+	 * information retrieved from the configuration page in the WebUI.
+	 * 
+	 * @param component
+	 *            defines the component needed to find baselines.
+	 * @param levelToPoll
+	 *            defines the level to poll ClearCase for.
+	 * @param loadModule
+	 *            tells if we should load all modules or only the ones that are
+	 *            modifiable.
+	 * @param stream
+	 *            defines the stream needed to find baselines.
+	 * @param newest
+	 *            tells whether we should build only the newest baseline.
+	 * @param newerThanRecommended
+	 *            tells whether we should look at all baselines or only ones
+	 *            newer than the recommended baseline
+	 * @param checkoutMode
+	 *            tells whether the workspace is a snapshot view or a clone
+	 *            from the node cache, see {@link CheckoutOptions.Mode}.
+	 * @param loadRuleIncludes
+	 *            the paths to load instead of the load modules, see {@link LoadRules}.
+	 * @param loadRuleExcludes
+	 *            the paths not to load.
+	 */
+	@DataBoundConstructor
+	public PucmScm( String component, String levelToPoll, String loadModule, String stream, boolean newest, boolean multiSite, boolean testing, String buildProject, String checkoutMode, String loadRuleIncludes, String loadRuleExcludes )
+	{
+		this.logger = PraqmaLogger.getLogger();
+		logger.trace_function();
+		logger.debug( "PucmSCM constructor" );
+		this.component = component;
+		this.levelToPoll = levelToPoll;
+		this.loadModule = loadModule;
+		this.stream = stream;
+		this.newest = newest;
+		this.buildProject = buildProject;
+		this.multiSite = multiSite;
+		this.checkoutMode = checkoutMode;
+		this.loadRuleIncludes = loadRuleIncludes;
+		this.loadRuleExcludes = loadRuleExcludes;
+	}
+
 	@Override
 	public boolean checkout( AbstractBuild<?, ?> build, Launcher launcher, FilePath workspace, BuildListener listener, File changelogFile ) throws IOException, InterruptedException
 	{
 		//System.out.println( "[PUCM] Checkout" );
-		/* Prepare job variables */
-		jobName   = build.getParent().getDisplayName().replace( ' ', '_' );
-		jobNumber = build.getNumber();
-		this.id = "[" + jobName + "::" + jobNumber + "]";
+		/* Prepare job variables. They are local, concurrent builds share the SCM */
+		String jobName    = build.getParent().getDisplayName().replace( ' ', '_' );
+		Integer jobNumber = build.getNumber();
+		String id = "[" + jobName + "::" + jobNumber + "]";
 		
 		/* Preparing the logger */
-		logger = PraqmaLogger.getLogger();
+		Logger logger = PraqmaLogger.getLogger();
 		File rdir = build.getRootDir();
 		logger.setLocalLog( new File( rdir + System.getProperty( "file.separator" ) + "log.log" ) );
 		
 		logger.unsubscribeAll();
-		if ( build.getBuildVariables().get( "include_classes" ) != null )
+		for( String i : RemoteSettings.getSubscriptions( build ) )
 		{
-			String[] is = build.getBuildVariables().get( "include_classes" ).toString().split( "," );
-			for( String i : is )
-			{
-				logger.subscribe( i.trim() );
-			}
+			logger.subscribe( i );
 		}
 		
 		/* Make sure the cool library is also affected */
@@ -201,8 +258,6 @@ public class PucmScm extends SCM
 		int count = pucm.recalculate( build.getProject() );
 		logger.info( id + "Removed " + count + " from states." );
 
-		doPostBuild = true;
-
 		/* If we polled, we should get the same object created at that point */
 		State state = pucm.getState( jobName, jobNumber );
 		state.setLoadModule( loadModule );
@@ -221,6 +276,9 @@ public class PucmScm extends SCM
 		}
 		
 		logger.debug( id + "The initial state:\n" + state.stringify() );
+		
+		UCMGuard guard = ( (PucmScmDescriptor) getDescriptor() ).createGuard( Metrics.owner( jobName, jobNumber ) );
+		guard.attach( null, consoleOutput );
 
 		/* Determining the pucm_baseline modifier */
 		String baselinevalue = "";
@@ -242,7 +300,7 @@ public class PucmScm extends SCM
 			String baselinename = (String) build.getBuildVariables().get( baselinevalue );
 			try
 			{
-				state.setBaseline( UCMEntity.GetBaseline( baselinename ) );
+				state.setBaseline( UCMEntityCache.entities.getBaseline( baselinename ) );
 				state.setStream( state.getBaseline().getStream() );
 				consoleOutput.println( "[PUCM] Starting parameterized build with a pucm_baseline.\n[PUCM] Using baseline: " + baselinename + " from integrationstream " + state.getStream().GetShortname() );
 				
@@ -273,7 +331,7 @@ public class PucmScm extends SCM
 			{
 				try
 				{
-					List<Baseline> baselines = getValidBaselines( build.getProject(), state, Project.GetPlevelFromString( levelToPoll ) );
+					List<Baseline> baselines = getValidBaselines( build.getProject(), state, Project.GetPlevelFromString( levelToPoll ), guard );
 					state.setBaselines( baselines );
 					Baseline baseline = selectBaseline( baselines, newest );
 					logger.debug( id + "I chose " + baseline );
@@ -284,6 +342,13 @@ public class PucmScm extends SCM
 					consoleOutput.println( "[PUCM] " + e.getMessage() );
 					result = false;
 				}
+				catch( VobUnavailableException e )
+				{
+					/* Fail fast, the VOB is known to be unavailable */
+					consoleOutput.println( "[PUCM] " + e.getMessage() );
+					state.setPostBuild( false );
+					result = false;
+				}
 				
 				/* Print the baselines to jenkins out */
 				printBaselines( state.getBaselines(), consoleOutput );
@@ -297,10 +362,10 @@ public class PucmScm extends SCM
 			
 			try
 			{
-				/* Force the Baseline to be loaded */
+				/* Force the Baseline to be loaded, the loaded baseline is shared by the build */
 				try
 				{
-					state.getBaseline().Load();
+					state.setBaseline( UCMEntityCache.entities.getBaseline( state.getBaseline().GetFQName() ) );
 				}
 				catch ( UCMException e )
 				{
@@ -341,11 +406,49 @@ public class PucmScm extends SCM
 				}
 
 				build.setDescription("<small>" + state.getBaseline() + "</small>");
-				CheckoutTask ct = new CheckoutTask( listener, jobName, build.getNumber(), state.getStream().GetFQName(), loadModule, state.getBaseline().GetFQName(), buildProject, logger );
+				/* A pre-warm of the view must finish, before the build can take over the view */
+				Prewarm.prewarms.await( build.getBuiltOnStr(), jobName, ( (PucmScmDescriptor) getDescriptor() ).getViewTimeoutAsInt() * 60000L, consoleOutput );
+				
+				/* Concurrent builds of the job get their own view */
+				int slot = ViewPool.pool.lease( build.getBuiltOnStr(), jobName, Metrics.owner( jobName, jobNumber ), ViewPool.getSlot( workspace.getName() ) );
+				state.setViewSlot( slot );
+				logger.debug( id + "Using view slot " + slot );
+				
+				CheckoutOptions options = createOptions( build.getBuiltOn(), launcher.isUnix(), jobName, slot );
+				
+				if ( options.getMode() == CheckoutOptions.Mode.DYNAMIC )
+				{
+					state.setViewPath( options.getDynamicViewPath() );
+				}
+				else
+				{
+					state.setViewPath( workspace.child( ViewPool.getName( "view", slot ) ).getRemote() );
+				}
+				
+				RemoteSettings settings = ( (PucmScmDescriptor) getDescriptor() ).createRemoteSettings( guard.getOwner(), build );
+				CheckoutTask ct = new CheckoutTask( new CheckoutRequest( jobName, build.getNumber(), state.getStream().GetFQName(), loadModule, state.getBaseline().GetFQName(), buildProject, slot, options, settings ), listener );
 
-				Tuple<String, String> ctresult = workspace.act( ct );
-				String changelog = ctresult.t1;
-				logger.empty( ctresult.t2 );
+				CheckoutResult ctresult = null;
+				if ( options.getMode() == CheckoutOptions.Mode.ARCHIVED )
+				{
+					String key = BaselineCache.getKey( state.getBaseline().GetFQName(), loadModule, options.getLoadRules() );
+					ctresult = checkoutArchived( workspace, ct, key, workspace.child( ViewPool.getName( "view", slot ) ), isDelivering( build ), guard, id, consoleOutput );
+				}
+				else
+				{
+					ctresult = workspace.act( ct );
+					logger.empty( ctresult.getLog() );
+				}
+				String changelog = ctresult.getChangelog();
+				state.setDevStream( ctresult.getStream() );
+				Metrics.store( build );
+				
+				/* The checkout task leaves the change log empty if it failed */
+				if ( changelog.length() > 0 )
+				{
+					String node = build.getBuiltOnStr() != null ? build.getBuiltOnStr() : "";
+					ViewAffinity.affinity.record( options.getMode() == CheckoutOptions.Mode.SNAPSHOT ? ViewAffinity.jobKey( jobName ) : ViewAffinity.streamKey( stream ), node );
+				}
 				
 				/* Write change log */
 				try
@@ -361,12 +464,17 @@ public class PucmScm extends SCM
 				}
 				
 			}
+			catch ( VobUnavailableException e )
+			{
+				consoleOutput.println( "[PUCM] " + e.getMessage() );
+				state.setPostBuild( false );
+				result = false;
+			}
 			catch ( Exception e )
 			{
 				consoleOutput.println( "[PUCM] An unknown error occured: " + e.getMessage() );
 				logger.warning( e );
 				e.printStackTrace( consoleOutput );
-				doPostBuild = false;
 				state.setPostBuild( false );
 				result = false;
 			}
@@ -377,6 +485,230 @@ public class PucmScm extends SCM
 		return result;
 	}
 
+	/**
+	 * Creates the options of the checkout on a node
+	 * @param node The node
+	 * @param unix True if the node is a unix machine
+	 * @param jobName The name of the job
+	 * @param slot The view slot
+	 */
+	private CheckoutOptions createOptions( Node node, boolean unix, String jobName, int slot )
+	{
+		PucmScmDescriptor descriptor = (PucmScmDescriptor) getDescriptor();
+		CheckoutOptions options = new CheckoutOptions().setCleartool( new ClearTool( descriptor.getCleartool() ) ).setDifferentialLimit( descriptor.getDifferentialLimitAsInt() );
+		options.setMode( CheckoutOptions.Mode.valueOf( getCheckoutMode().toUpperCase() ) );
+		options.setLoadRules( new LoadRules( loadRuleIncludes, loadRuleExcludes ) );
+		options.setCacheRoot( node.getRootPath().child( "pucm-cache" ).getRemote() ).setCacheSize( descriptor.getCacheSizeAsInt() );
+		options.setViewNaming( new ViewNaming( descriptor.getViewNaming() ) );
+		
+		if ( options.getMode() == CheckoutOptions.Mode.DYNAMIC )
+		{
+			/* Dynamic views are not bound to the disk of a machine, they are named after the node */
+			String viewtag = options.getViewNaming().getDynamicViewtag( node.getNodeName(), jobName, slot );
+			options.setDynamicView( viewtag, DynamicView.getPath( descriptor.getDynamicViewRoot( unix ), viewtag ) );
+		}
+		
+		return options;
+	}
+	
+	/**
+	 * Starts bringing the view of the job on an idle node to the baseline found by polling,
+	 * so the view is warm, when the build is scheduled, see {@link Prewarm}. The node is
+	 * told to the build queue as warm, see {@link ViewAffinity}.
+	 * @param jobNumber The number of the build, which polling queues
+	 */
+	private void prewarm( AbstractProject<?, ?> project, int jobNumber, State state, PrintStream consoleOut )
+	{
+		String jobName = project.getDisplayName().replace( ' ', '_' );
+		Logger logger = PraqmaLogger.getLogger();
+		
+		CheckoutOptions.Mode mode = CheckoutOptions.Mode.valueOf( getCheckoutMode().toUpperCase() );
+		
+		/* Archived baselines are unpacked by the build on the master */
+		if ( mode == CheckoutOptions.Mode.ARCHIVED || !( project instanceof TopLevelItem ) )
+		{
+			return;
+		}
+		
+		String key = mode == CheckoutOptions.Mode.SNAPSHOT ? ViewAffinity.jobKey( jobName ) : ViewAffinity.streamKey( stream );
+		Node node = selectIdleNode( ViewAffinity.affinity.getNodes( key ), project.getAssignedLabel() );
+		if ( node == null )
+		{
+			consoleOut.println( "[PUCM] No idle node to pre-warm the view on" );
+			return;
+		}
+		
+		final String name = node.getNodeName() == null ? "" : node.getNodeName();
+		final String owner = "prewarm:" + jobName;
+		
+		/* The first slot is the view of the build, which is not running on the node */
+		if ( Prewarm.prewarms.isRunning( name, jobName ) || !ViewPool.pool.tryLease( name, jobName, owner, 1 ) )
+		{
+			return;
+		}
+		
+		OutputStream log = null;
+		try
+		{
+			final FilePath workspace = node.getWorkspaceFor( (TopLevelItem) project );
+			log = new FileOutputStream( new File( project.getRootDir(), "pucm-prewarm.log" ) );
+			BuildListener listener = new StreamBuildListener( log, Charset.defaultCharset() );
+			
+			PucmScmDescriptor descriptor = (PucmScmDescriptor) getDescriptor();
+			CheckoutOptions options = createOptions( node, node.createLauncher( listener ).isUnix(), jobName, 1 );
+			final CheckoutTask ct = new CheckoutTask( new CheckoutRequest( jobName, jobNumber, state.getStream().GetFQName(), loadModule, state.getBaseline().GetFQName(), buildProject, 1, options, descriptor.createRemoteSettings( owner, null ) ), listener );
+			
+			final OutputStream out = log;
+			boolean started = Prewarm.prewarms.start( name, jobName, new Callable<Boolean>()
+			{
+				public Boolean call() throws Exception
+				{
+					try
+					{
+						workspace.mkdirs();
+						return workspace.act( ct ).getChangelog().length() > 0;
+					}
+					finally
+					{
+						/* The leases of an abandoned operation are kept until the owner is done */
+						LeaseLimiter.releaseAllLimiters( owner );
+						ViewPool.pool.releaseAll( owner );
+						Metrics.drain( owner );
+						out.close();
+					}
+				}
+			} );
+			
+			if ( started )
+			{
+				ViewAffinity.affinity.record( key, name );
+				consoleOut.println( "[PUCM] Pre-warming the view of " + state.getBaseline().GetShortname() + " on " + ( name.length() == 0 ? "master" : name ) );
+				return;
+			}
+		}
+		catch ( Exception e )
+		{
+			consoleOut.println( "[PUCM] Could not pre-warm the view: " + e.getMessage() );
+			logger.warning( e );
+		}
+		
+		ViewPool.pool.releaseAll( owner );
+		if ( log != null )
+		{
+			try
+			{
+				log.close();
+			}
+			catch ( IOException e )
+			{
+				/* Nothing to do */
+			}
+		}
+	}
+	
+	/**
+	 * Selects an idle node for the label, the warm nodes first
+	 * @return The node, or null if no node is idle
+	 */
+	private Node selectIdleNode( List<String> warm, Label label )
+	{
+		List<Node> nodes = new ArrayList<Node>();
+		for ( String name : warm )
+		{
+			nodes.add( PucmQueueTaskDispatcher.getNode( name ) );
+		}
+		nodes.add( Hudson.getInstance() );
+		nodes.addAll( Hudson.getInstance().getNodes() );
+		
+		for ( Node node : nodes )
+		{
+			if ( PucmQueueTaskDispatcher.isFree( node, label ) )
+			{
+				return node;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Determines whether the job delivers its baselines, see {@link PucmNotifier}
+	 */
+	private static boolean isDelivering( AbstractBuild<?, ?> build )
+	{
+		PucmNotifier notifier = build.getProject().getPublishersList().get( PucmNotifier.class );
+		return notifier != null && notifier.isUcmDeliver();
+	}
+	
+	/**
+	 * Unpacks the baseline from the {@link ArchiveCache}, or checks it out and packs it if it is not archived yet
+	 * @param deliver True if the job delivers from its development stream, which an unpacked baseline has none of, so it is checked out
+	 * @return The result of the checkout, an unpacked baseline has no development stream
+	 */
+	private CheckoutResult checkoutArchived( FilePath workspace, CheckoutTask ct, String key, FilePath folder, boolean deliver, UCMGuard guard, String id, PrintStream consoleOutput ) throws IOException, InterruptedException
+	{
+		Logger logger = PraqmaLogger.getLogger();
+		ArchiveCache archives = ArchiveCache.archives;
+		
+		/* Builds of the baseline wait for the first to pack it */
+		ReentrantLock lock = archives.getLock( key );
+		lock.lockInterruptibly();
+		try
+		{
+			boolean archived = archives.contains( key );
+			if ( archived && !deliver )
+			{
+				consoleOutput.print( "[PUCM] Unpacking the baseline from the archive cache..." );
+				long start = System.currentTimeMillis();
+				archives.unpack( key, folder );
+				consoleOutput.println( " DONE in " + ( ( System.currentTimeMillis() - start ) / 1000 ) + "s" );
+				guard.report( "Archive cache hits", 1 );
+				
+				return new CheckoutResult( archives.getChangelog( key ), "", null );
+			}
+			
+			if ( archived )
+			{
+				/* Not a miss, the baseline is checked out for the development stream of the deliver */
+				consoleOutput.println( "[PUCM] The job delivers from its development stream, checking out the baseline" );
+				guard.report( "Archive cache bypasses", 1 );
+			}
+			else
+			{
+				guard.report( "Archive cache misses", 1 );
+			}
+			CheckoutResult ctresult = workspace.act( ct );
+			logger.empty( ctresult.getLog() );
+			
+			/* The checkout task reports its errors by leaving the change log empty */
+			if ( ctresult.getChangelog().length() > 0 && !archived )
+			{
+				consoleOutput.print( "[PUCM] Packing the baseline into the archive cache..." );
+				try
+				{
+					archives.store( key, folder, ctresult.getChangelog() );
+					consoleOutput.println( " DONE" );
+				}
+				catch ( IOException e )
+				{
+					consoleOutput.println( " FAILED: " + e.getMessage() );
+					logger.warning( e );
+				}
+			}
+			
+			return ctresult;
+		}
+		finally
+		{
+			lock.unlock();
+			int evicted = archives.evict();
+			if ( evicted > 0 )
+			{
+				logger.debug( id + "Evicted " + evicted + " baselines from the archive cache" );
+			}
+		}
+	}
+
 	@Override
 	public ChangeLogParser createChangeLogParser()
 	{
@@ -389,7 +721,7 @@ public class PucmScm extends SCM
 	{
 		super.buildEnvVars( build, env );
 		
-		State state = pucm.getState( jobName, jobNumber );
+		State state = pucm.getState( build.getParent().getDisplayName().replace( ' ', '_' ), build.getNumber() );
 		
 		if( state.getBaseline() != null )
 		{
@@ -399,18 +731,24 @@ public class PucmScm extends SCM
 		{
 			env.put( "CC_BASELINE", "" );
 		}
+		
+		/* The source of the build, the dynamic view is outside the workspace */
+		if( state.getViewPath() != null )
+		{
+			env.put( "CC_VIEWPATH", state.getViewPath() );
+		}
 	}
 
 	@Override
 	public PollingResult compareRemoteRevisionWith( AbstractProject<?, ?> project, Launcher launcher, FilePath workspace, TaskListener listener, SCMRevisionState rstate ) throws IOException, InterruptedException
 	{		
 		//System.out.println( "[PUCM] POLL" );
-		logger = PraqmaLogger.getLogger();
-		this.id = "[" + project.getDisplayName() + "::" + project.getNextBuildNumber() + "]";
+		Logger logger = PraqmaLogger.getLogger();
 				
 		/* Make a state object, which is only temporary, only to determine if there's baselines to build this object will be stored in checkout  */
-		jobName   = project.getDisplayName().replace(' ','_');
-		jobNumber = project.getNextBuildNumber(); /* This number is not the final job number */
+		String jobName    = project.getDisplayName().replace(' ','_');
+		Integer jobNumber = project.getNextBuildNumber(); /* This number is not the final job number */
+		String id = "[" + jobName + "::" + jobNumber + "]";
 		
 		State state = pucm.getState( jobName, jobNumber );
 		state.setAddedByPoller( true );
@@ -428,11 +766,14 @@ public class PucmScm extends SCM
 		
 		PrintStream consoleOut = listener.getLogger();
 		printParameters( consoleOut );
+		
+		UCMGuard guard = ( (PucmScmDescriptor) getDescriptor() ).createGuard( Metrics.owner( jobName, jobNumber ) );
+		guard.attach( null, consoleOut );
 
 		PollingResult p;
 		try
 		{
-			List<Baseline> baselines = getValidBaselines( project, state, Project.GetPlevelFromString( levelToPoll ) );
+			List<Baseline> baselines = getValidBaselines( project, state, Project.GetPlevelFromString( levelToPoll ), guard );
 			printBaselines( baselines, consoleOut );
 			state.setBaselines( baselines );
 			Baseline baseline = selectBaseline( baselines, newest );
@@ -441,6 +782,11 @@ public class PucmScm extends SCM
 			compRevCalled = true;
 			
 			p = PollingResult.BUILD_NOW;
+			
+			if ( baseline != null && ( (PucmScmDescriptor) getDescriptor() ).isPrewarm() )
+			{
+				prewarm( project, jobNumber, state, consoleOut );
+			}
 		}
 		catch ( ScmException e )
 		{
@@ -451,6 +797,14 @@ public class PucmScm extends SCM
 			logger.debug( id + "Removed job " + state.getJobNumber() + " from list" );
 			state.remove();
 		}
+		catch ( VobUnavailableException e )
+		{
+			/* Do not block the poll thread on a VOB known to be unavailable */
+			p = PollingResult.NO_CHANGES;
+			
+			consoleOut.println( "[PUCM] " + e.getMessage() );
+			state.remove();
+		}
 
 		logger.debug( id + "FINAL Polling result = " + p.change.toString() );
 		
@@ -462,13 +816,8 @@ public class PucmScm extends SCM
 	@Override
 	public SCMRevisionState calcRevisionsFromBuild( AbstractBuild<?, ?> build, Launcher launcher, TaskListener listener ) throws IOException, InterruptedException
 	{
-		SCMRevisionStateImpl scmRS = null;
-
-		if ( !( bl == null ) )
-		{
-			scmRS = new SCMRevisionStateImpl();
-		}
-		return scmRS;
+		/* The baselines are polled from the stream, see PucmState, there is no revision state */
+		return null;
 	}
 	
 	private Baseline selectBaseline( List<Baseline> baselines, boolean newest )
@@ -490,14 +839,26 @@ public class PucmScm extends SCM
 		}
 	}
 	
-	private List<Baseline> getValidBaselines( AbstractProject<?, ?> project, State state, Project.Plevel plevel ) throws ScmException
+	private List<Baseline> getValidBaselines( AbstractProject<?, ?> project, final State state, final Project.Plevel plevel, UCMGuard guard ) throws ScmException, IOException
 	{
+		String jobName = project.getDisplayName().replace( ' ', '_' );
+		String id = "[" + jobName + "::" + state.getJobNumber() + "]";
+		Logger logger = PraqmaLogger.getLogger();
+		
 		logger.debug( id + "Retrieving valid baselines." );
+		
+		String pvob = CircuitBreaker.getPvob( stream );
 
 		/* Store the component to the state */
 		try
 		{
-			state.setComponent( UCMEntity.GetComponent( component, false ) );
+			state.setComponent( guard.read( pvob, new UCMOperation<Component>()
+			{
+				public Component perform() throws UCMException
+				{
+					return UCMEntity.GetComponent( component, false );
+				}
+			} ) );
 		}
 		catch ( UCMException e )
 		{
@@ -507,7 +868,13 @@ public class PucmScm extends SCM
 		/* Store the stream to the state */
 		try
 		{
-			state.setStream( UCMEntity.GetStream( stream, false ) );
+			state.setStream( guard.read( pvob, new UCMOperation<Stream>()
+			{
+				public Stream perform() throws UCMException
+				{
+					return UCMEntity.GetStream( stream, false );
+				}
+			} ) );
 		}
 		catch ( UCMException e )
 		{
@@ -523,7 +890,13 @@ public class PucmScm extends SCM
 
 		try
 		{
-			baselines = state.getComponent().GetBaselines( state.getStream(), plevel );
+			baselines = guard.read( pvob, new UCMOperation<BaselineList>()
+			{
+				public BaselineList perform() throws UCMException
+				{
+					return state.getComponent().GetBaselines( state.getStream(), plevel );
+				}
+			} );
 		}
 		catch ( UCMException e )
 		{
@@ -692,31 +1065,27 @@ public class PucmScm extends SCM
 		return newest;
 	}
 
-	/*
-	 * getStreamObject() and getBaseline() are used by PucmNotifier to get the
-	 * Baseline and Stream in use, but does not work with concurrent builds!!!
-	 */
-
-	public Stream getStreamObject()
+	public String getBuildProject()
 	{
-		return integrationstream;
+		return buildProject;
 	}
 
-	@Exported
-	public Baseline getBaseline()
+	/**
+	 * Jobs configured before the checkout modes use snapshot views
+	 */
+	public String getCheckoutMode()
 	{
-		return bl;
+		return checkoutMode != null ? checkoutMode : "Snapshot";
 	}
 
-	@Exported
-	public boolean doPostbuild()
+	public String getLoadRuleIncludes()
 	{
-		return doPostBuild;
+		return loadRuleIncludes;
 	}
 
-	public String getBuildProject()
+	public String getLoadRuleExcludes()
 	{
-		return buildProject;
+		return loadRuleExcludes;
 	}
 
 	/**
@@ -732,6 +1101,26 @@ public class PucmScm extends SCM
 
 		private String cleartool;
 		private String multiSiteFrequency;
+		private String vobWriteConcurrency;
+		private String nodeUpdateConcurrency;
+		private String serverUpdateConcurrency;
+		private String retries;
+		private String retryDelay;
+		private String breakerThreshold;
+		private String breakerOpenTime;
+		private String timeout;
+		private String viewTimeout;
+		private String differentialLimit;
+		private String cacheSize;
+		private String archiveDir;
+		private String archiveSize;
+		private String dynamicViewRoot;
+		private String affinityWait;
+		private boolean prewarm;
+		private String streamPoolSize;
+		private String viewNaming;
+		private String viewRetention;
+		private String viewDiskBudget;
 		private List<String> loadModules;
 
 		public PucmScmDescriptor()
@@ -740,6 +1129,11 @@ public class PucmScm extends SCM
 			loadModules = getLoadModules();
 			load();
 			Config.setContext();
+			LeaseLimiter.vobWrites.setPermits( getVobWriteConcurrencyAsInt() );
+			LeaseLimiter.nodeUpdates.setPermits( getNodeUpdateConcurrencyAsInt() );
+			LeaseLimiter.serverUpdates.setPermits( getServerUpdateConcurrencyAsInt() );
+			CircuitBreaker.vobs.setSettings( getBreakerThresholdAsInt(), getBreakerOpenTimeAsInt() * 1000L );
+			ArchiveCache.archives.setSettings( archiveDir, getArchiveSizeAsInt() );
 		}
 
 		/**
@@ -763,64 +1157,608 @@ public class PucmScm extends SCM
 				multiSiteFrequency = multiSiteFrequency.trim();
 			}
 			
-			save();
-			return true;
-		}
-
-		/**
-		 * This is called by Hudson to discover the plugin name
-		 */
-		@Override
-		public String getDisplayName()
-		{
-			return "Praqmatic UCM";
-		}
-
-		/**
-		 * This method is called by the scm/Pucm/global.jelly to validate the
-		 * input without reloading the global configuration page
-		 * 
-		 * @param value
-		 * @return
-		 */
-		public FormValidation doExecutableCheck( @QueryParameter String value )
-		{
-			return FormValidation.validateExecutable( value );
-		}
-
-		/**
-		 * Called by Hudson. If the user does not input a command for Hudson to
-		 * use when polling, default value is returned
-		 * 
-		 * @return
-		 */
-		public String getCleartool()
-		{
-			if ( cleartool == null || cleartool.equals( "" ) )
+			vobWriteConcurrency = req.getParameter( "PUCM.vobWriteConcurrency" );
+			if( vobWriteConcurrency != null )
 			{
-				return "cleartool";
+				vobWriteConcurrency = vobWriteConcurrency.trim();
 			}
-			return cleartool;
-		}
-		
-		public String getMultiSiteFrequency()
-		{
-			return multiSiteFrequency;
-		}
-		
-		public int getMultiSiteFrequencyAsInt()
-		{
-			try
+			LeaseLimiter.vobWrites.setPermits( getVobWriteConcurrencyAsInt() );
+			
+			nodeUpdateConcurrency = req.getParameter( "PUCM.nodeUpdateConcurrency" );
+			if( nodeUpdateConcurrency != null )
 			{
-				return Integer.parseInt( multiSiteFrequency );
+				nodeUpdateConcurrency = nodeUpdateConcurrency.trim();
 			}
-			catch( Exception e )
+			LeaseLimiter.nodeUpdates.setPermits( getNodeUpdateConcurrencyAsInt() );
+			
+			serverUpdateConcurrency = req.getParameter( "PUCM.serverUpdateConcurrency" );
+			if( serverUpdateConcurrency != null )
 			{
-				return 0;
+				serverUpdateConcurrency = serverUpdateConcurrency.trim();
 			}
-		}
-
-		/**
+			LeaseLimiter.serverUpdates.setPermits( getServerUpdateConcurrencyAsInt() );
+			
+			retries = req.getParameter( "PUCM.retries" );
+			if( retries != null )
+			{
+				retries = retries.trim();
+			}
+			
+			retryDelay = req.getParameter( "PUCM.retryDelay" );
+			if( retryDelay != null )
+			{
+				retryDelay = retryDelay.trim();
+			}
+			
+			breakerThreshold = req.getParameter( "PUCM.breakerThreshold" );
+			if( breakerThreshold != null )
+			{
+				breakerThreshold = breakerThreshold.trim();
+			}
+			
+			breakerOpenTime = req.getParameter( "PUCM.breakerOpenTime" );
+			if( breakerOpenTime != null )
+			{
+				breakerOpenTime = breakerOpenTime.trim();
+			}
+			CircuitBreaker.vobs.setSettings( getBreakerThresholdAsInt(), getBreakerOpenTimeAsInt() * 1000L );
+			
+			timeout = req.getParameter( "PUCM.timeout" );
+			if( timeout != null )
+			{
+				timeout = timeout.trim();
+			}
+			
+			viewTimeout = req.getParameter( "PUCM.viewTimeout" );
+			if( viewTimeout != null )
+			{
+				viewTimeout = viewTimeout.trim();
+			}
+			
+			differentialLimit = req.getParameter( "PUCM.differentialLimit" );
+			if( differentialLimit != null )
+			{
+				differentialLimit = differentialLimit.trim();
+			}
+			
+			cacheSize = req.getParameter( "PUCM.cacheSize" );
+			if( cacheSize != null )
+			{
+				cacheSize = cacheSize.trim();
+			}
+			
+			archiveDir = req.getParameter( "PUCM.archiveDir" );
+			if( archiveDir != null )
+			{
+				archiveDir = archiveDir.trim();
+			}
+			
+			archiveSize = req.getParameter( "PUCM.archiveSize" );
+			if( archiveSize != null )
+			{
+				archiveSize = archiveSize.trim();
+			}
+			ArchiveCache.archives.setSettings( archiveDir, getArchiveSizeAsInt() );
+			
+			dynamicViewRoot = req.getParameter( "PUCM.dynamicViewRoot" );
+			if( dynamicViewRoot != null )
+			{
+				dynamicViewRoot = dynamicViewRoot.trim();
+			}
+			
+			affinityWait = req.getParameter( "PUCM.affinityWait" );
+			if( affinityWait != null )
+			{
+				affinityWait = affinityWait.trim();
+			}
+			
+			prewarm = req.getParameter( "PUCM.prewarm" ) != null;
+			
+			streamPoolSize = req.getParameter( "PUCM.streamPoolSize" );
+			if( streamPoolSize != null )
+			{
+				streamPoolSize = streamPoolSize.trim();
+			}
+			
+			viewNaming = req.getParameter( "PUCM.viewNaming" );
+			if( viewNaming != null )
+			{
+				viewNaming = viewNaming.trim();
+			}
+			
+			viewRetention = req.getParameter( "PUCM.viewRetention" );
+			if( viewRetention != null )
+			{
+				viewRetention = viewRetention.trim();
+			}
+			
+			viewDiskBudget = req.getParameter( "PUCM.viewDiskBudget" );
+			if( viewDiskBudget != null )
+			{
+				viewDiskBudget = viewDiskBudget.trim();
+			}
+			
+			save();
+			return true;
+		}
+
+		/**
+		 * This is called by Hudson to discover the plugin name
+		 */
+		@Override
+		public String getDisplayName()
+		{
+			return "Praqmatic UCM";
+		}
+
+		/**
+		 * This method is called by the scm/Pucm/global.jelly to validate the
+		 * input without reloading the global configuration page
+		 * 
+		 * @param value
+		 * @return
+		 */
+		public FormValidation doExecutableCheck( @QueryParameter String value )
+		{
+			return FormValidation.validateExecutable( value );
+		}
+
+		/**
+		 * Called by Hudson. If the user does not input a command for Hudson to
+		 * use when polling, default value is returned
+		 * 
+		 * @return
+		 */
+		public String getCleartool()
+		{
+			if ( cleartool == null || cleartool.equals( "" ) )
+			{
+				return "cleartool";
+			}
+			return cleartool;
+		}
+		
+		public String getMultiSiteFrequency()
+		{
+			return multiSiteFrequency;
+		}
+		
+		public int getMultiSiteFrequencyAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( multiSiteFrequency );
+			}
+			catch( Exception e )
+			{
+				return 0;
+			}
+		}
+
+		public String getVobWriteConcurrency()
+		{
+			return vobWriteConcurrency;
+		}
+		
+		/**
+		 * The number of concurrent write operations per PVOB. Defaults to four,
+		 * zero or less means unlimited.
+		 * @return
+		 */
+		public int getVobWriteConcurrencyAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( vobWriteConcurrency );
+			}
+			catch( Exception e )
+			{
+				return 4;
+			}
+		}
+
+		public String getNodeUpdateConcurrency()
+		{
+			return nodeUpdateConcurrency;
+		}
+		
+		/**
+		 * The number of concurrent view updates per node. Defaults to four,
+		 * zero or less means unlimited.
+		 * @return
+		 */
+		public int getNodeUpdateConcurrencyAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( nodeUpdateConcurrency );
+			}
+			catch( Exception e )
+			{
+				return 4;
+			}
+		}
+
+		public String getServerUpdateConcurrency()
+		{
+			return serverUpdateConcurrency;
+		}
+		
+		/**
+		 * The number of concurrent view updates per view server. Defaults to eight,
+		 * zero or less means unlimited.
+		 * @return
+		 */
+		public int getServerUpdateConcurrencyAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( serverUpdateConcurrency );
+			}
+			catch( Exception e )
+			{
+				return 8;
+			}
+		}
+
+		public String getRetries()
+		{
+			return retries;
+		}
+		
+		/**
+		 * The number of times a UCM write operation failing with a transient
+		 * error is retried. Defaults to three.
+		 * @return
+		 */
+		public int getRetriesAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( retries );
+			}
+			catch( Exception e )
+			{
+				return 3;
+			}
+		}
+		
+		public String getRetryDelay()
+		{
+			return retryDelay;
+		}
+		
+		/**
+		 * The maximum delay in seconds before the first retry, doubled
+		 * for each retry up to a minute. Defaults to two seconds.
+		 * @return
+		 */
+		public int getRetryDelayAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( retryDelay );
+			}
+			catch( Exception e )
+			{
+				return 2;
+			}
+		}
+		
+		public String getBreakerThreshold()
+		{
+			return breakerThreshold;
+		}
+		
+		/**
+		 * The number of consecutive transient failures, which stops the UCM
+		 * operations against a PVOB. Defaults to five, zero or less disables it.
+		 * @return
+		 */
+		public int getBreakerThresholdAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( breakerThreshold );
+			}
+			catch( Exception e )
+			{
+				return 5;
+			}
+		}
+		
+		public String getBreakerOpenTime()
+		{
+			return breakerOpenTime;
+		}
+		
+		/**
+		 * The number of seconds the UCM operations against a failing PVOB
+		 * are stopped, before they are tried again. Defaults to five minutes.
+		 * @return
+		 */
+		public int getBreakerOpenTimeAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( breakerOpenTime );
+			}
+			catch( Exception e )
+			{
+				return 300;
+			}
+		}
+		
+		public String getTimeout()
+		{
+			return timeout;
+		}
+		
+		/**
+		 * The number of minutes a UCM operation may take, before it is
+		 * abandoned. Defaults to ten minutes, zero means no timeout.
+		 * @return
+		 */
+		public int getTimeoutAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( timeout );
+			}
+			catch( Exception e )
+			{
+				return 10;
+			}
+		}
+		
+		public String getViewTimeout()
+		{
+			return viewTimeout;
+		}
+		
+		/**
+		 * The number of minutes a view update, rebase or deliver may take,
+		 * before it is abandoned. Defaults to two hours, zero means no timeout.
+		 * @return
+		 */
+		public int getViewTimeoutAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( viewTimeout );
+			}
+			catch( Exception e )
+			{
+				return 120;
+			}
+		}
+		
+		public String getDifferentialLimit()
+		{
+			return differentialLimit;
+		}
+		
+		/**
+		 * The maximum number of changed elements, which are updated one by one
+		 * instead of updating the whole view. Defaults to zero, which disables it.
+		 * @return
+		 */
+		public int getDifferentialLimitAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( differentialLimit );
+			}
+			catch( Exception e )
+			{
+				return 0;
+			}
+		}
+		
+		public String getCacheSize()
+		{
+			return cacheSize;
+		}
+		
+		/**
+		 * The maximum number of baselines in the cache of a node, see {@link BaselineCache}.
+		 * Defaults to 10.
+		 * @return
+		 */
+		public int getCacheSizeAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( cacheSize );
+			}
+			catch( Exception e )
+			{
+				return 10;
+			}
+		}
+		
+		public String getArchiveDir()
+		{
+			return archiveDir;
+		}
+		
+		public String getArchiveSize()
+		{
+			return archiveSize;
+		}
+		
+		/**
+		 * The maximum number of baselines in the archive cache, see {@link ArchiveCache}.
+		 * Defaults to 10.
+		 * @return
+		 */
+		public int getArchiveSizeAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( archiveSize );
+			}
+			catch( Exception e )
+			{
+				return 10;
+			}
+		}
+		
+		public String getDynamicViewRoot()
+		{
+			return dynamicViewRoot;
+		}
+		
+		/**
+		 * The root of the dynamic views on the nodes, see {@link DynamicView}.
+		 * Defaults to /view on Unix and M:\ on Windows.
+		 * @param unix True if the node runs Unix
+		 * @return
+		 */
+		public String getDynamicViewRoot( boolean unix )
+		{
+			if( dynamicViewRoot == null || dynamicViewRoot.length() == 0 )
+			{
+				return unix ? "/view" : "M:\\";
+			}
+			
+			return dynamicViewRoot;
+		}
+		
+		public String getAffinityWait()
+		{
+			return affinityWait;
+		}
+		
+		/**
+		 * The number of seconds a build waits for a free node with a warm view,
+		 * see {@link ViewAffinity}. Defaults to 30, zero disables it.
+		 * @return
+		 */
+		public int getAffinityWaitAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( affinityWait );
+			}
+			catch( Exception e )
+			{
+				return 30;
+			}
+		}
+		
+		/**
+		 * True if polling pre-warms the view of the job on an idle node, see {@link Prewarm}
+		 */
+		public boolean isPrewarm()
+		{
+			return prewarm;
+		}
+		
+		public String getStreamPoolSize()
+		{
+			return streamPoolSize;
+		}
+		
+		/**
+		 * The number of free development streams kept in the build project,
+		 * see {@link StreamPool}. Defaults to 0, which disables the pool.
+		 * @return
+		 */
+		public int getStreamPoolSizeAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( streamPoolSize );
+			}
+			catch( Exception e )
+			{
+				return 0;
+			}
+		}
+		
+		/**
+		 * The pattern of the names of the views and development streams,
+		 * see {@link ViewNaming}. Defaults to pucm_${host}.
+		 * @return
+		 */
+		public String getViewNaming()
+		{
+			return viewNaming;
+		}
+		
+		public String getViewRetention()
+		{
+			return viewRetention;
+		}
+		
+		/**
+		 * The number of days an unused view is kept on a node, see {@link ViewRegistry}.
+		 * Defaults to 0, which keeps the views, unless there is a disk budget.
+		 * @return
+		 */
+		public int getViewRetentionAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( viewRetention );
+			}
+			catch( Exception e )
+			{
+				return 0;
+			}
+		}
+		
+		public String getViewDiskBudget()
+		{
+			return viewDiskBudget;
+		}
+		
+		/**
+		 * The megabytes the PUCM views of a node may take, see {@link ViewRegistry}.
+		 * Defaults to 0, no budget.
+		 * @return
+		 */
+		public int getViewDiskBudgetAsInt()
+		{
+			try
+			{
+				return Integer.parseInt( viewDiskBudget );
+			}
+			catch( Exception e )
+			{
+				return 0;
+			}
+		}
+		
+		public RetryPolicy getRetryPolicy()
+		{
+			long base = getRetryDelayAsInt() * 1000L;
+			return new RetryPolicy( getRetriesAsInt(), base, Math.max( base, 60000 ) );
+		}
+		
+		/**
+		 * Creates the guard for the UCM operations of a build
+		 * @param owner The owner, see {@link Metrics#owner(String, Integer)}
+		 * @return
+		 */
+		public UCMGuard createGuard( String owner )
+		{
+			return new UCMGuard( owner ).setRetryPolicy( getRetryPolicy() ).setTimeouts( getTimeoutAsInt() * 60000L, getViewTimeoutAsInt() * 60000L );
+		}
+		
+		/**
+		 * Creates the settings, from which a remote task creates its guard and logger on the slave
+		 * @param owner The owner, see {@link Metrics#owner(String, Integer)}
+		 * @param build The build, whose variables select the logged classes, may be null
+		 */
+		public RemoteSettings createRemoteSettings( String owner, AbstractBuild<?, ?> build )
+		{
+			long base = getRetryDelayAsInt() * 1000L;
+			return new RemoteSettings( owner, getRetriesAsInt(), base, Math.max( base, 60000 ), getTimeoutAsInt() * 60000L, getViewTimeoutAsInt() * 60000L, RemoteSettings.getSubscriptions( build ) );
+		}
+
+		/**
 		 * Used by Hudson to display a list of valid promotion levels to build
 		 * from. The list of promotion levels is hard coded in
 		 * net.praqma.hudson.Config.java
@@ -845,6 +1783,16 @@ public class PucmScm extends SCM
 			loadModules.add( "Modifiable" );
 			return loadModules;
 		}
+		
+		public List<String> getCheckoutModes()
+		{
+			List<String> modes = new ArrayList<String>();
+			modes.add( "Snapshot" );
+			modes.add( "Cached" );
+			modes.add( "Archived" );
+			modes.add( "Dynamic" );
+			return modes;
+		}
 
 	}
 }
@@ -171,6 +171,9 @@ public class PucmState
 		
 		private boolean   addedByPoller = false;
 		private long      multiSiteFrequency = 0;
+		private int       viewSlot = 1;
+		private String    viewPath = null;
+		private String    devStream = null;
 		
 		private List<Baseline> baselines = null;
 		
@@ -285,6 +288,8 @@ public class PucmState
 			sb.append( "Baseline list : " + ( this.baseline != null ? this.baselines.size() : "0" ) + linesep );
 			sb.append( "Added by poll : " + ( this.addedByPoller ? "Yes" : "No" ) + linesep );
 			sb.append( "Multi site    : " + ( this.multiSiteFrequency > 0 ? StoredBaselines.milliToMinute( this.multiSiteFrequency ) : "N/A" ) + linesep );
+			sb.append( "View slot     : " + this.viewSlot + linesep );
+			sb.append( "Dev stream    : " + ( this.devStream != null ? this.devStream : "None" ) + linesep );
 			sb.append( "postBuild     : " + this.doPostBuild + linesep );
 			
 			return sb.toString();
@@ -346,6 +351,33 @@ public class PucmState
 		{
 			return baselines;
 		}
+		public void setViewSlot( int viewSlot )
+		{
+			this.viewSlot = viewSlot;
+		}
+		public int getViewSlot()
+		{
+			return viewSlot;
+		}
+		public void setViewPath( String viewPath )
+		{
+			this.viewPath = viewPath;
+		}
+		public String getViewPath()
+		{
+			return viewPath;
+		}
+		/**
+		 * The development stream the build was checked out from, null if there is none
+		 */
+		public void setDevStream( String devStream )
+		{
+			this.devStream = devStream;
+		}
+		public String getDevStream()
+		{
+			return devStream;
+		}
 	}
 	
 	
@@ -0,0 +1,239 @@
+package net.praqma.hudson.scm;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.exception.VobUnavailableException;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.UCMGuard;
+import net.praqma.hudson.ucm.UCMOperation;
+
+/**
+ * A pool of read only development streams, created in advance in the integration
+ * streams of the build projects, see {@link net.praqma.hudson.StreamPoolWork}.<br>
+ * Creating a stream is one of the slowest writes to a PVOB, while renaming one is
+ * not. A view, which has no development stream yet, takes a stream from the pool and
+ * renames it to its own stream name, so the first build of a job on a node does not
+ * create a stream.<br>
+ * The streams in ClearCase are the pool, the free list is refreshed from them when
+ * the pool is topped up. A stream, which was handed to a build, but not renamed, is
+ * free again after the refresh.<br>
+ * The streams are created through a {@link UCMGuard}, so the top up waits in line for
+ * the PVOB with the builds and stops when the circuit breaker of the PVOB is open.
+ */
+public class StreamPool
+{
+	public static final StreamPool pools = new StreamPool();
+
+	public static final String prefix = "pucm_pool_";
+
+	/* A stream handed to a build is not handed out again for this long */
+	private static final long pending = 30 * 60 * 1000;
+
+	/* parent stream -> the free streams */
+	private Map<String, LinkedList<String>> free = new HashMap<String, LinkedList<String>>();
+
+	/* stream -> time handed out */
+	private Map<String, Long> taken = new HashMap<String, Long>();
+
+	/**
+	 * Takes a stream from the pool of a parent stream. The pool of the parent is
+	 * topped up from now on.
+	 * @return The name of the stream, or null if the pool is empty
+	 */
+	public synchronized String take( String parent )
+	{
+		LinkedList<String> streams = free.get( parent );
+		if( streams == null )
+		{
+			free.put( parent, new LinkedList<String>() );
+			return null;
+		}
+
+		if( streams.isEmpty() )
+		{
+			return null;
+		}
+
+		String stream = streams.removeFirst();
+		taken.put( stream, System.currentTimeMillis() );
+		return stream;
+	}
+
+	public synchronized int getFree( String parent )
+	{
+		LinkedList<String> streams = free.get( parent );
+		return streams == null ? 0 : streams.size();
+	}
+
+	public synchronized List<String> getParents()
+	{
+		return new ArrayList<String>( free.keySet() );
+	}
+
+	/**
+	 * Refreshes the free list of a parent stream from the pool streams in ClearCase
+	 * @param streams The pool streams of the parent
+	 */
+	synchronized void refresh( String parent, List<String> streams )
+	{
+		long now = System.currentTimeMillis();
+		for( Iterator<Map.Entry<String, Long>> it = taken.entrySet().iterator(); it.hasNext(); )
+		{
+			if( now - it.next().getValue() > pending )
+			{
+				it.remove();
+			}
+		}
+
+		LinkedList<String> list = new LinkedList<String>();
+		for( String stream : streams )
+		{
+			if( !taken.containsKey( stream ) )
+			{
+				list.add( stream );
+			}
+		}
+
+		free.put( parent, list );
+	}
+
+	/**
+	 * Tops the pools of the registered parent streams up
+	 * @param cleartool The cleartool runner
+	 * @param guard The guard of the PVOB operations
+	 * @param size The number of free streams per parent
+	 * @param out The log
+	 * @throws IOException If interrupted
+	 */
+	public void topUp( final CommandRunner cleartool, UCMGuard guard, int size, PrintStream out ) throws IOException
+	{
+		for( final String parent : getParents() )
+		{
+			String pvob = CircuitBreaker.getPvob( parent );
+			try
+			{
+				List<String> streams = list( cleartool, guard, parent );
+				refresh( parent, streams );
+
+				/* The streams handed out, but not renamed yet, count as well */
+				if( streams.size() < size )
+				{
+					for( int i = streams.size(); i < size; i++ )
+					{
+						final String stream = getName( parent, i );
+						guard.write( pvob, new UCMOperation<Boolean>()
+						{
+							public Boolean perform() throws UCMException
+							{
+								run( cleartool, "mkstream", "-in", parent, "-readonly", stream );
+								return true;
+							}
+						} );
+						out.println( "[PUCM] Created the pool stream " + stream );
+					}
+
+					refresh( parent, list( cleartool, guard, parent ) );
+				}
+			}
+			catch( VobUnavailableException e )
+			{
+				out.println( "[PUCM] Not topping the stream pool of " + parent + " up: " + e.getMessage() );
+			}
+			catch( UCMException e )
+			{
+				out.println( "[PUCM] Could not top the stream pool of " + parent + " up: " + e.getMessage() );
+			}
+		}
+	}
+
+	/**
+	 * Lists the pool streams in a parent stream
+	 */
+	private static List<String> list( final CommandRunner cleartool, UCMGuard guard, final String parent ) throws UCMException, IOException
+	{
+		String output = guard.read( CircuitBreaker.getPvob( parent ), new UCMOperation<String>()
+		{
+			public String perform() throws UCMException
+			{
+				return run( cleartool, "lsstream", "-short", "-in", parent );
+			}
+		} );
+
+		List<String> streams = new ArrayList<String>();
+		for( String name : output.split( "\\r?\\n" ) )
+		{
+			name = name.trim();
+			if( name.startsWith( prefix ) )
+			{
+				streams.add( "stream:" + name + getPvob( parent ) );
+			}
+		}
+
+		return streams;
+	}
+
+	/**
+	 * Gets a new name of a pool stream in a parent stream
+	 */
+	static String getName( String parent, int n )
+	{
+		return "stream:" + prefix + Long.toHexString( System.currentTimeMillis() ) + "_" + n + getPvob( parent );
+	}
+
+	/**
+	 * Gets the PVOB part of a stream name, such as <code>@\pvob</code>
+	 */
+	static String getPvob( String stream )
+	{
+		int i = stream.indexOf( '@' );
+		return i < 0 ? "" : stream.substring( i );
+	}
+
+	/**
+	 * Renames a pool stream to the development stream of a view
+	 * @param cleartool The cleartool runner
+	 * @param stream The pool stream
+	 * @param name The short name of the development stream
+	 */
+	public static void rename( CommandRunner cleartool, String stream, String name ) throws UCMException
+	{
+		run( cleartool, "rename", stream, name );
+	}
+
+	/**
+	 * Takes a stream from the pool of the master
+	 */
+	public static class Take implements Callable<String, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private String parent;
+
+		public Take( String parent )
+		{
+			this.parent = parent;
+		}
+
+		public String call()
+		{
+			return pools.take( parent );
+		}
+	}
+
+	private static String run( CommandRunner cleartool, String ... args ) throws UCMException
+	{
+		return cleartool.run( null, Arrays.asList( args ) );
+	}
+}
@@ -0,0 +1,112 @@
+package net.praqma.hudson.scm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the nodes, which hold warm views of a job, so the build queue can
+ * prefer them, see {@link net.praqma.hudson.PucmQueueTaskDispatcher}. A node is
+ * warm for a job, when a build of the job checked out on it, and for a stream,
+ * when the node cache of the node holds the shared view of the stream.<br>
+ * Only the most recently used nodes are kept per job, older views are likely
+ * to be far behind. The records are not persisted, after a restart the nodes
+ * become warm again as builds check out.
+ */
+public class ViewAffinity
+{
+	public static final ViewAffinity affinity = new ViewAffinity();
+
+	/* The number of warm nodes kept per key */
+	private static final int nodes = 3;
+
+	/* key -> node -> time of last checkout, least recent first */
+	private Map<String, LinkedHashMap<String, Long>> warm = new HashMap<String, LinkedHashMap<String, Long>>();
+
+	public static String jobKey( String job )
+	{
+		return "job:" + job;
+	}
+
+	public static String streamKey( String stream )
+	{
+		return "stream:" + stream;
+	}
+
+	/**
+	 * Records a checkout on a node
+	 * @param key The job or stream key
+	 * @param node The name of the node, empty for the master
+	 */
+	public synchronized void record( String key, String node )
+	{
+		LinkedHashMap<String, Long> m = warm.get( key );
+		if( m == null )
+		{
+			m = new LinkedHashMap<String, Long>();
+			warm.put( key, m );
+		}
+
+		/* Reinserted, so the order is least recently used first */
+		m.remove( node );
+		m.put( node, System.currentTimeMillis() );
+
+		while( m.size() > nodes )
+		{
+			m.remove( m.keySet().iterator().next() );
+		}
+	}
+
+	/**
+	 * Forgets a node, for example when its views are removed
+	 */
+	public synchronized void forget( String node )
+	{
+		for( LinkedHashMap<String, Long> m : warm.values() )
+		{
+			m.remove( node );
+		}
+	}
+
+	/**
+	 * Gets the warm nodes of a key, most recently used first
+	 */
+	public synchronized List<String> getNodes( String key )
+	{
+		List<String> list = new ArrayList<String>();
+		LinkedHashMap<String, Long> m = warm.get( key );
+		if( m != null )
+		{
+			for( String node : m.keySet() )
+			{
+				list.add( 0, node );
+			}
+		}
+
+		return list;
+	}
+
+	/**
+	 * Determines whether a build should wait for another node than the one offered.
+	 * The build waits for a warm node, which is busy, as it is likely to be free
+	 * within the budget.
+	 * @param warmNodes The warm nodes of the build
+	 * @param node The node offered
+	 * @param eligible The warm nodes, which are online and may take the build, busy or not
+	 * @param waited The time the build has waited in milliseconds
+	 * @param budget The time a build may wait for a warm node in milliseconds
+	 * @return True if the build should wait
+	 */
+	public static boolean shouldWait( Collection<String> warmNodes, String node, Collection<String> eligible, long waited, long budget )
+	{
+		if( warmNodes.isEmpty() || warmNodes.contains( node ) )
+		{
+			return false;
+		}
+
+		return !eligible.isEmpty() && waited < budget;
+	}
+}
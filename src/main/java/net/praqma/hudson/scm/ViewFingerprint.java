@@ -0,0 +1,142 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * The configuration a snapshot view was last brought to by PUCM: the view tag,
+ * the foundation baseline of its development stream and the load rules. The
+ * fingerprint is stored next to the view root, not in the view, so updates do
+ * not touch it. It is removed before the view is changed, and written when the
+ * view has been brought to the configuration, so a fingerprint on disk always
+ * describes a complete view.
+ */
+public class ViewFingerprint
+{
+	private Properties properties = new Properties();
+	
+	public ViewFingerprint( String viewtag, String baseline, String loadModule )
+	{
+		properties.setProperty( "viewtag", viewtag );
+		properties.setProperty( "baseline", baseline );
+		properties.setProperty( "loadModule", loadModule.toLowerCase() );
+	}
+	
+	/**
+	 * Adds a property, which must match
+	 */
+	public ViewFingerprint set( String key, String value )
+	{
+		properties.setProperty( key, value );
+		return this;
+	}
+	
+	public String get( String key )
+	{
+		return properties.getProperty( key );
+	}
+	
+	/**
+	 * Determines whether the view is already at this configuration
+	 * @param viewroot The view root
+	 * @return True if the stored fingerprint matches
+	 */
+	public boolean matches( File viewroot )
+	{
+		if( !viewroot.exists() )
+		{
+			return false;
+		}
+		
+		Properties stored = read( viewroot );
+		return stored != null && stored.equals( properties );
+	}
+	
+	/**
+	 * Determines whether the view has the load rules of this configuration, no
+	 * matter which baseline it is at. Everything but the baseline must match.
+	 * @param stored The stored fingerprint, see {@link #read(File)}
+	 * @return True if the view need not be updated to get the load rules
+	 */
+	public boolean hasLoadRules( Properties stored )
+	{
+		if( stored == null )
+		{
+			return false;
+		}
+		
+		Properties a = (Properties)properties.clone();
+		Properties b = (Properties)stored.clone();
+		a.remove( "baseline" );
+		b.remove( "baseline" );
+		
+		return a.equals( b );
+	}
+	
+	/**
+	 * Stores the fingerprint of the view
+	 */
+	public void write( File viewroot ) throws IOException
+	{
+		FileOutputStream fos = new FileOutputStream( getFile( viewroot ) );
+		try
+		{
+			properties.store( fos, "PUCM view configuration" );
+		}
+		finally
+		{
+			fos.close();
+		}
+	}
+	
+	/**
+	 * Removes the fingerprint of the view, must be called before the view is changed
+	 * @return False if the fingerprint existed and could not be removed
+	 */
+	public static boolean invalidate( File viewroot )
+	{
+		File file = getFile( viewroot );
+		return !file.exists() || file.delete();
+	}
+	
+	/**
+	 * Reads the stored fingerprint
+	 * @return The properties or null if there is no fingerprint
+	 */
+	public static Properties read( File viewroot )
+	{
+		File file = getFile( viewroot );
+		if( !file.exists() )
+		{
+			return null;
+		}
+		
+		Properties stored = new Properties();
+		try
+		{
+			FileInputStream fis = new FileInputStream( file );
+			try
+			{
+				stored.load( fis );
+			}
+			finally
+			{
+				fis.close();
+			}
+		}
+		catch( IOException e )
+		{
+			return null;
+		}
+		
+		return stored;
+	}
+	
+	public static File getFile( File viewroot )
+	{
+		return new File( viewroot.getParentFile(), viewroot.getName() + ".pucm" );
+	}
+}
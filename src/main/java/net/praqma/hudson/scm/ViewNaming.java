@@ -0,0 +1,149 @@
+package net.praqma.hudson.scm;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Names the views and development streams of a node. The names start with a prefix,
+ * <code>pucm_${host}</code> by default, where <code>${host}</code> is the short host
+ * name of the node and <code>${user}</code> the user running the slave.<br>
+ * The host is COMPUTERNAME on Windows, and HOSTNAME or the name of the local host
+ * on Unix, so the names are the same as before on Windows.
+ */
+public class ViewNaming implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final String defaultPattern = "pucm_${host}";
+
+	/* The host of this JVM, resolved once */
+	private static String host = null;
+
+	private String pattern;
+
+	/**
+	 * @param pattern The pattern of the prefix, null or empty for the default
+	 */
+	public ViewNaming( String pattern )
+	{
+		this.pattern = pattern == null || pattern.trim().length() == 0 ? defaultPattern : pattern.trim();
+	}
+
+	public String getPattern()
+	{
+		return pattern;
+	}
+
+	/**
+	 * The prefix of the names on this node
+	 */
+	public String getPrefix()
+	{
+		return expand( pattern, getHost(), System.getProperty( "user.name" ) );
+	}
+
+	/**
+	 * The view tag of a job, which is also the name of its development stream
+	 */
+	public String getViewtag( String job, int slot )
+	{
+		return ViewPool.getName( getPrefix() + "_" + clean( job ), slot );
+	}
+
+	/**
+	 * The view tag of the view of the node cache of a stream, see {@link BaselineCache}
+	 */
+	public String getCacheViewtag( String stream )
+	{
+		return getPrefix() + "_cache_" + clean( stream );
+	}
+
+	/**
+	 * The view tag of the dynamic view of a job on a node, see {@link DynamicView}. Dynamic views
+	 * are not bound to the disk of a machine, so <code>${host}</code> is the name of the node. The
+	 * tag is made on the master, where the user running the slave is not known, so
+	 * <code>${user}</code> is empty.
+	 * @param node The name of the node, empty for the master
+	 */
+	public String getDynamicViewtag( String node, String job, int slot )
+	{
+		String name = node == null || node.length() == 0 ? "master" : node;
+		return ViewPool.getName( expand( pattern, name, null ) + "_" + clean( job ) + "_dynamic", slot );
+	}
+
+	/**
+	 * The view tag of the deliver view of a job to a target stream
+	 */
+	public String getDeliverViewtag( String job, String target, int slot )
+	{
+		return ViewPool.getName( clean( job ) + "_" + getHost() + "_" + clean( target ), slot );
+	}
+
+	/**
+	 * Expands the pattern
+	 */
+	public static String expand( String pattern, String host, String user )
+	{
+		return clean( pattern.replace( "${host}", host ).replace( "${user}", user == null ? "" : user ) );
+	}
+
+	/**
+	 * Replaces white space and the characters, which separate paths and PVOBs,
+	 * as they are not allowed in view tags and stream names
+	 */
+	public static String clean( String name )
+	{
+		return name.replaceAll( "[\\s/\\\\:@]", "_" );
+	}
+
+	/**
+	 * Gets the short host name of this JVM
+	 */
+	public static synchronized String getHost()
+	{
+		if( host == null )
+		{
+			host = shorten( resolveHost() );
+		}
+
+		return host;
+	}
+
+	private static String resolveHost()
+	{
+		String name = System.getenv( "COMPUTERNAME" );
+		if( name == null || name.length() == 0 )
+		{
+			name = System.getenv( "HOSTNAME" );
+		}
+
+		if( name == null || name.length() == 0 )
+		{
+			try
+			{
+				name = InetAddress.getLocalHost().getHostName();
+			}
+			catch( UnknownHostException e )
+			{
+				name = "localhost";
+			}
+		}
+
+		return name;
+	}
+
+	/**
+	 * Removes the domain of a host name, an IP address is kept
+	 */
+	public static String shorten( String host )
+	{
+		int dot = host.indexOf( '.' );
+		if( dot > 0 && !host.matches( "[0-9.]+" ) )
+		{
+			host = host.substring( 0, dot );
+		}
+
+		return clean( host );
+	}
+}
@@ -0,0 +1,133 @@
+package net.praqma.hudson.scm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Hands out view slots to the builds of a job on a node, so concurrent builds
+ * of the same job get their own snapshot view and development stream. The slot
+ * of a build follows its workspace, <code>workspace@2</code> prefers slot 2, so
+ * the build reuses the warm view of the workspace. The slots are leased on the
+ * master and returned when the build completes.
+ */
+public class ViewPool
+{
+	public static final ViewPool pool = new ViewPool();
+	
+	/* node::job::slot -> owner */
+	private Map<String, String> leases = new HashMap<String, String>();
+	
+	/**
+	 * Leases a slot for the build
+	 * @param node The name of the node, empty for the master
+	 * @param job The name of the job
+	 * @param owner The build, see {@link net.praqma.hudson.Metrics#owner(String, Integer)}
+	 * @param preferred The preferred slot, see {@link #getSlot(String)}
+	 * @return The slot, starting at one
+	 */
+	public synchronized int lease( String node, String job, String owner, int preferred )
+	{
+		/* A build checking out again keeps its slot */
+		for( Map.Entry<String, String> e : leases.entrySet() )
+		{
+			if( e.getValue().equals( owner ) && e.getKey().startsWith( node + "::" + job + "::" ) )
+			{
+				return Integer.parseInt( e.getKey().substring( e.getKey().lastIndexOf( "::" ) + 2 ) );
+			}
+		}
+		
+		int slot = preferred;
+		if( leases.containsKey( key( node, job, slot ) ) )
+		{
+			/* Shared workspace, take the first free slot */
+			slot = 1;
+			while( leases.containsKey( key( node, job, slot ) ) )
+			{
+				slot++;
+			}
+		}
+		
+		leases.put( key( node, job, slot ), owner );
+		
+		return slot;
+	}
+	
+	/**
+	 * Leases a given slot, if it is free
+	 * @return True if the slot was leased
+	 */
+	public synchronized boolean tryLease( String node, String job, String owner, int slot )
+	{
+		if( leases.containsKey( key( node, job, slot ) ) )
+		{
+			return false;
+		}
+		
+		leases.put( key( node, job, slot ), owner );
+		return true;
+	}
+	
+	/**
+	 * Returns the slots leased by the build
+	 * @return The number of slots returned
+	 */
+	public synchronized int releaseAll( String owner )
+	{
+		int released = 0;
+		Iterator<String> it = leases.values().iterator();
+		while( it.hasNext() )
+		{
+			if( it.next().equals( owner ) )
+			{
+				it.remove();
+				released++;
+			}
+		}
+		
+		return released;
+	}
+	
+	public synchronized int size()
+	{
+		return leases.size();
+	}
+	
+	private String key( String node, String job, int slot )
+	{
+		return node + "::" + job + "::" + slot;
+	}
+	
+	/**
+	 * Gets the slot from the name of the workspace. Hudson names the workspaces
+	 * of concurrent builds <code>workspace@2</code>, <code>workspace@3</code>...
+	 * @param workspace The name of the workspace folder
+	 * @return The slot, one if the name has no suffix
+	 */
+	public static int getSlot( String workspace )
+	{
+		int i = workspace.lastIndexOf( '@' );
+		if( i < 0 )
+		{
+			return 1;
+		}
+		
+		try
+		{
+			return Math.max( 1, Integer.parseInt( workspace.substring( i + 1 ) ) );
+		}
+		catch( NumberFormatException e )
+		{
+			return 1;
+		}
+	}
+	
+	/**
+	 * Adds the slot to a view tag or view root name. The first slot has no suffix,
+	 * so existing views are reused.
+	 */
+	public static String getName( String name, int slot )
+	{
+		return slot > 1 ? name + "_" + slot : name;
+	}
+}
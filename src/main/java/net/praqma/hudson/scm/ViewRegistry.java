@@ -0,0 +1,654 @@
+package net.praqma.hudson.scm;
+
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.MetadataCache;
+
+/**
+ * Records the snapshot views, which PUCM created on a node, with their development
+ * streams, their jobs and when they were used, in the {@link MetadataCache} of the node,
+ * so stale views can be removed, see {@link net.praqma.hudson.ViewCollectorWork}.<br>
+ * A view is stale, when its job no longer exists, because it was deleted or renamed,
+ * or when it has not been used for a while. When the views of a node take more than
+ * the disk budget, the least recently used views are removed as well. The views of the
+ * node cache have no job, and are only removed by age or budget. The companion view,
+ * which a differential update rebases through, is removed along with its view.<br>
+ * The views and streams, which PUCM made before they were registered, are found by the
+ * prefixes of their names, see {@link #discover}. A view is checked again right before
+ * it is removed, so a view a build took since it was selected is kept.
+ */
+public class ViewRegistry
+{
+	private static final String prefix = "used:";
+
+	/* Views used within this time in milliseconds are kept, they may be in use */
+	public static final long recent = 60 * 60 * 1000;
+
+	/**
+	 * A registered view
+	 */
+	public static class Entry
+	{
+		String tag;
+		long used;
+		String job;
+		String root;
+		String stream;
+
+		Entry( String tag, long used, String job, String root, String stream )
+		{
+			this.tag    = tag;
+			this.used   = used;
+			this.job    = job;
+			this.root   = root;
+			this.stream = stream;
+		}
+
+		public String getTag()
+		{
+			return tag;
+		}
+
+		/**
+		 * The development stream of the view, null for a deliver view, which uses the stream of another
+		 */
+		public String getStream()
+		{
+			return stream;
+		}
+
+		public String getJob()
+		{
+			return job;
+		}
+
+		/**
+		 * True if the entry is a development stream, which has no view
+		 */
+		public boolean isStreamOnly()
+		{
+			return tag.startsWith( "stream:" );
+		}
+	}
+
+	private ViewRegistry()
+	{
+	}
+
+	/**
+	 * Records the use of a view
+	 * @param metadata The metadata of the node, nothing is recorded if null
+	 * @param tag The view tag
+	 * @param job The job of the view, null for the views of the node cache
+	 * @param root The view root, null for a dynamic view
+	 * @param stream The development stream of the view, null if the view does not own its stream
+	 */
+	public static void record( MetadataCache metadata, String tag, String job, File root, String stream )
+	{
+		if( metadata != null )
+		{
+			metadata.put( prefix + tag, System.currentTimeMillis() + "\t" + ( job == null ? "" : ViewNaming.clean( job ) ) + "\t" + ( root == null ? "" : root.getAbsolutePath() ) + "\t" + ( stream == null ? "" : stream ) );
+		}
+	}
+
+	public static List<Entry> getEntries( MetadataCache metadata )
+	{
+		List<Entry> entries = new ArrayList<Entry>();
+		for( String key : metadata.getKeys( prefix ) )
+		{
+			Entry e = getEntry( metadata, key.substring( prefix.length() ) );
+			if( e != null )
+			{
+				entries.add( e );
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Gets the registered view of a tag
+	 * @return The view, or null if it is not registered
+	 */
+	public static Entry getEntry( MetadataCache metadata, String tag )
+	{
+		String value = metadata.get( prefix + tag );
+		String[] fields = value == null ? new String[0] : value.split( "\t", -1 );
+		if( fields.length == 4 )
+		{
+			try
+			{
+				return new Entry( tag, Long.parseLong( fields[0] ), fields[1], fields[2], fields[3].length() == 0 ? null : fields[3] );
+			}
+			catch( NumberFormatException e )
+			{
+				/* Not a valid entry, the view is recorded again when it is used */
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records the PUCM views and development streams of the node, which are not registered,
+	 * such as those of earlier versions of PUCM, and the streams of views removed by hand.
+	 * They are found by the prefixes of their names, and are recorded as used now, so they
+	 * are kept for the retention time, unless their job no longer exists.
+	 * @param cleartool The cleartool runner
+	 * @param metadata The metadata of the node
+	 * @param prefixes The prefixes of the names of the node, see {@link ViewNaming}
+	 * @param pvobs The PVOBs of the PUCM jobs, such as <code>\Cool_PVOB</code>
+	 * @param jobs The PUCM jobs, as cleaned by {@link ViewNaming#clean(String)}
+	 * @return The number of views and streams found
+	 * @throws UCMException If the views or streams could not be listed
+	 */
+	public static int discover( CommandRunner cleartool, MetadataCache metadata, Collection<String> prefixes, Collection<String> pvobs, Collection<String> jobs ) throws UCMException
+	{
+		Set<String> registered = new HashSet<String>();
+		for( Entry e : getEntries( metadata ) )
+		{
+			registered.add( e.tag );
+			if( e.stream != null )
+			{
+				registered.add( e.stream );
+			}
+		}
+
+		/* name -> fully qualified name */
+		Map<String, String> streams = new LinkedHashMap<String, String>();
+		for( String pvob : pvobs )
+		{
+			for( String name : cleartool.run( null, Arrays.asList( "lsstream", "-short", "-invob", pvob ) ).split( "\\r?\\n" ) )
+			{
+				name = name.trim();
+				if( isOwned( name, prefixes ) )
+				{
+					streams.put( name, "stream:" + name + "@" + pvob );
+				}
+			}
+		}
+
+		int found = 0;
+		Map<String, String> views = parseViews( cleartool.run( null, Arrays.asList( "lsview", "-long" ) ) );
+		for( Map.Entry<String, String> view : views.entrySet() )
+		{
+			String tag = view.getKey();
+			if( !isOwned( tag, prefixes ) || registered.contains( tag ) )
+			{
+				continue;
+			}
+
+			/* The development stream is named as the view */
+			String stream = streams.remove( tag );
+			if( stream != null && registered.contains( stream ) )
+			{
+				stream = null;
+			}
+
+			record( metadata, tag, getJob( tag, prefixes, jobs ), view.getValue() == null ? null : new File( view.getValue() ), stream );
+			found++;
+		}
+
+		for( Map.Entry<String, String> stream : streams.entrySet() )
+		{
+			String tag = "stream:" + stream.getKey();
+			if( !registered.contains( stream.getValue() ) && !registered.contains( stream.getKey() ) && !registered.contains( tag ) )
+			{
+				record( metadata, tag, getJob( stream.getKey(), prefixes, jobs ), null, stream.getValue() );
+				found++;
+			}
+		}
+
+		return found;
+	}
+
+	private static boolean isOwned( String name, Collection<String> prefixes )
+	{
+		for( String p : prefixes )
+		{
+			if( name.startsWith( p + "_" ) )
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the job of a view or stream from its name, such as <code>pucm_host_job_2_rebase</code>
+	 * @return The job, the rest of the name if no job has the name, or null for the views of the node cache
+	 */
+	static String getJob( String name, Collection<String> prefixes, Collection<String> jobs )
+	{
+		String rest = name;
+		for( String p : prefixes )
+		{
+			if( name.startsWith( p + "_" ) )
+			{
+				rest = name.substring( p.length() + 1 );
+				break;
+			}
+		}
+
+		if( rest.startsWith( "cache_" ) )
+		{
+			return null;
+		}
+
+		if( jobs.contains( rest ) )
+		{
+			return rest;
+		}
+
+		/* The longest job, as job_2 may be a job or the second view of job */
+		String found = rest;
+		for( String job : jobs )
+		{
+			if( rest.startsWith( job + "_" ) && rest.substring( job.length() + 1 ).matches( "(\\d+_)?rebase|\\d+|dynamic(_\\d+)?" ) && ( found == rest || job.length() > found.length() ) )
+			{
+				found = job;
+			}
+		}
+
+		/* If none, the job was deleted or renamed */
+		return found;
+	}
+
+	/**
+	 * Parses the output of <code>cleartool lsview -long</code>
+	 * @return view tag -> view root, null if the storage is not in the view root, as for dynamic views
+	 */
+	static Map<String, String> parseViews( String output )
+	{
+		Map<String, String> views = new LinkedHashMap<String, String>();
+		String tag = null;
+		for( String line : output.split( "\\r?\\n" ) )
+		{
+			line = line.trim();
+			if( line.startsWith( "Tag:" ) )
+			{
+				tag = line.substring( "Tag:".length() ).trim();
+				views.put( tag, null );
+			}
+			else if( tag != null && line.startsWith( "View server access path:" ) )
+			{
+				/* A snapshot view keeps its storage in the view root, unless it was made on a storage location */
+				String storage = line.substring( "View server access path:".length() ).trim();
+				boolean inRoot = storage.endsWith( "/.view.stg" ) || storage.endsWith( "\\.view.stg" );
+				views.put( tag, inRoot ? storage.substring( 0, storage.length() - "/.view.stg".length() ) : null );
+			}
+		}
+
+		return views;
+	}
+
+	/**
+	 * Forgets a view, which was removed
+	 */
+	public static void remove( MetadataCache metadata, String tag )
+	{
+		metadata.remove( prefix + tag );
+		metadata.remove( "view:" + tag );
+	}
+
+	/**
+	 * Selects the stale views, which are removed
+	 * @param entries The registered views
+	 * @param jobs The PUCM jobs, as cleaned by {@link ViewNaming#clean(String)}
+	 * @param now The time now
+	 * @param maxAge The time in milliseconds a view is kept, when it is not used
+	 * @param budget The bytes the views may take, zero for no budget
+	 * @param sizes view tag -> bytes taken, only needed with a budget
+	 * @return The views to remove, in the order they are removed
+	 */
+	public static List<Entry> selectStale( List<Entry> entries, Collection<String> jobs, long now, long maxAge, long budget, Map<String, Long> sizes )
+	{
+		List<Entry> stale = new ArrayList<Entry>();
+		List<Entry> kept = new ArrayList<Entry>();
+		long total = 0;
+
+		for( Entry e : entries )
+		{
+			boolean deleted = e.job.length() > 0 && !jobs.contains( e.job );
+			if( now - e.used > recent && ( deleted || now - e.used > maxAge ) )
+			{
+				stale.add( e );
+			}
+			else
+			{
+				kept.add( e );
+				Long size = sizes.get( e.tag );
+				total += size == null ? 0 : size;
+			}
+		}
+
+		if( budget > 0 && total > budget )
+		{
+			/* The least recently used first */
+			Collections.sort( kept, new Comparator<Entry>()
+			{
+				public int compare( Entry e1, Entry e2 )
+				{
+					return e1.used < e2.used ? -1 : ( e1.used == e2.used ? 0 : 1 );
+				}
+			} );
+
+			for( Entry e : kept )
+			{
+				if( total <= budget )
+				{
+					break;
+				}
+
+				if( now - e.used > recent )
+				{
+					stale.add( e );
+					Long size = sizes.get( e.tag );
+					total -= size == null ? 0 : size;
+				}
+			}
+		}
+
+		/* A companion view, which uses the stream of a stale view, is removed before the stream */
+		List<Entry> ordered = new ArrayList<Entry>();
+		for( Entry e : stale )
+		{
+			if( e.stream != null )
+			{
+				for( Entry companion : entries )
+				{
+					if( companion.tag.equals( DifferentialUpdate.getRebaseViewtag( e.tag ) ) && !ordered.contains( companion ) )
+					{
+						ordered.add( companion );
+					}
+				}
+			}
+
+			if( !ordered.contains( e ) )
+			{
+				ordered.add( e );
+			}
+		}
+
+		return ordered;
+	}
+
+	/**
+	 * Gets the bytes taken by a view on the disk of the node, none for a dynamic view
+	 */
+	private static long getSize( Entry e )
+	{
+		return e.root.length() == 0 ? 0 : getSize( new File( e.root ) );
+	}
+
+	/**
+	 * Gets the bytes taken by a directory, symbolic links are not followed
+	 */
+	public static long getSize( File dir )
+	{
+		File[] files = dir.listFiles();
+		if( files == null )
+		{
+			return dir.length();
+		}
+
+		long size = 0;
+		for( File f : files )
+		{
+			if( f.isDirectory() && !isLink( f ) )
+			{
+				size += getSize( f );
+			}
+			else
+			{
+				size += f.length();
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * @return True if the file is a symbolic link, or if it cannot be told
+	 */
+	static boolean isLink( File f )
+	{
+		try
+		{
+			/* The parent is resolved, so only a link of the file itself counts */
+			File parent = f.getAbsoluteFile().getParentFile();
+			return parent != null && !new File( parent.getCanonicalFile(), f.getName() ).getCanonicalFile().equals( new File( parent.getCanonicalFile(), f.getName() ) );
+		}
+		catch( Exception e )
+		{
+			return true;
+		}
+	}
+
+	private static void delete( File f )
+	{
+		File[] files = f.listFiles();
+		if( files != null && !isLink( f ) )
+		{
+			for( File child : files )
+			{
+				delete( child );
+			}
+		}
+
+		f.delete();
+	}
+
+	/**
+	 * Removes the stale views of a node, run on the node
+	 */
+	public static class Collect implements Callable<String, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private CommandRunner cleartool;
+		private String cacheRoot;
+		private Set<String> jobs;
+		private Set<String> pvobs;
+		private String pattern;
+		private String node;
+		private long maxAge;
+		private long budget;
+
+		/**
+		 * @param cleartool The cleartool of the node
+		 * @param cacheRoot The cache directory of the node, holding its metadata
+		 * @param jobs The PUCM jobs
+		 * @param pvobs The PVOBs of the PUCM jobs, searched for development streams
+		 * @param naming The naming of the views
+		 * @param node The name of the node, empty for the master
+		 * @param maxAge The time in milliseconds a view is kept, when it is not used
+		 * @param budget The bytes the views of the node may take, zero for no budget
+		 */
+		public Collect( CommandRunner cleartool, String cacheRoot, Collection<String> jobs, Collection<String> pvobs, ViewNaming naming, String node, long maxAge, long budget )
+		{
+			this.cleartool = cleartool;
+			this.cacheRoot = cacheRoot;
+			this.jobs      = new HashSet<String>();
+			this.pvobs     = new LinkedHashSet<String>( pvobs );
+			this.pattern   = naming.getPattern();
+			this.node      = node == null || node.length() == 0 ? "master" : node;
+			this.maxAge    = maxAge;
+			this.budget    = budget;
+
+			for( String job : jobs )
+			{
+				this.jobs.add( ViewNaming.clean( job ) );
+			}
+		}
+
+		/**
+		 * The prefixes of the names PUCM has used on this node: the current prefix, the prefix of the
+		 * dynamic views and the default prefixes of earlier versions
+		 */
+		Set<String> getPrefixes()
+		{
+			Set<String> prefixes = new LinkedHashSet<String>();
+			prefixes.add( new ViewNaming( pattern ).getPrefix() );
+			if( pattern.contains( "${host}" ) )
+			{
+				prefixes.add( ViewNaming.expand( pattern, node, null ) );
+			}
+			prefixes.add( ViewNaming.expand( ViewNaming.defaultPattern, ViewNaming.getHost(), null ) );
+			prefixes.add( ViewNaming.expand( ViewNaming.defaultPattern, node, null ) );
+
+			return prefixes;
+		}
+
+		/**
+		 * @return The report of the collection
+		 */
+		public String call()
+		{
+			MetadataCache metadata = MetadataCache.open( new File( cacheRoot ) );
+			StringBuffer report = new StringBuffer();
+
+			try
+			{
+				int found = discover( cleartool, metadata, getPrefixes(), pvobs, jobs );
+				if( found > 0 )
+				{
+					report.append( "Found " + found + " unregistered views and streams\n" );
+				}
+			}
+			catch( UCMException ex )
+			{
+				report.append( "Could not list the views and streams: " + ex.getMessage() + "\n" );
+			}
+
+			List<Entry> entries = getEntries( metadata );
+
+			Map<String, Long> sizes = new HashMap<String, Long>();
+			for( Entry e : entries )
+			{
+				sizes.put( e.tag, getSize( e ) );
+			}
+
+			long reclaimed = 0;
+			int removed = 0;
+
+			for( Entry e : selectStale( entries, jobs, System.currentTimeMillis(), maxAge, budget, sizes ) )
+			{
+				/* A build may have taken the view, since it was selected */
+				if( !isUnused( metadata, e ) )
+				{
+					report.append( "Kept the view " + e.tag + ", it is in use\n" );
+					continue;
+				}
+
+				if( !e.isStreamOnly() )
+				{
+					File root = e.root.length() == 0 ? null : new File( e.root );
+					try
+					{
+						if( root != null && new File( root, "view.dat" ).exists() )
+						{
+							cleartool.run( null, Arrays.asList( "rmview", "-force", root.getAbsolutePath() ) );
+						}
+						else
+						{
+							cleartool.run( null, Arrays.asList( "rmview", "-force", "-tag", e.tag ) );
+						}
+					}
+					catch( UCMException ex )
+					{
+						/* A view, which is already gone, is only forgotten */
+						if( root == null || root.exists() )
+						{
+							report.append( "Could not remove the view " + e.tag + ": " + ex.getMessage() + "\n" );
+							continue;
+						}
+					}
+
+					if( root != null && root.exists() )
+					{
+						delete( root );
+					}
+				}
+
+				if( e.stream != null )
+				{
+					try
+					{
+						if( !isUnused( metadata, e ) )
+						{
+							/* The view may be gone, the next checkout makes a new view on the stream */
+							report.append( "Kept the stream " + e.stream + ", it is in use\n" );
+							if( e.isStreamOnly() )
+							{
+								continue;
+							}
+						}
+						else
+						{
+							cleartool.run( null, Arrays.asList( "rmstream", "-force", e.stream ) );
+						}
+					}
+					catch( UCMException ex )
+					{
+						report.append( "Could not remove the stream " + e.stream + ": " + ex.getMessage() + "\n" );
+					}
+				}
+
+				if( isUnused( metadata, e ) )
+				{
+					remove( metadata, e.tag );
+				}
+				Long size = sizes.get( e.tag );
+				reclaimed += size == null ? 0 : size;
+				removed++;
+				report.append( "Removed the " + ( e.isStreamOnly() ? "stream " + e.stream : "view " + e.tag ) + ( e.job.length() > 0 ? " of " + e.job : "" ) + ", " + ( size == null ? 0 : size / ( 1024 * 1024 ) ) + " MB\n" );
+			}
+
+			report.append( "Removed " + removed + " of " + entries.size() + " views, reclaimed " + reclaimed / ( 1024 * 1024 ) + " MB" );
+			return report.toString();
+		}
+
+		/**
+		 * Checks the view again on the node, it is in use if it was recorded again, or if a
+		 * checkout has changed it recently
+		 */
+		private static boolean isUnused( MetadataCache metadata, Entry e )
+		{
+			Entry fresh = getEntry( metadata, e.tag );
+			long now = System.currentTimeMillis();
+			if( fresh == null || fresh.used != e.used || now - fresh.used <= recent )
+			{
+				return false;
+			}
+
+			if( fresh.root.length() > 0 )
+			{
+				File root = new File( fresh.root );
+				if( now - root.lastModified() <= recent || now - CheckoutJournal.getFile( root ).lastModified() <= recent )
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
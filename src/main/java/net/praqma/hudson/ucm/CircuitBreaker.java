@@ -0,0 +1,240 @@
+package net.praqma.hudson.ucm;
+
+import hudson.remoting.Callable;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops the UCM operations against a VOB, which keeps failing with transient errors,
+ * for example because its server is down. After a number of consecutive failures the
+ * breaker of the VOB opens, and operations are rejected without calling cleartool.
+ * When the open time has passed, the breaker half opens and lets a single probe through.
+ * If the probe succeeds the breaker closes, otherwise it opens again.<br>
+ * The breakers live on the master. Slaves consult them through the {@link Allow} and
+ * {@link Report} callables.
+ */
+public class CircuitBreaker
+{
+	/**
+	 * The breakers per PVOB
+	 */
+	public static final CircuitBreaker vobs = new CircuitBreaker();
+	
+	public enum State
+	{
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+	
+	private int threshold = 5;
+	private long openTime = 300000;
+	
+	private Map<String, Breaker> breakers = new HashMap<String, Breaker>();
+	
+	private class Breaker
+	{
+		State state    = State.CLOSED;
+		int failures   = 0;
+		long openedAt  = 0;
+		long probeAt   = 0;
+	}
+	
+	/**
+	 * @param threshold The number of consecutive failures opening the breaker. Zero or less disables the breakers.
+	 * @param openTime The time in milliseconds the breaker stays open before probing
+	 */
+	public synchronized void setSettings( int threshold, long openTime )
+	{
+		this.threshold = threshold;
+		this.openTime  = openTime;
+		
+		if( threshold <= 0 )
+		{
+			breakers.clear();
+		}
+	}
+	
+	/**
+	 * Determines whether an operation on the key may be performed. If the breaker is
+	 * half open, only the first caller is allowed through as a probe, until the probe
+	 * reports back or the open time has passed again.
+	 * @param key The key, for example the PVOB
+	 * @return True if the operation may be performed
+	 */
+	public synchronized boolean allow( String key )
+	{
+		Breaker b = breakers.get( key );
+		if( threshold <= 0 || b == null )
+		{
+			return true;
+		}
+		
+		long now = System.currentTimeMillis();
+		switch( b.state )
+		{
+		case OPEN:
+			if( now - b.openedAt < openTime )
+			{
+				return false;
+			}
+			b.state   = State.HALF_OPEN;
+			b.probeAt = now;
+			return true;
+			
+		case HALF_OPEN:
+			/* The probe may never have reported back */
+			if( now - b.probeAt < openTime )
+			{
+				return false;
+			}
+			b.probeAt = now;
+			return true;
+			
+		default:
+			return true;
+		}
+	}
+	
+	public synchronized void success( String key )
+	{
+		breakers.remove( key );
+	}
+	
+	public synchronized void failure( String key )
+	{
+		if( threshold <= 0 )
+		{
+			return;
+		}
+		
+		Breaker b = breakers.get( key );
+		if( b == null )
+		{
+			b = new Breaker();
+			breakers.put( key, b );
+		}
+		
+		b.failures++;
+		if( b.state == State.HALF_OPEN || b.failures >= threshold )
+		{
+			b.state    = State.OPEN;
+			b.openedAt = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Determines whether no failure is recorded for the key, so a success need not be reported
+	 */
+	public synchronized boolean isClean( String key )
+	{
+		return threshold <= 0 || !breakers.containsKey( key );
+	}
+	
+	public synchronized State getState( String key )
+	{
+		Breaker b = breakers.get( key );
+		return b != null ? b.state : State.CLOSED;
+	}
+	
+	/**
+	 * The message given when an operation is rejected
+	 */
+	public synchronized String getMessage( String key )
+	{
+		Breaker b = breakers.get( key );
+		long retryIn = b != null ? Math.max( 0, openTime - ( System.currentTimeMillis() - b.openedAt ) ) / 1000 : 0;
+		return key + " is unavailable after " + ( b != null ? b.failures : 0 ) + " consecutive failures. Retrying in " + retryIn + "s.";
+	}
+	
+	/**
+	 * Gets the PVOB part of a fully qualified UCM name, for example <code>\pvob</code> of <code>stream:name@\pvob</code>
+	 */
+	public static String getPvob( String fqname )
+	{
+		int i = fqname.lastIndexOf( '@' );
+		return i < 0 ? fqname : fqname.substring( i + 1 );
+	}
+	
+	/**
+	 * The answer of the breaker to {@link Allow}
+	 */
+	public static class Verdict implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The rejection message, or null if the operation is allowed
+		 */
+		public final String message;
+		
+		/**
+		 * True if no failure is recorded, so the success of the operation need not be
+		 * reported. Every success must be reported otherwise, also from a half open probe.
+		 */
+		public final boolean clean;
+		
+		Verdict( String message, boolean clean )
+		{
+			this.message = message;
+			this.clean   = clean;
+		}
+	}
+	
+	/**
+	 * Asks the breaker on the master
+	 */
+	public static class Allow implements Callable<Verdict, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String key;
+		
+		public Allow( String key )
+		{
+			this.key = key;
+		}
+		
+		public Verdict call()
+		{
+			synchronized( vobs )
+			{
+				boolean allowed = vobs.allow( key );
+				return new Verdict( allowed ? null : vobs.getMessage( key ), vobs.isClean( key ) );
+			}
+		}
+	}
+	
+	/**
+	 * Reports the outcome of an operation to the breaker on the master
+	 */
+	public static class Report implements Callable<Boolean, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String key;
+		private boolean success;
+		
+		public Report( String key, boolean success )
+		{
+			this.key     = key;
+			this.success = success;
+		}
+		
+		public Boolean call()
+		{
+			if( success )
+			{
+				vobs.success( key );
+			}
+			else
+			{
+				vobs.failure( key );
+			}
+			
+			return true;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package net.praqma.hudson.ucm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * Runs cleartool in a child process
+ */
+public class ClearTool implements CommandRunner
+{
+	private static final long serialVersionUID = 1L;
+	
+	private String executable;
+	
+	/**
+	 * @param executable The cleartool executable, see {@link net.praqma.hudson.scm.PucmScm.PucmScmDescriptor#getCleartool()}
+	 */
+	public ClearTool( String executable )
+	{
+		this.executable = executable;
+	}
+	
+	public String run( File dir, String ... args ) throws UCMException
+	{
+		return run( dir, Arrays.asList( args ) );
+	}
+	
+	public String run( File dir, List<String> args ) throws UCMException
+	{
+		List<String> cmd = new ArrayList<String>();
+		cmd.add( executable );
+		cmd.addAll( args );
+		
+		ProcessBuilder pb = new ProcessBuilder( cmd );
+		pb.directory( dir );
+		pb.redirectErrorStream( true );
+		
+		Process p = null;
+		try
+		{
+			p = pb.start();
+			UCMGuard.register( p );
+			p.getOutputStream().close();
+			
+			StringBuffer out = new StringBuffer();
+			BufferedReader br = new BufferedReader( new InputStreamReader( p.getInputStream() ) );
+			String line;
+			while( ( line = br.readLine() ) != null )
+			{
+				out.append( line ).append( "\n" );
+			}
+			br.close();
+			
+			int exit = p.waitFor();
+			if( exit != 0 )
+			{
+				UCMException e = new UCMException( "cleartool " + args.get( 0 ) + " failed with exit code " + exit + ": " + out.toString().trim() );
+				e.stdout = out.toString();
+				throw e;
+			}
+			
+			return out.toString();
+		}
+		catch( IOException e )
+		{
+			throw new UCMException( "Could not run cleartool " + args.get( 0 ) + ": " + e.getMessage() );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new UCMException( "Interrupted while running cleartool " + args.get( 0 ) );
+		}
+		finally
+		{
+			if( p != null )
+			{
+				UCMGuard.unregister( p );
+				p.destroy();
+			}
+		}
+	}
+	
+	public String toString()
+	{
+		return executable;
+	}
+}
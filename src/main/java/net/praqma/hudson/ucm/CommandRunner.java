@@ -0,0 +1,22 @@
+package net.praqma.hudson.ucm;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * Runs cleartool commands, which COOL does not provide
+ */
+public interface CommandRunner extends Serializable
+{
+	/**
+	 * Runs a command
+	 * @param dir The working directory, may be null
+	 * @param args The arguments to cleartool
+	 * @return The output of the command
+	 * @throws UCMException If the command failed
+	 */
+	public String run( File dir, List<String> args ) throws UCMException;
+}
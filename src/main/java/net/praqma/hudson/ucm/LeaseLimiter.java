@@ -0,0 +1,491 @@
+package net.praqma.hudson.ucm;
+
+import hudson.remoting.Callable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import net.praqma.hudson.Metrics;
+
+/**
+ * Bounds the number of concurrent operations per key, for example per PVOB.
+ * The permits live on the master and are leased to the slaves through the
+ * {@link Acquire} and {@link Release} callables, so the limit is shared by all
+ * the PUCM builds. A slave waits in polls of {@link #poll} milliseconds, so a
+ * remoting thread of the master is not parked for the whole wait, and an aborted
+ * build stops waiting.<br>
+ * The waiting builds are served in the order they came. The first poll takes a
+ * ticket in the line of the key, and the following polls hand it back, so the build
+ * keeps its place between the polls. A ticket, which is not polled for {@link #poll}
+ * milliseconds, is dropped from the line, as its build stopped waiting.
+ */
+public class LeaseLimiter
+{
+	/**
+	 * The write operations per PVOB
+	 */
+	public static final LeaseLimiter vobWrites = new LeaseLimiter( "PVOB write" );
+	
+	/**
+	 * The view updates per node
+	 */
+	public static final LeaseLimiter nodeUpdates = new LeaseLimiter( "Node view update" );
+	
+	/**
+	 * The view updates per view server
+	 */
+	public static final LeaseLimiter serverUpdates = new LeaseLimiter( "View server update" );
+	
+	private static final LeaseLimiter[] limiters = { vobWrites, nodeUpdates, serverUpdates };
+	
+	/**
+	 * The time in milliseconds a slave waits for a lease in one call to the master
+	 */
+	public static final long poll = 30000;
+	
+	private String name;
+	private int permits = 4;
+	/* The permits the lines were sized to, they are kept while unlimited */
+	private int capacity = 4;
+	
+	private Map<String, Line> lines   = new HashMap<String, Line>();
+	private Map<String, Lease> leases = new HashMap<String, Lease>();
+	
+	public LeaseLimiter( String name )
+	{
+		this.name = name;
+	}
+	
+	/**
+	 * The free permits of a key and the tickets waiting for them, first come first served.
+	 * Guarded by the limiter.
+	 */
+	private static class Line
+	{
+		/* Negative while a smaller limit waits for leases to be returned */
+		private int available;
+		private LinkedList<Ticket> waiting = new LinkedList<Ticket>();
+		
+		Line( int available )
+		{
+			this.available = available;
+		}
+		
+		Ticket find( String id )
+		{
+			for( Ticket ticket : waiting )
+			{
+				if( ticket.id.equals( id ) )
+				{
+					return ticket;
+				}
+			}
+			
+			return null;
+		}
+		
+		boolean isTurn( Ticket ticket )
+		{
+			return available > 0 && waiting.getFirst() == ticket;
+		}
+		
+		/**
+		 * Drops the tickets, whose builds stopped polling
+		 */
+		boolean expire( long now )
+		{
+			boolean expired = false;
+			Iterator<Ticket> it = waiting.iterator();
+			while( it.hasNext() )
+			{
+				Ticket ticket = it.next();
+				if( !ticket.polling && now - ticket.polled > poll )
+				{
+					it.remove();
+					expired = true;
+				}
+			}
+			
+			return expired;
+		}
+	}
+	
+	private static class Ticket
+	{
+		private String id = UUID.randomUUID().toString();
+		private String owner;
+		/* True while the build waits on the master */
+		private boolean polling = true;
+		private long polled;
+		
+		Ticket( String owner )
+		{
+			this.owner = owner;
+		}
+	}
+	
+	/**
+	 * Sets the number of concurrent operations per key. Zero or less means unlimited.
+	 * The lines are resized in place, so the leases already handed out still
+	 * count, and a smaller limit takes effect as they are returned.
+	 * @param permits
+	 */
+	public synchronized void setPermits( int permits )
+	{
+		this.permits = permits;
+		if( permits > 0 && permits != capacity )
+		{
+			for( Line line : lines.values() )
+			{
+				line.available += permits - capacity;
+			}
+			capacity = permits;
+			notifyAll();
+		}
+	}
+	
+	public synchronized int getPermits()
+	{
+		return permits;
+	}
+	
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * Blocks until a lease for the key is available
+	 * @param key The key, for example the PVOB
+	 * @param owner The owner of the lease, see {@link Metrics#owner(String, Integer)}
+	 * @return The lease or null if the limiter is unlimited
+	 * @throws InterruptedException
+	 */
+	public Lease acquire( String key, String owner ) throws InterruptedException
+	{
+		return acquire( key, owner, 0, null, false );
+	}
+	
+	/**
+	 * Tries to get a lease for the key for a while, and leaves the line if the time has passed
+	 * @param key The key, for example the PVOB
+	 * @param owner The owner of the lease, see {@link Metrics#owner(String, Integer)}
+	 * @param timeout The time in milliseconds to wait
+	 * @return The lease, null if the limiter is unlimited, or a lease which is not
+	 * {@link Lease#isGranted() granted} if the time has passed
+	 * @throws InterruptedException
+	 */
+	public Lease acquire( String key, String owner, long timeout ) throws InterruptedException
+	{
+		return acquire( key, owner, timeout, null, false );
+	}
+	
+	/**
+	 * Waits for a lease for the key for a while
+	 * @param key The key, for example the PVOB
+	 * @param owner The owner of the lease, see {@link Metrics#owner(String, Integer)}
+	 * @param timeout The time in milliseconds to wait, zero or less waits until the lease is available
+	 * @param ticket The {@link Lease#ticket ticket} of the previous poll, or null to get in line
+	 * @return The lease, null if the limiter is unlimited, or a lease which is not
+	 * {@link Lease#isGranted() granted} if the time has passed
+	 * @throws InterruptedException
+	 */
+	public Lease acquire( String key, String owner, long timeout, String ticket ) throws InterruptedException
+	{
+		return acquire( key, owner, timeout, ticket, true );
+	}
+	
+	/**
+	 * @param keep True if the ticket keeps its place in line, when the time has passed
+	 */
+	private Lease acquire( String key, String owner, long timeout, String ticket, boolean keep ) throws InterruptedException
+	{
+		long now = System.currentTimeMillis();
+		Lease lease = null;
+		synchronized( this )
+		{
+			if( permits <= 0 )
+			{
+				return null;
+			}
+			
+			Line line = lines.get( key );
+			if( line == null )
+			{
+				line = new Line( capacity );
+				lines.put( key, line );
+			}
+			
+			/* An expired ticket gets in line again */
+			Ticket t = ticket == null ? null : line.find( ticket );
+			if( t == null )
+			{
+				t = new Ticket( owner );
+				line.waiting.add( t );
+			}
+			t.polling = true;
+			
+			try
+			{
+				while( !line.isTurn( t ) )
+				{
+					/* The limit was lifted while waiting */
+					if( permits <= 0 )
+					{
+						line.waiting.remove( t );
+						notifyAll();
+						return null;
+					}
+					
+					long time = System.currentTimeMillis();
+					if( line.expire( time ) )
+					{
+						continue;
+					}
+					
+					if( timeout <= 0 )
+					{
+						wait();
+					}
+					else if( now + timeout > time )
+					{
+						wait( now + timeout - time );
+					}
+					else
+					{
+						break;
+					}
+				}
+			}
+			catch( InterruptedException e )
+			{
+				line.waiting.remove( t );
+				notifyAll();
+				throw e;
+			}
+			
+			t.polling = false;
+			t.polled  = System.currentTimeMillis();
+			
+			if( line.isTurn( t ) )
+			{
+				line.waiting.remove( t );
+				line.available--;
+				lease = new Lease( UUID.randomUUID().toString(), key, owner, t.polled - now, null, line );
+				leases.put( lease.id, lease );
+				
+				/* The next in line may have a permit too */
+				notifyAll();
+			}
+			else
+			{
+				if( !keep )
+				{
+					line.waiting.remove( t );
+					notifyAll();
+				}
+				lease = new Lease( null, key, owner, t.polled - now, keep ? t.id : null, null );
+			}
+		}
+		
+		Metrics.add( owner, name + " wait (ms)", lease.waited );
+		if( lease.isGranted() )
+		{
+			Metrics.add( owner, name + " leases", 1 );
+		}
+		
+		return lease;
+	}
+	
+	/**
+	 * Returns the lease to its semaphore
+	 * @param id The id of the lease
+	 * @return True if the lease was returned
+	 */
+	public synchronized boolean release( String id )
+	{
+		Lease lease = leases.remove( id );
+		if( lease != null )
+		{
+			lease.line.available++;
+			notifyAll();
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns all the leases held by an owner, for example when a build has finished
+	 * without returning its leases, because the slave was disconnected. The tickets of
+	 * the owner are dropped from the lines.
+	 * @param owner
+	 * @return The number of leases returned
+	 */
+	public synchronized int releaseAll( String owner )
+	{
+		List<Lease> released = new ArrayList<Lease>();
+		Iterator<Lease> it = leases.values().iterator();
+		while( it.hasNext() )
+		{
+			Lease lease = it.next();
+			if( lease.owner.equals( owner ) )
+			{
+				it.remove();
+				released.add( lease );
+			}
+		}
+		
+		for( Lease lease : released )
+		{
+			lease.line.available++;
+		}
+		
+		for( Line line : lines.values() )
+		{
+			Iterator<Ticket> tickets = line.waiting.iterator();
+			while( tickets.hasNext() )
+			{
+				Ticket ticket = tickets.next();
+				if( !ticket.polling && ticket.owner.equals( owner ) )
+				{
+					tickets.remove();
+				}
+			}
+		}
+		
+		notifyAll();
+		
+		return released.size();
+	}
+	
+	public synchronized int getLeaseCount()
+	{
+		return leases.size();
+	}
+	
+	public static class Lease implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		public final String id;
+		public final String key;
+		public final String owner;
+		/* Milliseconds spent waiting for the lease */
+		public final long waited;
+		/* The place in line of a lease, which is not granted yet */
+		public final String ticket;
+		
+		private transient Line line;
+		
+		Lease( String id, String key, String owner, long waited, String ticket, Line line )
+		{
+			this.id     = id;
+			this.key    = key;
+			this.owner  = owner;
+			this.waited = waited;
+			this.ticket = ticket;
+			this.line   = line;
+		}
+		
+		/**
+		 * False if the wait timed out, and the lease must be asked for again
+		 */
+		public boolean isGranted()
+		{
+			return id != null;
+		}
+	}
+	
+	/**
+	 * Acquires a lease on the master
+	 */
+	public static class Acquire implements Callable<Lease, InterruptedException>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String limiter;
+		private String key;
+		private String owner;
+		private long timeout;
+		private String ticket;
+		
+		/**
+		 * @param timeout The time in milliseconds to wait on the master, see {@link LeaseLimiter#acquire(String, String, long, String)}
+		 * @param ticket The ticket of the previous poll, or null
+		 */
+		public Acquire( String limiter, String key, String owner, long timeout, String ticket )
+		{
+			this.limiter = limiter;
+			this.key     = key;
+			this.owner   = owner;
+			this.timeout = timeout;
+			this.ticket  = ticket;
+		}
+		
+		public Lease call() throws InterruptedException
+		{
+			return get( limiter ).acquire( key, owner, timeout, ticket );
+		}
+	}
+	
+	/**
+	 * Returns a lease on the master
+	 */
+	public static class Release implements Callable<Boolean, RuntimeException>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String limiter;
+		private String id;
+		
+		public Release( String limiter, String id )
+		{
+			this.limiter = limiter;
+			this.id      = id;
+		}
+		
+		public Boolean call()
+		{
+			return get( limiter ).release( id );
+		}
+	}
+	
+	/**
+	 * Returns the limiter with the given name
+	 */
+	public static LeaseLimiter get( String name )
+	{
+		for( LeaseLimiter limiter : limiters )
+		{
+			if( limiter.name.equals( name ) )
+			{
+				return limiter;
+			}
+		}
+		
+		throw new IllegalArgumentException( "Unknown limiter " + name );
+	}
+	
+	/**
+	 * Returns all leases held by the owner in all the limiters
+	 * @param owner
+	 * @return The number of leases returned
+	 */
+	public static int releaseAllLimiters( String owner )
+	{
+		int released = 0;
+		for( LeaseLimiter limiter : limiters )
+		{
+			released += limiter.releaseAll( owner );
+		}
+		
+		return released;
+	}
+}
@@ -0,0 +1,218 @@
+package net.praqma.hudson.ucm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the UCM metadata of a node, which never changes, on disk, so it survives
+ * restarts of the slave. Such as the stream of a baseline, the project of a stream
+ * and the view root and UUID of a view tag.<br>
+ * The metadata is a text file of keys and values in the cache directory of the node.
+ * A file of another version is discarded, and the least recently used entries are
+ * dropped, when there are more than the maximum.
+ */
+public class MetadataCache
+{
+	public static final int version = 1;
+
+	private static final String header = "# PUCM metadata ";
+
+	/* The metadata of the node of this JVM, null until it is opened */
+	private static MetadataCache node = null;
+
+	private File file;
+	private int size;
+
+	private Map<String, String> entries = new LinkedHashMap<String, String>( 16, 0.75f, true );
+
+	/**
+	 * @param file The file of the cache
+	 * @param size The maximum number of entries
+	 */
+	public MetadataCache( File file, int size )
+	{
+		this.file = file;
+		this.size = size;
+		load();
+	}
+
+	/**
+	 * Opens the metadata of the node of this JVM, if it is not open already
+	 * @param dir The cache directory of the node
+	 */
+	public static synchronized MetadataCache open( File dir )
+	{
+		File file = new File( dir, "metadata.txt" );
+		if( node == null || !node.file.equals( file ) )
+		{
+			node = new MetadataCache( file, 5000 );
+		}
+
+		return node;
+	}
+
+	/**
+	 * Gets the metadata of the node of this JVM
+	 * @return The metadata, or null if it has not been opened
+	 */
+	public static synchronized MetadataCache getNode()
+	{
+		return node;
+	}
+
+	public synchronized String get( String key )
+	{
+		return entries.get( key );
+	}
+
+	/**
+	 * Stores a value, and writes the file
+	 */
+	public synchronized void put( String key, String value )
+	{
+		if( value.equals( entries.get( key ) ) )
+		{
+			return;
+		}
+
+		entries.put( key, value );
+		while( entries.size() > size )
+		{
+			entries.remove( entries.keySet().iterator().next() );
+		}
+
+		save();
+	}
+
+	/**
+	 * Removes a value, which turned out to be wrong, such as a removed view
+	 */
+	public synchronized void remove( String key )
+	{
+		if( entries.remove( key ) != null )
+		{
+			save();
+		}
+	}
+
+	/**
+	 * Gets the keys starting with a prefix
+	 */
+	public synchronized List<String> getKeys( String prefix )
+	{
+		List<String> keys = new ArrayList<String>();
+		for( String key : entries.keySet() )
+		{
+			if( key.startsWith( prefix ) )
+			{
+				keys.add( key );
+			}
+		}
+
+		return keys;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	private void load()
+	{
+		if( !file.exists() )
+		{
+			return;
+		}
+
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader( new FileReader( file ) );
+			if( !( header + version ).equals( reader.readLine() ) )
+			{
+				return;
+			}
+
+			String line;
+			while( ( line = reader.readLine() ) != null )
+			{
+				int tab = line.indexOf( '\t' );
+				if( tab > 0 )
+				{
+					entries.put( line.substring( 0, tab ), line.substring( tab + 1 ) );
+				}
+			}
+		}
+		catch( IOException e )
+		{
+			/* The metadata is found again */
+			entries.clear();
+		}
+		finally
+		{
+			close( reader );
+		}
+	}
+
+	/**
+	 * Writes the entries to a temporary file, and replaces the file with it, so a
+	 * slave killed while writing does not leave half a file
+	 */
+	private void save()
+	{
+		File tmp = new File( file.getPath() + ".tmp" );
+		PrintWriter writer = null;
+		try
+		{
+			file.getParentFile().mkdirs();
+			writer = new PrintWriter( new FileWriter( tmp ) );
+			writer.println( header + version );
+			for( Map.Entry<String, String> e : entries.entrySet() )
+			{
+				writer.println( e.getKey() + "\t" + e.getValue() );
+			}
+			writer.close();
+			writer = null;
+
+			if( !tmp.renameTo( file ) )
+			{
+				file.delete();
+				tmp.renameTo( file );
+			}
+		}
+		catch( IOException e )
+		{
+			/* The metadata is only kept in memory */
+		}
+		finally
+		{
+			if( writer != null )
+			{
+				writer.close();
+			}
+		}
+	}
+
+	private static void close( BufferedReader reader )
+	{
+		if( reader != null )
+		{
+			try
+			{
+				reader.close();
+			}
+			catch( IOException e )
+			{
+				/* Nothing to do */
+			}
+		}
+	}
+}
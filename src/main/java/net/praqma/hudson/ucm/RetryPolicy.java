@@ -0,0 +1,90 @@
+package net.praqma.hudson.ucm;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Bounded exponential backoff with full jitter. The delay before retry <i>n</i>
+ * is chosen uniformly between zero and <code>min( maxDelay, baseDelay * 2^(n-1) )</code>,
+ * which spreads out builds, that failed on the same lock.
+ */
+public class RetryPolicy implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+	
+	/** No retries */
+	public static final RetryPolicy NONE = new RetryPolicy( 0, 0, 0 );
+	
+	private final int retries;
+	private final long baseDelay;
+	private final long maxDelay;
+	
+	private transient Random random;
+	
+	/**
+	 * @param retries The maximum number of retries, zero disables retrying
+	 * @param baseDelay The delay cap of the first retry in milliseconds
+	 * @param maxDelay The maximum delay cap in milliseconds
+	 */
+	public RetryPolicy( int retries, long baseDelay, long maxDelay )
+	{
+		this.retries   = Math.max( 0, retries );
+		this.baseDelay = Math.max( 0, baseDelay );
+		this.maxDelay  = Math.max( this.baseDelay, maxDelay );
+	}
+	
+	public int getRetries()
+	{
+		return retries;
+	}
+	
+	/**
+	 * @param attempt The number of failed attempts so far, starting at one
+	 * @return True if another attempt is allowed
+	 */
+	public boolean allowRetry( int attempt )
+	{
+		return attempt <= retries;
+	}
+	
+	/**
+	 * The upper bound of the delay before the retry
+	 * @param attempt The number of failed attempts so far, starting at one
+	 * @return The delay cap in milliseconds
+	 */
+	public long getDelayCap( int attempt )
+	{
+		long cap = baseDelay;
+		for( int i = 1 ; i < attempt && cap < maxDelay ; i++ )
+		{
+			cap *= 2;
+		}
+		
+		return Math.min( cap, maxDelay );
+	}
+	
+	/**
+	 * @param attempt The number of failed attempts so far, starting at one
+	 * @return The jittered delay in milliseconds
+	 */
+	public synchronized long getDelay( int attempt )
+	{
+		long cap = getDelayCap( attempt );
+		if( cap <= 0 )
+		{
+			return 0;
+		}
+		
+		if( random == null )
+		{
+			random = new Random();
+		}
+		
+		return (long)( random.nextDouble() * ( cap + 1 ) );
+	}
+	
+	public String toString()
+	{
+		return retries + " retries, " + baseDelay + "-" + maxDelay + "ms";
+	}
+}
@@ -0,0 +1,142 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.clearcase.ucm.entities.Baseline;
+import net.praqma.clearcase.ucm.entities.Project;
+import net.praqma.clearcase.ucm.entities.Stream;
+import net.praqma.clearcase.ucm.entities.UCMEntity;
+
+/**
+ * Caches the layout of the UCM projects of a PVOB, the build projects, their
+ * integration streams and the default targets of streams, which change a few
+ * times a year, but are looked up by every build. The cache is per JVM, so the
+ * master and each slave have their own.<br>
+ * Lookups, which fail, such as the build project candidates of
+ * {@link net.praqma.hudson.Config#getIntegrationStream}, are cached for a shorter
+ * while, so a new project is found soon.
+ * The project of a stream and the stream of a baseline never change, and are kept
+ * in the {@link MetadataCache} of the node as well.
+ */
+public class TopologyCache
+{
+	public static final TopologyCache topology = new TopologyCache();
+
+	private static final long ttl         = 60 * 60 * 1000;
+	private static final long negativeTtl = 10 * 60 * 1000;
+
+	private TtlCache<Project> projects           = new TtlCache<Project>( ttl, negativeTtl );
+	private TtlCache<Stream> integrationStreams  = new TtlCache<Stream>( ttl, negativeTtl );
+	private TtlCache<Project> streamProjects     = new TtlCache<Project>( ttl, negativeTtl );
+	private TtlCache<Stream> defaultTargets      = new TtlCache<Stream>( ttl, negativeTtl );
+	private TtlCache<Stream> baselineStreams     = new TtlCache<Stream>( ttl, negativeTtl );
+
+	/**
+	 * Gets a project
+	 * @param name The name of the project, such as <code>hudson@\pvob</code>
+	 */
+	public Project getProject( final String name ) throws UCMException
+	{
+		return projects.get( name, new UCMOperation<Project>()
+		{
+			public Project perform() throws UCMException
+			{
+				return UCMEntity.GetProject( name, false );
+			}
+		} );
+	}
+
+	/**
+	 * Gets the project of a stream, which is kept in the {@link MetadataCache} of the node
+	 */
+	public Project getProject( final Stream stream ) throws UCMException
+	{
+		return streamProjects.get( stream.GetFQName(), new UCMOperation<Project>()
+		{
+			public Project perform() throws UCMException
+			{
+				String key = "stream.project:" + stream.GetFQName();
+				String name = getMetadata( key );
+				if( name != null )
+				{
+					return UCMEntity.GetProject( name, false );
+				}
+
+				Project project = stream.getProject();
+				putMetadata( key, project );
+				return project;
+			}
+		} );
+	}
+
+	/**
+	 * Gets the stream of a baseline, which is kept in the {@link MetadataCache} of the node
+	 */
+	public Stream getStream( final Baseline baseline ) throws UCMException
+	{
+		return baselineStreams.get( baseline.GetFQName(), new UCMOperation<Stream>()
+		{
+			public Stream perform() throws UCMException
+			{
+				String key = "baseline.stream:" + baseline.GetFQName();
+				String name = getMetadata( key );
+				if( name != null )
+				{
+					return UCMEntity.GetStream( name, false );
+				}
+
+				Stream stream = baseline.getStream();
+				putMetadata( key, stream );
+				return stream;
+			}
+		} );
+	}
+
+	public Stream getIntegrationStream( final Project project ) throws UCMException
+	{
+		return integrationStreams.get( project.GetFQName(), new UCMOperation<Stream>()
+		{
+			public Stream perform() throws UCMException
+			{
+				return project.getIntegrationStream();
+			}
+		} );
+	}
+
+	public Stream getDefaultTarget( final Stream stream ) throws UCMException
+	{
+		return defaultTargets.get( stream.GetFQName(), new UCMOperation<Stream>()
+		{
+			public Stream perform() throws UCMException
+			{
+				return stream.getDefaultTarget();
+			}
+		} );
+	}
+
+	private static String getMetadata( String key )
+	{
+		MetadataCache metadata = MetadataCache.getNode();
+		return metadata == null ? null : metadata.get( key );
+	}
+
+	private static void putMetadata( String key, UCMEntity entity )
+	{
+		MetadataCache metadata = MetadataCache.getNode();
+		if( metadata != null && entity != null )
+		{
+			metadata.put( key, entity.GetFQName() );
+		}
+	}
+
+	/**
+	 * Forgets everything, for example when projects are moved
+	 */
+	public void clear()
+	{
+		projects.clear();
+		integrationStreams.clear();
+		streamProjects.clear();
+		defaultTargets.clear();
+		baselineStreams.clear();
+	}
+}
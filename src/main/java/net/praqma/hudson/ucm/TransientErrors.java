@@ -0,0 +1,60 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * Classifies ClearCase errors, which are likely to go away if the operation is retried,
+ * such as locks held by other operations, RPC timeouts and busy replicas.
+ */
+public class TransientErrors
+{
+	private static final String[] patterns = {
+		"lock on",                   /* Unable to obtain lock on ... */
+		"unable to lock",
+		"is locked",
+		"timed out",                 /* RPC: Timed out */
+		"rpc: unable",
+		"rpc: remote system error",
+		"unable to contact",         /* Unable to contact albd_server / vob server */
+		"unable to communicate",
+		"unable to access vob",
+		"replica is busy",
+		"resource temporarily unavailable",
+		"connection reset",
+		"connection refused",
+		"try again"
+	};
+	
+	private TransientErrors()
+	{
+	}
+	
+	/**
+	 * Determines whether the error is transient
+	 * @param e The exception thrown by COOL
+	 * @return True if the operation can be retried
+	 */
+	public static boolean isTransient( UCMException e )
+	{
+		return isTransient( e.getMessage() );
+	}
+	
+	public static boolean isTransient( String message )
+	{
+		if( message == null )
+		{
+			return false;
+		}
+		
+		String m = message.toLowerCase();
+		for( String p : patterns )
+		{
+			if( m.contains( p ) )
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
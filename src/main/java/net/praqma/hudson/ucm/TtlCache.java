@@ -0,0 +1,104 @@
+package net.praqma.hudson.ucm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * Caches the results of UCM operations for a while. Failures, other than
+ * {@link TransientErrors}, are cached as well, for a shorter while, so a lookup known
+ * to fail does not cost a cleartool call every time.<br>
+ * The operations are not performed under the lock of the cache, concurrent misses
+ * of the same key may both perform the operation.
+ * @param <V> The cached values
+ */
+public class TtlCache<V>
+{
+	private static class Entry<V>
+	{
+		V value;
+		String error;
+		long expires;
+	}
+
+	private Map<String, Entry<V>> entries = new HashMap<String, Entry<V>>();
+
+	private long ttl;
+	private long negativeTtl;
+
+	/**
+	 * @param ttl The time in milliseconds a value is cached
+	 * @param negativeTtl The time in milliseconds a failure is cached
+	 */
+	public TtlCache( long ttl, long negativeTtl )
+	{
+		this.ttl         = ttl;
+		this.negativeTtl = negativeTtl;
+	}
+
+	/**
+	 * Gets the cached value of a key, or performs the operation
+	 * @param key The key
+	 * @param operation The operation giving the value
+	 * @return The value
+	 * @throws UCMException If the operation failed, now or while the failure is cached
+	 */
+	public V get( String key, UCMOperation<V> operation ) throws UCMException
+	{
+		synchronized( this )
+		{
+			Entry<V> entry = entries.get( key );
+			if( entry != null && entry.expires > System.currentTimeMillis() )
+			{
+				if( entry.error != null )
+				{
+					throw new UCMException( entry.error );
+				}
+
+				return entry.value;
+			}
+		}
+
+		Entry<V> entry = new Entry<V>();
+		try
+		{
+			entry.value   = operation.perform();
+			entry.expires = System.currentTimeMillis() + ttl;
+			put( key, entry );
+
+			return entry.value;
+		}
+		catch( UCMException e )
+		{
+			if( !TransientErrors.isTransient( e ) )
+			{
+				entry.error   = e.getMessage() == null ? "Unknown error" : e.getMessage();
+				entry.expires = System.currentTimeMillis() + negativeTtl;
+				put( key, entry );
+			}
+
+			throw e;
+		}
+	}
+
+	private synchronized void put( String key, Entry<V> entry )
+	{
+		entries.put( key, entry );
+	}
+
+	public synchronized void invalidate( String key )
+	{
+		entries.remove( key );
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+}
@@ -0,0 +1,216 @@
+package net.praqma.hudson.ucm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.clearcase.ucm.entities.Project;
+import net.praqma.clearcase.ucm.view.SnapshotView.COMP;
+import net.praqma.hudson.scm.LoadRules;
+
+/**
+ * The long UCM operations, updates, rebases, delivers and promotions. COOL runs them in
+ * processes, which the {@link UCMGuard} cannot kill when it abandons the operation, so
+ * they are run through a {@link CommandRunner} instead, whose processes are killed.
+ */
+public class UCMCommands
+{
+	private CommandRunner cleartool;
+
+	/**
+	 * @param cleartool The cleartool runner
+	 */
+	public UCMCommands( CommandRunner cleartool )
+	{
+		this.cleartool = cleartool;
+	}
+
+	/**
+	 * Updates a snapshot view as COOL does: the config spec is regenerated from the stream of the
+	 * view, the view private files are removed, and the root directories of the components are loaded
+	 * @param viewroot The view root
+	 * @param components The components to load
+	 * @throws UCMException
+	 */
+	public void update( File viewroot, COMP components ) throws UCMException
+	{
+		List<String> roots = getRoots( viewroot, components );
+		swipe( viewroot, roots );
+		run( viewroot, "setcs", "-force", "-overwrite", "-stream" );
+
+		/* A new view has no load rules, setting them updates the view again */
+		LoadRules.setComponentRoots( cleartool, viewroot, roots );
+	}
+
+	/**
+	 * Gets the root directories of the components of the stream of a view, such as <code>\vob\comp</code>
+	 */
+	List<String> getRoots( File viewroot, COMP components ) throws UCMException
+	{
+		String fmt = components == COMP.MODIFIABLE ? "%[mod_comps]Xp" : "%[components]Xp";
+		List<String> roots = new ArrayList<String>();
+		for( String component : run( viewroot, "lsstream", "-fmt", fmt ).trim().split( "\\s+" ) )
+		{
+			if( component.length() == 0 )
+			{
+				continue;
+			}
+
+			/* Rootless components hold no elements */
+			String root = run( viewroot, "lscomp", "-fmt", "%[root_dir]p", component ).trim();
+			if( root.length() > 0 )
+			{
+				roots.add( root );
+			}
+		}
+
+		return roots;
+	}
+
+	/**
+	 * Removes the view private files and directories below the root directories
+	 */
+	void swipe( File viewroot, List<String> roots ) throws UCMException
+	{
+		List<File> privates = new ArrayList<File>();
+		for( String root : roots )
+		{
+			String path = getRelative( root );
+			if( !new File( viewroot, path ).exists() )
+			{
+				continue;
+			}
+
+			for( String line : run( viewroot, "ls", "-short", "-recurse", "-view_only", path ).split( "\\r?\\n" ) )
+			{
+				line = line.trim();
+				if( line.length() > 0 )
+				{
+					File f = new File( line );
+					privates.add( f.isAbsolute() ? f : new File( viewroot, line ) );
+				}
+			}
+		}
+
+		/* The files of a directory go before the directory */
+		Collections.sort( privates, new Comparator<File>()
+		{
+			public int compare( File f1, File f2 )
+			{
+				return f2.getPath().length() - f1.getPath().length();
+			}
+		} );
+
+		for( File f : privates )
+		{
+			f.delete();
+		}
+	}
+
+	/**
+	 * Rebases the stream of a view, and completes the rebase, which updates the view
+	 */
+	public void rebase( String viewtag, String baseline ) throws UCMException
+	{
+		run( null, "rebase", "-baseline", baseline, "-view", viewtag, "-complete", "-force" );
+	}
+
+	public void cancelRebase( String stream ) throws UCMException
+	{
+		run( null, "rebase", "-cancel", "-force", "-stream", stream );
+	}
+
+	/**
+	 * Delivers a baseline of a stream to the default target of the stream, through a view of the target
+	 * @return False if there was nothing to deliver
+	 */
+	public boolean deliver( String baseline, String stream, File viewroot, String viewtag ) throws UCMException
+	{
+		String out = run( viewroot, "deliver", "-baseline", baseline, "-stream", stream, "-to", viewtag, "-force", "-complete", "-abort" );
+		return !isEmpty( out );
+	}
+
+	/**
+	 * Delivers a stream to a target stream, through a view of the target
+	 */
+	public void deliver( String stream, String target, File viewroot ) throws UCMException
+	{
+		run( viewroot, "deliver", "-stream", stream, "-target", target, "-force", "-complete", "-abort" );
+	}
+
+	public void cancelDeliver( String stream, File viewroot ) throws UCMException
+	{
+		run( viewroot, "deliver", "-cancel", "-force", "-stream", stream );
+	}
+
+	/**
+	 * Promotes a baseline to the next promotion level
+	 * @return The new level
+	 */
+	public Project.Plevel promote( String baseline ) throws UCMException
+	{
+		Project.Plevel level = getNext( Project.GetPlevelFromString( run( null, "describe", "-fmt", "%[plevel]p", baseline ).trim() ) );
+		setLevel( baseline, level );
+		return level;
+	}
+
+	/**
+	 * Demotes a baseline to rejected
+	 * @return The new level
+	 */
+	public Project.Plevel demote( String baseline ) throws UCMException
+	{
+		setLevel( baseline, Project.Plevel.REJECTED );
+		return Project.Plevel.REJECTED;
+	}
+
+	private void setLevel( String baseline, Project.Plevel level ) throws UCMException
+	{
+		run( null, "chbl", "-level", level.toString(), baseline );
+	}
+
+	/**
+	 * Gets the level a baseline is promoted to, as COOL does: a rejected baseline becomes
+	 * initial, and a released baseline stays released
+	 */
+	static Project.Plevel getNext( Project.Plevel level )
+	{
+		if( level == null || level == Project.Plevel.REJECTED )
+		{
+			return Project.Plevel.INITIAL;
+		}
+
+		Project.Plevel[] levels = Project.Plevel.values();
+		return levels[Math.min( level.ordinal() + 1, levels.length - 1 )];
+	}
+
+	/**
+	 * True if the output of deliver tells there was nothing to deliver
+	 */
+	static boolean isEmpty( String output )
+	{
+		return output.indexOf( "No changes" ) >= 0 || output.indexOf( "nothing to deliver" ) >= 0;
+	}
+
+	/**
+	 * Gets a VOB path, such as <code>\vob\comp</code>, relative to the view root
+	 */
+	static String getRelative( String path )
+	{
+		while( path.startsWith( "\\" ) || path.startsWith( "/" ) )
+		{
+			path = path.substring( 1 );
+		}
+
+		return path;
+	}
+
+	private String run( File dir, String ... args ) throws UCMException
+	{
+		return cleartool.run( dir, Arrays.asList( args ) );
+	}
+}
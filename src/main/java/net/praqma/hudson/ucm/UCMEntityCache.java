@@ -0,0 +1,209 @@
+package net.praqma.hudson.ucm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.clearcase.ucm.entities.Baseline;
+import net.praqma.clearcase.ucm.entities.Component;
+import net.praqma.clearcase.ucm.entities.Project;
+import net.praqma.clearcase.ucm.entities.Stream;
+import net.praqma.clearcase.ucm.entities.UCMEntity;
+
+/**
+ * Shares the loaded baselines, streams and components of a JVM, so an entity is
+ * described once, and not again by each part of a build, which needs it.<br>
+ * The COOL entities are mutable, so the cached entity is never handed out. Each caller
+ * gets a copy of its own, and changing it does not change the entities of other builds.<br>
+ * The names and the relations of an entity never change, and are kept as long as
+ * the entity is cached. The promotion level of a baseline is read again, when it is
+ * older than a minute, and the promotions and recommendations of the plugin update or
+ * invalidate the cached entities.
+ */
+public class UCMEntityCache
+{
+	public static final UCMEntityCache entities = new UCMEntityCache();
+
+	/* The number of entities cached */
+	private static final int size = 500;
+
+	/* The time in milliseconds a promotion level is trusted */
+	private static final long levelTtl = 60 * 1000;
+
+	private Map<String, UCMEntity> cache = new LinkedHashMap<String, UCMEntity>( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry( Map.Entry<String, UCMEntity> eldest )
+		{
+			return size() > size;
+		}
+	};
+
+	/* baseline -> the time its promotion level was read */
+	private Map<String, Long> levels = new HashMap<String, Long>();
+
+	public Baseline getBaseline( final String name ) throws UCMException
+	{
+		return (Baseline) get( "baseline", name, new UCMOperation<UCMEntity>()
+		{
+			public UCMEntity perform() throws UCMException
+			{
+				return UCMEntity.GetBaseline( name );
+			}
+		} );
+	}
+
+	public Stream getStream( final String name ) throws UCMException
+	{
+		return (Stream) get( "stream", name, new UCMOperation<UCMEntity>()
+		{
+			public UCMEntity perform() throws UCMException
+			{
+				return UCMEntity.GetStream( name );
+			}
+		} );
+	}
+
+	public Component getComponent( final String name ) throws UCMException
+	{
+		return (Component) get( "component", name, new UCMOperation<UCMEntity>()
+		{
+			public UCMEntity perform() throws UCMException
+			{
+				return UCMEntity.GetComponent( name );
+			}
+		} );
+	}
+
+	private UCMEntity get( String type, String name, UCMOperation<UCMEntity> load ) throws UCMException
+	{
+		String key = type + "::" + name;
+		synchronized( this )
+		{
+			UCMEntity entity = cache.get( key );
+			if( entity != null )
+			{
+				return copy( entity );
+			}
+		}
+
+		/* Loaded outside the lock, concurrent misses may both load it */
+		UCMEntity entity = load.perform();
+
+		synchronized( this )
+		{
+			if( entity != null )
+			{
+				UCMEntity cached = copy( entity );
+				cache.put( key, cached );
+				cache.put( type + "::" + entity.GetFQName(), cached );
+
+				if( entity instanceof Baseline )
+				{
+					levels.put( entity.GetFQName(), System.currentTimeMillis() );
+				}
+			}
+		}
+
+		return entity;
+	}
+
+	/**
+	 * Copies an entity and the entities it refers to
+	 */
+	private static UCMEntity copy( UCMEntity entity ) throws UCMException
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream( bytes );
+			out.writeObject( entity );
+			out.close();
+
+			ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+			try
+			{
+				return (UCMEntity) in.readObject();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch( IOException e )
+		{
+			throw new UCMException( "Could not copy " + entity.GetFQName() + ": " + e.getMessage() );
+		}
+		catch( ClassNotFoundException e )
+		{
+			throw new UCMException( "Could not copy " + entity.GetFQName() + ": " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Gets the promotion level of a baseline, read again if it is older than a minute
+	 */
+	public Project.Plevel getPromotionLevel( Baseline baseline ) throws UCMException
+	{
+		boolean fresh;
+		synchronized( this )
+		{
+			Long read = levels.get( baseline.GetFQName() );
+			fresh = read != null && System.currentTimeMillis() - read < levelTtl;
+		}
+
+		Project.Plevel level = baseline.getPromotionLevel( fresh );
+
+		if( !fresh )
+		{
+			setPromotionLevel( baseline, level );
+		}
+
+		return level;
+	}
+
+	/**
+	 * Sets the promotion level of a baseline and of its cached entity, after the plugin promoted or demoted it
+	 */
+	public synchronized void setPromotionLevel( Baseline baseline, Project.Plevel level )
+	{
+		baseline.setPromotionLevel( level );
+
+		UCMEntity cached = cache.get( "baseline::" + baseline.GetFQName() );
+		if( cached != null )
+		{
+			( (Baseline) cached ).setPromotionLevel( level );
+		}
+		levels.put( baseline.GetFQName(), System.currentTimeMillis() );
+	}
+
+	/**
+	 * Forgets an entity, after the plugin changed it in ClearCase
+	 */
+	public synchronized void invalidate( UCMEntity entity )
+	{
+		levels.remove( entity.GetFQName() );
+
+		for( Iterator<UCMEntity> it = cache.values().iterator(); it.hasNext(); )
+		{
+			if( it.next().GetFQName().equals( entity.GetFQName() ) )
+			{
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear()
+	{
+		cache.clear();
+		levels.clear();
+	}
+}
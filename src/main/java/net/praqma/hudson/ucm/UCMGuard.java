@@ -0,0 +1,683 @@
+package net.praqma.hudson.ucm;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.Metrics;
+import net.praqma.hudson.exception.VobUnavailableException;
+import net.praqma.hudson.scm.StreamPool;
+import net.praqma.hudson.ucm.LeaseLimiter.Lease;
+
+/**
+ * Performs the UCM operations of a build. The remote tasks create their guard on the
+ * slave from a {@link net.praqma.hudson.RemoteSettings}, attached to the channel back to the
+ * master, see {@link #attach(VirtualChannel, PrintStream)}.<br>
+ * Write operations are limited per PVOB by {@link LeaseLimiter#vobWrites}, view
+ * updates per node and per view server, see {@link #beginUpdate(String, String)}.
+ * Write operations are retried according to the {@link RetryPolicy} if they fail with a
+ * {@link TransientErrors transient error}. Operations against a PVOB, whose
+ * {@link CircuitBreaker} is open, are rejected with a {@link VobUnavailableException}.<br>
+ * The operations run on a separate thread, so they can be abandoned when they time out
+ * or the build is aborted. The thread of an abandoned operation is interrupted and the
+ * cleartool processes it started through {@link ClearTool} are killed. The long operations,
+ * updates, rebases, delivers and promotions, are run through {@link UCMCommands} for
+ * this reason, the processes started inside COOL cannot be {@link #register(Process) registered}.
+ * Processes of other builds on the node are never touched.<br>
+ * The guard waits for the thread of the abandoned operation to end, before its cleanup
+ * operation is performed, for example cancelling a rebase, and before its lease is returned.
+ * If it does not end in time, the cleanup is skipped and the lease is returned when the
+ * build completes.
+ */
+public class UCMGuard
+{
+	private static final ExecutorService executor = Executors.newCachedThreadPool( new ThreadFactory()
+	{
+		public Thread newThread( Runnable r )
+		{
+			Thread t = new Thread( r, "PUCM cleartool" );
+			t.setDaemon( true );
+			return t;
+		}
+	} );
+	
+	/* The operation running on the thread, see #register(Process) */
+	private static final ThreadLocal<Operation> operations = new ThreadLocal<Operation>();
+	
+	/* The time in milliseconds an abandoned operation is given to end, after its processes are killed */
+	private static final long abandonWait = 60 * 1000;
+	
+	private String owner;
+	private RetryPolicy retry = RetryPolicy.NONE;
+	private long timeout     = 0;
+	private long viewTimeout = 0;
+	
+	private VirtualChannel channel;
+	private PrintStream out;
+	
+	/**
+	 * @param owner The owner of the operations, see {@link net.praqma.hudson.Metrics#owner(String, Integer)}
+	 */
+	public UCMGuard( String owner )
+	{
+		this.owner = owner;
+	}
+	
+	/**
+	 * Attaches the guard to the channel back to the master
+	 * @param channel The channel, if null no limits are imposed
+	 * @param out The console output of the build
+	 * @return The guard itself
+	 */
+	public UCMGuard attach( VirtualChannel channel, PrintStream out )
+	{
+		this.channel = channel;
+		this.out     = out;
+		
+		return this;
+	}
+	
+	public String getOwner()
+	{
+		return owner;
+	}
+	
+	public UCMGuard setRetryPolicy( RetryPolicy retry )
+	{
+		this.retry = retry != null ? retry : RetryPolicy.NONE;
+		
+		return this;
+	}
+	
+	public RetryPolicy getRetryPolicy()
+	{
+		return retry;
+	}
+	
+	/**
+	 * @param timeout The timeout of the operations in milliseconds, zero means none
+	 * @param viewTimeout The timeout of the view operations in milliseconds, such as updates and rebases
+	 * @return The guard itself
+	 */
+	public UCMGuard setTimeouts( long timeout, long viewTimeout )
+	{
+		this.timeout     = timeout;
+		this.viewTimeout = viewTimeout;
+		
+		return this;
+	}
+	
+	/**
+	 * Performs an operation, which reads from the PVOB.
+	 * @param pvob The PVOB read from
+	 * @param op The operation
+	 * @return The result of the operation
+	 * @throws UCMException If the operation failed or timed out
+	 * @throws IOException If interrupted
+	 * @throws VobUnavailableException If the circuit breaker of the PVOB is open
+	 */
+	public <T> T read( String pvob, UCMOperation<T> op ) throws UCMException, IOException
+	{
+		boolean clean = checkBreaker( pvob );
+		try
+		{
+			T result = perform( op, timeout, null );
+			reportBreaker( pvob, true, clean );
+			return result;
+		}
+		catch( UCMException e )
+		{
+			reportBreaker( pvob, !TransientErrors.isTransient( e ), clean );
+			throw e;
+		}
+	}
+	
+	/**
+	 * Performs an operation on the view only, such as an update.
+	 * @param op The operation
+	 * @return The result of the operation
+	 * @throws UCMException If the operation failed or timed out
+	 * @throws IOException If interrupted
+	 */
+	public <T> T view( UCMOperation<T> op ) throws UCMException, IOException
+	{
+		return perform( op, viewTimeout, null );
+	}
+	
+	/**
+	 * Performs an operation, which writes to the PVOB.
+	 * @param pvob The PVOB written to
+	 * @param op The operation
+	 * @return The result of the operation
+	 * @throws UCMException If the operation failed
+	 * @throws IOException If interrupted while waiting for the PVOB
+	 * @throws VobUnavailableException If the circuit breaker of the PVOB is open
+	 */
+	public <T> T write( String pvob, UCMOperation<T> op ) throws UCMException, IOException
+	{
+		return write( pvob, op, false, null );
+	}
+	
+	/**
+	 * Performs an operation, which writes to the PVOB.
+	 * @param pvob The PVOB written to
+	 * @param op The operation
+	 * @param view True if the operation also updates a view, and should have the view timeout
+	 * @param cleanup Performed if the operation is abandoned, may be null
+	 * @return The result of the operation
+	 * @throws UCMException If the operation failed or timed out
+	 * @throws IOException If interrupted
+	 * @throws VobUnavailableException If the circuit breaker of the PVOB is open
+	 */
+	public <T> T write( String pvob, UCMOperation<T> op, boolean view, UCMOperation<?> cleanup ) throws UCMException, IOException
+	{
+		int attempt = 0;
+		while( true )
+		{
+			boolean clean = checkBreaker( pvob );
+			
+			/* The lease is not held while backing off */
+			Lease lease = acquire( LeaseLimiter.vobWrites, pvob );
+			Operation operation = new Operation();
+			try
+			{
+				T result = perform( op, view ? viewTimeout : timeout, cleanup, operation );
+				reportBreaker( pvob, true, clean );
+				return result;
+			}
+			catch( UCMException e )
+			{
+				attempt++;
+				
+				/* Other errors mean the VOB is there */
+				boolean trans = TransientErrors.isTransient( e );
+				reportBreaker( pvob, !trans, clean );
+				
+				/* A timed out operation is not retried, it would just time out again */
+				if( !trans || e instanceof UCMTimeoutException || !retry.allowRetry( attempt ) )
+				{
+					throw e;
+				}
+				
+				if( out != null )
+				{
+					out.println( "[PUCM] Transient ClearCase error on " + pvob + ", retry " + attempt + " of " + retry.getRetries() + ": " + e.getMessage() );
+				}
+			}
+			finally
+			{
+				/* An abandoned operation, which is still running, keeps the lease until the build completes */
+				if( operation.hasEnded() )
+				{
+					release( LeaseLimiter.vobWrites, lease );
+				}
+			}
+			
+			report( "UCM retries", 1 );
+			backoff( attempt );
+		}
+	}
+	
+	/**
+	 * Runs a step of the build alongside the calling thread, so independent steps do not
+	 * wait for each other. The step performs its operations through the guard.
+	 * @param step The step
+	 * @return The result of the step
+	 */
+	public <T> Future<T> submit( Callable<T> step )
+	{
+		return executor.submit( step );
+	}
+	
+	private <T> T perform( UCMOperation<T> op, long timeout, UCMOperation<?> cleanup ) throws UCMException, IOException
+	{
+		return perform( op, timeout, cleanup, new Operation() );
+	}
+	
+	/**
+	 * Performs the operation on a separate thread and waits for it
+	 * @param started The running operation, which tells whether it has ended when it was abandoned
+	 */
+	private <T> T perform( final UCMOperation<T> op, long timeout, UCMOperation<?> cleanup, final Operation started ) throws UCMException, IOException
+	{
+		Future<T> future = executor.submit( new Callable<T>()
+		{
+			public T call() throws Exception
+			{
+				operations.set( started );
+				try
+				{
+					return op.perform();
+				}
+				finally
+				{
+					operations.remove();
+					started.end();
+				}
+			}
+		} );
+		
+		try
+		{
+			if( timeout > 0 )
+			{
+				return future.get( timeout, TimeUnit.MILLISECONDS );
+			}
+			else
+			{
+				return future.get();
+			}
+		}
+		catch( ExecutionException e )
+		{
+			Throwable cause = e.getCause();
+			if( cause instanceof UCMException )
+			{
+				throw (UCMException)cause;
+			}
+			if( cause instanceof RuntimeException )
+			{
+				throw (RuntimeException)cause;
+			}
+			if( cause instanceof Error )
+			{
+				throw (Error)cause;
+			}
+			IOException ioe = new IOException( "The UCM operation failed: " + cause.getMessage() );
+			ioe.initCause( cause );
+			throw ioe;
+		}
+		catch( TimeoutException e )
+		{
+			abandon( future, started, cleanup );
+			report( "UCM timeouts", 1 );
+			throw new UCMTimeoutException( "The UCM operation timed out after " + ( timeout / 1000 ) + "s" );
+		}
+		catch( InterruptedException e )
+		{
+			/* The cleanup must not be interrupted */
+			abandon( future, started, cleanup );
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "The UCM operation was aborted" );
+		}
+	}
+	
+	private void abandon( Future<?> future, Operation started, UCMOperation<?> cleanup )
+	{
+		future.cancel( true );
+		int killed = started.kill();
+		if( out != null )
+		{
+			out.println( "[PUCM] Abandoned the UCM operation, killed " + killed + " cleartool process" + ( killed == 1 ? "" : "es" ) );
+		}
+		
+		/* The cleanup must not run alongside the operation it undoes */
+		if( !started.awaitEnd( abandonWait ) )
+		{
+			if( out != null )
+			{
+				out.println( "[PUCM] The abandoned UCM operation did not end within " + ( abandonWait / 1000 ) + "s, skipping its cleanup" );
+			}
+			return;
+		}
+		
+		if( cleanup == null )
+		{
+			return;
+		}
+		
+		try
+		{
+			perform( cleanup, timeout, null );
+			if( out != null )
+			{
+				out.println( "[PUCM] Cleaned up after the UCM operation" );
+			}
+		}
+		catch( Exception e )
+		{
+			if( out != null )
+			{
+				out.println( "[PUCM] Could not clean up after the UCM operation: " + e.getMessage() );
+			}
+		}
+	}
+	
+	/**
+	 * Registers a cleartool process started by the operation running on this thread,
+	 * so it is killed if the operation is abandoned. Nothing is done outside an operation.
+	 */
+	public static void register( Process process )
+	{
+		Operation started = operations.get();
+		if( started != null )
+		{
+			started.add( process );
+		}
+	}
+	
+	/**
+	 * Forgets a process, which has ended
+	 */
+	public static void unregister( Process process )
+	{
+		Operation started = operations.get();
+		if( started != null )
+		{
+			started.remove( process );
+		}
+	}
+	
+	/**
+	 * An operation on its thread, with its running processes
+	 */
+	private static class Operation
+	{
+		private List<Process> running = new ArrayList<Process>();
+		private boolean abandoned = false;
+		private CountDownLatch ended = new CountDownLatch( 1 );
+		
+		void end()
+		{
+			ended.countDown();
+		}
+		
+		/**
+		 * True if the thread of the operation is done with it, or it was never started
+		 */
+		boolean hasEnded()
+		{
+			return !abandoned || ended.getCount() == 0;
+		}
+		
+		/**
+		 * Waits for the thread of the operation to be done with it
+		 * @return False if it did not end in time, or the wait was interrupted
+		 */
+		boolean awaitEnd( long wait )
+		{
+			try
+			{
+				return ended.await( wait, TimeUnit.MILLISECONDS );
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		
+		synchronized void add( Process process )
+		{
+			/* A process started while the operation was abandoned */
+			if( abandoned )
+			{
+				process.destroy();
+			}
+			else
+			{
+				running.add( process );
+			}
+		}
+		
+		synchronized void remove( Process process )
+		{
+			running.remove( process );
+		}
+		
+		/**
+		 * @return The number of processes killed
+		 */
+		synchronized int kill()
+		{
+			abandoned = true;
+			int killed = running.size();
+			for( Process process : running )
+			{
+				process.destroy();
+			}
+			running.clear();
+			
+			return killed;
+		}
+	}
+	
+	/**
+	 * Asks the circuit breaker of the PVOB
+	 * @return True if the breaker has no failures, so a success need not be reported
+	 */
+	private boolean checkBreaker( String pvob ) throws IOException
+	{
+		CircuitBreaker.Verdict verdict = null;
+		if( channel == null )
+		{
+			verdict = new CircuitBreaker.Allow( pvob ).call();
+		}
+		else
+		{
+			try
+			{
+				verdict = channel.call( new CircuitBreaker.Allow( pvob ) );
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted while checking " + pvob );
+			}
+		}
+		
+		if( verdict.message != null )
+		{
+			report( "UCM operations rejected", 1 );
+			throw new VobUnavailableException( verdict.message );
+		}
+		
+		return verdict.clean;
+	}
+	
+	/**
+	 * Reports the outcome of an operation to the circuit breaker of the PVOB. Every failure
+	 * is reported, and every success unless the breaker had no failures when it was asked.
+	 * @param clean The answer of {@link #checkBreaker(String)} before the operation
+	 */
+	private void reportBreaker( String pvob, boolean success, boolean clean ) throws IOException
+	{
+		if( success && clean )
+		{
+			return;
+		}
+		
+		CircuitBreaker.Report report = new CircuitBreaker.Report( pvob, success );
+		if( channel == null )
+		{
+			report.call();
+			return;
+		}
+		
+		try
+		{
+			channel.call( report );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while reporting to " + pvob );
+		}
+	}
+	
+	private void backoff( int attempt ) throws IOException
+	{
+		long delay = retry.getDelay( attempt );
+		report( "UCM retry delay (ms)", delay );
+		
+		try
+		{
+			Thread.sleep( delay );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting to retry" );
+		}
+	}
+	
+	/**
+	 * Waits in line for a view update on the node and on the view server, see
+	 * {@link LeaseLimiter#nodeUpdates} and {@link LeaseLimiter#serverUpdates}.
+	 * The builds get their updates in the order they asked for them, also when the
+	 * wait spans several polls. The time waited is a metric of the build.
+	 * @param node The host of the view
+	 * @param server The view server of the view
+	 * @return The leases, which must be returned by {@link #endUpdate(Lease[])}
+	 * @throws IOException If interrupted
+	 */
+	public Lease[] beginUpdate( String node, String server ) throws IOException
+	{
+		Lease[] leases = new Lease[2];
+		leases[0] = acquire( LeaseLimiter.nodeUpdates, node );
+		try
+		{
+			leases[1] = acquire( LeaseLimiter.serverUpdates, server );
+		}
+		catch( IOException e )
+		{
+			release( LeaseLimiter.nodeUpdates, leases[0] );
+			throw e;
+		}
+		
+		return leases;
+	}
+	
+	/**
+	 * Returns the leases of a view update
+	 */
+	public void endUpdate( Lease[] leases ) throws IOException
+	{
+		try
+		{
+			release( LeaseLimiter.serverUpdates, leases[1] );
+		}
+		finally
+		{
+			release( LeaseLimiter.nodeUpdates, leases[0] );
+		}
+	}
+	
+	/**
+	 * Reports a metric of the build to the master
+	 */
+	public void report( String key, long value ) throws IOException
+	{
+		if( channel == null )
+		{
+			Metrics.add( owner, key, value );
+			return;
+		}
+		
+		try
+		{
+			channel.call( new Metrics.Report( owner, key, value ) );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while reporting " + key );
+		}
+	}
+	
+	/**
+	 * Takes a development stream from the {@link StreamPool} of the master
+	 * @param parent The parent stream of the development stream
+	 * @return The pool stream, or null if the pool is empty
+	 */
+	public String takeStream( String parent ) throws IOException
+	{
+		if( channel == null )
+		{
+			return StreamPool.pools.take( parent );
+		}
+		
+		try
+		{
+			return channel.call( new StreamPool.Take( parent ) );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while taking a stream from the pool" );
+		}
+	}
+	
+	private Lease acquire( LeaseLimiter limiter, String key ) throws IOException
+	{
+		if( channel == null )
+		{
+			return null;
+		}
+		
+		try
+		{
+			/* The master only waits a while, so the wait can be aborted between the polls.
+			 * The ticket keeps the place in line between the polls. */
+			long waited = 0;
+			Lease lease = channel.call( new LeaseLimiter.Acquire( limiter.getName(), key, owner, LeaseLimiter.poll, null ) );
+			while( lease != null && !lease.isGranted() )
+			{
+				waited += lease.waited;
+				if( Thread.interrupted() )
+				{
+					throw new InterruptedException();
+				}
+				lease = channel.call( new LeaseLimiter.Acquire( limiter.getName(), key, owner, LeaseLimiter.poll, lease.ticket ) );
+			}
+			
+			if( lease != null )
+			{
+				waited += lease.waited;
+			}
+			if( waited > 1000 && out != null )
+			{
+				out.println( "[PUCM] Waited " + ( waited / 1000 ) + "s for " + limiter.getName() + " access to " + key );
+			}
+			
+			return lease;
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for " + limiter.getName() + " access to " + key );
+		}
+	}
+	
+	private void release( LeaseLimiter limiter, Lease lease ) throws IOException
+	{
+		if( lease == null )
+		{
+			return;
+		}
+		
+		try
+		{
+			channel.call( new LeaseLimiter.Release( limiter.getName(), lease.id ) );
+		}
+		catch( InterruptedException e )
+		{
+			/* The lease is returned when the build completes */
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * A single ClearCase UCM operation, performed through a {@link UCMGuard}
+ * @param <T> The result of the operation
+ */
+public interface UCMOperation<T>
+{
+	public T perform() throws UCMException;
+}
@@ -0,0 +1,18 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+/**
+ * Thrown when a UCM operation did not finish within its timeout. The operation
+ * was abandoned, the cleartool processes it started through {@link ClearTool}
+ * were killed, see {@link UCMGuard}.
+ */
+public class UCMTimeoutException extends UCMException
+{
+	private static final long serialVersionUID = 1L;
+	
+	public UCMTimeoutException( String msg )
+	{
+		super( msg );
+	}
+}
@@ -0,0 +1,142 @@
+package net.praqma.hudson.notifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import hudson.model.Result;
+
+import net.praqma.hudson.RemoteSettings;
+import net.praqma.hudson.scm.CheckoutOptions;
+import net.praqma.hudson.scm.CheckoutRequest;
+import net.praqma.hudson.scm.CheckoutResult;
+import net.praqma.hudson.scm.CheckoutTask;
+import net.praqma.hudson.scm.LoadRules;
+import net.praqma.hudson.scm.ViewNaming;
+import net.praqma.hudson.ucm.ClearTool;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the serialized size of the remote tasks and of what they send back
+ */
+public class RemoteTaskSizeTest extends TestCase
+{
+	/* The sizes in bytes of the tasks, when they carried the guard and the logger of the master */
+	private static final int checkoutTaskSize    = 1721;
+	private static final int remoteDeliverSize    = 1144;
+	private static final int remotePostBuildSize  = 921;
+
+	private static byte[] serialize( Object o ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream( bytes );
+		out.writeObject( o );
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize( byte[] bytes ) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+		try
+		{
+			return in.readObject();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static int size( Object o ) throws Exception
+	{
+		return serialize( o ).length;
+	}
+
+	private static RemoteSettings getSettings()
+	{
+		return new RemoteSettings( "Cool_job::42", 3, 5000, 60000, 600000, 7200000, new String[0] );
+	}
+
+	private static UCMDeliver getDeliver()
+	{
+		UCMDeliver deliver = new UCMDeliver();
+		deliver.ucmDeliver = true;
+		deliver.alternateTarget = "stream:Server_int@\\Cool_PVOB";
+		deliver.baselineName = "Cool_baseline";
+		deliver.versionFrom = "settings";
+		deliver.buildnumberSequenceSelector = "current";
+		deliver.buildnumberMajor = "1";
+		deliver.buildnumberMinor = "2";
+		deliver.buildnumberPatch = "3";
+		return deliver;
+	}
+
+	public void testDeliverRequest() throws Exception
+	{
+		DeliverRequest request = new DeliverRequest( "Cool job", "42", "component:_System@\\Cool_PVOB", "all", "baseline:Cool_1_2_3_4@\\Cool_PVOB", "stream:pucm_host_Cool_job@\\Cool_PVOB", 1, null, "cleartool", getDeliver(), getSettings() );
+
+		assertTrue( size( request ) < 1024 );
+
+		DeliverRequest copy = (DeliverRequest) deserialize( serialize( request ) );
+		assertEquals( "Cool job", copy.getJobName() );
+		assertEquals( "baseline:Cool_1_2_3_4@\\Cool_PVOB", copy.getBaseline() );
+		assertEquals( "stream:Server_int@\\Cool_PVOB", copy.getAlternateTarget() );
+		assertEquals( "3", copy.getPatch() );
+		assertEquals( 1, copy.getSlot() );
+		assertEquals( "stream:pucm_host_Cool_job@\\Cool_PVOB", copy.getStream() );
+	}
+
+	public void testPostBuildRequest() throws Exception
+	{
+		PostBuildRequest request = new PostBuildRequest( Result.SUCCESS, true, true, PucmNotifier.__PROMOTE_STABLE, true, "baseline:Cool_1_2_3_4@\\Cool_PVOB", "stream:Server_int@\\Cool_PVOB", "Cool job", "42", "cleartool", getSettings() );
+
+		assertTrue( size( request ) < 1024 );
+
+		PostBuildRequest copy = (PostBuildRequest) deserialize( serialize( request ) );
+		assertEquals( "stream:Server_int@\\Cool_PVOB", copy.getStream() );
+		assertEquals( PucmNotifier.__PROMOTE_STABLE, copy.getPromote() );
+		assertTrue( copy.isStable() );
+		assertTrue( copy.isRecommend() );
+	}
+
+	public void testCheckoutTask() throws Exception
+	{
+		CheckoutOptions options = new CheckoutOptions().setCleartool( new ClearTool( "cleartool" ) ).setDifferentialLimit( 200 );
+		options.setMode( CheckoutOptions.Mode.SNAPSHOT );
+		options.setLoadRules( new LoadRules( "", "" ) );
+		options.setCacheRoot( "/var/hudson/pucm-cache" ).setCacheSize( 10 );
+		options.setViewNaming( new ViewNaming( null ) );
+		CheckoutRequest request = new CheckoutRequest( "Cool_job", 42, "stream:Server_int@\\Cool_PVOB", "all", "baseline:Cool_1_2_3_4@\\Cool_PVOB", "", 1, options, getSettings() );
+
+		assertTrue( size( new CheckoutTask( request, null ) ) < checkoutTaskSize );
+	}
+
+	public void testRemoteDeliver() throws Exception
+	{
+		DeliverRequest request = new DeliverRequest( "Cool job", "42", "component:_System@\\Cool_PVOB", "all", "baseline:Cool_1_2_3_4@\\Cool_PVOB", "stream:pucm_host_Cool_job@\\Cool_PVOB", 1, null, "cleartool", getDeliver(), getSettings() );
+
+		assertTrue( size( new RemoteDeliver( request, null ) ) < remoteDeliverSize );
+	}
+
+	public void testRemotePostBuild() throws Exception
+	{
+		PostBuildRequest request = new PostBuildRequest( Result.SUCCESS, true, true, PucmNotifier.__PROMOTE_STABLE, true, "baseline:Cool_1_2_3_4@\\Cool_PVOB", "stream:Server_int@\\Cool_PVOB", "Cool job", "42", "cleartool", getSettings() );
+
+		assertTrue( size( new RemotePostBuild( request, null ) ) < remotePostBuildSize );
+	}
+
+	public void testCheckoutResult() throws Exception
+	{
+		CheckoutResult result = new CheckoutResult( "<?xml version='1.0' encoding='UTF-8'?><changelog></changelog>", "", "stream:pucm_host_Cool_job@\\Cool_PVOB" );
+
+		assertTrue( size( result ) < 512 );
+
+		CheckoutResult copy = (CheckoutResult) deserialize( serialize( result ) );
+		assertEquals( result.getChangelog(), copy.getChangelog() );
+		assertEquals( result.getStream(), copy.getStream() );
+	}
+}
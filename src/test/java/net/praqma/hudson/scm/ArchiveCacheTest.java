@@ -0,0 +1,82 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+public class ArchiveCacheTest extends TestCase
+{
+	private File root;
+	private ArchiveCache archives = new ArchiveCache();
+
+	public void setUp() throws Exception
+	{
+		root = File.createTempFile( "archives", "" );
+		root.delete();
+		root.mkdir();
+		archives.setSettings( root.getPath(), 2 );
+	}
+
+	public void tearDown()
+	{
+		BaselineCache.delete( root );
+	}
+
+	public void testFilter()
+	{
+		ArchiveCache.ViewFilter filter = new ArchiveCache.ViewFilter();
+		assertFalse( filter.accept( new File( "view", "view.dat" ) ) );
+		assertFalse( filter.accept( new File( "view", "update.2011.updt" ) ) );
+		assertTrue( filter.accept( new File( "view", "main.c" ) ) );
+	}
+
+	public void testEvict() throws Exception
+	{
+		for( int i = 0 ; i < 3 ; i++ )
+		{
+			String key = "bl_" + i;
+			write( archives.getArchive( key ), "zip" );
+			write( archives.getChangelogFile( key ), "<changelog/>" );
+			archives.getArchive( key ).setLastModified( 1000000L * ( i + 1 ) );
+		}
+
+		assertTrue( archives.contains( "bl_0" ) );
+		assertEquals( "<changelog/>", archives.getChangelog( "bl_0" ) );
+
+		/* A baseline being checked out is not evicted */
+		archives.getLock( "bl_1" ).lock();
+		try
+		{
+			final int[] removed = new int[1];
+			Thread other = new Thread()
+			{
+				public void run()
+				{
+					removed[0] = archives.evict();
+				}
+			};
+			other.start();
+			other.join();
+			assertEquals( 0, removed[0] );
+		}
+		finally
+		{
+			archives.getLock( "bl_1" ).unlock();
+		}
+
+		assertEquals( 1, archives.evict() );
+		assertFalse( archives.contains( "bl_1" ) );
+		assertFalse( archives.getChangelogFile( "bl_1" ).exists() );
+		assertTrue( archives.contains( "bl_0" ) );
+		assertTrue( archives.contains( "bl_2" ) );
+	}
+
+	private void write( File file, String content ) throws Exception
+	{
+		file.getParentFile().mkdirs();
+		FileWriter fw = new FileWriter( file );
+		fw.write( content );
+		fw.close();
+	}
+}
@@ -0,0 +1,125 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+public class BaselineCacheTest extends TestCase
+{
+	private File root;
+
+	public void setUp() throws Exception
+	{
+		root = File.createTempFile( "cache", "" );
+		root.delete();
+		root.mkdir();
+	}
+
+	public void tearDown()
+	{
+		BaselineCache.delete( root );
+	}
+
+	public void testKey()
+	{
+		String key = BaselineCache.getKey( "baseline:bl_1@\\pvob", "ALL" );
+		assertTrue( key.startsWith( "bl_1__pvob_" ) );
+		assertTrue( key.endsWith( "_all" ) );
+		assertFalse( key.equals( BaselineCache.getKey( "baseline:bl_1@/pvob", "ALL" ) ) );
+		assertFalse( key.equals( BaselineCache.getKey( "baseline:bl_1@\\pvob", "Modifiable" ) ) );
+	}
+
+	public void testStoreAndClone() throws Exception
+	{
+		File viewroot = new File( root, "view" );
+		write( new File( viewroot, "view.dat" ), "view" );
+		write( new File( viewroot, "update.2011.updt" ), "log" );
+		write( new File( viewroot, "vob/comp/main.c" ), "main" );
+
+		BaselineCache cache = new BaselineCache( new File( root, "cache" ), 2 );
+		File entry = cache.getEntry( BaselineCache.getKey( "baseline:bl_1@\\pvob", "all" ) );
+		assertFalse( cache.contains( entry ) );
+
+		cache.store( viewroot, entry );
+		assertTrue( cache.contains( entry ) );
+		assertFalse( new File( entry, "view.dat" ).exists() );
+		assertFalse( new File( entry, "update.2011.updt" ).exists() );
+
+		File workspace = new File( root, "workspace/view" );
+		write( new File( workspace, "old.o" ), "old" );
+		assertNotNull( cache.cloneTo( entry, workspace ) );
+		assertTrue( new File( workspace, "vob/comp/main.c" ).exists() );
+		assertFalse( new File( workspace, "old.o" ).exists() );
+
+		/* A build writing a file in place does not change the cache */
+		write( new File( workspace, "vob/comp/main.c" ), "changed" );
+		assertEquals( 4, new File( entry, "vob/comp/main.c" ).length() );
+	}
+
+	public void testEvict() throws Exception
+	{
+		File viewroot = new File( root, "view" );
+		write( new File( viewroot, "main.c" ), "main" );
+
+		BaselineCache cache = new BaselineCache( new File( root, "cache" ), 2 );
+		File[] entries = new File[3];
+		for( int i = 0 ; i < entries.length ; i++ )
+		{
+			entries[i] = cache.getEntry( BaselineCache.getKey( "baseline:bl_" + i + "@\\pvob", "all" ) );
+			cache.store( viewroot, entries[i] );
+			new File( entries[i].getPath() + ".complete" ).setLastModified( 1000000L * ( i + 1 ) );
+		}
+
+		/* The first baseline is used, the second is the least recently used */
+		assertTrue( cache.contains( entries[0] ) );
+
+		assertEquals( 1, cache.evict() );
+		assertTrue( cache.contains( entries[0] ) );
+		assertFalse( cache.contains( entries[1] ) );
+		assertFalse( entries[1].exists() );
+		assertTrue( cache.contains( entries[2] ) );
+	}
+
+	public void testLinks() throws Exception
+	{
+		File outside = new File( root, "outside" );
+		write( new File( outside, "keep.c" ), "keep" );
+
+		File viewroot = new File( root, "view" );
+		write( new File( viewroot, "main.c" ), "main" );
+		if( !link( outside, new File( viewroot, "link" ) ) )
+		{
+			/* No symbolic links on this platform */
+			return;
+		}
+
+		File copy = new File( root, "copy" );
+		BaselineCache.copy( viewroot, copy, true );
+		assertTrue( new File( copy, "main.c" ).exists() );
+		assertFalse( new File( copy, "link" ).exists() );
+
+		assertTrue( BaselineCache.delete( viewroot ) );
+		assertTrue( new File( outside, "keep.c" ).exists() );
+	}
+
+	private boolean link( File target, File link )
+	{
+		try
+		{
+			return new ProcessBuilder( "ln", "-s", target.getAbsolutePath(), link.getAbsolutePath() ).start().waitFor() == 0;
+		}
+		catch( Exception e )
+		{
+			return false;
+		}
+	}
+
+	private void write( File file, String content ) throws Exception
+	{
+		file.getParentFile().mkdirs();
+		FileWriter fw = new FileWriter( file );
+		fw.write( content );
+		fw.close();
+	}
+}
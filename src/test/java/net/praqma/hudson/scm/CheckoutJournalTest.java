@@ -0,0 +1,44 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class CheckoutJournalTest extends TestCase
+{
+	public void testInterrupted() throws Exception
+	{
+		File viewroot = File.createTempFile( "view", "" );
+		viewroot.delete();
+		viewroot.mkdir();
+		File rebaseroot = new File( viewroot.getParentFile(), viewroot.getName() + "_rebase" );
+
+		try
+		{
+			CheckoutJournal journal = new CheckoutJournal( "pucm_host_job", "baseline:bl_1@\\pvob" );
+			assertNull( journal.getInterrupted( viewroot ) );
+			assertNull( CheckoutJournal.getRebaseRoot( viewroot ) );
+
+			journal.write( viewroot, CheckoutJournal.rebasing, rebaseroot );
+			assertEquals( CheckoutJournal.rebasing, new CheckoutJournal( "pucm_host_job", "baseline:bl_1@\\pvob" ).getInterrupted( viewroot ) );
+			assertEquals( rebaseroot.getAbsoluteFile(), CheckoutJournal.getRebaseRoot( viewroot ) );
+
+			/* A checkout of another baseline or view starts over */
+			assertNull( new CheckoutJournal( "pucm_host_job", "baseline:bl_2@\\pvob" ).getInterrupted( viewroot ) );
+			assertNull( new CheckoutJournal( "pucm_host_other", "baseline:bl_1@\\pvob" ).getInterrupted( viewroot ) );
+
+			journal.write( viewroot, CheckoutJournal.updating, null );
+			assertEquals( CheckoutJournal.updating, journal.getInterrupted( viewroot ) );
+			assertEquals( viewroot.getAbsoluteFile(), CheckoutJournal.getRebaseRoot( viewroot ) );
+
+			assertTrue( CheckoutJournal.clear( viewroot ) );
+			assertNull( journal.getInterrupted( viewroot ) );
+			assertTrue( CheckoutJournal.clear( viewroot ) );
+		}
+		finally
+		{
+			CheckoutJournal.getFile( viewroot ).delete();
+			viewroot.delete();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+
+import junit.framework.TestCase;
+
+public class DifferentialUpdateTest extends TestCase
+{
+	private static final String diffbl =
+		"Comparing the following:\n" +
+		"  baseline:bl_1@\\pvob\n" +
+		"  baseline:bl_2@\\pvob\n" +
+		"Differences:\n" +
+		">> VIEWROOT\\vob\\comp\\src\\main.c@@\\main\\int\\4\n" +
+		"<< VIEWROOT\\vob\\comp\\src\\main.c@@\\main\\int\\3\n" +
+		">> VIEWROOT\\vob\\comp\\src@@\\main\\int\\2\n";
+
+	public void testParse()
+	{
+		File viewroot = new File( "view" );
+		List<String> paths = DifferentialUpdate.parse( diffbl.replace( "VIEWROOT", viewroot.getAbsolutePath() ), viewroot );
+
+		assertEquals( 2, paths.size() );
+		assertEquals( "vob\\comp\\src\\main.c", paths.get( 0 ) );
+		assertEquals( "vob\\comp\\src", paths.get( 1 ) );
+	}
+
+	public void testLimit() throws Exception
+	{
+		final File viewroot = new File( "view" );
+		final List<List<String>> commands = new ArrayList<List<String>>();
+		CommandRunner runner = new CommandRunner()
+		{
+			public String run( File dir, List<String> args ) throws UCMException
+			{
+				commands.add( args );
+				return diffbl.replace( "VIEWROOT", viewroot.getAbsolutePath() );
+			}
+		};
+
+		assertNull( new DifferentialUpdate( runner, 1 ).getChangedPaths( "baseline:bl_1@\\pvob", "baseline:bl_2@\\pvob", viewroot ) );
+
+		DifferentialUpdate differential = new DifferentialUpdate( runner, 2 );
+		List<String> paths = differential.getChangedPaths( "baseline:bl_1@\\pvob", "baseline:bl_2@\\pvob", viewroot );
+		assertEquals( 2, paths.size() );
+
+		differential.update( viewroot, paths );
+		List<String> update = commands.get( commands.size() - 1 );
+		assertEquals( "update", update.get( 0 ) );
+		assertTrue( update.containsAll( paths ) );
+	}
+
+	public void testChangesNames() throws Exception
+	{
+		File viewroot = File.createTempFile( "view", "" );
+		viewroot.delete();
+		File dir = new File( viewroot, "vob" + File.separator + "comp" );
+		dir.mkdirs();
+		File file = new File( dir, "main.c" );
+		file.createNewFile();
+
+		try
+		{
+			String main = "vob" + File.separator + "comp" + File.separator + "main.c";
+			assertFalse( DifferentialUpdate.changesNames( viewroot, Arrays.asList( main ) ) );
+
+			/* A new version of the directory */
+			assertTrue( DifferentialUpdate.changesNames( viewroot, Arrays.asList( main, "vob" + File.separator + "comp" ) ) );
+
+			/* A new element */
+			assertTrue( DifferentialUpdate.changesNames( viewroot, Arrays.asList( main, "vob" + File.separator + "comp" + File.separator + "util.c" ) ) );
+		}
+		finally
+		{
+			file.delete();
+			dir.delete();
+			dir.getParentFile().delete();
+			viewroot.delete();
+		}
+	}
+
+	public void testRename() throws Exception
+	{
+		final File viewroot = File.createTempFile( "view", "" );
+		viewroot.delete();
+		File dir = new File( viewroot, "vob" + File.separator + "comp" + File.separator + "src" );
+		dir.mkdirs();
+		File file = new File( dir, "old.c" );
+		file.createNewFile();
+
+		try
+		{
+			/* The renamed element has no new version, only its directory has */
+			CommandRunner runner = new CommandRunner()
+			{
+				public String run( File dir, List<String> args ) throws UCMException
+				{
+					String src = viewroot.getAbsolutePath() + File.separator + "vob" + File.separator + "comp" + File.separator + "src";
+					return ">> " + src + "@@\\main\\int\\3\n" + "<< " + src + "@@\\main\\int\\2\n";
+				}
+			};
+
+			List<String> paths = new DifferentialUpdate( runner, 10 ).getChangedPaths( "baseline:bl_1@\\pvob", "baseline:bl_2@\\pvob", viewroot );
+			assertEquals( Arrays.asList( "vob" + File.separator + "comp" + File.separator + "src" ), paths );
+			assertTrue( DifferentialUpdate.changesNames( viewroot, paths ) );
+		}
+		finally
+		{
+			file.delete();
+			dir.delete();
+			dir.getParentFile().delete();
+			dir.getParentFile().getParentFile().delete();
+			viewroot.delete();
+		}
+	}
+}
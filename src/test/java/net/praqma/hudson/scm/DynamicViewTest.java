@@ -0,0 +1,106 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+
+import junit.framework.TestCase;
+
+public class DynamicViewTest extends TestCase
+{
+	/**
+	 * Simulates the views and streams of a PVOB
+	 */
+	private static class SimulatedClearTool implements CommandRunner
+	{
+		Map<String, String> views = new HashMap<String, String>();
+		Map<String, String> foundations = new HashMap<String, String>();
+		Set<String> started = new HashSet<String>();
+		List<String> commands = new ArrayList<String>();
+
+		public String run( File dir, List<String> args ) throws UCMException
+		{
+			String cmd = args.get( 0 );
+			commands.add( cmd );
+
+			if( cmd.equals( "lsview" ) )
+			{
+				if( !views.containsKey( args.get( 2 ) ) )
+				{
+					throw new UCMException( "cleartool: Error: No matching entries found for view tag \"" + args.get( 2 ) + "\"." );
+				}
+				return args.get( 2 ) + "\n";
+			}
+			if( cmd.equals( "mkview" ) )
+			{
+				views.put( args.get( 2 ), args.get( 4 ) );
+				return "";
+			}
+			if( cmd.equals( "startview" ) )
+			{
+				started.add( args.get( 1 ) );
+				return "";
+			}
+			if( cmd.equals( "lsstream" ) )
+			{
+				String found = foundations.get( args.get( 3 ) );
+				return found == null ? "" : "baseline:" + found;
+			}
+			if( cmd.equals( "rebase" ) )
+			{
+				foundations.put( views.get( args.get( 2 ) ), args.get( 4 ) );
+				return "";
+			}
+			if( cmd.equals( "diffbl" ) )
+			{
+				return "Comparing the following:\n  bl_2@\\pvob\n  bl_1@\\pvob\nDifferences:\n>> activity:fix_1@\\pvob  \"Fix the build\"\n<< activity:old_1@\\pvob  \"Old\"\n>> add_feature@\\pvob  \"Add a feature\"\n";
+			}
+
+			throw new UCMException( "Unknown command " + cmd );
+		}
+	}
+
+	public void testCheckout() throws Exception
+	{
+		SimulatedClearTool cleartool = new SimulatedClearTool();
+		DynamicView dynamic = new DynamicView( cleartool );
+		String stream = "stream:pucm_node_job_dynamic@\\pvob";
+
+		assertFalse( dynamic.exists( "pucm_node_job_dynamic" ) );
+		dynamic.create( "pucm_node_job_dynamic", stream );
+		dynamic.start( "pucm_node_job_dynamic" );
+		assertTrue( dynamic.exists( "pucm_node_job_dynamic" ) );
+		assertTrue( cleartool.started.contains( "pucm_node_job_dynamic" ) );
+
+		assertFalse( dynamic.isAt( stream, "bl_1@\\pvob" ) );
+		dynamic.rebase( "pucm_node_job_dynamic", "bl_1@\\pvob" );
+		assertTrue( dynamic.isAt( stream, "bl_1@\\pvob" ) );
+		assertTrue( dynamic.isAt( stream, "baseline:bl_1@\\pvob" ) );
+		assertFalse( dynamic.isAt( stream, "bl_2@\\pvob" ) );
+
+		/* Nothing is loaded */
+		assertFalse( cleartool.commands.contains( "update" ) );
+	}
+
+	public void testActivities() throws Exception
+	{
+		List<String> activities = new DynamicView( new SimulatedClearTool() ).getActivities( "bl_2@\\pvob", null );
+		assertEquals( 2, activities.size() );
+		assertEquals( "fix_1", activities.get( 0 ) );
+		assertEquals( "add_feature", activities.get( 1 ) );
+	}
+
+	public void testPath()
+	{
+		assertEquals( "/view/pucm_node_job_dynamic", DynamicView.getPath( "/view", "pucm_node_job_dynamic" ) );
+		assertEquals( "M:\\pucm_node_job_dynamic", DynamicView.getPath( "M:\\", "pucm_node_job_dynamic" ) );
+		assertEquals( "\\\\server\\views\\tag", DynamicView.getPath( "\\\\server\\views", "tag" ) );
+	}
+}
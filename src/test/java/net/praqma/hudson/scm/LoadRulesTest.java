@@ -0,0 +1,81 @@
+package net.praqma.hudson.scm;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+import junit.framework.TestCase;
+
+public class LoadRulesTest extends TestCase
+{
+	private static final String cs =
+		"ucm\n" +
+		"identity UCM.Stream oid:1234@vobuuid:5678 1\n" +
+		"\n" +
+		"#UCMCustomElemBegin - DO NOT REMOVE - ADD CUSTOM ELEMENT RULES AFTER THIS LINE\n" +
+		"element \"\\vob\\old\\...\" -none\n" +
+		"#UCMCustomElemEnd - DO NOT REMOVE - END CUSTOM ELEMENT RULES\n" +
+		"\n" +
+		"element * CHECKEDOUT\n" +
+		"element * bl_1 -nocheckout\n" +
+		"\n" +
+		"#UCMCustomLoadBegin - DO NOT REMOVE - ADD CUSTOM LOAD RULES AFTER THIS LINE\n" +
+		"load \\vob\\comp\n" +
+		"#UCMCustomLoadEnd - DO NOT REMOVE - END CUSTOM LOAD RULES\n";
+
+	public void testParse()
+	{
+		LoadRules rules = new LoadRules( "\\vob\\comp\\sub1\n\n# comment\n  \\vob\\comp\\sub2  \r\n", null );
+		assertEquals( 2, rules.getIncludes().size() );
+		assertEquals( "\\vob\\comp\\sub2", rules.getIncludes().get( 1 ) );
+		assertTrue( rules.getExcludes().isEmpty() );
+		assertTrue( rules.hasIncludes() );
+
+		assertTrue( new LoadRules( null, "" ).isEmpty() );
+		assertEquals( "", new LoadRules( null, null ).getKey() );
+		assertFalse( rules.getKey().equals( new LoadRules( null, "\\vob\\comp\\sub1" ).getKey() ) );
+	}
+
+	public void testExcludes() throws Exception
+	{
+		String applied = new LoadRules( null, "\\vob\\comp\\big" ).apply( cs );
+
+		/* The load rules of the load modules are kept */
+		assertTrue( applied.contains( "load \\vob\\comp\n" ) );
+		assertTrue( applied.contains( "ELEMENT RULES AFTER THIS LINE\nelement \"\\vob\\comp\\big\" -none\n" ) );
+		assertTrue( applied.contains( "element \"\\vob\\comp\\big\\...\" -none" ) );
+		assertFalse( applied.contains( "\\vob\\old" ) );
+		assertTrue( applied.contains( "element * bl_1 -nocheckout" ) );
+	}
+
+	public void testIncludes() throws Exception
+	{
+		String applied = new LoadRules( "\\vob\\comp\\sub1", null ).apply( cs );
+		assertTrue( applied.contains( "load \"\\vob\\comp\\sub1\"" ) );
+		assertFalse( applied.contains( "load \\vob\\comp\n" ) );
+	}
+
+	public void testClear() throws Exception
+	{
+		/* The job had rules, and has none now */
+		String applied = new LoadRules( "\\vob\\comp\\sub1", "\\vob\\comp\\big" ).apply( cs );
+		assertTrue( new LoadRules( null, null ).isEmpty() );
+
+		String cleared = LoadRules.clear( applied );
+		assertFalse( cleared.contains( "\\vob\\comp\\sub1" ) );
+		assertFalse( cleared.contains( "\\vob\\comp\\big" ) );
+		assertTrue( cleared.contains( "ELEMENT RULES AFTER THIS LINE\n#UCMCustomElemEnd" ) );
+		assertTrue( cleared.contains( "LOAD RULES AFTER THIS LINE\n#UCMCustomLoadEnd" ) );
+		assertTrue( cleared.contains( "element * bl_1 -nocheckout" ) );
+	}
+
+	public void testNotUCM()
+	{
+		try
+		{
+			new LoadRules( "\\vob\\comp\\sub1", null ).apply( "element * /main/LATEST\n" );
+			fail( "A base ClearCase config spec has no custom sections" );
+		}
+		catch( UCMException e )
+		{
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+
+import junit.framework.TestCase;
+
+public class NodeCapabilitiesTest extends TestCase
+{
+	/**
+	 * Simulates a node in a region, which reaches the Cool PVOB only
+	 */
+	private static class SimulatedClearTool implements CommandRunner
+	{
+		boolean installed = true;
+		int describes = 0;
+
+		public String run( File dir, List<String> args ) throws UCMException
+		{
+			if( !installed )
+			{
+				throw new UCMException( "Could not run cleartool -version: Cannot run program \"cleartool\"" );
+			}
+
+			String cmd = args.get( 0 );
+			if( cmd.equals( "-version" ) )
+			{
+				return "ClearCase version 7.1.2 (Wed Dec 08 00:11:57 EST 2010)\n@(#) MVFS version 7.1.2.0\ncleartool                         7.1.2.0 (Tue Oct 12 22:04:51 2010)\n";
+			}
+			if( cmd.equals( "hostinfo" ) )
+			{
+				return "build01: ClearCase 7.1.2.0 (Windows NT 6.1 (build 7601 Service Pack 1) Pentium)\n  Product: ClearCase 7.1.2.0\n  Registry host: ccserver\n  Registry region: win_region\n  License host: ccserver\n";
+			}
+			if( cmd.equals( "describe" ) )
+			{
+				describes++;
+				if( args.get( 2 ).equals( "vob:\\Cool_PVOB" ) )
+				{
+					return "\\Cool_PVOB\n";
+				}
+				if( args.get( 2 ).equals( "vob:\\Busy_PVOB" ) && describes == 1 )
+				{
+					throw new UCMException( "cleartool: Error: Unable to contact VOB server host \"vobs02\"" );
+				}
+				if( args.get( 2 ).equals( "vob:\\Busy_PVOB" ) )
+				{
+					return "\\Busy_PVOB\n";
+				}
+				throw new UCMException( "cleartool: Error: Unable to determine VOB for pathname \"" + args.get( 2 ) + "\"." );
+			}
+
+			throw new UCMException( "Unexpected command " + cmd );
+		}
+	}
+
+	public void testProbe()
+	{
+		NodeCapabilities.Capabilities c = new NodeCapabilities.Probe( new SimulatedClearTool(), Arrays.asList( "\\Cool_PVOB", "\\Other_PVOB" ) ).call();
+
+		assertEquals( "7.1.2 (Wed Dec 08 00:11:57 EST 2010)", c.getVersion() );
+		assertEquals( "win_region", c.getRegion() );
+		assertTrue( c.getReachable().contains( "\\Cool_PVOB" ) );
+		assertTrue( c.getUnreachable().contains( "\\Other_PVOB" ) );
+
+		/* A node, which has not been probed, is not known to reach the PVOB */
+		NodeCapabilities capabilities = new NodeCapabilities();
+		assertFalse( capabilities.canReach( "build01", "\\Cool_PVOB" ) );
+		assertTrue( capabilities.isUnknown( "build01", "\\Cool_PVOB", System.currentTimeMillis() ) );
+
+		capabilities.put( "build01", c );
+		assertTrue( capabilities.canReach( "build01", "\\Cool_PVOB" ) );
+		assertFalse( capabilities.canReach( "build01", "\\Other_PVOB" ) );
+		assertFalse( capabilities.isUnknown( "build01", "\\Other_PVOB", System.currentTimeMillis() ) );
+		assertFalse( capabilities.canReach( "build02", "\\Other_PVOB" ) );
+
+		/* A PVOB of a new job is probed for, after a while */
+		assertFalse( capabilities.canReach( "build01", "\\New_PVOB" ) );
+		assertFalse( capabilities.isUnknown( "build01", "\\New_PVOB", c.getProbed() ) );
+		assertTrue( capabilities.isUnknown( "build01", "\\New_PVOB", c.getProbed() + NodeCapabilities.retry + 1 ) );
+
+		capabilities.remove( "build01" );
+		assertFalse( capabilities.canReach( "build01", "\\Cool_PVOB" ) );
+	}
+
+	public void testFailed()
+	{
+		NodeCapabilities capabilities = new NodeCapabilities();
+		capabilities.failed( "build01", "no answer within 300s" );
+		assertFalse( capabilities.canReach( "build01", "\\Cool_PVOB" ) );
+		assertFalse( capabilities.isUnknown( "build01", "\\Cool_PVOB", System.currentTimeMillis() ) );
+		assertEquals( "no answer within 300s", capabilities.get( "build01" ).getError() );
+
+		/* A failed probe keeps what was known */
+		NodeCapabilities.Capabilities c = new NodeCapabilities.Probe( new SimulatedClearTool(), Arrays.asList( "\\Cool_PVOB" ) ).call();
+		capabilities.put( "build02", c );
+		capabilities.failed( "build02", "Channel is closed" );
+		assertTrue( capabilities.canReach( "build02", "\\Cool_PVOB" ) );
+	}
+
+	public void testTransientRetried()
+	{
+		SimulatedClearTool ct = new SimulatedClearTool();
+		NodeCapabilities.Capabilities c = new NodeCapabilities.Probe( ct, Arrays.asList( "\\Busy_PVOB" ) ).call();
+
+		assertEquals( 2, ct.describes );
+		assertTrue( c.getReachable().contains( "\\Busy_PVOB" ) );
+	}
+
+	public void testNoClearCase()
+	{
+		SimulatedClearTool ct = new SimulatedClearTool();
+		ct.installed = false;
+		NodeCapabilities.Capabilities c = new NodeCapabilities.Probe( ct, Arrays.asList( "\\Cool_PVOB" ) ).call();
+
+		assertNull( c.getVersion() );
+		assertTrue( c.getUnreachable().contains( "\\Cool_PVOB" ) );
+	}
+}
@@ -0,0 +1,84 @@
+package net.praqma.hudson.scm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+public class PrewarmTest extends TestCase
+{
+	public void testAwait() throws Exception
+	{
+		Prewarm prewarms = new Prewarm();
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final boolean[] done = new boolean[1];
+
+		assertTrue( prewarms.start( "node", "job", new Callable<Boolean>()
+		{
+			public Boolean call() throws Exception
+			{
+				release.await();
+				done[0] = true;
+				return true;
+			}
+		} ) );
+
+		/* One pre-warm per job and node */
+		assertTrue( prewarms.isRunning( "node", "job" ) );
+		assertFalse( prewarms.start( "node", "job", null ) );
+		assertFalse( prewarms.isRunning( "other", "job" ) );
+
+		release.countDown();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		prewarms.await( "node", "job", 0, new PrintStream( out ) );
+		assertTrue( done[0] );
+		assertFalse( prewarms.isRunning( "node", "job" ) );
+	}
+
+	public void testFailed() throws Exception
+	{
+		Prewarm prewarms = new Prewarm();
+		prewarms.start( "", "job", new Callable<Boolean>()
+		{
+			public Boolean call() throws Exception
+			{
+				throw new Exception( "no view server" );
+			}
+		} );
+
+		/* The build checks out the view itself */
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		prewarms.await( "", "job", 0, new PrintStream( out ) );
+		assertTrue( out.toString().contains( "no view server" ) );
+
+		/* Nothing to wait for */
+		prewarms.await( "", "job", 0, new PrintStream( out ) );
+	}
+
+	public void testTimeout() throws Exception
+	{
+		Prewarm prewarms = new Prewarm();
+		final CountDownLatch release = new CountDownLatch( 1 );
+		prewarms.start( "node", "job", new Callable<Boolean>()
+		{
+			public Boolean call() throws Exception
+			{
+				release.await();
+				return true;
+			}
+		} );
+
+		/* The build goes on without the pre-warm, which is not started again */
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		prewarms.await( "node", "job", 50, new PrintStream( out ) );
+		assertTrue( out.toString().contains( "did not finish" ) );
+		assertTrue( prewarms.isRunning( "node", "job" ) );
+		assertFalse( prewarms.start( "node", "job", null ) );
+
+		release.countDown();
+		prewarms.await( "node", "job", 0, new PrintStream( out ) );
+		assertFalse( prewarms.isRunning( "node", "job" ) );
+	}
+}
@@ -0,0 +1,140 @@
+package net.praqma.hudson.scm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CircuitBreaker;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.UCMGuard;
+
+import junit.framework.TestCase;
+
+public class StreamPoolTest extends TestCase
+{
+	private static final String parent = "stream:int@\\pvob";
+
+	/**
+	 * Simulates the child streams of the parent stream
+	 */
+	private static class SimulatedClearTool implements CommandRunner
+	{
+		List<String> streams = new ArrayList<String>();
+		int created = 0;
+
+		public String run( File dir, List<String> args ) throws UCMException
+		{
+			String cmd = args.get( 0 );
+			if( cmd.equals( "lsstream" ) )
+			{
+				StringBuffer sb = new StringBuffer();
+				for( String stream : streams )
+				{
+					sb.append( stream + "\n" );
+				}
+				return sb.toString();
+			}
+			if( cmd.equals( "mkstream" ) )
+			{
+				String name = args.get( 4 );
+				streams.add( name.substring( 7, name.indexOf( '@' ) ) );
+				created++;
+				return "";
+			}
+			if( cmd.equals( "rename" ) )
+			{
+				String name = args.get( 1 );
+				if( !streams.remove( name.substring( 7, name.indexOf( '@' ) ) ) )
+				{
+					throw new UCMException( "cleartool: Error: Unable to find stream \"" + name + "\"." );
+				}
+				streams.add( args.get( 2 ) );
+				return "";
+			}
+
+			throw new UCMException( "Unexpected command " + cmd );
+		}
+	}
+
+	public void testTopUp() throws Exception
+	{
+		StreamPool pool = new StreamPool();
+		SimulatedClearTool cleartool = new SimulatedClearTool();
+		cleartool.streams.add( "pucm_server_job" );
+		PrintStream out = new PrintStream( new ByteArrayOutputStream() );
+		UCMGuard guard = new UCMGuard( "pool" );
+
+		/* Parents are topped up, when a build has asked for a stream */
+		pool.topUp( cleartool, guard, 2, out );
+		assertEquals( 0, cleartool.created );
+		assertNull( pool.take( parent ) );
+
+		pool.topUp( cleartool, guard, 2, out );
+		assertEquals( 2, cleartool.created );
+		assertEquals( 2, pool.getFree( parent ) );
+
+		String stream = pool.take( parent );
+		assertTrue( stream.startsWith( "stream:" + StreamPool.prefix ) );
+		assertTrue( stream.endsWith( "@\\pvob" ) );
+		StreamPool.rename( cleartool, stream, "pucm_server_job2" );
+
+		pool.topUp( cleartool, guard, 2, out );
+		assertEquals( 3, cleartool.created );
+		assertEquals( 2, pool.getFree( parent ) );
+	}
+
+	public void testNotRenamed() throws Exception
+	{
+		StreamPool pool = new StreamPool();
+		SimulatedClearTool cleartool = new SimulatedClearTool();
+		PrintStream out = new PrintStream( new ByteArrayOutputStream() );
+		UCMGuard guard = new UCMGuard( "pool" );
+
+		pool.take( parent );
+		pool.topUp( cleartool, guard, 1, out );
+		String stream = pool.take( parent );
+		assertNotNull( stream );
+
+		/* A stream handed out is pending, it is neither handed out again nor replaced */
+		pool.topUp( cleartool, guard, 1, out );
+		assertEquals( 1, cleartool.created );
+		assertNull( pool.take( parent ) );
+	}
+
+	public void testBreakerOpen() throws Exception
+	{
+		String parent = "stream:int@\\pool_pvob";
+		StreamPool pool = new StreamPool();
+		SimulatedClearTool cleartool = new SimulatedClearTool();
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream( log );
+		UCMGuard guard = new UCMGuard( "pool" );
+
+		pool.take( parent );
+		for( int i = 0 ; i < 10 ; i++ )
+		{
+			CircuitBreaker.vobs.failure( "\\pool_pvob" );
+		}
+
+		try
+		{
+			/* An unavailable PVOB is not written to */
+			pool.topUp( cleartool, guard, 1, out );
+			assertEquals( 0, cleartool.created );
+			assertTrue( log.toString().contains( "Not topping the stream pool of " + parent ) );
+		}
+		finally
+		{
+			CircuitBreaker.vobs.success( "\\pool_pvob" );
+		}
+	}
+
+	public void testPvob()
+	{
+		assertEquals( "@\\pvob", StreamPool.getPvob( parent ) );
+		assertEquals( "", StreamPool.getPvob( "int" ) );
+	}
+}
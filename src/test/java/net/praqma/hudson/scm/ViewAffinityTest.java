@@ -0,0 +1,55 @@
+package net.praqma.hudson.scm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ViewAffinityTest extends TestCase
+{
+	public void testRecord()
+	{
+		ViewAffinity affinity = new ViewAffinity();
+		String key = ViewAffinity.jobKey( "job" );
+		assertTrue( affinity.getNodes( key ).isEmpty() );
+
+		affinity.record( key, "node1" );
+		affinity.record( key, "node2" );
+		affinity.record( key, "node3" );
+		affinity.record( key, "node1" );
+		assertEquals( Arrays.asList( "node1", "node3", "node2" ), affinity.getNodes( key ) );
+
+		/* The least recently used node is dropped */
+		affinity.record( key, "" );
+		assertEquals( Arrays.asList( "", "node1", "node3" ), affinity.getNodes( key ) );
+
+		affinity.forget( "node1" );
+		assertEquals( Arrays.asList( "", "node3" ), affinity.getNodes( key ) );
+		assertTrue( affinity.getNodes( ViewAffinity.streamKey( "job" ) ).isEmpty() );
+	}
+
+	public void testShouldWait()
+	{
+		List<String> warm = Arrays.asList( "node1", "node2" );
+		List<String> none = new ArrayList<String>();
+
+		assertFalse( ViewAffinity.shouldWait( none, "node3", none, 0, 30000 ) );
+		assertFalse( ViewAffinity.shouldWait( warm, "node1", warm, 0, 30000 ) );
+		assertTrue( ViewAffinity.shouldWait( warm, "node3", Arrays.asList( "node2" ), 1000, 30000 ) );
+
+		/* The warm nodes are offline, or the budget is spent */
+		assertFalse( ViewAffinity.shouldWait( warm, "node3", none, 1000, 30000 ) );
+		assertFalse( ViewAffinity.shouldWait( warm, "node3", warm, 30000, 30000 ) );
+	}
+
+	public void testWaitsForBusyNodes()
+	{
+		List<String> warm = Arrays.asList( "node1", "node2" );
+
+		/* All the warm nodes are online, but busy */
+		assertTrue( ViewAffinity.shouldWait( warm, "node3", warm, 1000, 30000 ) );
+		assertTrue( ViewAffinity.shouldWait( warm, "node3", warm, 29999, 30000 ) );
+		assertFalse( ViewAffinity.shouldWait( warm, "node3", warm, 30000, 30000 ) );
+	}
+}
@@ -0,0 +1,39 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class ViewFingerprintTest extends TestCase
+{
+	public void testMatches() throws Exception
+	{
+		File viewroot = File.createTempFile( "view", "" );
+		viewroot.delete();
+		viewroot.mkdir();
+
+		try
+		{
+			ViewFingerprint fingerprint = new ViewFingerprint( "pucm_host_job", "baseline:bl_1@\\pvob", "ALL" );
+			assertFalse( fingerprint.matches( viewroot ) );
+
+			fingerprint.write( viewroot );
+			assertTrue( new ViewFingerprint( "pucm_host_job", "baseline:bl_1@\\pvob", "all" ).matches( viewroot ) );
+			assertFalse( new ViewFingerprint( "pucm_host_job", "baseline:bl_2@\\pvob", "all" ).matches( viewroot ) );
+			assertFalse( new ViewFingerprint( "pucm_host_job", "baseline:bl_1@\\pvob", "modifiable" ).matches( viewroot ) );
+
+			/* A new baseline with the same load rules is loaded by the rebase */
+			assertTrue( new ViewFingerprint( "pucm_host_job", "baseline:bl_2@\\pvob", "all" ).hasLoadRules( ViewFingerprint.read( viewroot ) ) );
+			assertFalse( new ViewFingerprint( "pucm_host_job", "baseline:bl_2@\\pvob", "modifiable" ).hasLoadRules( ViewFingerprint.read( viewroot ) ) );
+
+			assertTrue( ViewFingerprint.invalidate( viewroot ) );
+			assertFalse( fingerprint.hasLoadRules( ViewFingerprint.read( viewroot ) ) );
+			assertFalse( fingerprint.matches( viewroot ) );
+		}
+		finally
+		{
+			ViewFingerprint.getFile( viewroot ).delete();
+			viewroot.delete();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package net.praqma.hudson.scm;
+
+import junit.framework.TestCase;
+
+public class ViewNamingTest extends TestCase
+{
+	public void testExpand()
+	{
+		assertEquals( "pucm_BUILD01", ViewNaming.expand( ViewNaming.defaultPattern, "BUILD01", "hudson" ) );
+		assertEquals( "ci_build01_hudson", ViewNaming.expand( "ci_${host}_${user}", "build01", "hudson" ) );
+		assertEquals( "ci_build01_", ViewNaming.expand( "ci_${host}_${user}", "build01", null ) );
+	}
+
+	public void testShorten()
+	{
+		assertEquals( "build01", ViewNaming.shorten( "build01.example.com" ) );
+		assertEquals( "BUILD01", ViewNaming.shorten( "BUILD01" ) );
+		assertEquals( "10.0.0.7", ViewNaming.shorten( "10.0.0.7" ) );
+	}
+
+	public void testNames()
+	{
+		ViewNaming naming = new ViewNaming( "  " );
+		assertEquals( ViewNaming.defaultPattern, naming.getPattern() );
+
+		String prefix = naming.getPrefix();
+		assertEquals( "pucm_" + ViewNaming.getHost(), prefix );
+		assertEquals( prefix + "_Cool_job", naming.getViewtag( "Cool job", 1 ) );
+		assertEquals( prefix + "_Cool_job_2", naming.getViewtag( "Cool job", 2 ) );
+		assertEquals( prefix + "_cache_Server_int", naming.getCacheViewtag( "Server_int" ) );
+		assertEquals( "Cool_job_" + ViewNaming.getHost() + "_Server_int", naming.getDeliverViewtag( "Cool job", "Server_int", 1 ) );
+	}
+
+	public void testDynamicViewtag()
+	{
+		/* The default pattern names the dynamic views as before */
+		ViewNaming naming = new ViewNaming( null );
+		assertEquals( "pucm_build_01_Cool_job_dynamic", naming.getDynamicViewtag( "build 01", "Cool_job", 1 ) );
+		assertEquals( "pucm_master_Cool_job_dynamic_2", naming.getDynamicViewtag( "", "Cool_job", 2 ) );
+
+		assertEquals( "ci_build01__Cool_job_dynamic", new ViewNaming( "ci_${host}_${user}" ).getDynamicViewtag( "build01", "Cool/job", 1 ) );
+	}
+}
@@ -0,0 +1,37 @@
+package net.praqma.hudson.scm;
+
+import junit.framework.TestCase;
+
+public class ViewPoolTest extends TestCase
+{
+	public void testSlotFollowsWorkspace()
+	{
+		assertEquals( 1, ViewPool.getSlot( "workspace" ) );
+		assertEquals( 2, ViewPool.getSlot( "workspace@2" ) );
+		assertEquals( 1, ViewPool.getSlot( "workspace@tmp" ) );
+
+		assertEquals( "pucm_host_job", ViewPool.getName( "pucm_host_job", 1 ) );
+		assertEquals( "pucm_host_job_3", ViewPool.getName( "pucm_host_job", 3 ) );
+	}
+
+	public void testConcurrentBuildsGetOwnSlots()
+	{
+		ViewPool pool = new ViewPool();
+
+		assertEquals( 1, pool.lease( "node", "job", "job::1", 1 ) );
+		assertEquals( 2, pool.lease( "node", "job", "job::2", 2 ) );
+
+		/* A shared workspace */
+		assertEquals( 3, pool.lease( "node", "job", "job::3", 1 ) );
+
+		/* Other nodes and jobs have their own slots */
+		assertEquals( 1, pool.lease( "other", "job", "job::4", 1 ) );
+		assertEquals( 1, pool.lease( "node", "other", "other::1", 1 ) );
+
+		/* The same build keeps its slot */
+		assertEquals( 2, pool.lease( "node", "job", "job::2", 1 ) );
+
+		assertEquals( 1, pool.releaseAll( "job::1" ) );
+		assertEquals( 1, pool.lease( "node", "job", "job::5", 1 ) );
+	}
+}
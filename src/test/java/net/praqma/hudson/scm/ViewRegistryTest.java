@@ -0,0 +1,250 @@
+package net.praqma.hudson.scm;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.hudson.ucm.CommandRunner;
+import net.praqma.hudson.ucm.MetadataCache;
+
+import junit.framework.TestCase;
+
+public class ViewRegistryTest extends TestCase
+{
+	private static final long day = 24 * 60 * 60 * 1000L;
+
+	private File dir;
+
+	/**
+	 * Lists the given views and streams, records the other commands, and removes the view roots as rmview does
+	 */
+	private static class SimulatedClearTool implements CommandRunner
+	{
+		List<String> commands = new ArrayList<String>();
+		String views = "";
+		String streams = "";
+
+		public String run( File dir, List<String> args ) throws UCMException
+		{
+			if( args.get( 0 ).equals( "lsview" ) )
+			{
+				return views;
+			}
+			if( args.get( 0 ).equals( "lsstream" ) )
+			{
+				return streams;
+			}
+
+			commands.add( args.get( 0 ) + " " + args.get( args.size() - 1 ) );
+			if( args.get( 0 ).equals( "rmview" ) )
+			{
+				File root = new File( args.get( args.size() - 1 ) );
+				new File( root, "view.dat" ).delete();
+				new File( root, "file.txt" ).delete();
+				root.delete();
+			}
+			return "";
+		}
+	}
+
+	public void setUp() throws Exception
+	{
+		dir = File.createTempFile( "pucm", "" );
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	public void tearDown()
+	{
+		for( File f : dir.listFiles() )
+		{
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static ViewRegistry.Entry entry( String tag, long used, String job )
+	{
+		return new ViewRegistry.Entry( tag, used, job, "/ws/" + tag, "stream:" + tag + "@\\pvob" );
+	}
+
+	public void testStale()
+	{
+		long now = 100 * day;
+		List<ViewRegistry.Entry> entries = new ArrayList<ViewRegistry.Entry>();
+		entries.add( entry( "pucm_host_job", now - 2 * day, "job" ) );
+		entries.add( entry( "pucm_host_old", now - 20 * day, "old" ) );
+		entries.add( entry( "pucm_host_deleted", now - 2 * day, "deleted" ) );
+		entries.add( entry( "pucm_host_running", now - 1000, "running" ) );
+		entries.add( entry( "pucm_host_cache_int", now - 2 * day, "" ) );
+
+		List<String> jobs = Arrays.asList( "job", "old", "running" );
+		List<ViewRegistry.Entry> stale = ViewRegistry.selectStale( entries, jobs, now, 14 * day, 0, new HashMap<String, Long>() );
+
+		assertEquals( 2, stale.size() );
+		assertEquals( "pucm_host_old", stale.get( 0 ).getTag() );
+		assertEquals( "pucm_host_deleted", stale.get( 1 ).getTag() );
+
+		/* A job being deleted does not remove a view in use */
+		stale = ViewRegistry.selectStale( entries, new ArrayList<String>(), now, Long.MAX_VALUE, 0, new HashMap<String, Long>() );
+		assertEquals( 3, stale.size() );
+	}
+
+	public void testBudget()
+	{
+		long now = 100 * day;
+		List<ViewRegistry.Entry> entries = new ArrayList<ViewRegistry.Entry>();
+		entries.add( entry( "pucm_host_a", now - 3 * day, "a" ) );
+		entries.add( entry( "pucm_host_b", now - 5 * day, "b" ) );
+		entries.add( entry( "pucm_host_c", now - 1 * day, "c" ) );
+		entries.add( entry( "pucm_host_d", now - 1000, "d" ) );
+
+		Map<String, Long> sizes = new HashMap<String, Long>();
+		sizes.put( "pucm_host_a", 300L );
+		sizes.put( "pucm_host_b", 300L );
+		sizes.put( "pucm_host_c", 300L );
+		sizes.put( "pucm_host_d", 300L );
+
+		List<ViewRegistry.Entry> stale = ViewRegistry.selectStale( entries, Arrays.asList( "a", "b", "c", "d" ), now, Long.MAX_VALUE, 700, sizes );
+
+		/* The least recently used go first, the view in use is kept */
+		assertEquals( 2, stale.size() );
+		assertEquals( "pucm_host_b", stale.get( 0 ).getTag() );
+		assertEquals( "pucm_host_a", stale.get( 1 ).getTag() );
+	}
+
+	public void testRebaseView()
+	{
+		long now = 100 * day;
+		List<ViewRegistry.Entry> entries = new ArrayList<ViewRegistry.Entry>();
+		entries.add( new ViewRegistry.Entry( "pucm_host_deleted_rebase", now - 2 * ViewRegistry.recent, "deleted", "/ws/pucm_host_deleted_rebase", null ) );
+		entries.add( entry( "pucm_host_deleted", now - 2 * day, "deleted" ) );
+
+		/* The rebase view is attached to the stream, it goes first */
+		List<ViewRegistry.Entry> stale = ViewRegistry.selectStale( entries, Arrays.asList( "job" ), now, 14 * day, 0, new HashMap<String, Long>() );
+		assertEquals( 2, stale.size() );
+		assertEquals( "pucm_host_deleted_rebase", stale.get( 0 ).getTag() );
+		assertNull( stale.get( 0 ).getStream() );
+		assertEquals( "pucm_host_deleted", stale.get( 1 ).getTag() );
+	}
+
+	public void testCollect() throws Exception
+	{
+		File root = new File( dir, "view" );
+		root.mkdirs();
+		new File( root, "view.dat" ).createNewFile();
+		FileWriter writer = new FileWriter( new File( root, "file.txt" ) );
+		writer.write( "source" );
+		writer.close();
+		root.setLastModified( System.currentTimeMillis() - 2 * ViewRegistry.recent );
+
+		MetadataCache metadata = MetadataCache.open( dir );
+		ViewRegistry.record( metadata, "pucm_host_deleted", "deleted", root, "stream:pucm_host_deleted@\\pvob" );
+		ViewRegistry.record( metadata, "pucm_host_job", "job", new File( dir, "other" ), "stream:pucm_host_job@\\pvob" );
+		assertEquals( 2, ViewRegistry.getEntries( metadata ).size() );
+
+		/* Recorded more than an hour ago */
+		String value = metadata.get( "used:pucm_host_deleted" );
+		metadata.put( "used:pucm_host_deleted", ( System.currentTimeMillis() - 2 * ViewRegistry.recent ) + value.substring( value.indexOf( '\t' ) ) );
+
+		SimulatedClearTool ct = new SimulatedClearTool();
+		String report = new ViewRegistry.Collect( ct, dir.getPath(), Arrays.asList( "job" ), new ArrayList<String>(), new ViewNaming( "pucm_host" ), "node", Long.MAX_VALUE, 0 ).call();
+
+		assertEquals( Arrays.asList( "rmview " + root.getAbsolutePath(), "rmstream stream:pucm_host_deleted@\\pvob" ), ct.commands );
+		assertFalse( root.exists() );
+		assertEquals( 1, ViewRegistry.getEntries( metadata ).size() );
+		assertTrue( report.endsWith( "Removed 1 of 2 views, reclaimed 0 MB" ) );
+	}
+
+	public void testInUse() throws Exception
+	{
+		File root = new File( dir, "view" );
+		root.mkdirs();
+		new File( root, "view.dat" ).createNewFile();
+
+		MetadataCache metadata = MetadataCache.open( dir );
+		ViewRegistry.record( metadata, "pucm_host_deleted", "deleted", root, "stream:pucm_host_deleted@\\pvob" );
+		String value = metadata.get( "used:pucm_host_deleted" );
+		metadata.put( "used:pucm_host_deleted", ( System.currentTimeMillis() - 2 * ViewRegistry.recent ) + value.substring( value.indexOf( '\t' ) ) );
+
+		/* A checkout has just changed the view on the node */
+		SimulatedClearTool ct = new SimulatedClearTool();
+		String report = new ViewRegistry.Collect( ct, dir.getPath(), Arrays.asList( "job" ), new ArrayList<String>(), new ViewNaming( "pucm_host" ), "node", Long.MAX_VALUE, 0 ).call();
+
+		assertTrue( ct.commands.isEmpty() );
+		assertTrue( root.exists() );
+		assertEquals( 1, ViewRegistry.getEntries( metadata ).size() );
+		assertTrue( report.contains( "Kept the view pucm_host_deleted" ) );
+
+		new File( root, "view.dat" ).delete();
+		root.delete();
+	}
+
+	public void testDiscover() throws Exception
+	{
+		MetadataCache metadata = MetadataCache.open( dir );
+		ViewRegistry.record( metadata, "pucm_host_known", "known", new File( dir, "known" ), "stream:pucm_host_known@\\pvob" );
+
+		SimulatedClearTool ct = new SimulatedClearTool();
+		ct.views = "Tag: pucm_host_job\n" +
+		           "  Global path: \\\\host\\ws\\pucm_host_job\\.view.stg\n" +
+		           "View server access path: /ws/pucm_host_job/.view.stg\n" +
+		           "Tag: pucm_host_job_2_rebase\n" +
+		           "View server access path: C:\\ws\\pucm_host_job_2_rebase\\.view.stg\n" +
+		           "Tag: pucm_node_job_dynamic\n" +
+		           "View server access path: \\\\server\\views\\pucm_node_job_dynamic.vws\n" +
+		           "Tag: pucm_host_cache_int\n" +
+		           "View server access path: C:\\cache\\pucm_host_cache_int\\.view.stg\n" +
+		           "Tag: pucm_host_known\n" +
+		           "View server access path: C:\\ws\\pucm_host_known\\.view.stg\n" +
+		           "Tag: someone_else\n" +
+		           "View server access path: C:\\ws\\someone_else\\.view.stg\n";
+		ct.streams = "pucm_host_job\npucm_host_known\npucm_host_gone\nintegration\n";
+
+		List<String> prefixes = Arrays.asList( "pucm_host", "pucm_node" );
+		assertEquals( 5, ViewRegistry.discover( ct, metadata, prefixes, Arrays.asList( "\\pvob" ), Arrays.asList( "job", "known" ) ) );
+
+		ViewRegistry.Entry job = ViewRegistry.getEntry( metadata, "pucm_host_job" );
+		assertEquals( "job", job.getJob() );
+		assertEquals( "stream:pucm_host_job@\\pvob", job.getStream() );
+		assertEquals( new File( "/ws/pucm_host_job" ).getAbsolutePath(), job.root );
+
+		assertEquals( "job", ViewRegistry.getEntry( metadata, "pucm_host_job_2_rebase" ).getJob() );
+		assertNull( ViewRegistry.getEntry( metadata, "pucm_host_job_2_rebase" ).getStream() );
+
+		/* A dynamic view keeps its storage on a server */
+		ViewRegistry.Entry dynamic = ViewRegistry.getEntry( metadata, "pucm_node_job_dynamic" );
+		assertEquals( "job", dynamic.getJob() );
+		assertEquals( "", dynamic.root );
+
+		assertEquals( "", ViewRegistry.getEntry( metadata, "pucm_host_cache_int" ).getJob() );
+		assertNull( ViewRegistry.getEntry( metadata, "someone_else" ) );
+
+		/* The stream of a view, which was removed by hand, belongs to a deleted job */
+		ViewRegistry.Entry gone = ViewRegistry.getEntry( metadata, "stream:pucm_host_gone" );
+		assertTrue( gone.isStreamOnly() );
+		assertEquals( "gone", gone.getJob() );
+		assertEquals( "stream:pucm_host_gone@\\pvob", gone.getStream() );
+
+		/* The registered views are left alone */
+		assertEquals( new File( dir, "known" ).getAbsolutePath(), ViewRegistry.getEntry( metadata, "pucm_host_known" ).root );
+		assertEquals( 0, ViewRegistry.discover( ct, metadata, prefixes, Arrays.asList( "\\pvob" ), Arrays.asList( "job", "known" ) ) );
+	}
+
+	public void testJob()
+	{
+		List<String> prefixes = Arrays.asList( "pucm_host" );
+		List<String> jobs = Arrays.asList( "job", "job_2" );
+		assertEquals( "job", ViewRegistry.getJob( "pucm_host_job", prefixes, jobs ) );
+		assertEquals( "job", ViewRegistry.getJob( "pucm_host_job_rebase", prefixes, jobs ) );
+		assertEquals( "job", ViewRegistry.getJob( "pucm_host_job_dynamic_3", prefixes, jobs ) );
+		assertEquals( "job_2", ViewRegistry.getJob( "pucm_host_job_2", prefixes, jobs ) );
+		assertEquals( "other", ViewRegistry.getJob( "pucm_host_other", prefixes, jobs ) );
+		assertNull( ViewRegistry.getJob( "pucm_host_cache_int", prefixes, jobs ) );
+	}
+}
@@ -0,0 +1,72 @@
+package net.praqma.hudson.ucm;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase
+{
+	public void testOpensAfterThreshold()
+	{
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setSettings( 2, 60000 );
+
+		breaker.failure( "\\pvob" );
+		assertTrue( breaker.allow( "\\pvob" ) );
+		breaker.failure( "\\pvob" );
+		assertFalse( breaker.allow( "\\pvob" ) );
+		assertEquals( CircuitBreaker.State.OPEN, breaker.getState( "\\pvob" ) );
+
+		/* Other PVOBs are not affected */
+		assertTrue( breaker.allow( "\\other_pvob" ) );
+	}
+
+	public void testSuccessResets()
+	{
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setSettings( 2, 60000 );
+
+		breaker.failure( "\\pvob" );
+		breaker.success( "\\pvob" );
+		breaker.failure( "\\pvob" );
+		assertTrue( breaker.allow( "\\pvob" ) );
+	}
+
+	public void testHalfOpenAllowsSingleProbe()
+	{
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setSettings( 1, 0 );
+
+		breaker.failure( "\\pvob" );
+		breaker.setSettings( 1, 60000 );
+		assertFalse( breaker.allow( "\\pvob" ) );
+
+		breaker.setSettings( 1, 0 );
+		assertTrue( breaker.allow( "\\pvob" ) );
+		assertEquals( CircuitBreaker.State.HALF_OPEN, breaker.getState( "\\pvob" ) );
+
+		/* The probe is in flight */
+		breaker.setSettings( 1, 60000 );
+		assertFalse( breaker.allow( "\\pvob" ) );
+
+		/* A failing probe opens it again */
+		breaker.failure( "\\pvob" );
+		assertEquals( CircuitBreaker.State.OPEN, breaker.getState( "\\pvob" ) );
+	}
+
+	public void testDisabled()
+	{
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.setSettings( 0, 60000 );
+
+		for( int i = 0 ; i < 10 ; i++ )
+		{
+			breaker.failure( "\\pvob" );
+		}
+		assertTrue( breaker.allow( "\\pvob" ) );
+	}
+
+	public void testGetPvob()
+	{
+		assertEquals( "\\pvob", CircuitBreaker.getPvob( "stream:int@\\pvob" ) );
+		assertEquals( "\\pvob", CircuitBreaker.getPvob( "\\pvob" ) );
+	}
+}
@@ -0,0 +1,178 @@
+package net.praqma.hudson.ucm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LeaseLimiterTest extends TestCase
+{
+	public void testUnlimited() throws Exception
+	{
+		LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 0 );
+
+		assertNull( limiter.acquire( "\\pvob", "job::1" ) );
+		assertEquals( 0, limiter.getLeaseCount() );
+	}
+
+	public void testReleaseAll() throws Exception
+	{
+		LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 1 );
+
+		limiter.acquire( "\\pvob", "job::1" );
+		limiter.acquire( "\\other_pvob", "job::1" );
+		assertEquals( 2, limiter.getLeaseCount() );
+
+		assertEquals( 2, limiter.releaseAll( "job::1" ) );
+		assertEquals( 0, limiter.getLeaseCount() );
+
+		/* The permit must be available again */
+		assertNotNull( limiter.acquire( "\\pvob", "job::2" ) );
+	}
+
+	public void testBlocksWhenExhausted() throws Exception
+	{
+		final LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 1 );
+
+		LeaseLimiter.Lease first = limiter.acquire( "\\pvob", "job::1" );
+
+		Thread t = new Thread()
+		{
+			public void run()
+			{
+				try
+				{
+					limiter.acquire( "\\pvob", "job::2" );
+				}
+				catch( InterruptedException e )
+				{
+					/* Expected */
+				}
+			}
+		};
+		t.start();
+		t.join( 200 );
+		assertTrue( t.isAlive() );
+		assertEquals( 1, limiter.getLeaseCount() );
+
+		assertTrue( limiter.release( first.id ) );
+		t.join( 2000 );
+		assertFalse( t.isAlive() );
+		assertEquals( 1, limiter.getLeaseCount() );
+	}
+
+	public void testResizeKeepsLeases() throws Exception
+	{
+		LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 2 );
+
+		LeaseLimiter.Lease first = limiter.acquire( "\\pvob", "job::1" );
+		limiter.acquire( "\\pvob", "job::2" );
+
+		/* The leases handed out still count against the new limit */
+		limiter.setPermits( 3 );
+		assertTrue( limiter.acquire( "\\pvob", "job::3", 50 ).isGranted() );
+		assertFalse( limiter.acquire( "\\pvob", "job::4", 50 ).isGranted() );
+
+		/* A smaller limit takes effect as the leases are returned */
+		limiter.setPermits( 2 );
+		assertTrue( limiter.release( first.id ) );
+		assertFalse( limiter.acquire( "\\pvob", "job::4", 50 ).isGranted() );
+		assertEquals( 2, limiter.getLeaseCount() );
+
+		/* Unlimited and back */
+		limiter.setPermits( 0 );
+		assertNull( limiter.acquire( "\\pvob", "job::4", 50 ) );
+		limiter.setPermits( 2 );
+		assertFalse( limiter.acquire( "\\pvob", "job::4", 50 ).isGranted() );
+		assertEquals( 2, limiter.releaseAll( "job::2" ) + limiter.releaseAll( "job::3" ) );
+		assertTrue( limiter.acquire( "\\pvob", "job::4", 50 ).isGranted() );
+	}
+
+	public void testAcquireTimesOut() throws Exception
+	{
+		LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 1 );
+
+		limiter.acquire( "\\pvob", "job::1" );
+		LeaseLimiter.Lease lease = limiter.acquire( "\\pvob", "job::2", 50 );
+		assertFalse( lease.isGranted() );
+		assertTrue( lease.waited >= 40 );
+		assertEquals( 1, limiter.getLeaseCount() );
+		assertFalse( limiter.release( "unknown" ) );
+	}
+
+	public void testFifoAcrossPolls() throws Exception
+	{
+		LeaseLimiter limiter = new LeaseLimiter( "test" );
+		limiter.setPermits( 1 );
+
+		LeaseLimiter.Lease first = limiter.acquire( "\\pvob", "job::1" );
+		LeaseLimiter.Lease second = limiter.acquire( "\\pvob", "job::2", 20, null );
+		LeaseLimiter.Lease third = limiter.acquire( "\\pvob", "job::3", 20, null );
+		assertFalse( second.isGranted() );
+		assertFalse( third.isGranted() );
+		assertNotNull( second.ticket );
+
+		/* The permit is free between the polls, but the second build came first */
+		assertTrue( limiter.release( first.id ) );
+		third = limiter.acquire( "\\pvob", "job::3", 20, third.ticket );
+		assertFalse( third.isGranted() );
+
+		second = limiter.acquire( "\\pvob", "job::2", 20, second.ticket );
+		assertTrue( second.isGranted() );
+
+		/* A build, which stopped waiting, leaves the line when it completes */
+		LeaseLimiter.Lease fourth = limiter.acquire( "\\pvob", "job::4", 20, null );
+		assertTrue( limiter.release( second.id ) );
+		assertEquals( 0, limiter.releaseAll( "job::3" ) );
+		assertTrue( limiter.acquire( "\\pvob", "job::4", 20, fourth.ticket ).isGranted() );
+	}
+
+	public void testReleaseAllLimiters() throws Exception
+	{
+		assertSame( LeaseLimiter.nodeUpdates, LeaseLimiter.get( "Node view update" ) );
+		assertSame( LeaseLimiter.serverUpdates, LeaseLimiter.get( "View server update" ) );
+
+		LeaseLimiter.nodeUpdates.setPermits( 1 );
+		LeaseLimiter.serverUpdates.setPermits( 1 );
+
+		LeaseLimiter.nodeUpdates.acquire( "build01", "job::3" );
+		LeaseLimiter.serverUpdates.acquire( "viewserver", "job::3" );
+
+		/* A build, whose slave was disconnected during the update */
+		assertEquals( 2, LeaseLimiter.releaseAllLimiters( "job::3" ) );
+		assertEquals( 0, LeaseLimiter.nodeUpdates.getLeaseCount() );
+		assertEquals( 0, LeaseLimiter.serverUpdates.getLeaseCount() );
+	}
+
+	public void testUpdatesInTicketOrder() throws Exception
+	{
+		LeaseLimiter.nodeUpdates.setPermits( 1 );
+
+		/* A wave of builds on the same node, polling for the view update */
+		LeaseLimiter.Lease updating = LeaseLimiter.nodeUpdates.acquire( "build02", "job::10" );
+		List<LeaseLimiter.Lease> waiting = new ArrayList<LeaseLimiter.Lease>();
+		for( int i = 11 ; i < 14 ; i++ )
+		{
+			waiting.add( LeaseLimiter.nodeUpdates.acquire( "build02", "job::" + i, 10, null ) );
+		}
+
+		/* The last comes back first, but the updates are granted in the order the builds came */
+		assertTrue( LeaseLimiter.nodeUpdates.release( updating.id ) );
+		for( int i = waiting.size() - 1 ; i >= 0 ; i-- )
+		{
+			LeaseLimiter.Lease lease = LeaseLimiter.nodeUpdates.acquire( "build02", waiting.get( i ).owner, 10, waiting.get( i ).ticket );
+			assertEquals( i == 0, lease.isGranted() );
+			waiting.set( i, lease );
+		}
+
+		LeaseLimiter.nodeUpdates.release( waiting.get( 0 ).id );
+		assertTrue( LeaseLimiter.nodeUpdates.acquire( "build02", "job::12", 10, waiting.get( 1 ).ticket ).isGranted() );
+		assertEquals( 1, LeaseLimiter.releaseAllLimiters( "job::12" ) );
+		assertEquals( 0, LeaseLimiter.releaseAllLimiters( "job::13" ) );
+	}
+}
@@ -0,0 +1,61 @@
+package net.praqma.hudson.ucm;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.TestCase;
+
+public class MetadataCacheTest extends TestCase
+{
+	private File file;
+
+	public void setUp() throws Exception
+	{
+		file = File.createTempFile( "metadata", ".txt" );
+		file.delete();
+	}
+
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	public void testSurvivesRestart()
+	{
+		MetadataCache metadata = new MetadataCache( file, 10 );
+		assertNull( metadata.get( "stream.project:stream:int@\\pvob" ) );
+		metadata.put( "stream.project:stream:int@\\pvob", "project:hudson@\\pvob" );
+		metadata.put( "view:pucm_server_job", "2a4d2b0c.f8ea11df.9f6b.00:01:83:45:5d:22 C:\\ws\\job\\view" );
+
+		/* The slave is restarted */
+		metadata = new MetadataCache( file, 10 );
+		assertEquals( "project:hudson@\\pvob", metadata.get( "stream.project:stream:int@\\pvob" ) );
+		assertEquals( "2a4d2b0c.f8ea11df.9f6b.00:01:83:45:5d:22 C:\\ws\\job\\view", metadata.get( "view:pucm_server_job" ) );
+
+		metadata.remove( "view:pucm_server_job" );
+		assertNull( new MetadataCache( file, 10 ).get( "view:pucm_server_job" ) );
+	}
+
+	public void testBounded()
+	{
+		MetadataCache metadata = new MetadataCache( file, 2 );
+		metadata.put( "a", "1" );
+		metadata.put( "b", "2" );
+		metadata.get( "a" );
+		metadata.put( "c", "3" );
+
+		/* The least recently used is dropped */
+		assertEquals( 2, metadata.size() );
+		assertNull( metadata.get( "b" ) );
+		assertEquals( "1", metadata.get( "a" ) );
+	}
+
+	public void testOtherVersion() throws Exception
+	{
+		FileWriter fw = new FileWriter( file );
+		fw.write( "# PUCM metadata 0\na\t1\n" );
+		fw.close();
+
+		assertEquals( 0, new MetadataCache( file, 10 ).size() );
+	}
+}
@@ -0,0 +1,78 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+import junit.framework.TestCase;
+
+public class RetryPolicyTest extends TestCase
+{
+	public void testDelayIsBounded()
+	{
+		RetryPolicy policy = new RetryPolicy( 5, 1000, 4000 );
+
+		assertEquals( 1000, policy.getDelayCap( 1 ) );
+		assertEquals( 2000, policy.getDelayCap( 2 ) );
+		assertEquals( 4000, policy.getDelayCap( 3 ) );
+		assertEquals( 4000, policy.getDelayCap( 5 ) );
+
+		for( int i = 0 ; i < 100 ; i++ )
+		{
+			long delay = policy.getDelay( 3 );
+			assertTrue( delay >= 0 && delay <= 4000 );
+		}
+
+		assertTrue( policy.allowRetry( 5 ) );
+		assertFalse( policy.allowRetry( 6 ) );
+	}
+
+	public void testTransientErrors()
+	{
+		assertTrue( TransientErrors.isTransient( "cleartool: Error: Unable to obtain lock on \"\\pvob\"" ) );
+		assertTrue( TransientErrors.isTransient( "RPC: Timed out" ) );
+		assertFalse( TransientErrors.isTransient( "cleartool: Error: Baseline not found" ) );
+		assertFalse( TransientErrors.isTransient( (String)null ) );
+	}
+
+	public void testGuardRetriesTransientErrors() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::1" ).setRetryPolicy( new RetryPolicy( 2, 0, 0 ) );
+
+		final int[] calls = { 0 };
+		String result = guard.write( "\\retry_pvob", new UCMOperation<String>()
+		{
+			public String perform() throws UCMException
+			{
+				if( ++calls[0] < 3 )
+				{
+					throw new UCMException( "Unable to obtain lock on \\pvob" );
+				}
+				return "done";
+			}
+		} );
+
+		assertEquals( "done", result );
+		assertEquals( 3, calls[0] );
+	}
+
+	public void testGuardGivesUp() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::2" ).setRetryPolicy( new RetryPolicy( 1, 0, 0 ) );
+
+		final int[] calls = { 0 };
+		try
+		{
+			guard.write( "\\giveup_pvob", new UCMOperation<String>()
+			{
+				public String perform() throws UCMException
+				{
+					calls[0]++;
+					throw new UCMException( "RPC: Timed out" );
+				}
+			} );
+			fail( "Expected exception" );
+		}
+		catch( UCMException e )
+		{
+			assertEquals( 2, calls[0] );
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package net.praqma.hudson.ucm;
+
+import net.praqma.clearcase.ucm.UCMException;
+
+import junit.framework.TestCase;
+
+public class TtlCacheTest extends TestCase
+{
+	/**
+	 * Counts the calls, and fails with the given error, if any
+	 */
+	private static class Lookup implements UCMOperation<String>
+	{
+		int calls = 0;
+		String error = null;
+
+		public String perform() throws UCMException
+		{
+			calls++;
+			if( error != null )
+			{
+				throw new UCMException( error );
+			}
+			return "stream:int@\\pvob";
+		}
+	}
+
+	public void testCached() throws Exception
+	{
+		TtlCache<String> cache = new TtlCache<String>( 60000, 60000 );
+		Lookup lookup = new Lookup();
+
+		assertEquals( "stream:int@\\pvob", cache.get( "project:hudson@\\pvob", lookup ) );
+		assertEquals( "stream:int@\\pvob", cache.get( "project:hudson@\\pvob", lookup ) );
+		assertEquals( 1, lookup.calls );
+
+		cache.invalidate( "project:hudson@\\pvob" );
+		cache.get( "project:hudson@\\pvob", lookup );
+		assertEquals( 2, lookup.calls );
+	}
+
+	public void testExpires() throws Exception
+	{
+		TtlCache<String> cache = new TtlCache<String>( 0, 0 );
+		Lookup lookup = new Lookup();
+
+		cache.get( "project:hudson@\\pvob", lookup );
+		Thread.sleep( 5 );
+		cache.get( "project:hudson@\\pvob", lookup );
+		assertEquals( 2, lookup.calls );
+	}
+
+	public void testNegative() throws Exception
+	{
+		TtlCache<String> cache = new TtlCache<String>( 60000, 60000 );
+		Lookup lookup = new Lookup();
+		lookup.error = "cleartool: Error: project not found: \"hudson@\\pvob\".";
+
+		for( int i = 0 ; i < 3 ; i++ )
+		{
+			try
+			{
+				cache.get( "project:hudson@\\pvob", lookup );
+				fail( "The project does not exist" );
+			}
+			catch( UCMException e )
+			{
+				assertEquals( lookup.error, e.getMessage() );
+			}
+		}
+
+		assertEquals( 1, lookup.calls );
+	}
+
+	public void testTransientNotCached() throws Exception
+	{
+		TtlCache<String> cache = new TtlCache<String>( 60000, 60000 );
+		Lookup lookup = new Lookup();
+		lookup.error = "cleartool: Error: Unable to contact albd_server on host 'vobserver'";
+
+		try
+		{
+			cache.get( "project:hudson@\\pvob", lookup );
+			fail( "The lookup failed" );
+		}
+		catch( UCMException e )
+		{
+		}
+
+		lookup.error = null;
+		assertEquals( "stream:int@\\pvob", cache.get( "project:hudson@\\pvob", lookup ) );
+		assertEquals( 2, lookup.calls );
+	}
+}
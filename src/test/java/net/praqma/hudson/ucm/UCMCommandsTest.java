@@ -0,0 +1,123 @@
+package net.praqma.hudson.ucm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.praqma.clearcase.ucm.UCMException;
+import net.praqma.clearcase.ucm.entities.Project;
+import net.praqma.clearcase.ucm.view.SnapshotView.COMP;
+
+import junit.framework.TestCase;
+
+public class UCMCommandsTest extends TestCase
+{
+	private static final String cs =
+		"ucm\n" +
+		"identity UCM.Stream oid:1234@vobuuid:5678 1\n" +
+		"#UCMCustomElemBegin - DO NOT REMOVE - ADD CUSTOM ELEMENT RULES AFTER THIS LINE\n" +
+		"#UCMCustomElemEnd - DO NOT REMOVE - END CUSTOM ELEMENT RULES\n" +
+		"element * bl_1 -nocheckout\n" +
+		"#UCMCustomLoadBegin - DO NOT REMOVE - ADD CUSTOM LOAD RULES AFTER THIS LINE\n" +
+		"#UCMCustomLoadEnd - DO NOT REMOVE - END CUSTOM LOAD RULES\n";
+
+	/**
+	 * Answers the listing commands, and records the commands
+	 */
+	private static class SimulatedClearTool implements CommandRunner
+	{
+		List<String> commands = new ArrayList<String>();
+		String configSpec = cs;
+
+		public String run( File dir, List<String> args ) throws UCMException
+		{
+			commands.add( args.get( 0 ) );
+			if( args.get( 0 ).equals( "lsstream" ) )
+			{
+				return "component:comp@\\pvob component:rootless@\\pvob\n";
+			}
+			if( args.get( 0 ).equals( "lscomp" ) )
+			{
+				return args.get( args.size() - 1 ).startsWith( "component:comp" ) ? "\\vob\\comp\n" : "\n";
+			}
+			if( args.get( 0 ).equals( "catcs" ) )
+			{
+				return configSpec;
+			}
+			if( args.get( 0 ).equals( "setcs" ) && !args.contains( "-stream" ) )
+			{
+				configSpec = configSpec.replace( "LOAD RULES AFTER THIS LINE\n", "LOAD RULES AFTER THIS LINE\nload \"\\vob\\comp\"\n" );
+			}
+			return "";
+		}
+	}
+
+	public void testUpdate() throws Exception
+	{
+		File viewroot = new File( System.getProperty( "java.io.tmpdir" ), "pucm_no_view" );
+		SimulatedClearTool ct = new SimulatedClearTool();
+		UCMCommands commands = new UCMCommands( ct );
+
+		/* A new view gets the load rules of its components */
+		assertEquals( Arrays.asList( "\\vob\\comp" ), commands.getRoots( viewroot, COMP.ALL ) );
+		ct.commands.clear();
+		commands.update( viewroot, COMP.ALL );
+		assertEquals( Arrays.asList( "lsstream", "lscomp", "lscomp", "setcs", "catcs", "setcs" ), ct.commands );
+
+		/* A view, which has them, is only updated once */
+		ct.commands.clear();
+		commands.update( viewroot, COMP.ALL );
+		assertEquals( Arrays.asList( "lsstream", "lscomp", "lscomp", "setcs", "catcs" ), ct.commands );
+	}
+
+	public void testSwipe() throws Exception
+	{
+		File viewroot = File.createTempFile( "view", "" );
+		viewroot.delete();
+		File dir = new File( viewroot, "vob/comp/obj" );
+		dir.mkdirs();
+		final File object = new File( dir, "main.o" );
+		object.createNewFile();
+		File source = new File( viewroot, "vob/comp/main.c" );
+		source.createNewFile();
+
+		try
+		{
+			CommandRunner ct = new CommandRunner()
+			{
+				private static final long serialVersionUID = 1L;
+
+				public String run( File dir, List<String> args )
+				{
+					return "vob/comp/obj\n" + object.getAbsolutePath() + "\n";
+				}
+			};
+
+			new UCMCommands( ct ).swipe( viewroot, Arrays.asList( "/vob/comp" ) );
+			assertFalse( object.exists() );
+			assertFalse( dir.exists() );
+			assertTrue( source.exists() );
+		}
+		finally
+		{
+			source.delete();
+			new File( viewroot, "vob/comp" ).delete();
+			new File( viewroot, "vob" ).delete();
+			viewroot.delete();
+		}
+	}
+
+	public void testNextLevel()
+	{
+		assertEquals( Project.Plevel.INITIAL, UCMCommands.getNext( Project.Plevel.REJECTED ) );
+		assertEquals( Project.Plevel.BUILT, UCMCommands.getNext( Project.Plevel.INITIAL ) );
+		assertEquals( Project.Plevel.RELEASED, UCMCommands.getNext( Project.Plevel.RELEASED ) );
+	}
+
+	public void testEmptyDeliver()
+	{
+		assertTrue( UCMCommands.isEmpty( "No changes in stream \"dev\" to deliver.\n" ) );
+		assertFalse( UCMCommands.isEmpty( "Deliver has completed.\n" ) );
+	}
+}
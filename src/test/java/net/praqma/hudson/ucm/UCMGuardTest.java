@@ -0,0 +1,257 @@
+package net.praqma.hudson.ucm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.praqma.clearcase.ucm.UCMException;
+import junit.framework.TestCase;
+
+public class UCMGuardTest extends TestCase
+{
+	public void testTimeoutRunsCleanup() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::1" ).setTimeouts( 100, 100 );
+
+		final boolean[] cleaned = { false };
+		try
+		{
+			guard.write( "\\timeout_pvob", new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					try
+					{
+						Thread.sleep( 10000 );
+					}
+					catch( InterruptedException e )
+					{
+						/* Abandoned */
+					}
+					return true;
+				}
+			}, true, new UCMOperation<Boolean>()
+			{
+				public Boolean perform()
+				{
+					cleaned[0] = true;
+					return true;
+				}
+			} );
+			fail( "Expected timeout" );
+		}
+		catch( UCMTimeoutException e )
+		{
+			assertTrue( cleaned[0] );
+		}
+	}
+
+	public void testCleanupWaitsForTheOperation() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::6" ).setTimeouts( 100, 100 );
+
+		final boolean[] ended = { false };
+		final boolean[] endedBeforeCleanup = { false };
+		try
+		{
+			guard.write( "\\wait_pvob", new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					try
+					{
+						Thread.sleep( 10000 );
+					}
+					catch( InterruptedException e )
+					{
+						/* Abandoned, but slow to stop, like an operation waiting for its killed process */
+						long until = System.currentTimeMillis() + 300;
+						while( System.currentTimeMillis() < until )
+						{
+							Thread.yield();
+						}
+						ended[0] = true;
+					}
+					return true;
+				}
+			}, true, new UCMOperation<Boolean>()
+			{
+				public Boolean perform()
+				{
+					endedBeforeCleanup[0] = ended[0];
+					return true;
+				}
+			} );
+			fail( "Expected timeout" );
+		}
+		catch( UCMTimeoutException e )
+		{
+			assertTrue( endedBeforeCleanup[0] );
+		}
+	}
+
+	public void testTimeoutIsNotRetried() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::2" ).setRetryPolicy( new RetryPolicy( 3, 0, 0 ) ).setTimeouts( 50, 50 );
+
+		final int[] calls = { 0 };
+		try
+		{
+			guard.write( "\\noretry_pvob", new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					calls[0]++;
+					try
+					{
+						Thread.sleep( 10000 );
+					}
+					catch( InterruptedException e )
+					{
+						/* Abandoned */
+					}
+					return true;
+				}
+			} );
+			fail( "Expected timeout" );
+		}
+		catch( UCMTimeoutException e )
+		{
+			assertEquals( 1, calls[0] );
+		}
+	}
+
+	public void testErrorsArePropagated() throws Exception
+	{
+		UCMGuard guard = new UCMGuard( "job::3" );
+
+		try
+		{
+			guard.view( new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					throw new UCMException( "Not a view" );
+				}
+			} );
+			fail( "Expected exception" );
+		}
+		catch( UCMException e )
+		{
+			assertEquals( "Not a view", e.getMessage() );
+		}
+	}
+
+	public void testProbeFromHealthyGuard() throws Exception
+	{
+		UCMOperation<Boolean> ok = new UCMOperation<Boolean>()
+		{
+			public Boolean perform()
+			{
+				return true;
+			}
+		};
+
+		try
+		{
+			CircuitBreaker.vobs.setSettings( 2, 0 );
+			UCMGuard guard = new UCMGuard( "job::4" );
+			guard.read( "\\probe_pvob", ok );
+
+			/* Another build fails, the breaker opens and half opens at once */
+			CircuitBreaker.vobs.failure( "\\probe_pvob" );
+			CircuitBreaker.vobs.failure( "\\probe_pvob" );
+			assertEquals( CircuitBreaker.State.OPEN, CircuitBreaker.vobs.getState( "\\probe_pvob" ) );
+
+			/* The probe succeeds in the guard, which already succeeded */
+			guard.read( "\\probe_pvob", ok );
+			assertEquals( CircuitBreaker.State.CLOSED, CircuitBreaker.vobs.getState( "\\probe_pvob" ) );
+
+			/* A success between failures resets the count */
+			CircuitBreaker.vobs.failure( "\\probe_pvob" );
+			guard.write( "\\probe_pvob", ok );
+			CircuitBreaker.vobs.failure( "\\probe_pvob" );
+			assertEquals( CircuitBreaker.State.CLOSED, CircuitBreaker.vobs.getState( "\\probe_pvob" ) );
+		}
+		finally
+		{
+			CircuitBreaker.vobs.setSettings( 5, 300000 );
+			CircuitBreaker.vobs.success( "\\probe_pvob" );
+		}
+	}
+
+	/**
+	 * A process, which only records that it was killed
+	 */
+	private static class SimulatedProcess extends Process
+	{
+		boolean destroyed = false;
+
+		public OutputStream getOutputStream()
+		{
+			return new ByteArrayOutputStream();
+		}
+
+		public InputStream getInputStream()
+		{
+			return new ByteArrayInputStream( new byte[0] );
+		}
+
+		public InputStream getErrorStream()
+		{
+			return new ByteArrayInputStream( new byte[0] );
+		}
+
+		public int waitFor()
+		{
+			return 0;
+		}
+
+		public int exitValue()
+		{
+			return 0;
+		}
+
+		public void destroy()
+		{
+			destroyed = true;
+		}
+	}
+
+	public void testKillsOnlyItsOwnProcesses() throws Exception
+	{
+		final SimulatedProcess own = new SimulatedProcess();
+		final SimulatedProcess other = new SimulatedProcess();
+
+		/* A process started outside the operation, such as by another build on the node */
+		UCMGuard.register( other );
+
+		UCMGuard guard = new UCMGuard( "job::5" ).setTimeouts( 100, 100 );
+		try
+		{
+			guard.view( new UCMOperation<Boolean>()
+			{
+				public Boolean perform() throws UCMException
+				{
+					UCMGuard.register( own );
+					try
+					{
+						Thread.sleep( 10000 );
+					}
+					catch( InterruptedException e )
+					{
+						/* Abandoned */
+					}
+					return true;
+				}
+			} );
+			fail( "Expected timeout" );
+		}
+		catch( UCMTimeoutException e )
+		{
+			assertTrue( own.destroyed );
+			assertFalse( other.destroyed );
+		}
+	}
+}